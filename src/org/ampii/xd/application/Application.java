@@ -7,9 +7,9 @@ import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.abstractions.AbstractData;
 import org.ampii.xd.database.DataStore;
 import org.ampii.xd.bacnet.BACnetManager;
-import org.ampii.xd.managers.ClientManager;
 import org.ampii.xd.managers.InfoManager;
-import org.ampii.xd.managers.MultiManager;
+import org.ampii.xd.managers.LogBufferManager;
+import org.ampii.xd.managers.ScheduleManager;
 import org.ampii.xd.managers.SubsManager;
 import org.ampii.xd.security.AuthManager;
 import org.ampii.xd.server.Server;
@@ -64,8 +64,20 @@ public class Application {
     public static int     maxPopulateDepth = 51;   // resource-protecting max depth for populate() to create
     public static int     maxPopulateCount = 1001; // resource-protecting max count of data items for populate() to create
     public static int     multiWatchInterval = 1000; // millis
+    public static int     multiThreads = Runtime.getRuntime().availableProcessors(); // size of the pool that evaluates long /.multi lists in parallel
     public static int     clientWatchInterval = 5000; // millis
+    public static int     clientConnectTimeout = 10000; // millis, for outgoing HTTP connections (see HttpClient)
+    public static int     clientReadTimeout = 30000; // millis, waiting for any part of a response
+    public static int     clientKeepAlive = 30000; // millis an idle outgoing connection is kept for reuse
+    public static int     clientPollThreads = 4; // how many /client sources can be polled at once
+    public static int     generateParallelThreshold = 64; // a collection with at least this many children has them generated in parallel, in GET responses (0 disables)
+    public static int     generateThreads = Runtime.getRuntime().availableProcessors(); // size of the pool that does that (1 disables)
+    public static int     responseCacheSize = 8*1024*1024; // bytes of GET responses kept for reuse by identical GETs (0 disables; see ResponseCache)
+    public static int     responseCacheMaxEntry = 512*1024; // bytes; a response bigger than this isn't worth pushing everything else out for
     public static int     subsWatchInterval = 1000; // millis
+    public static int     scheduleTickInterval = 100; // millis, resolution of ScheduleManager's timer wheel
+    public static int     subsStreamHeartbeat = 15000; // millis between keep-alive comments on an idle /.subs/{id}/stream
+    public static int     subsStreamBacklog = 100; // number of recent events kept per subscription for Last-Event-ID resume
     public static int     sessionTimeout = 3600;  // seconds
     public static int     acquireDatabaseTimeout = 10000; // millies  // no operation should take more than 10 seconds, or a "severe error" will be logged!
     public static int     thisDeviceInstance = 657780; // the instance of ".this" BACnet device (65 77 80 in ASCII is "AMP" :-)
@@ -177,6 +189,27 @@ public class Application {
                     case "--testStopOnFailure":
                         testStopOnFailure = Boolean.parseBoolean(args[++i]);
                         break;
+                    case "--clientConnectTimeout":
+                        clientConnectTimeout = Integer.parseInt(args[++i]);
+                        break;
+                    case "--generateParallelThreshold":
+                        generateParallelThreshold = Integer.parseInt(args[++i]);
+                        break;
+                    case "--multiThreads":
+                        multiThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--generateThreads":
+                        generateThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--responseCacheSize":
+                        responseCacheSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--responseCacheMaxEntry":
+                        responseCacheMaxEntry = Integer.parseInt(args[++i]);
+                        break;
+                    case "--clientReadTimeout":
+                        clientReadTimeout = Integer.parseInt(args[++i]);
+                        break;
                     case "--acquireDatabaseTimeout":
                         acquireDatabaseTimeout = Integer.parseInt(args[++i]);
                         break;
@@ -222,6 +255,7 @@ public class Application {
         Log.initialize(useDatedLogFiles, logDir, logFileGeneral, logLevelGeneral, logFileHttp, logLevelHttp);
         long start = new GregorianCalendar().getTimeInMillis();
         //
+        LogBufferManager.init(); // before the datastore is loaded, so it can take the records of any log buffers in it
         DataStore.initialize(locale, configFile);
         //
         Server.startTcp();  // starts http on TCP.  http on TLS is started by TLS.activate()
@@ -236,9 +270,8 @@ public class Application {
         if (Server.getTcpServerFailure() != null) throw new Exception("Http failed to start:"+Server.getTcpServerFailure().getLocalizedMessage());
         if (Server.getTlsServerFailure() != null) throw new Exception("Https failed to start:"+Server.getTlsServerFailure().getLocalizedMessage());
         //
+        ScheduleManager.start(); // start the shared timer thread for subs, multi, and client record lifetimes and polling
         SubsManager.start();   // start the background task to watch subscriptions
-        MultiManager.start();  // start the background task to watch multi records
-        ClientManager.start(); // start the background task to watch client records
         BACnetManager.initializeSystemDeviceFromFile(new File(deviceFile));   // set up the ".this" BACnet Device object
         InfoManager.init();    // set "/.info" info
         if (trustAllCertificates) Client.enableTrustAll();
@@ -255,7 +288,7 @@ public class Application {
         //Server.stopTcp();  // starts http on TCP.  http on TLS is started by TLS.activate()
         //Server.stopTls();  // starts http on TCP.  http on TLS is started by TLS.activate()
         //SubsManager.stop();
-        //MultiManager.stop();
+        //ScheduleManager.stop();
     }
 
     ///////////////////////////////////////////////////////////////////////
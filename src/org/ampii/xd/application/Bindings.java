@@ -33,6 +33,8 @@ public class Bindings {
     public static final String ROOT_MULTI       = "multi";
     public static final String ROOT_SUBS        = "subs";
     public static final String DATA_HISTORIES   = "histories";
+    public static final String DATA_LOG_BUFFER  = "log-buffer";
+    public static final String INFO_LOG_BUFFERS = "log-buffers";
     public static final String DATA_EVENTS      = "events";
     public static final String DATA_NODES       = "nodes";
     public static final String DATA_OBJECTS     = "objects";
@@ -50,6 +52,8 @@ public class Bindings {
             case ROOT_MULTI:       return MultiManager.getBinding();
             case ROOT_SUBS:        return SubsManager.getBinding();
             case DATA_HISTORIES:   return IndexManager.getHistoriesBinding();
+            case DATA_LOG_BUFFER:  return LogBufferManager.getBinding(data);
+            case INFO_LOG_BUFFERS: return LogBufferManager.getInfoBinding();
             case DATA_EVENTS:      return IndexManager.getEventsBinding();
             case DATA_NODES:       return IndexManager.getNodesBinding();
             case DATA_OBJECTS:     return IndexManager.getObjectsBinding();
@@ -67,6 +71,7 @@ public class Bindings {
      *
      */
     public static class LargeValueBinding extends DefaultBinding { // default large value binding
+        @Override public Long getCacheTime(Data data) { return CACHE_WHILE_UNCHANGED; } // it only truncates what's committed
         @Override public String getContextualizedValue(Data data) throws XDException {
             return data.getContext().isTarget(data)? data.getContext().makeContextualizedValue(data) :  ""; // truncate value when not top
         }
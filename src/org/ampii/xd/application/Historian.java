@@ -3,8 +3,6 @@ package org.ampii.xd.application;
 
 import org.ampii.xd.application.hooks.HistoryHooks;
 import org.ampii.xd.bindings.Binding;
-import org.ampii.xd.common.Errors;
-import org.ampii.xd.common.XDError;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.Data;
 import org.ampii.xd.data.Meta;
@@ -76,38 +74,7 @@ public class Historian {
 
 
     private static String defaultComputeHistoryPeriodic(Data buffer, Calendar start, int period, int count, PeriodMethod method) throws XDException {
-        StringBuilder results = new StringBuilder();
-        for (int i = 0; i < count; i++) {
-            results.append(defaultComputeOneInterval(buffer, start, period, method) + "\n");
-            switch (period) {
-                case PERIOD_MONTH: start.add(Calendar.MONTH,1); break;
-                case PERIOD_YEAR:  start.add(Calendar.YEAR,1);  break;
-                default:           start.add(Calendar.SECOND,period);
-            }
-        }
-        return results.toString();
-    }
-
-    private static String defaultComputeOneInterval(Data buffer, Calendar start, int period, PeriodMethod method) throws XDException {
-        // TODO make a better a simulation for this based on actual trend record data!
-        switch(method) {
-            case FAKE:
-                return String.valueOf(start.getTimeInMillis()/1000); // generate fake data for testing
-            case INTERPOLATION:
-            case AVERAGE:
-            case MINIMUM:
-            case MAXIMUM:
-            case AFTER:
-            case BEFORE:
-            case CLOSEST:
-            case DEFAULT:
-            case ENDING_AVERAGE:
-            case ENDING_MINIMUM:
-            case ENDING_MAXIMUM:
-                return "? " + Errors.ARG_NOT_SUPPORTED + " method not implemented";
-            default:
-                throw new XDError("The method for computeOneInterval() is not a valid enum value");// internal error - should have been caught earlier
-        }
+        return HistoryAggregator.compute(buffer.getChildren().iterator(), start, period, count, method);
     }
 
 }
@@ -0,0 +1,278 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.application;
+
+import org.ampii.xd.application.Historian.PeriodMethod;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.data.DataList;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Calendar;
+import java.util.Iterator;
+
+/**
+ * Computes the results of historyPeriodic() from log records, used by {@link Historian} when no hook or binding does
+ * it for itself. Bindings that have their own records can use it too, see {@link #compute}.
+ * <p>
+ * The records are taken one at a time, in timestamp order, and all 'count' results are computed in that one pass, so
+ * the records don't have to be in memory all at once. Once the last result is known, no more records are asked for.
+ * The periodic times are all worked out up front, so month and year periods always count from the start (Jan 31 plus
+ * two months is Mar 31, not Mar 28).
+ * <p>
+ * The methods work as follows, where "the time" is the periodic time for a result and "the period" is from the time up
+ * to, but not including, the next one (or for the ending-* methods, from after the previous time up to and including
+ * the time):
+ * <pre>
+ *     before          the last value at or before the time
+ *     after           the first value at or after the time
+ *     closest         whichever of those is closer to the time (before, if they're equally close)
+ *     interpolation   linear interpolation between before and after (also used for "default")
+ *     average         the average of the values in the period
+ *     minimum/maximum the smallest/largest value in the period
+ * </pre>
+ * Only records with a numeric or boolean log-datum are values, the rest (log-status, time-change, failure, etc.) are
+ * ignored, as is any record older than the one before it. A result with no value is an empty line.
+ * <p>
+ * Sources that keep their own rollups (counts, sums, etc. for fixed buckets of time) can give a whole bucket at once as
+ * a {@link Run}, rather than every value in it, as long as the bucket doesn't cross a {@link #getBoundary boundary}.
+ *
+ * @author daverobin
+ */
+public class HistoryAggregator {
+
+    private final PeriodMethod method;
+    private final int          count;
+    private final long[]       times;    // times[k] is the periodic time for result k-1, so there's one extra at each end
+    private final String[]     results;
+    private int                next;     // the first result that isn't done yet
+
+    // the most recent value, for the point methods (before, after, closest, interpolation)
+    private boolean            haveLast;
+    private long               lastTime;
+    private double             lastNumber;
+    private String             lastText;
+
+    // the values so far in the current period, for the period methods (average, minimum, maximum)
+    private int                n;
+    private double             sum;
+    private double             min, max;
+    private String             minText, maxText;
+
+    /**
+     * A run of values summarized: how many, their sum, the smallest and largest, and the first and last with their times.
+     * The texts are what is returned if the value is itself a result, as for {@link #accept(long, double, String)}.
+     */
+    public static class Run {
+        public int    count;
+        public double sum;
+        public double min, max;
+        public String minText, maxText;
+        public long   firstTime, lastTime;
+        public double first, last;
+        public String firstText, lastText;
+    }
+
+    public HistoryAggregator(Calendar start, int period, int count, PeriodMethod method) {
+        this.method  = method;
+        this.count   = Math.max(count, 0);
+        this.results = new String[this.count];
+        this.times   = new long[this.count + 2];
+        for (int k = 0; k < times.length; k++) {
+            switch (period) {
+                case Historian.PERIOD_MONTH:
+                case Historian.PERIOD_YEAR:
+                    Calendar time = (Calendar)start.clone();
+                    time.add(period == Historian.PERIOD_MONTH ? Calendar.MONTH : Calendar.YEAR, k - 1);
+                    times[k] = time.getTimeInMillis();
+                    break;
+                default:
+                    times[k] = start.getTimeInMillis() + (k - 1) * period * 1000L;
+            }
+        }
+    }
+
+    /**
+     * Computes all the results from the records, which should be in timestamp order, and returns them one per line.
+     */
+    public static String compute(Iterator<Data> records, Calendar start, int period, int count, PeriodMethod method) throws XDException {
+        HistoryAggregator aggregator = new HistoryAggregator(start, period, count, method);
+        while (aggregator.wantsMore() && records.hasNext()) aggregator.accept(records.next());
+        return aggregator.finish();
+    }
+
+    public boolean wantsMore() { return next < count && method != PeriodMethod.FAKE; }
+
+    // records before the last one at or before this time can't change the results, so sources that can seek can start there
+    public long getEarliestTime() { return times[0]; }
+
+    // the times where one period ends and the next begins, which a Run must not cross: a run must be entirely at or after
+    // one boundary and before the next. For the ending-* methods, these are one millisecond after the periodic times.
+    public int  getBoundaryCount()      { return times.length; }
+    public long getBoundary(int index)  { return times[index] + (isEnding() ? 1 : 0); }
+
+    private boolean isEnding() { return method == PeriodMethod.ENDING_AVERAGE || method == PeriodMethod.ENDING_MINIMUM || method == PeriodMethod.ENDING_MAXIMUM; }
+
+    /**
+     * Takes the next log record, ignoring it if it isn't a value. Returns {@link #wantsMore}.
+     */
+    public boolean accept(Data record) throws XDException {
+        Data timestamp = record.find("timestamp");
+        Data datum     = record.find("log-datum");
+        if (timestamp == null || datum == null || !timestamp.hasValue()) return wantsMore();
+        DataList choice = datum.getChildren();
+        if (choice.isEmpty()) return wantsMore();
+        Data value = choice.get(0);
+        switch (value.getName()) {
+            case "real-value":
+            case "unsigned-value":
+            case "integer-value":
+            case "enumerated-value":
+                try { return accept(timestamp.calendarValue().getTimeInMillis(), Double.parseDouble(value.stringValue()), value.stringValue()); }
+                catch (NumberFormatException e) { return wantsMore(); }
+            case "boolean-value":
+                return accept(timestamp.calendarValue().getTimeInMillis(), value.booleanValue() ? 1 : 0, value.stringValue());
+            default:
+                return wantsMore(); // log-status, time-change, failure, etc. are not values
+        }
+    }
+
+    /**
+     * Takes the next value. 'text' is what is returned if this value is itself a result (e.g., for before or minimum).
+     */
+    public boolean accept(long time, double number, String text) {
+        if (!wantsMore()) return false;
+        if (haveLast && time < lastTime) return true; // out of order, e.g., after a time change
+        switch (method) {
+            case AVERAGE:
+            case MINIMUM:
+            case MAXIMUM:
+                while (next < count && time >= at(next + 1)) finishPeriod();
+                if (next < count && time >= at(next)) add(number, text);
+                break;
+            case ENDING_AVERAGE:
+            case ENDING_MINIMUM:
+            case ENDING_MAXIMUM:
+                while (next < count && time > at(next)) finishPeriod();
+                if (next < count && time > at(next - 1)) add(number, text);
+                break;
+            default:
+                while (next < count && time > at(next)) finishPoint(true, time, number, text);
+                break;
+        }
+        haveLast   = true;
+        lastTime   = time;
+        lastNumber = number;
+        lastText   = text;
+        return wantsMore();
+    }
+
+    /**
+     * Takes a run of values that doesn't cross a boundary, in place of taking each of them. Returns {@link #wantsMore}.
+     */
+    public boolean accept(Run run) {
+        if (!wantsMore() || run.count == 0) return wantsMore();
+        if (haveLast && run.firstTime < lastTime) return true; // out of order
+        switch (method) {
+            case AVERAGE:
+            case MINIMUM:
+            case MAXIMUM:
+                while (next < count && run.firstTime >= at(next + 1)) finishPeriod();
+                if (next < count && run.firstTime >= at(next)) add(run);
+                break;
+            case ENDING_AVERAGE:
+            case ENDING_MINIMUM:
+            case ENDING_MAXIMUM:
+                while (next < count && run.firstTime > at(next)) finishPeriod();
+                if (next < count && run.firstTime > at(next - 1)) add(run);
+                break;
+            default: // only the ends of the run can be before or after a periodic time
+                accept(run.firstTime, run.first, run.firstText);
+                if (run.count > 1) accept(run.lastTime, run.last, run.lastText);
+                return wantsMore();
+        }
+        haveLast   = true;
+        lastTime   = run.lastTime;
+        lastNumber = run.last;
+        lastText   = run.lastText;
+        return wantsMore();
+    }
+
+    /**
+     * Finishes whatever results are left with what has been seen so far and returns all the results, one per line.
+     */
+    public String finish() {
+        if (method == PeriodMethod.FAKE) for (; next < count; next++) results[next] = String.valueOf(at(next) / 1000); // fake data for testing
+        while (next < count) {
+            switch (method) {
+                case AVERAGE: case MINIMUM: case MAXIMUM: case ENDING_AVERAGE: case ENDING_MINIMUM: case ENDING_MAXIMUM:
+                    finishPeriod();
+                    break;
+                default:
+                    finishPoint(false, 0, 0, null);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String result : results) builder.append(result).append('\n');
+        return builder.toString();
+    }
+
+    private long at(int result) { return times[result + 1]; }
+
+    ////////////////// the period methods //////////////
+
+    private void add(double number, String text) {
+        if (n == 0 || number < min) { min = number; minText = text; }
+        if (n == 0 || number > max) { max = number; maxText = text; }
+        sum += number;
+        n++;
+    }
+
+    private void add(Run run) {
+        if (n == 0 || run.min < min) { min = run.min; minText = run.minText; }
+        if (n == 0 || run.max > max) { max = run.max; maxText = run.maxText; }
+        sum += run.sum;
+        n   += run.count;
+    }
+
+    private void finishPeriod() {
+        if (n == 0) results[next] = "";
+        else switch (method) {
+            case AVERAGE: case ENDING_AVERAGE: results[next] = format(sum / n); break;
+            case MINIMUM: case ENDING_MINIMUM: results[next] = minText;         break;
+            default:                           results[next] = maxText;         break;
+        }
+        next++;
+        n   = 0;
+        sum = 0;
+    }
+
+    ////////////////// the point methods //////////////
+
+    private void finishPoint(boolean haveAfter, long afterTime, double afterNumber, String afterText) {
+        long time = at(next);
+        String result = "";
+        if (haveLast && lastTime == time) result = lastText; // right on the time, so it's the answer for all of them
+        else switch (method) {
+            case BEFORE:
+                if (haveLast) result = lastText;
+                break;
+            case AFTER:
+                if (haveAfter) result = afterText;
+                break;
+            case CLOSEST:
+                if (haveLast && (!haveAfter || time - lastTime <= afterTime - time)) result = lastText;
+                else if (haveAfter) result = afterText;
+                break;
+            default: // INTERPOLATION, DEFAULT
+                if (haveLast && haveAfter) result = format(lastNumber + (afterNumber - lastNumber) * (time - lastTime) / (afterTime - lastTime));
+                break;
+        }
+        results[next++] = result;
+    }
+
+    private static String format(double number) { // without the floating point noise, e.g., 75.15 rather than 75.15000000000001
+        if (Double.isNaN(number) || Double.isInfinite(number)) return String.valueOf(number);
+        return new BigDecimal(number).round(new MathContext(15)).stripTrailingZeros().toPlainString();
+    }
+
+}
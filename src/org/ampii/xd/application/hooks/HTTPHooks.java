@@ -3,6 +3,7 @@ package org.ampii.xd.application.hooks;
 
 import org.ampii.xd.application.Application;
 import org.ampii.xd.common.XDException;
+import org.ampii.xd.managers.SubsManager;
 import org.ampii.xd.security.AuthorizationServer;
 import org.ampii.xd.server.Request;
 import org.ampii.xd.server.Response;
@@ -36,6 +37,7 @@ public class HTTPHooks {
             case "GET":
                 if (request.path.equals("/.well-known/ashrae"))                      return Server.generateWellknownAshraeResponse();
                 if (request.path.equals(Application.dataPrefix +"/.auth/int/token")) return AuthorizationServer.get(request);
+                if (SubsManager.isStreamPath(request.path))                          return SubsManager.openStream(request);
             case "POST":
                 if (request.path.equals("/ui/rpc")) return Playground.rpc(request);
                 if (request.path.equals(Application.dataPrefix +"/.auth/int/token")) return AuthorizationServer.post(request);
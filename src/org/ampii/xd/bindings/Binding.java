@@ -5,6 +5,7 @@ import org.ampii.xd.application.Historian.PeriodMethod;
 import org.ampii.xd.application.Policy;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.*;
+import org.ampii.xd.marshallers.JSONReader;
 import java.util.Calendar;
 
 /**
@@ -16,9 +17,16 @@ import java.util.Calendar;
  * @author daverobin
  */
 public interface Binding {
+
+    // for getCacheTime(): a GET response that used this binding can be reused...
+    long CACHE_WHILE_UNCHANGED       = 0;   // ...until something is committed to the bound item or below (i.e., it only reflects committed data)
+    long CACHE_WHILE_STORE_UNCHANGED = -1;  // ...until anything at all is committed to the DataStore (e.g., indexes of the whole store)
+                                            // ...and a positive number is a time to live, in milliseconds
+
     void         preread(Data target)                   throws XDException;
     Data         prefind(Data target, String name)      throws XDException;
     Data         prepost(Data target, Data given)       throws XDException;
+    Data         prepost(Data target, JSONReader given) throws XDException; // POSTed JSON, as it's read; return null to have it parsed from the start and given to prepost() as usual (changes made first are undone)
     boolean      commit(Data target)                    throws XDException;
     boolean      discard(Data target);
     Policy       getPolicy();                           // the DefaultBinding returns a very restrictive Policy that doesn't allow creating any metadata. Override if you do allow.
@@ -29,4 +37,5 @@ public interface Binding {
     String       getContextualizedValue(Data target)    throws XDException; // only used by GET alt=plain with skip & max-results, for Strings and OctetStrings
     Data         findHistoryLogBuffer(Data data);       // return null if no history is available
     String       computeHistoryPeriodic(Data data, Calendar start, int period, int count, PeriodMethod method) throws XDException; // return null if no history is available
+    Long         getCacheTime(Data target);             // one of the CACHE_XXX constants, a time to live, or null if responses using this can't be reused (see ResponseCache)
 }
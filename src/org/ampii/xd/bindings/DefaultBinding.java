@@ -5,6 +5,7 @@ import org.ampii.xd.application.Historian.PeriodMethod;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.Data;
 import org.ampii.xd.data.DataList;
+import org.ampii.xd.marshallers.JSONReader;
 import org.ampii.xd.application.Policy;
 
 import java.util.Calendar;
@@ -16,7 +17,8 @@ import java.util.Calendar;
  * Extending this base class can simplify your code because you only need to override the methods that you need.
  * <p>
  * Note that the DefaultBinding returns a very restrictive {@link Policy} that doesn't allow storing any metadata.
- * Override if you <i>do</i> allow it.
+ * Override if you <i>do</i> allow it. Likewise, it says that responses that used it can't be cached; override
+ * getCacheTime() if they can.
  *
  * @author daverobin
  */
@@ -24,6 +26,7 @@ public class DefaultBinding implements Binding {
     @Override public void         preread(Data target)                 throws XDException { }
     @Override public Data         prefind(Data target, String name)    throws XDException { return null;  }  // non-null = "use this"; else look for it with findLocal()
     @Override public Data         prepost(Data target, Data given)     throws XDException { return given; }
+    @Override public Data         prepost(Data target, JSONReader given) throws XDException { return null; } // null = "parse it and call the other one"
     @Override public boolean      commit(Data target)                  throws XDException { return false; } // false = "I didn't handle it"
     @Override public boolean      discard(Data target)                                    { return false; } // false = "I didn't handle it"
     @Override public DataList     getContextualizedChildren(Data data) throws XDException { return null;  }  // null means filter the local children
@@ -34,4 +37,5 @@ public class DefaultBinding implements Binding {
     @Override public Integer      getTotalLength()                                        { return null;  }
     @Override public Data         findHistoryLogBuffer(Data data)                         { return null;  }
     @Override public String       computeHistoryPeriodic(Data data, Calendar start, int period, int count, PeriodMethod method)  throws XDException { return null; }
+    @Override public Long         getCacheTime(Data target)                               { return null;  }  // null = "live data, don't reuse responses"
 }
@@ -11,15 +11,12 @@ import org.ampii.xd.marshallers.*;
 import org.ampii.xd.server.HTTP;
 import org.ampii.xd.server.Request;
 import org.ampii.xd.server.Server;
-import org.ampii.xd.test.TestException;
 
 import javax.net.ssl.*;
 import java.io.*;
-import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Home for some basic client-side helpers.
@@ -43,47 +40,32 @@ public class Client {
         return (request.isTLS ? Server.getHttpsBaseServerURI() : Server.getHttpBaseServerURI()) + request.path + "?" + HTTP.encodeParameters(newPars);
     }
 
-    public static void doCallback(String url, String body, String contentType) throws XDException { // used by SubsManager
-        int responseCode = -1;
-        try {
-            Log.logFine("Client Callback: callback start");
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setDoOutput(true);
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", contentType);
-            connection.setRequestProperty("Accept", contentType);
-
-            OutputStream os = connection.getOutputStream();
-            PrintWriter  writer = new PrintWriter(os);
-            writer.write(body);
-            writer.flush();
-            os.flush();
+    public static String makeNextPointer(Context context, String lastKey, int position) throws XDException {
+        // a client that is paging with 'skip' keeps doing that, otherwise the next page resumes after the last child on this one
+        Request request = context.getRequest();
+        if (request == null) throw new XDError("Can't create a $next pointer without a valid Request Context");
+        if (request.parameters.containsKey("skip")) return makeSimpleNextPointer(context);
+        int newMaxResults = context.getMaxResults();
+        if (newMaxResults == 0) newMaxResults = 1;
+        Map<String, String> newPars = new HashMap<>(request.parameters);
+        newPars.put("cursor", Context.makeCursor(lastKey, position));
+        newPars.put("max-results", String.valueOf(newMaxResults));
+        return (request.isTLS ? Server.getHttpsBaseServerURI() : Server.getHttpBaseServerURI()) + request.path + "?" + HTTP.encodeParameters(newPars);
+    }
 
-            try { responseCode = connection.getResponseCode(); }
-            catch (IOException e) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader, null, null, 0, null).stringValue();
-                String failure = "Client doCallback() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
-                Log.logInfo(failure);
-                throw new XDException(Errors.CALLBACK_FAILED,failure);
-            }
-            responseCode = connection.getResponseCode();
-            if (responseCode < 200 || responseCode > 299) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader, null, null, 0, null).stringValue();
-                String failure = "Client doCallback() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
+    public static void doCallback(String url, String body, String contentType) throws XDException { // used by SubsManager
+        Log.logFine("Client Callback: callback start");
+        Map<String,String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", contentType);
+        headers.put("Accept", contentType);
+        try (HttpClient.Response response = HttpClient.send("POST", url, headers, body.getBytes(StandardCharsets.UTF_8))) {
+            if (response.status < 200 || response.status > 299) {
+                String text = response.getText();
+                String failure = "Client doCallback() failed with HTTP response: "+response.status+" "+response.reason+"\n"+text;
                 Log.logInfo(failure);
-                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure,response);
+                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure,text);
             }
-
-            Log.logFine("Client Callback: client finished with response code "+responseCode);
-            connection.disconnect();
+            Log.logFine("Client Callback: client finished with response code "+response.status);
         }
         catch (IOException e) {
             Log.logFine("Client Callback: callback failed: "+e.getMessage());
@@ -93,55 +75,55 @@ public class Client {
 
     public static Data doHttp(String uri, String method, Data data, String dataPars, String requestText, String alt, String contentType,  Map<String,List<String>> requestHeaders) throws XDException {
         try {
-            HttpURLConnection connection = (HttpURLConnection)new URL(uri).openConnection();
-            connection.setRequestMethod(method);
-            connection.setDoOutput(method.equals("PUT") || method.equals("POST"));
-            connection.setInstanceFollowRedirects(false);
-            if (!contentType.isEmpty()) {
-                connection.setRequestProperty("Content-Type", contentType);
-                if (method.equals("GET")) connection.setRequestProperty("Accept", contentType);
-            }
-            if (requestHeaders != null) {
-                for (Map.Entry<String,List<String>> entry : requestHeaders.entrySet()) {
-                    List<String> list = entry.getValue();
-                    for (String value : list) connection.setRequestProperty(entry.getKey(), value);
-                }
-            }
+            Map<String,String> headers = makeHeaders(method, contentType, requestHeaders);
+            byte[] body = null;
             if (method.equals("PUT")|| method.equals("POST")) {
                 if (data!=null) data.setContext(new Context("Client.doHttp()",dataPars));
-                OutputStream os = connection.getOutputStream();
-                PrintWriter  writer = new PrintWriter(os);
-                if (requestText != null) writer.print(requestText); // requestText overrides data
-                else if (alt.equals("json"))  new JSONGenerator().generate(writer,data);
-                else if (alt.equals("xml"))   new XMLGenerator().generate(writer,data);
-                else if (alt.equals("plain")) new PlainGenerator().generate(writer,data);
-                else throw new XDError("Client.doHttp() given bad alt and no requestText has been set");
-                writer.flush();
-                os.flush();
+                body = makeBody(data, requestText, alt);
+            }
+            try (HttpClient.Response response = HttpClient.send(method, uri, headers, body)) {
+                // on failure, throw
+                if (response.status > 400) throw new XDException(Errors.CLIENT_ACTION_FAILED, "Client received HTTP status "+response.status+" with body:"+response.getText());
+                // else cross fingers... and parse the body as it arrives, if we know what it is
+                String format = response.getFormat();
+                Data parsed = format.equals("plain") ? DataParser.parse(response.getText()) : format.equals("cbor") ? DataParser.parse(response.getBytes(), format) : DataParser.parse(response.getReader(), format);
+                return data.put(parsed);
             }
-            //
-            int responseCode = connection.getResponseCode();     // causes the GET/PUT/POST/DELETE to happen!
-            //
-            Map<String,List<String>> responseHeaders = connection.getHeaderFields();
-            InputStream responseStream = null;
-            String responseText;
-            if (responseCode >=200 && responseCode <= 399) responseStream = connection.getInputStream();
-            else                                           responseStream = connection.getErrorStream();
-            if (responseStream != null) responseText = new PlainParser().parse(new InputStreamReader(responseStream),null,null,0,null).stringValue(); // a bit of a convoluted way to getText(stream), but saves recreating that code here
-            else responseText = "";
-            connection.disconnect();
-            //
-            // on failure, throw
-            if (responseCode > 400) throw new XDException(Errors.CLIENT_ACTION_FAILED, "Client received HTTP status "+responseCode+" with body:"+responseText);
-            // else cross fingers...
-            Data parsed = DataParser.parse(responseText);
-            return data.put(parsed);
         }
         catch (Exception e ) {
             throw new XDException(Errors.CLIENT_ACTION_FAILED, "Client.doHttp(): " + e + ":" + e.getLocalizedMessage());
         }
     }
 
+    public static Map<String,String> makeHeaders(String method, String contentType, Map<String,List<String>> requestHeaders) { // later ones replace earlier ones
+        Map<String,String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (!contentType.isEmpty()) {
+            headers.put("Content-Type", contentType);
+            if (method.equals("GET")) headers.put("Accept", contentType);
+        }
+        if (requestHeaders != null) {
+            for (Map.Entry<String,List<String>> entry : requestHeaders.entrySet()) {
+                List<String> list = entry.getValue();
+                for (String value : list) headers.put(entry.getKey(), value);
+            }
+        }
+        return headers;
+    }
+
+    public static byte[] makeBody(Data data, String requestText, String alt) throws XDException {
+        if (requestText == null && alt.equals("json")) return new JSONGenerator().generate(data); // no need to go through a writer
+        if (requestText == null && alt.equals("cbor")) return new CBORGenerator().generate(data);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        if (requestText != null) writer.print(requestText); // requestText overrides data
+        else if (alt.equals("json"))  new JSONGenerator().generate(writer,data);
+        else if (alt.equals("xml"))   new XMLGenerator().generate(writer,data);
+        else if (alt.equals("plain")) new PlainGenerator().generate(writer,data);
+        else throw new XDError("Client.doHttp() given bad alt and no requestText has been set");
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
     public static void enableTrustAll() throws Exception {
         SSLContext sc = SSLContext.getInstance("TLS");
         sc.init(null, new TrustManager[] { new TrustAllX509TrustManager() }, new java.security.SecureRandom());
@@ -157,181 +139,4 @@ public class Client {
         public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
     }
 
-
-    // The following client methods have been commented out because their code is now outdated and there is no usage for
-    // them in the current codebase.
-    // The Test.java contains client methods but those are dedicated/tailored to the Test environment.
-    // But they could be used as guidance for recreating these general purpose client methods in the future.
-    /*
-    public static void getData(String uri, Data target, String contentType, Data headers) throws XDException {
-        int responseCode = -1;
-        Data result;
-        try {
-            Log.logFine("Client: getData at " + uri);
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
-            connection.setDoOutput(false); // it's input
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Content-Type", contentType);
-            connection.setRequestProperty("Accept", contentType);
-
-            if (headers != null) for (Data header : headers.getChildren()) connection.setRequestProperty(header.getName(),header.stringValue());
-
-            responseCode = connection.getResponseCode();
-
-            if (responseCode < 200 || responseCode > 299) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader, null, null, 0, null).stringValue();
-                String failure = "Client getData() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
-                Log.logInfo(failure);
-                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure,response);
-            }
-
-            Context context = new Context("Client.getData("+uri+")");
-            InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-            String alt = contentType.contains("json")? "json" : contentType.contains("xml")? "xml" : "plain";
-            target.put(DataParser.parse(reader,alt));
-            connection.disconnect();
-        }
-        catch (IOException e) {
-            String failure = "Client getData() failed with IOException: " + e.getMessage();
-            Log.logInfo(failure);
-            throw new XDException(Errors.CLIENT_ACTION_FAILED, failure);
-        }
-    }
-
-    public static void putData(String uri, Data data, String contentType, Data headers) throws XDException {
-        int responseCode = -1;
-        try {
-            Log.logFine("Client: put to " + uri);
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
-            connection.setDoOutput(true); // it's output
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("PUT");
-            connection.setRequestProperty("Content-Type", contentType);
-            if (headers != null) for (Data header : headers.getChildren()) connection.setRequestProperty(header.getName(),header.stringValue());
-
-            OutputStream os = connection.getOutputStream();
-            PrintWriter  writer = new PrintWriter(os);
-            if (contentType.contains("json")) {
-                JSONGenerator generator = new JSONGenerator();
-                generator.generate(writer,data);
-            }
-            else if (contentType.contains("xml")) {
-                XMLGenerator generator = new XMLGenerator();
-                generator.generate(writer,data);
-            }
-            else  {
-                PlainGenerator generator = new PlainGenerator();
-                generator.generate(writer,data);
-            }
-            writer.flush();
-            os.flush();
-
-            responseCode = connection.getResponseCode();
-
-            if (responseCode < 200 || responseCode > 299) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader, null, null, 0, null).stringValue();
-                String failure = "Client put() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
-                Log.logInfo(failure);
-                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure);
-            }
-            connection.disconnect();
-        }
-        catch (IOException e) {
-            String failure = "Client put() failed with exception: " + e.getMessage();
-            Log.logInfo(failure);
-            throw new XDException(Errors.CLIENT_ACTION_FAILED, failure);
-        }
-    }
-
-    public static void postData(String uri, Data data, String contentType, Data headers) throws XDException {
-        int responseCode = -1;
-        try {
-            Log.logFine("Client: post to " + uri);
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
-            connection.setDoOutput(true); // it's output
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", contentType);
-            if (headers != null) for (Data header : headers.getChildren()) connection.setRequestProperty(header.getName(),header.stringValue());
-
-            OutputStream os = connection.getOutputStream();
-            PrintWriter  writer = new PrintWriter(os);
-            if (contentType.contains("json")) {
-                JSONGenerator generator = new JSONGenerator();
-                generator.generate(writer,data);
-            }
-            else if (contentType.contains("xml")) {
-                XMLGenerator generator = new XMLGenerator();
-                generator.generate(writer,data);
-            }
-            else  {
-                PlainGenerator generator = new PlainGenerator();
-                generator.generate(writer,data);
-            }
-            writer.flush();
-            os.flush();
-
-            responseCode = connection.getResponseCode();
-
-            if (responseCode < 200 || responseCode > 299) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader, null, null, 0, null).stringValue();
-                String failure = "Client post() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
-                Log.logInfo(failure);
-                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure);
-            }
-            connection.disconnect();
-        }
-        catch (IOException e) {
-            String failure = "Client post() failed with exception: " + e.getMessage();
-            Log.logInfo(failure);
-            throw new XDException(Errors.CLIENT_ACTION_FAILED, failure);
-        }
-    }
-
-    public static void deleteData(String uri, Data headers) throws XDException {
-        int responseCode = -1;
-        try {
-            Log.logFine("Client: deleteData to " + uri);
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
-            connection.setDoOutput(true); // it's output
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("DELETE");
-            if (headers != null) for (Data header : headers.getChildren()) connection.setRequestProperty(header.getName(),header.stringValue());
-
-            responseCode = connection.getResponseCode();
-
-            if (responseCode < 200 || responseCode > 299) {
-                InputStreamReader reader = new InputStreamReader(connection.getErrorStream());
-                PlainParser parser = new PlainParser();
-                String response = parser.parse(reader,null,null,0,null).stringValue();
-                String failure = "Client deleteData() failed with HTTP response: "+responseCode+" "+connection.getResponseMessage()+"\n"+response;
-                connection.disconnect();
-                Log.logInfo(failure);
-                throw new XDException(Errors.CLIENT_ACTION_FAILED,failure);
-            }
-            connection.disconnect();
-        }
-        catch (IOException e) {
-            String failure = "Client deleteData() failed with exception: " + e.getMessage();
-            Log.logInfo(failure);
-            throw new XDException(Errors.CLIENT_ACTION_FAILED, failure);
-        }
-    }
-    */
-
-
 }
@@ -0,0 +1,376 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.client;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.common.Log;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * An HTTP/1.1 client on raw sockets, shared by {@link Client}, the managers that call out, and the test framework.
+ * <p>
+ * Connections are kept open after a response and pooled per scheme, host, and port, so a poller or a run of tests
+ * doesn't pay for a new TCP connection (and TLS handshake) every time. A pooled connection is checked before it's
+ * reused, and a request that fails on a connection that turned out to be stale is tried once more on a new one if it's
+ * safe to repeat. TLS uses the default HttpsURLConnection socket factory and hostname verifier, so whatever
+ * {@link Client#enableTrustAll()} and the test framework set up still applies, and the factory's session cache lets new
+ * connections to the same server resume their TLS session rather than doing a full handshake. A request can be given a
+ * deadline for the whole exchange, so one slow server can't hold up a caller for longer than it's willing to wait.
+ * <p>
+ * The response body is not read until asked for: {@link Response#getBody()} is a stream over just the body (by
+ * Content-Length, chunked, or to the end of the connection) so it can be handed right to a parser. Closing the Response
+ * gives the connection back to the pool if the body was all read and the server didn't say to close it.
+ *
+ * @author daverobin
+ */
+public class HttpClient {
+
+    private static final int MAX_IDLE_PER_HOST = 4;
+    private static final int MAX_DRAIN         = 8192; // bytes of unread body we'll skip over to keep a connection
+
+    private static final Map<String,Deque<Connection>> pools = new HashMap<>(); // "scheme://host:port" -> idle connections, most recent last
+
+    /**
+     * The status, headers, and (streaming) body of a response. Must be closed to release the connection.
+     */
+    public static class Response implements Closeable {
+        public  int                      status;
+        public  String                   reason = "";
+        public  Map<String,List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private Connection               connection;
+        private InputStream              body;
+        private boolean                  reusable;
+
+        public String getHeader(String name, String defaultValue) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? defaultValue : values.get(0);
+        }
+
+        public InputStream getBody() { return body; }
+
+        public Reader getReader() { return new InputStreamReader(body, StandardCharsets.UTF_8); }
+
+        public byte[] getBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = body.read(buffer)) != -1; ) bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        }
+
+        public String getText() throws IOException { return new String(getBytes(), StandardCharsets.UTF_8); }
+
+        public String getFormat() { // "json", "xml", "cbor", or "plain", from the Content-Type
+            String contentType = getHeader("Content-Type", "").toLowerCase();
+            return contentType.contains("json") ? "json" : contentType.contains("xml") ? "xml" : contentType.contains("cbor") ? "cbor" : "plain";
+        }
+
+        @Override public void close() {
+            if (connection == null) return;
+            boolean keep = reusable;
+            try { if (keep) keep = body.skip(MAX_DRAIN) >= 0 && body.read() == -1; } // the rest has to be small enough to skip
+            catch (IOException e) { keep = false; }
+            if (keep) release(connection); else connection.close();
+            connection = null;
+        }
+    }
+
+    ////////////////// Requests //////////////
+
+    public static Response send(String method, String uri, Map<String,String> headers, byte[] body) throws IOException {
+        return send(method, uri, headers, body, 0);
+    }
+
+    /**
+     * Sends a request that has to be done, including reading the body of the response, within 'timeout' millis (0 for
+     * no limit but the usual connect and read timeouts).
+     */
+    public static Response send(String method, String uri, Map<String,String> headers, byte[] body, long timeout) throws IOException {
+        long   deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        URI    target = URI.create(uri);
+        String scheme = target.getScheme() == null ? "http" : target.getScheme().toLowerCase();
+        if (!scheme.equals("http") && !scheme.equals("https")) throw new IOException("Unsupported scheme in '" + uri + "'");
+        String host   = target.getHost();
+        if (host == null) throw new IOException("No host in '" + uri + "'");
+        int    port   = target.getPort() != -1 ? target.getPort() : scheme.equals("https") ? 443 : 80;
+        String key    = scheme + "://" + host + ":" + port;
+        String path   = target.getRawPath() == null || target.getRawPath().isEmpty() ? "/" : target.getRawPath();
+        if (target.getRawQuery() != null) path += "?" + target.getRawQuery();
+        byte[] head   = makeHead(method, path, host, port, scheme, headers, body);
+        boolean repeatable = !method.equals("POST"); // the others are idempotent, so they can be sent again on a new connection
+        for (;;) {
+            Connection connection = acquire(key);
+            boolean    reused     = connection != null;
+            if (!reused) connection = Connection.open(key, scheme, host, port, deadline);
+            connection.deadline = deadline;
+            try { return exchange(connection, method, head, body); }
+            catch (IOException e) {
+                connection.close();
+                if (!reused || !repeatable || connection.received) throw e;
+                Log.logFine("HttpClient: pooled connection to " + key + " was stale, retrying");
+            }
+        }
+    }
+
+    private static byte[] makeHead(String method, String path, String host, int port, String scheme, Map<String,String> headers, byte[] body) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        boolean defaultPort = scheme.equals("http") && port == 80 || scheme.equals("https") && port == 443;
+        builder.append("Host: ").append(host).append(defaultPort ? "" : ":" + port).append("\r\n");
+        if (headers != null) for (Map.Entry<String,String> header : headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase("Host") && !header.getKey().equalsIgnoreCase("Content-Length")) builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body != null) builder.append("Content-Length: ").append(body.length).append("\r\n");
+        builder.append("\r\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Response exchange(Connection connection, String method, byte[] head, byte[] body) throws IOException {
+        connection.received = false;
+        connection.out.write(head);
+        if (body != null) connection.out.write(body);
+        connection.out.flush();
+        Response response = new Response();
+        String   version;
+        do { // skipping any "100 Continue", etc.
+            String statusLine = readLine(connection.in);
+            if (statusLine == null) throw new EOFException("Connection closed before response");
+            connection.received = true;
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) throw new IOException("Bad status line '" + statusLine + "'");
+            version = parts[0];
+            try { response.status = Integer.parseInt(parts[1]); } catch (NumberFormatException e) { throw new IOException("Bad status line '" + statusLine + "'"); }
+            response.reason = parts.length > 2 ? parts[2].trim() : "";
+            response.headers.clear();
+            for (String line = readLine(connection.in); line != null && !line.isEmpty(); line = readLine(connection.in)) {
+                int colon = line.indexOf(':');
+                if (colon != -1) response.headers.computeIfAbsent(line.substring(0, colon).trim(), k -> new ArrayList<>()).add(line.substring(colon + 1).trim());
+            }
+        } while (response.status >= 100 && response.status < 200);
+        String  connectionHeader = response.getHeader("Connection", version.equals("HTTP/1.0") ? "close" : "keep-alive");
+        boolean keepAlive        = !connectionHeader.equalsIgnoreCase("close");
+        String  contentLength    = response.getHeader("Content-Length", null);
+        if (method.equals("HEAD") || response.status == 204 || response.status == 304) response.body = new BoundedInputStream(connection.in, 0);
+        else if (response.getHeader("Transfer-Encoding", "").toLowerCase().contains("chunked")) response.body = new ChunkedInputStream(connection.in);
+        else if (contentLength != null) {
+            try { response.body = new BoundedInputStream(connection.in, Long.parseLong(contentLength.trim())); }
+            catch (NumberFormatException e) { throw new IOException("Bad Content-Length '" + contentLength + "'"); }
+        }
+        else { response.body = connection.in; keepAlive = false; } // it goes to the end of the connection
+        response.connection = connection;
+        response.reusable   = keepAlive;
+        return response;
+    }
+
+    private static String readLine(InputStream in) throws IOException { // header lines are ASCII, ended by CRLF (or just LF)
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); ; c = in.read()) {
+            if (c == -1) return line.length() == 0 ? null : line.toString();
+            if (c == '\n') break;
+            if (c != '\r') line.append((char)c);
+        }
+        return line.toString();
+    }
+
+    ////////////////// Pooling //////////////
+
+    private static Connection acquire(String key) {
+        for (;;) {
+            Connection connection;
+            synchronized (pools) {
+                Deque<Connection> pool = pools.get(key);
+                connection = pool == null ? null : pool.pollLast();
+            }
+            if (connection == null) return null;
+            if (connection.isUsable()) return connection;
+            connection.close();
+        }
+    }
+
+    private static void release(Connection connection) {
+        connection.lastUsed = System.currentTimeMillis();
+        connection.deadline = 0;
+        synchronized (pools) {
+            Deque<Connection> pool = pools.computeIfAbsent(connection.key, k -> new ArrayDeque<>());
+            pool.addLast(connection);
+            while (pool.size() > MAX_IDLE_PER_HOST) pool.pollFirst().close();
+        }
+    }
+
+    private static class Connection {
+        final String       key;
+        final Socket       socket;
+        final InputStream  in;
+        final OutputStream out;
+        long               lastUsed;
+        long               deadline; // for the current request, 0 for none
+        boolean            received; // any of the response to the current request
+
+        private Connection(String key, Socket socket) throws IOException {
+            this.key    = key;
+            this.socket = socket;
+            this.in     = new BufferedInputStream(new FilterInputStream(socket.getInputStream()) { // every read has to finish by the deadline
+                @Override public int read() throws IOException                                 { beforeRead(); return super.read(); }
+                @Override public int read(byte[] buffer, int offset, int length) throws IOException { beforeRead(); return super.read(buffer, offset, length); }
+            });
+            this.out    = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        private void beforeRead() throws IOException {
+            if (deadline == 0) return;
+            socket.setSoTimeout(timeoutFor(deadline, Application.clientReadTimeout));
+        }
+
+        private static int timeoutFor(long deadline, int timeout) throws SocketTimeoutException { // whichever comes first
+            if (deadline == 0) return timeout;
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) throw new SocketTimeoutException("Request took too long");
+            return (int)Math.min(remaining, timeout);
+        }
+
+        static Connection open(String key, String scheme, String host, int port, long deadline) throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), timeoutFor(deadline, Application.clientConnectTimeout));
+                socket.setSoTimeout(timeoutFor(deadline, Application.clientReadTimeout));
+                socket.setTcpNoDelay(true);
+                if (scheme.equals("https")) {
+                    SSLSocket tls = (SSLSocket)HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(socket, host, port, true);
+                    tls.startHandshake(); // resumes a cached session for this host and port, if there is one
+                    if (!matchesHost(host, tls.getSession()) && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, tls.getSession())) {
+                        throw new SSLPeerUnverifiedException("Certificate does not match host '" + host + "'");
+                    }
+                    socket = tls;
+                }
+                return new Connection(key, socket);
+            }
+            catch (IOException e) { try { socket.close(); } catch (IOException ignored) { } throw e; }
+        }
+
+        boolean isUsable() { // not idle too long and not closed by the server while it sat in the pool
+            if (System.currentTimeMillis() - lastUsed > Application.clientKeepAlive) return false;
+            try {
+                if (in.available() > 0) return false; // it shouldn't have anything to say before it's asked
+                socket.setSoTimeout(1);
+                try { in.read(); return false; } // anything at all, even end of stream, means it can't be used
+                catch (SocketTimeoutException e) { return true; } // nothing to read, which is what we want
+                finally { socket.setSoTimeout(Application.clientReadTimeout); }
+            }
+            catch (IOException e) { return false; }
+        }
+
+        void close() { try { socket.close(); } catch (IOException ignored) { } }
+    }
+
+    // checks the host name against the certificate's DNS and IP subject alternative names, or its CN if it has none
+    private static boolean matchesHost(String host, SSLSession session) {
+        try {
+            Certificate[] certificates = session.getPeerCertificates();
+            if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) return false;
+            X509Certificate certificate = (X509Certificate)certificates[0];
+            Collection<List<?>> alternatives = certificate.getSubjectAlternativeNames();
+            boolean hasDNS = false;
+            if (alternatives != null) for (List<?> alternative : alternatives) {
+                int type = (Integer)alternative.get(0);
+                if (type == 2) { hasDNS = true; if (matchesName(host, (String)alternative.get(1))) return true; }
+                if (type == 7 && host.equalsIgnoreCase((String)alternative.get(1))) return true;
+            }
+            if (hasDNS) return false;
+            for (String part : certificate.getSubjectX500Principal().getName().split(",")) {
+                if (part.trim().toUpperCase().startsWith("CN=") && matchesName(host, part.trim().substring(3))) return true;
+            }
+            return false;
+        }
+        catch (SSLPeerUnverifiedException | CertificateParsingException e) { return false; }
+    }
+
+    private static boolean matchesName(String host, String name) { // with a leading wildcard matching just one label
+        host = host.toLowerCase();
+        name = name.toLowerCase();
+        if (!name.startsWith("*.")) return host.equals(name);
+        int dot = host.indexOf('.');
+        return dot > 0 && host.substring(dot).equals(name.substring(1));
+    }
+
+    ////////////////// Body streams //////////////
+
+    private static class BoundedInputStream extends InputStream { // the next 'remaining' bytes
+        private final InputStream in;
+        private long              remaining;
+
+        BoundedInputStream(InputStream in, long length) { this.in = in; this.remaining = length; }
+
+        @Override public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int c = in.read();
+            if (c == -1) throw new EOFException("Connection closed before end of body");
+            remaining--;
+            return c;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(buffer, offset, (int)Math.min(length, remaining));
+            if (n == -1) throw new EOFException("Connection closed before end of body");
+            remaining -= n;
+            return n;
+        }
+
+        @Override public int available() throws IOException { return (int)Math.min(in.available(), remaining); }
+
+        @Override public void close() { } // the connection is closed (or kept) by the Response
+    }
+
+    private static class ChunkedInputStream extends InputStream { // "Transfer-Encoding: chunked"
+        private final InputStream in;
+        private long              remaining; // in the current chunk
+        private boolean           done;
+
+        ChunkedInputStream(InputStream in) { this.in = in; }
+
+        private boolean nextChunk() throws IOException {
+            if (done) return false;
+            if (remaining > 0) return true;
+            String line = readLine(in);
+            if (line != null && line.isEmpty()) line = readLine(in); // the CRLF after the previous chunk
+            if (line == null) throw new EOFException("Connection closed in chunked body");
+            int semicolon = line.indexOf(';');
+            try { remaining = Long.parseLong((semicolon == -1 ? line : line.substring(0, semicolon)).trim(), 16); }
+            catch (NumberFormatException e) { throw new IOException("Bad chunk size '" + line + "'"); }
+            if (remaining == 0) { // the last chunk, then any trailers up to a blank line
+                for (String trailer = readLine(in); trailer != null && !trailer.isEmpty(); trailer = readLine(in)) { }
+                done = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override public int read() throws IOException {
+            if (!nextChunk()) return -1;
+            int c = in.read();
+            if (c == -1) throw new EOFException("Connection closed in chunked body");
+            remaining--;
+            return c;
+        }
+
+        @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (!nextChunk()) return -1;
+            int n = in.read(buffer, offset, (int)Math.min(length, remaining));
+            if (n == -1) throw new EOFException("Connection closed in chunked body");
+            remaining -= n;
+            return n;
+        }
+
+        @Override public void close() { }
+    }
+
+}
@@ -97,20 +97,26 @@ public class Log {
     public static void logResponse(Response response, String header) {
         String status = String.valueOf(response.status);
         String bodySummary = null;
-        if (response.body instanceof String) {
+        Object body = response.body;
+        if (body instanceof byte[] && response.contentType != null && response.contentType.startsWith("application/json")) {
+            // generated JSON comes already encoded, but it's still text to us (and only the start of it matters for the summary)
+            int length = httpLogger.isLoggable(Level.FINE) ? ((byte[])body).length : Math.min(((byte[])body).length, 200);
+            body = new String((byte[])body, 0, length, java.nio.charset.StandardCharsets.UTF_8);
+        }
+        if (body instanceof String) {
             if (response.fromFile) {
-                bodySummary =  "["+ ((String)response.body).length() + " chars of file text]";
+                bodySummary =  "["+ ((String)body).length() + " chars of file text]";
             }
             else {
                 // get "first line" (or reasonable portion thereof)
-                int firstLineEnd = ((String)response.body).indexOf('\n');
-                int bodyLength = ((String)response.body).length();
+                int firstLineEnd = ((String)body).indexOf('\n');
+                int bodyLength = ((String)body).length();
                 if (firstLineEnd == -1) firstLineEnd = bodyLength > 40 ? 40 : bodyLength;
-                bodySummary = ((String)response.body).substring(0, firstLineEnd);
+                bodySummary = ((String)body).substring(0, firstLineEnd);
             }
         }
-        else if (response.body instanceof byte[]) {
-            bodySummary = "["+ ((byte[])response.body).length + " bytes of binary data]";
+        else if (body instanceof byte[]) {
+            bodySummary = "["+ ((byte[])body).length + " bytes of binary data]";
         }
         if (!httpLogger.isLoggable(Level.FINE)) {
             httpLogger.info(status+" "+bodySummary);
@@ -119,8 +125,8 @@ public class Log {
             StringBuilder builder = new StringBuilder();
             builder.append("\nvvvvvvvvvv\n");
             builder.append(header);
-            if (response.body instanceof byte[] || response.fromFile) builder.append(bodySummary).append("\n");
-            else if (response.body instanceof String ) { builder.append(response.body); if (!((String)response.body).endsWith("\n")) builder.append("\n"); }
+            if (body instanceof byte[] || response.fromFile) builder.append(bodySummary).append("\n");
+            else if (body instanceof String ) { builder.append(body); if (!((String)body).endsWith("\n")) builder.append("\n"); }
             else builder.append("[unknown body type!]\n");
             builder.append("^^^^^^^^^^\n");
             httpLogger.fine(status + " " + bodySummary + builder.toString());
@@ -1,21 +1,24 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.data;
 
+import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.client.Client;
 import org.ampii.xd.common.*;
 import org.ampii.xd.database.Session;
-import org.ampii.xd.data.basetypes.CollectionData;
 import org.ampii.xd.database.DataStore;
+import org.ampii.xd.database.ValueIndexes;
 import org.ampii.xd.marshallers.Parser;
-import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.security.Authorizer;
 import org.ampii.xd.server.HTTP;
 import org.ampii.xd.server.Request;
+import org.ampii.xd.server.ResponseCache;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.function.IntFunction;
 
 /**
  * A Context is the holder of a user's query-specific parameters, usually from an HTTP request, but can also be
@@ -34,7 +37,7 @@ import java.util.*;
  *
  * @author daverobin
  */
-public class Context {
+public class Context implements Cloneable {
 
     private Request            request;        // the HTTP request; will be null for internal operations
     private Data               target;         // this is the target of the operation, i.e., the last segment of a URI
@@ -50,11 +53,15 @@ public class Context {
     private Integer            sequence_lt;
     private Integer            skip;
     private Integer            max_results;
+    private String             cursorKey;      // from the 'cursor' query parameter: the name of the last child on the previous page
+    private int                cursorPosition; // where the child after that was in the data source
+    private long               cursorRevision; // and the DataStore revision at the time
     private Integer            depth;
     private Integer            descendantDepth;
     private Integer            priority;
     private Boolean            reverse;
-    private String[]           filterFilter;      // for the 'filter' query parameter
+    private String[]           filterFilter;      // for the 'filter' query parameter, as tokens
+    private FilterExpression   filterExpression;  // and compiled
     private String[]           selectFilter;      // for the 'select' query parameter (with no paths)
     //private List<String[]>   selectFilter;      // this is for the 'select' query parameter... IF PATHS ARE ALLOWED
 
@@ -68,6 +75,7 @@ public class Context {
     private Object             external;          // external http environment, not used by core AMPII code (for when this is wrapped by another HTTP server)
     private String             locale;
     private String             alt = "json";      // default format, overridden with "alt" query parameter in QueryContext
+    private ResponseCache.Conditions cacheConditions; // when set, hears what the bindings that are used say about caching; shared by forks
 
     public int                 cur_inDefinition;     // counting semaphore used by inDefinitionContext(), enterDefinitionContext(), etc.
     public int                 cur_depth;            // changed as callers descend/ascend
@@ -135,6 +143,17 @@ public class Context {
         cur_max             = max_results != null? max_results : Integer.MAX_VALUE;
     }
 
+    // a copy for generating part of a response on another thread (see Generator.forkAll()). It shares the request, target,
+    // and filters, which don't change while generating, but has its own cur_ fields and its own authorizer (for god mode)
+    public Context fork() {
+        try {
+            Context copy = (Context)clone();
+            if (authorizer != null) copy.authorizer = authorizer.copy();
+            return copy;
+        }
+        catch (CloneNotSupportedException e) { throw new XDError("Context could not be forked", e); }
+    }
+
     public boolean    hasRequest()                           { return request != null; }
     public Request    getRequest()                           { return request != null? request : new Request(); }
     public void       setRequest(Request request)            { this.request = request; }
@@ -182,6 +201,28 @@ public class Context {
     public int        getSkip()                              { return  skip != null? skip : 0; }
     public void       setSkip(Integer skip)                  { this.skip = skip; }
 
+    public boolean    hasCursor()                            { return cursorKey != null; }
+    public String     getCursorKey()                         { return cursorKey; }
+    public int        getCursorPosition()                    { return cursorPosition; }
+    public void       setCursor(String token) throws XDException {
+        if (token == null) { cursorKey = null; return; }
+        String[] parts;
+        try { parts = new String(Base64.getUrlDecoder().decode(token), "UTF-8").split(":", 3); }
+        catch (Exception e) { parts = new String[0]; }
+        if (parts.length != 3) throw new XDException(Errors.PARAM_VALUE_FORMAT, "query parameter cursor is malformed");
+        try {
+            cursorRevision = Long.parseLong(parts[0]);
+            cursorPosition = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) { throw new XDException(Errors.PARAM_VALUE_FORMAT, "query parameter cursor is malformed"); }
+        cursorKey = parts[2];
+    }
+
+    // makes an opaque token for the 'cursor' query parameter that resumes after the child named 'key', which was followed by 'position' in the data source
+    public static String makeCursor(String key, int position) {
+        try { return Base64.getUrlEncoder().withoutPadding().encodeToString((DataStore.getRevision() + ":" + position + ":" + key).getBytes("UTF-8")); }
+        catch (UnsupportedEncodingException e) { throw new XDError("UTF-8 not supported?"); } // not gonna happen
+    }
+
     public boolean    hasMaxResults()                        { return max_results != null; }
     public int        getMaxResults()                        { return max_results != null? max_results : Integer.MAX_VALUE; }
     public void       setMaxResults(Integer max_results)     { this.max_results = max_results; }
@@ -215,10 +256,40 @@ public class Context {
     public String     getAlt()                                { return alt; }
     public void       setAlt(String alt)                      { this.alt = alt; }
 
+    public ResponseCache.Conditions getCacheConditions()      { return cacheConditions; }
+    public void       setCacheConditions(ResponseCache.Conditions cacheConditions) { this.cacheConditions = cacheConditions; }
+    public void       noteCacheTime(Binding binding, Data data) { if (cacheConditions != null) cacheConditions.note(binding.getCacheTime(data)); } // see AbstractData.preread()
+
     public DataList makeContextualizedChildren(Data data) throws XDException {
-        DataList children = data.getChildren();
+        DataList    children   = data.getChildren();
+        boolean     isTarget   = data.getContext().isTarget(data);
+        int[]       range      = isTarget? planRange(data, children) : null;
+        boolean     ranged     = range != null && (range[0] > 0 || range[1] < children.size());
+        if (ranged) { // only the children in the range need to be looked at, but the rest would have made the results partial
+            DataList inRange = new DataList();
+            inRange.addAll(children.subList(range[0], range[1]));
+            children = inRange;
+        }
         if (getReverse()) Collections.reverse(children);
-        return filterChildren(children.iterator(), data.getContext().isTarget(data));
+        Set<String> candidates = isTarget? planFilter(data) : null;
+        if (candidates == null) {
+            DataList list    = children;
+            int      resumed = seekCursor(isTarget, list.size(), i -> list.get(i).getName());
+            DataList results = filterChildren(list.subList(Math.max(resumed, 0), list.size()).iterator(), isTarget, 0, resumed);
+            if (ranged) results.partial = true;
+            return results;
+        }
+        // an index has told us which children could possibly pass the filter, so only those need to be evaluated.
+        // but the ones left out would have made the results partial if they had been evaluated and failed.
+        boolean  narrowed = false;
+        DataList possible = new DataList();
+        for (Data child : children) {
+            if (candidates.contains(child.getName())) possible.add(child);
+            else if (authorizer.checkVisible(child) && !Rules.isHidden(child)) narrowed = true;
+        }
+        DataList results = filterChildren(possible.iterator(), true);
+        if (narrowed || ranged) results.partial = true;
+        return results;
     }
 
     public String makeContextualizedValue(Data data) throws XDException {
@@ -266,11 +337,31 @@ public class Context {
     // helpers for the above
 
     public DataList filterChildren(Iterator<Data> iterator, boolean isTarget) throws XDException {
-        DataList results = new DataList();
-        int      skip    = getSkip();
-        int      max     = getMaxResults();
+        return filterChildren(iterator, isTarget, 0);
+    }
+
+    // same as above, but 'skipped' says how much of 'skip' the data source has already done itself, see canSkipAtSource()
+    public DataList filterChildren(Iterator<Data> iterator, boolean isTarget, int skipped) throws XDException {
+        return filterChildren(iterator, isTarget, skipped, -1);
+    }
+
+    // same as above, but 'resumed' is from seekCursor() if the data source has started the iterator after the cursor itself.
+    // the 'skipped' children are after that.
+    public DataList filterChildren(Iterator<Data> iterator, boolean isTarget, int skipped, int resumed) throws XDException {
+        DataList results  = new DataList();
+        int      skip     = getSkip() - skipped;
+        int      max      = getMaxResults();
+        int      position = Math.max(resumed, 0) + skipped; // where we are in the data source, for making a cursor
+        boolean  seeking  = isTarget && cursorKey != null && resumed < 0;
+        if (position > 0) results.partial = true;
         while (iterator.hasNext()) {  // iterate through candidate children from the data source and add to the results if they make the cut
             Data candidate = iterator.next();
+            position++;
+            if (seeking) { // the data source couldn't find the cursor, so we look for it (or for where it would have been)
+                if (candidate.getName().equals(cursorKey)) { seeking = false; results.partial = true; continue; }
+                if (!isAfterCursor(candidate.getName(), position)) { results.partial = true; continue; }
+                seeking = false;
+            }
             if (!authorizer.checkVisible(candidate) || Rules.isHidden(candidate)) continue; // invisible and hidden do not affect $partial
             if (isTarget) {                   // if we are the URI target data, then filter/skip/etc apply
                 if (!canIncludeChild(candidate)) {  // if this candidate didn't make the cut, mark that we are partial, then try next candidate
@@ -289,7 +380,7 @@ public class Context {
                 }
                 results.add(candidate);  // yay! someone made the cut!
                 if (--max == 0) { // if we've now hit max, then don't bother to check any more.
-                    results.next = Client.makeSimpleNextPointer(this);
+                    results.next = Client.makeNextPointer(this, candidate.getName(), position);
                     results.partial = true;
                     break;
                 }
@@ -321,6 +412,37 @@ public class Context {
         return false; // default is to not include metadata
     }
 
+    /**
+     * For data sources that can find the 'cursor' query parameter's resume point without making every child before it.
+     * Returns 0 if there's no cursor (start at the beginning), the index of the first child after the cursor, or -1 if
+     * the cursor wasn't found, in which case the source should start at the beginning and let filterChildren() look.
+     * 'nameAt' gives the name of the child at an index, in the order the source will iterate them.
+     */
+    public int seekCursor(boolean isTarget, int size, IntFunction<String> nameAt) {
+        if (!isTarget || cursorKey == null) return 0;
+        // if nothing has changed, the child should still be right where it was
+        if (cursorRevision == DataStore.getRevision() && cursorPosition >= 1 && cursorPosition <= size && nameAt.apply(cursorPosition - 1).equals(cursorKey)) return cursorPosition;
+        for (int i = 0; i < size; i++) if (nameAt.apply(i).equals(cursorKey)) return i + 1;
+        return -1;
+    }
+
+    // if the cursor's child has gone away, then for numbered children (like log records) we can still tell where it was.
+    // otherwise, the child that was after it has moved up into its position, so we resume there, as 'skip' would have.
+    private boolean isAfterCursor(String name, int position) {
+        try {
+            long key = Long.parseLong(cursorKey), candidate = Long.parseLong(name);
+            return getReverse()? candidate < key : candidate > key;
+        } catch (NumberFormatException e) { return position >= cursorPosition; }
+    }
+
+    public boolean canSkipAtSource() {
+        // if nothing but 'skip' can leave out a child, then a data source whose children are all visible and not hidden can
+        // do the skipping by position, rather than making every skipped child just to have filterChildren() throw it away.
+        return filterFilter == null && selectFilter == null &&
+                published_ge == null && published_gt == null && published_le == null && published_lt == null &&
+                sequence_ge  == null && sequence_gt  == null && sequence_le  == null && sequence_lt  == null;
+    }
+
     public boolean canIncludeChild(Data child) throws XDException {
         if (inDefinitionContext())           return true;
         if (!authorizer.checkVisible(child)) return false;
@@ -356,9 +478,6 @@ public class Context {
     ///////////////////////////////////////////////////////////////////////////////
     //private
 
-    private int     filterIndex;
-    private Data    filterCandidate;
-
 
     // This code is for IF SELECT CAN CONTAIN PATHS (hopefully not!)
     // private boolean isSelected(Data candidate) {
@@ -409,136 +528,77 @@ public class Context {
     }
 
     private boolean isFiltered(Data candidate)  {
-        if (cur_depth > 1 || filterFilter == null) return true;
-        filterIndex = 0;
-        filterCandidate = candidate; // this is global for a variety of yucky reasons
-        // we should have checked the filter syntax earlier with checkFilterExpression(),
-        // so this really shouldn't throw an exception at this point
-        try { return doFilterExpression(); }
+        if (cur_depth > 1 || filterExpression == null) return true;
+        // we checked the filter syntax earlier when we compiled it, so this really shouldn't throw an exception at this point
+        try { return filterExpression.test(candidate); }
         catch (Exception e) { throw new XDError(candidate, "Problem with filter expression snuck through initial check", e); }
     }
 
-    private static final int OP_EQ  = 1;
-    private static final int OP_NE  = 2;
-    private static final int OP_GT  = 3;
-    private static final int OP_GE  = 4;
-    private static final int OP_LT  = 5;
-    private static final int OP_LE  = 6;
-
-    public void checkFilterExpression() throws XDException { // used to pre-check expression syntax
-        filterCandidate = new CollectionData("..checkExpression");
-        doFilterExpression();
-    }
-
-    public Boolean doFilterExpression() throws XDException {
-        Boolean result = doBoolExp();
-        String nextToken = peekToken();
-        while (nextToken != null) {
-            if      (nextToken.equals("and")){ { getToken(); result = doAnd(result); } }
-            else if (nextToken.equals("or")) { { getToken(); result = doOr(result);  } }
-            else if (nextToken.equals(")"))  break;
-            else throw new XDException(Errors.PARAM_SYNTAX, "Unexpected operation in filter expression:"+nextToken);
-            nextToken = peekToken();
+    // For data that declares with $..ordered that its children are in timestamp ("published") or numeric name ("sequence")
+    // order, like a log buffer, the published-* and sequence-* ranges are a contiguous run of children, so the ends are found
+    // by binary search. Returns the run as {from,to}, or null if there is no range or no declared order to find it with.
+    private int[] planRange(Data data, DataList children) throws XDException {
+        boolean published = published_ge != null || published_gt != null || published_le != null || published_lt != null;
+        boolean sequence  = sequence_ge  != null || sequence_gt  != null || sequence_le  != null || sequence_lt  != null;
+        if (!published && !sequence || cur_depth > 1 || inDefinitionContext()) return null;
+        Data declared = data.findLocal(Meta.AMPII_ORDERED);
+        if (declared == null) return null;
+        StringSet ordering = new StringSet(declared.stringValue());
+        published = published && ordering.containsComponent("published");
+        sequence  = sequence  && ordering.containsComponent("sequence");
+        if (!published && !sequence) return null;
+        int from = 0, to = children.size();
+        if (published) {
+            if (published_ge != null) from = Math.max(from, firstAfter(children, published_ge.getTimeInMillis(), false, true));
+            if (published_gt != null) from = Math.max(from, firstAfter(children, published_gt.getTimeInMillis(), true,  true));
+            if (published_le != null) to   = Math.min(to,   firstAfter(children, published_le.getTimeInMillis(), true,  true));
+            if (published_lt != null) to   = Math.min(to,   firstAfter(children, published_lt.getTimeInMillis(), false, true));
         }
-        return result == null? false : result;
-    }
-
-    private Boolean doBoolExp() throws XDException {
-        String leftToken = getToken();
-        String nextToken = peekToken();
-        Boolean result;
-        if (leftToken.equals("(")) {
-            result = doParen();
-        }
-        else if (leftToken.equals("not") &&
-                !nextToken.equals("and") && // all of this is to enable the evil case of where "not" is a legitimate child name
-                !nextToken.equals("or")  && !nextToken.equals("eq") && !nextToken.equals("ne") && !nextToken.equals("gt") &&
-                !nextToken.equals("ge")  && !nextToken.equals("lt") && !nextToken.equals("le") && !nextToken.equals(")")) {
-            result = doBoolExp();
-            if (result != null) result = !result;
-        }
-        else {
-            Data leftData;
-            try { leftData = Eval.eval(filterCandidate, leftToken); }
-            catch (XDException e) { leftData = null; } // errors in filter expressions are OK
-            nextToken = peekToken();
-            if (nextToken != null) {
-                if      (nextToken.equals("eq"))  { getToken(); result = doCompOp(leftData,OP_EQ); }
-                else if (nextToken.equals("ne"))  { getToken(); result = doCompOp(leftData,OP_NE); }
-                else if (nextToken.equals("gt"))  { getToken(); result = doCompOp(leftData,OP_GT); }
-                else if (nextToken.equals("ge"))  { getToken(); result = doCompOp(leftData,OP_GE); }
-                else if (nextToken.equals("lt"))  { getToken(); result = doCompOp(leftData,OP_LT); }
-                else if (nextToken.equals("le"))  { getToken(); result = doCompOp(leftData,OP_LE); }
-                else if (nextToken.equals("and") || nextToken.equals("or") || nextToken.equals(")")) result = (leftData==null)?null:leftData.booleanValue();
-                else throw new XDException(Errors.PARAM_SYNTAX, "Unexpected operation in filter expression:"+nextToken);
-            }
-            else result = (leftData==null)?null:leftData.booleanValue();
-        }
-        return result;
-    }
-
-    private Boolean doParen() throws XDException {
-        Boolean result =  doFilterExpression();
-        if (!getToken().equals(")")) throw new XDException(Errors.PARAM_SYNTAX, "Filter expression missing right parenthesis");
-        return result;
-    }
-
-    // this uses a Boolean object (as opposed to a boolean) so it can return null, true, or false
-    private Boolean doCompOp(Data leftData, int op) throws XDException {
-        String rightToken =  getToken();
-        if (leftData == null) return null;
-        switch (op) {
-            case OP_EQ: return  leftData.stringValue().equals(rightToken);
-            case OP_NE: return !leftData.stringValue().equals(rightToken);
-            case OP_GT:
-            case OP_GE:
-            case OP_LT:
-            case OP_LE:
-                Double leftDouble,rightDouble;
-                try { leftDouble = Double.parseDouble(leftData.stringValue()); }
-                catch (NumberFormatException e) { return null; }  // return null if left side doesn't evaluate to a number
-                try { rightDouble = Double.parseDouble(rightToken); }
-                catch (NumberFormatException e) { throw new XDException(Errors.PARAM_VALUE_FORMAT, "Filter expression: comparison to non-number '"+rightToken+"'"); }
-                switch (op) {
-                    case OP_GT: return leftDouble >  rightDouble;
-                    case OP_GE: return leftDouble >= rightDouble;
-                    case OP_LT: return leftDouble <  rightDouble;
-                    case OP_LE: return leftDouble <= rightDouble;
-                }
-            default: throw new XDException(Errors.INTERNAL_ERROR, "Internal Error: unexpected case in doCompOp");
+        if (sequence) {
+            if (sequence_ge != null) from = Math.max(from, firstAfter(children, sequence_ge, false, false));
+            if (sequence_gt != null) from = Math.max(from, firstAfter(children, sequence_gt, true,  false));
+            if (sequence_le != null) to   = Math.min(to,   firstAfter(children, sequence_le, true,  false));
+            if (sequence_lt != null) to   = Math.min(to,   firstAfter(children, sequence_lt, false, false));
         }
+        return new int[] { from, Math.max(from, to) };
     }
 
-    // AND logic:
-    // if both sides are null, the result is null
-    // if one side is null, the results is false
-    private Boolean doAnd(Boolean left) throws XDException {
-        Boolean right = doBoolExp();
-        if (left==null && right==null) return null;
-        if (left==null || right==null) return false;
-        return left && right;
-
+    // the index of the first child whose key is after (or, if not 'strictly', at or after) the given key
+    private static int firstAfter(DataList children, long key, boolean strictly, boolean published) throws XDException {
+        int low = 0, high = children.size();
+        while (low < high) {
+            int  middle = (low + high) >>> 1;
+            long found  = published? publishedOf(children.get(middle)) : sequenceOf(children.get(middle));
+            if (strictly? found <= key : found < key) low = middle + 1; else high = middle;
+        }
+        return low;
     }
 
-    // OR logic:
-    // if both sides are null, the result is null
-    // if one side is null, the result is the other side
-    private Boolean doOr(Boolean left) throws XDException {
-        Boolean right = doFilterExpression();
-        if (left==null && right==null) return null;
-        if (left==null)  return right;
-        if (right==null) return left;
-        return left || right;
+    private static long publishedOf(Data child) throws XDException { // same as canIncludeChild() looks for
+        Data published = child.find(Meta.PUBLISHED);
+        if (published == null) published = child.find("timestamp");
+        return published != null && published.getBase() == Base.DATETIME? published.calendarValue().getTimeInMillis() : Long.MIN_VALUE;
     }
 
-    private String getToken() throws XDException {
-        if (filterIndex < filterFilter.length) return filterFilter[filterIndex++];
-        else throw new XDException(Errors.PARAM_SYNTAX, "Expected more in filter expression");
+    private static long sequenceOf(Data child) {
+        try { return Integer.parseInt(child.getName()); } catch (NumberFormatException e) { return Long.MIN_VALUE; }
     }
 
-    private String peekToken() throws XDException {
-        if (filterIndex < filterFilter.length) return filterFilter[filterIndex];
-        else return null;
+    // The filter is only true if every top level "and" term is true, so each comparison that a ValueIndexes index can
+    // answer narrows down the children that need to be evaluated. Returns null if no index can help.
+    private Set<String> planFilter(Data data) throws XDException {
+        if (filterExpression == null || cur_depth > 1 || inDefinitionContext()) return null;
+        List<FilterExpression> terms = new ArrayList<>();
+        filterExpression.collectConjuncts(terms);
+        Set<String> candidates = null;
+        for (FilterExpression term : terms) {
+            if (!(term instanceof FilterExpression.Comparison)) continue;
+            Set<String> found = ValueIndexes.find(data, (FilterExpression.Comparison)term);
+            if (found == null) continue;
+            if (candidates == null) candidates = found;
+            else candidates.retainAll(found);
+        }
+        return candidates;
     }
 
     public String toString() {
@@ -554,6 +614,7 @@ public class Context {
         if (sequence_lt != null)     results.append(" seq-lt=").append(sequence_lt);
         if (skip != null)            results.append(" skip=").append(skip);
         if (max_results != null)     results.append(" max=").append(max_results);
+        if (cursorKey != null)       results.append(" cursor=").append(cursorKey);
         if (depth != null)           results.append(" depth=").append(depth);
         if (descendantDepth != null) results.append(" ddepth=").append(descendantDepth);
         if (priority != null)        results.append(" priority=").append(priority);
@@ -599,8 +660,9 @@ public class Context {
                 else if (name.equals("sequence-lt"))      sequence_lt     = Integer.valueOf(value);
                 else if (name.equals("skip"))             skip            = Integer.valueOf(value);
                 else if (name.equals("max-results"))      max_results     = Integer.valueOf(value);
+                else if (name.equals("cursor"))           setCursor(value);
                 else if (name.equals("select"))           selectFilter    = parseSelectString(value);
-                else if (name.equals("filter"))           { filterFilter  = parseFilterString(value); checkFilterExpression(); }
+                else if (name.equals("filter"))           { filterFilter  = parseFilterString(value); filterExpression = FilterExpression.compile(filterFilter); }
                 else if (name.equals("metadata"))         parseMetadataString(value);
                 else if (name.equals("depth"))            depth           = Integer.valueOf(value);
                 else if (name.equals("descendant-depth")) descendantDepth = Integer.valueOf(value);
@@ -621,7 +683,7 @@ public class Context {
             if (max_results != null     && max_results < 0 )
                 throw new XDException(Errors.PARAM_OUT_OF_RANGE,"Invalid 'max-result' parameter value");
             if (priority != null        && (priority < 1 || priority > 16)) throw new XDException(Errors.PARAM_OUT_OF_RANGE,"Invalid 'priority' parameter value");
-            if (!(alt.equals("json")||alt.equals("xml")||alt.equals("plain")||alt.equals("media"))) throw new XDException(Errors.PARAM_OUT_OF_RANGE,"Invalid 'alt' value");
+            if (!(alt.equals("json")||alt.equals("xml")||alt.equals("cbor")||alt.equals("plain")||alt.equals("media"))) throw new XDException(Errors.PARAM_OUT_OF_RANGE,"Invalid 'alt' value");
             if (!alt.equals("plain")) locale = null; // locale is only for 'alt=plain', the spec says: "If provided for other representations or other base types, it shall be ignored."
         }
     }
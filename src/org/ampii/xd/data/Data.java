@@ -6,6 +6,7 @@ import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.common.StringSet;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.database.Session;
+import org.ampii.xd.marshallers.JSONReader;
 import java.util.Calendar;
 
 /**
@@ -78,6 +79,7 @@ public interface Data {
     void         validateConsistency()         throws XDException;  // called after put(), checks for consistency between value and metadata items, throws if problem
 
     Data         post(Data given)              throws XDException;  // adds given data item as child of this; calls binding
+    Data         post(JSONReader given)        throws XDException;  // lets the binding read a POSTed body as it goes; returns null if it would rather have post(Data)
 
     void         delete(String name)           throws XDException;  // removes item from this; calls binding; follows rules
     void         deleteChildren()              throws XDException;  // removes all children; calls binding; follows rules
@@ -99,8 +101,12 @@ public interface Data {
     boolean      isShadow();                   // changes to shadows can be discarded, but if isShadow is false, there is no "original" and changes are immediate
     Data         makeShadow();                 // makes a comittable/discardable shadow wrapping an "original", usually used by sessions
     void         setOriginal(Data original);   // not for you! should only be used by makeShadow()
+    Data         getOriginal();                // the datastore item that this is a shadow of, or null if this is not a shadow
     void         commit() throws XDException;  // commits shadow data to original
     void         discard();                    // discards shadow data and notifies bindings to release external resources
+    long         getRevision();                // the DataStore revision of the last commit to this or anything below it (see ResponseCache)
+    long         getOwnRevision();             // the DataStore revision of the last commit to this item itself (not below it), including adding or removing it
+    void         setRevision(long revision, boolean own); // not for you! only called by DataStore when commits are heard
 
     Context      getContext();                 // gets context or makes one up if it doesn't have one
     void         setContext(Context context);  // sets context for authorization and serialization (usually set by Session on the session root)
@@ -0,0 +1,195 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.data;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.resolver.Eval;
+import java.util.List;
+
+/**
+ * A compiled 'filter' query parameter expression.
+ * <p>
+ * {@link Context} tokenizes the expression and calls {@link #compile} once, then calls {@link #test} for each candidate
+ * child. The tree is immutable, with the literals already parsed and the paths already split, so it can be shared by
+ * any number of threads.
+ * <p>
+ * Evaluation is three-valued: {@link #evaluate} returns null if the answer is unknown, e.g., the path doesn't exist or
+ * isn't a number for a numeric comparison. "and" is false if either side is unknown (unless both are), "or" takes the
+ * known side, and "not" leaves unknown alone. The grouping is the same as it always was: "and" takes the next term, but
+ * "or" takes everything after it up to the next ")", so "a and b or c and d" is "(a and b) or (c and d)".
+ *
+ * @author daverobin
+ */
+public abstract class FilterExpression {
+
+    public static final int OP_EQ  = 1;
+    public static final int OP_NE  = 2;
+    public static final int OP_GT  = 3;
+    public static final int OP_GE  = 4;
+    public static final int OP_LT  = 5;
+    public static final int OP_LE  = 6;
+
+    public abstract Boolean evaluate(Data candidate) throws XDException; // returns true, false, or null for unknown
+
+    public boolean test(Data candidate) throws XDException { return evaluate(candidate) == Boolean.TRUE; }
+
+    // adds the terms that must all be true for this to be true, e.g. "a and b and (c or d)" adds a, b, and (c or d)
+    public void collectConjuncts(List<FilterExpression> terms) { terms.add(this); }
+
+    public static FilterExpression compile(String[] tokens) throws XDException {
+        Compiler compiler = new Compiler(tokens);
+        FilterExpression result = compiler.expression();
+        if (compiler.peek() != null) throw new XDException(Errors.PARAM_SYNTAX, "Unexpected '" + compiler.peek() + "' in filter expression");
+        return result;
+    }
+
+    ////////////////// the nodes //////////////
+
+    private static class Definite extends FilterExpression { // a parenthesized or "or"ed expression, where unknown becomes false
+        private final FilterExpression body;
+        Definite(FilterExpression body) { this.body = body; }
+        @Override public Boolean evaluate(Data candidate) throws XDException { return body.evaluate(candidate) == Boolean.TRUE; }
+        @Override public void collectConjuncts(List<FilterExpression> terms) { body.collectConjuncts(terms); }
+    }
+
+    private static class And extends FilterExpression {
+        private final FilterExpression left, right;
+        And(FilterExpression left, FilterExpression right) { this.left = left; this.right = right; }
+        @Override public Boolean evaluate(Data candidate) throws XDException {
+            Boolean leftResult = left.evaluate(candidate);
+            if (leftResult == Boolean.FALSE) return false; // the right side can't change that
+            Boolean rightResult = right.evaluate(candidate);
+            if (leftResult == null && rightResult == null) return null;
+            if (leftResult == null || rightResult == null) return false;
+            return rightResult;
+        }
+        @Override public void collectConjuncts(List<FilterExpression> terms) { left.collectConjuncts(terms); right.collectConjuncts(terms); }
+    }
+
+    private static class Or extends FilterExpression {
+        private final FilterExpression left, right; // right is always Definite, so it's never unknown
+        Or(FilterExpression left, FilterExpression right) { this.left = left; this.right = right; }
+        @Override public Boolean evaluate(Data candidate) throws XDException {
+            Boolean leftResult = left.evaluate(candidate);
+            if (leftResult == Boolean.TRUE) return true;
+            return right.evaluate(candidate); // which is the answer whether left was false or unknown
+        }
+    }
+
+    private static class Not extends FilterExpression {
+        private final FilterExpression term;
+        Not(FilterExpression term) { this.term = term; }
+        @Override public Boolean evaluate(Data candidate) throws XDException {
+            Boolean result = term.evaluate(candidate);
+            return result == null? null : !result;
+        }
+    }
+
+    private static class Truth extends FilterExpression { // a bare path, e.g. "status-flags/fault"
+        private final String   path;
+        private final String[] segments;
+        Truth(String path) { this.path = path; this.segments = Eval.split(path); }
+        @Override public Boolean evaluate(Data candidate) throws XDException {
+            Data data = find(candidate, path, segments);
+            return data == null? null : data.booleanValue();
+        }
+    }
+
+    /**
+     * A "path op literal" term, which planners can look at, see {@link org.ampii.xd.database.ValueIndexes}.
+     */
+    public static class Comparison extends FilterExpression {
+        public final String   path;
+        public final int      op;
+        public final String   literal;
+        public final double   number;   // the literal, parsed, for numeric comparisons
+        private final String[] segments;
+        Comparison(String path, int op, String literal) throws XDException {
+            this.path = path;
+            this.op = op;
+            this.literal = literal;
+            this.segments = Eval.split(path);
+            if (op == OP_EQ || op == OP_NE) number = 0;
+            else try { number = Double.parseDouble(literal); }
+            catch (NumberFormatException e) { throw new XDException(Errors.PARAM_VALUE_FORMAT, "Filter expression: comparison to non-number '" + literal + "'"); }
+        }
+        @Override public Boolean evaluate(Data candidate) throws XDException {
+            Data data = find(candidate, path, segments);
+            if (data == null) return null;
+            if (op == OP_EQ) return  data.stringValue().equals(literal);
+            if (op == OP_NE) return !data.stringValue().equals(literal);
+            double value;
+            try { value = Double.parseDouble(data.stringValue()); }
+            catch (NumberFormatException e) { return null; }  // unknown if left side doesn't evaluate to a number
+            switch (op) {
+                case OP_GT: return value >  number;
+                case OP_GE: return value >= number;
+                case OP_LT: return value <  number;
+                default:    return value <= number;
+            }
+        }
+    }
+
+    private static Data find(Data candidate, String path, String[] segments) {
+        try { return Eval.eval(candidate, path, segments, Eval.FOR_GET); }
+        catch (XDException e) { return null; } // errors in filter expressions are OK, it's just unknown
+    }
+
+    ////////////////// the compiler //////////////
+
+    private static class Compiler {
+        private final String[] tokens;
+        private int            index;
+
+        Compiler(String[] tokens) { this.tokens = tokens; }
+
+        FilterExpression expression() throws XDException {
+            FilterExpression result = term();
+            for (String next = peek(); next != null && !next.equals(")"); next = peek()) {
+                if      (next.equals("and")) { get(); result = new And(result, term()); }
+                else if (next.equals("or"))  { get(); result = new Or(result, expression()); }
+                else throw new XDException(Errors.PARAM_SYNTAX, "Unexpected operation in filter expression:" + next);
+            }
+            return new Definite(result);
+        }
+
+        private FilterExpression term() throws XDException {
+            String token = get();
+            String next  = peek();
+            if (token.equals("(")) {
+                FilterExpression result = expression();
+                if (!get().equals(")")) throw new XDException(Errors.PARAM_SYNTAX, "Filter expression missing right parenthesis");
+                return result;
+            }
+            // all of this is to enable the evil case of where "not" is a legitimate child name
+            if (token.equals("not") && next != null && !next.equals("and") && !next.equals("or") && !next.equals(")") && operator(next) == 0) {
+                return new Not(term());
+            }
+            if (next == null || next.equals("and") || next.equals("or") || next.equals(")")) return new Truth(token);
+            int op = operator(next);
+            if (op == 0) throw new XDException(Errors.PARAM_SYNTAX, "Unexpected operation in filter expression:" + next);
+            get();
+            return new Comparison(token, op, get());
+        }
+
+        private static int operator(String token) {
+            switch (token) {
+                case "eq": return OP_EQ;
+                case "ne": return OP_NE;
+                case "gt": return OP_GT;
+                case "ge": return OP_GE;
+                case "lt": return OP_LT;
+                case "le": return OP_LE;
+                default:   return 0;
+            }
+        }
+
+        private String get() throws XDException {
+            if (index < tokens.length) return tokens[index++];
+            else throw new XDException(Errors.PARAM_SYNTAX, "Expected more in filter expression");
+        }
+
+        private String peek() { return index < tokens.length? tokens[index] : null; }
+    }
+
+}
@@ -128,6 +128,9 @@ public class Meta {
     // starting with '..' means they won't leak out of the box (and we don't have to prefix them with 'org.ampii')
     public static final String AMPII_BINDING                  = "$..binding";
     public static final String AMPII_HISTORY_LOCATION         = "$..historyLocation";
+    public static final String AMPII_SORTED_INDEXES           = "$..sortedIndexes";  // see ValueIndexes
+    public static final String AMPII_HASHED_INDEXES           = "$..hashedIndexes";  // see ValueIndexes
+    public static final String AMPII_ORDERED                  = "$..ordered";        // "published" and/or "sequence", see Context
     public static final String AMPII_DEFINITIONS              = "$org.ampii.ui.definitions";    // special case for making definitions in the playground
     public static final String AMPII_TAG_DEFINITIONS          = "$org.ampii.ui.tagDefinitions"; // special case for making tag definitions in the playground
     public static final String AMPII_MATCH_ANY                = "$..matchAny";       // used by tests to match any received value
@@ -27,6 +27,7 @@ public abstract class AbstractBinaryData extends AbstractPrimitiveData {
 
     @Override public void    setLocalValue(Object value)  {   // "no check" means no high level validity/permissions checks.  but we can't let an invalid datatype in!
         if (value instanceof byte[]) this.value = (byte[])value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
@@ -41,8 +42,8 @@ public abstract class AbstractBinaryData extends AbstractPrimitiveData {
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
         validateLength(tempValue.length); // validateLength() will be overridden by OctetString for merged length calculation
+        markDirty(); // before the change, so a savepoint can remember what it was
         value = tempValue;
-        markDirty();
     }
 
     protected void validateLength(int length) throws XDException { // this is overridden by OctetString for validating merged length
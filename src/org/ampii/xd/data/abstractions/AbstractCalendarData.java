@@ -26,6 +26,7 @@ public abstract class AbstractCalendarData extends AbstractPrimitiveData {
 
     @Override public void    setLocalValue(Object value)  {   // "no check" means no high level validity/permissions checks.  but we can't let an invalid datatype in!
         if (value instanceof Calendar) this.value = (Calendar)value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
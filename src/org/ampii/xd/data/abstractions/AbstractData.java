@@ -8,9 +8,11 @@ import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.common.*;
 import org.ampii.xd.data.*;
 import org.ampii.xd.data.basetypes.*;
+import org.ampii.xd.database.DataStore;
 import org.ampii.xd.database.Session;
 import org.ampii.xd.definitions.Instances;
 import org.ampii.xd.definitions.Prototypes;
+import org.ampii.xd.marshallers.JSONReader;
 import org.ampii.xd.data.Context;
 import org.ampii.xd.resolver.Path;
 import org.ampii.xd.security.Authorizer;
@@ -44,6 +46,8 @@ public abstract class AbstractData implements Data {
     protected Data         original;       // used when this is a shadow for a Data item in the database
     protected Binding      binding;        // used to bind to live/backend data
     private   int          flags = 0;      // contains FLAG_XXX bits, defined in the /// FLAGS /// section below
+    private volatile long  revision;       // DataStore revision of the last commit here or below; read without the lock by ResponseCache
+    private volatile long  ownRevision;    // DataStore revision of the last commit to us ourselves, including adding, removing, or replacing us
 
     public AbstractData(String name, Object... initializers) throws XDException {  // initializers are value, subs, or a List of subs
         this.name = name;
@@ -139,14 +143,55 @@ public abstract class AbstractData implements Data {
         this.original = original;
     }
 
+    @Override public Data getOriginal() { return original; }
+
+    @Override public long getRevision()    { return revision; }
+
+    @Override public long getOwnRevision() { return ownRevision; }
+
+    @Override public void setRevision(long revision, boolean own) {
+        if (own) this.ownRevision = revision;
+        else     this.revision = revision;
+    }
+
     protected void markDirty() {
         if (hasSession()) {  // we only mark things that are in a session
+            // if there's a savepoint, it needs to hear about this node and its ancestors before anything changes (see Session.Savepoint)
+            Session.Savepoint savepoint = getSession().getSavepoint();
+            if (savepoint != null) for (Data data = this; data != null; data = data.getParent()) {
+                if (!savepoint.isRemembered(data) && data instanceof AbstractData) savepoint.remember(data, ((AbstractData)data).makeUndo());
+            }
             // set this node dirty, then run up the parent chain and mark all ancestor dirtyBelow so commit()'s descent will know to find its way to us
             setIsDirty(true);
             for (Data parent = this.parent; parent != null; parent = parent.getParent()) parent.setIsDirtyBelow(true);
         }
     }
 
+    private Runnable makeUndo() { // captures our local state, shallowly, for a savepoint rollback
+        String   name = this.name;
+        Data     prototype = this.prototype;
+        Binding  binding = this.binding;
+        int      flags = this.flags;
+        Object   value = getLocalValue();
+        DataList subs = this.subs != null ? new DataList(this.subs) : null;
+        int[]    subFlags = new int[subs != null ? subs.size() : 0]; // delete() flags the doomed sub directly, without marking it dirty
+        for (int i = 0; i < subFlags.length; i++) subFlags[i] = subs.get(i).getFlags();
+        return () -> {
+            this.name = name;
+            this.prototype = prototype;
+            this.binding = binding;
+            this.flags = flags;
+            setLocalValue(value);
+            this.subs = subs;
+            for (int i = 0; i < subFlags.length; i++) {
+                Data sub = subs.get(i);
+                sub.setParent(this);
+                sub.setIsDeleted((subFlags[i] & FLAG_DELETED) != 0);
+                sub.setIsDirty((subFlags[i] & FLAG_DIRTY) != 0);
+            }
+        };
+    }
+
     protected boolean commitValue() throws XDException { return false; } // overridden by String and OctetString to do value merging
 
 
@@ -171,19 +216,32 @@ public abstract class AbstractData implements Data {
             // delete, add new, or update existing subs
             if (subs != null) for (Data sub : subs) {
                 if (sub.isShadow()) {
-                    if (sub.isDeleted()) original.removeLocal(sub.getName());
+                    if (sub.isDeleted()) {
+                        if (sub instanceof AbstractData) DataStore.notifyRemoving(((AbstractData)sub).original);
+                        original.removeLocal(sub.getName());
+                    }
                     else if (sub.isDirty() || sub.isDirtyBelow()) sub.commit(); // recurse...
                 }
                 else { // it's not a shadow... it's fresh data under a shadow, so that means it's new or a replacement
+                    Data replaced = original.findLocal(sub.getName());
+                    if (replaced != null) DataStore.notifyReplaced(replaced);
                     original.addLocal(sub); // addLocal() will replace original if it exists
+                    DataStore.notifyAdded(sub);
                 }
             }
             try {
                 if (Rules.canRenumberChildren(original.getBase())) {  // if these are numbered positionally, then renumber after a delete
                     int i = 1;
-                    for (Data child : original.getChildren()) child.setName(Integer.toString(i++));
+                    for (Data child : original.getChildren()) {
+                        String newName = Integer.toString(i++);
+                        if (child.getName().equals(newName)) continue;
+                        DataStore.notifyRemoving(child); // to a watcher, a rename is a remove and an add
+                        child.setName(newName);
+                        DataStore.notifyAdded(child);
+                    }
                 }
             } catch (XDException e) { throw new XDError("Error renaming positional children upon commit()",this,original); }
+            DataStore.notifyChanged(original);
         }
         else if (isDirtyBelow()) {  // we're not dirty, but one or more of of our subs are
             if (subs != null) for (Data sub : subs) {
@@ -217,7 +275,10 @@ public abstract class AbstractData implements Data {
                 for (Data meta : original.getMetadata())  addLocal(meta.makeShadow());
                 if (original.hasValue()) setLocalValue(original.getLocalValue());
             }
-            if (binding != null) binding.preread(this);
+            if (binding != null) {
+                binding.preread(this);
+                getContext().noteCacheTime(binding, this); // so a cached response can't outlive what the binding said it could
+            }
         }
     }
 
@@ -701,6 +762,7 @@ public abstract class AbstractData implements Data {
     private static void   _putValueHelper(Data target, Data given) throws XDException {
         // handles commandable values that are not from BACnet; a Binding should be used to handle BACnet properties
         Context context = target.getContext();
+        Object  value   = _nativeValueFor(target, given);
         if (target.isCommandable()) {
             int  priority = context.isTarget(target) ? context.getPriority() : 16; // if top level, then the priority parameter applies, else 16
             Data priorityArray = getOrCreatePriorityArray(target);
@@ -709,56 +771,82 @@ public abstract class AbstractData implements Data {
             if (given.getBase() == Base.NULL || given.canHaveValue() && !given.hasValue()) slot.addLocal(new NullData("null")); // if we are not given a value, then that's the same as a null
             else switch (target.getBase()) {
                 case REAL:
-                    slot.addLocal(new RealData("real",given.getValue()));
+                    slot.addLocal(new RealData("real",value));
                     break;
                 case ENUMERATED:
-                    slot.addLocal(new EnumeratedData("enumerated",given.getValue()));
+                    slot.addLocal(new EnumeratedData("enumerated",value));
                     break;
                 case UNSIGNED:
-                    slot.addLocal(new UnsignedData("unsigned",given.getValue()));
+                    slot.addLocal(new UnsignedData("unsigned",value));
                     break;
                 case BOOLEAN:
-                    slot.addLocal(new BooleanData("boolean",given.getValue()));
+                    slot.addLocal(new BooleanData("boolean",value));
                     break;
                 case INTEGER:
-                    slot.addLocal(new IntegerData("integer",given.getValue()));
+                    slot.addLocal(new IntegerData("integer",value));
                     break;
                 case DOUBLE:
-                    slot.addLocal(new DoubleData("double",given.getValue()));
+                    slot.addLocal(new DoubleData("double",value));
                     break;
                 case TIME:
-                    slot.addLocal(new TimeData("time",given.getValue()));
+                    slot.addLocal(new TimeData("time",value));
                     break;
                 case STRING:
-                    slot.addLocal(new StringData("characterstring",given.getValue()));
+                    slot.addLocal(new StringData("characterstring",value));
                     break;
                 case OCTETSTRING:
-                    slot.addLocal(new OctetStringData("octetstring",given.getValue()));
+                    slot.addLocal(new OctetStringData("octetstring",value));
                     break;
                 case BITSTRING:
-                    slot.addLocal(new BitStringData("bitstring",given.getValue()));
+                    slot.addLocal(new BitStringData("bitstring",value));
                     break;
                 case DATE:
-                    slot.addLocal(new DateData("date",given.getValue()));
+                    slot.addLocal(new DateData("date",value));
                     break;
                 case OBJECTIDENTIFIER:
-                    slot.addLocal(new DateData("objectidentifier",given.getValue()));
+                    slot.addLocal(new DateData("objectidentifier",value));
                     break;
                 case DATETIME:
-                    slot.addLocal(new DateData("datetime",given.getValue()));
+                    slot.addLocal(new DateData("datetime",value));
                     break;
                 default:
-                    slot.addLocal(DataFactory.make(given.getBase(), "constructed-value", given.getValue()));
+                    slot.addLocal(DataFactory.make(given.getBase(), "constructed-value", value));
                     break;
             }
             // now that we've stored the new value in the right slot, reevaluate the entire array
-            Object value = evaluatePriorityArray(priorityArray, target.findEffective(Meta.RELINQUISHDEFAULT));
-            if (value != null) target.setValue(value);
+            Object effective = evaluatePriorityArray(priorityArray, target.findEffective(Meta.RELINQUISHDEFAULT));
+            if (effective != null) target.setValue(effective);
         }
         else if (context.isTarget(target) && context.hasPriority()) {
             // weird BACnet-ism! do nothing if we are given a priority and we're not commandable
         }
-        else if (given.hasValue()) target.setValue(given.getValue());
+        else if (given.hasValue()) target.setValue(value);
+    }
+
+    // Parsed values are usually text, which every base can take, but the binary formats give typed values (see
+    // CBORParser) that are only passed along as they are if the target takes that class; otherwise they become text.
+    private static Object _nativeValueFor(Data target, Data given) throws XDException {
+        Object value = given.getValue();
+        if (!given.isPoly() || value == null || value instanceof String || value instanceof LocalizedString || value instanceof LocalizedStrings) return value;
+        switch (target.getBase()) {
+            case UNSIGNED:
+            case INTEGER:
+                if (value instanceof Long) return value;
+                if (value instanceof Double && (Double)value == Math.rint((Double)value) && !Double.isInfinite((Double)value)) return ((Double)value).longValue();
+                break;
+            case REAL:
+            case DOUBLE:
+                if (value instanceof Number) return ((Number)value).doubleValue();
+                break;
+            case BOOLEAN:
+                if (value instanceof Boolean) return value;
+                break;
+            case OCTETSTRING:
+            case RAW:
+                if (value instanceof byte[]) return value;
+                break;
+        }
+        return given.stringValue();
     }
 
     private static Data     getOrCreatePriorityArray(Data target) throws XDException {
@@ -834,11 +922,7 @@ public abstract class AbstractData implements Data {
         // might want for its posted data, the given data is passed as-is to binding.prepost(). So bindings should do a put() to a target
         // of the expected type to validate the given data and set its base types.
         // For data that is to be persisted, this "clean up" operation is done with a create-then-put operation for the new child.
-        preread();
-        Authorizer authorizer  = getContext().getAuthorizer();
-        if (isImmutable())                            throw new XDException(Errors.NOT_WRITABLE,   this, "Trying to modify immutable data");
-        if (!isWritable() && !authorizer.inGodMode()) throw new XDException(Errors.NOT_WRITABLE,   this, "Target is not writable");
-        if (!authorizer.checkWrite(this))             throw new XDException(Errors.NOT_AUTHORIZED, this, "Target is not writable with given authorization");
+        checkPostable();
         // pick a name for the new child (binding can override this)
         data.setName(Rules.getNextAvailableChildName(this,data.getName()));
         // first give the binding a crack at it...
@@ -859,6 +943,22 @@ public abstract class AbstractData implements Data {
         return data;
     }
 
+    @Override public Data       post(JSONReader given)  throws XDException {
+        // Only a binding can do anything with a body that hasn't been parsed yet, e.g., to take a big upload a piece at a
+        // time. If there's no binding, or it returns null, the caller parses the body and uses post(Data) instead.
+        checkPostable();
+        Binding binding = findBinding();
+        return binding != null ? binding.prepost(this, given) : null;
+    }
+
+    private void checkPostable() throws XDException {
+        preread();
+        Authorizer authorizer  = getContext().getAuthorizer();
+        if (isImmutable())                            throw new XDException(Errors.NOT_WRITABLE,   this, "Trying to modify immutable data");
+        if (!isWritable() && !authorizer.inGodMode()) throw new XDException(Errors.NOT_WRITABLE,   this, "Target is not writable");
+        if (!authorizer.checkWrite(this))             throw new XDException(Errors.NOT_AUTHORIZED, this, "Target is not writable with given authorization");
+    }
+
     ////////////////////////////////////////////////////////////////////
     ///////////////////////////  DELETE  ///////////////////////////////
     ////////////////////////////////////////////////////////////////////
@@ -26,6 +26,7 @@ public abstract class AbstractFloatingPointData extends AbstractPrimitiveData {
 
     @Override public void setLocalValue(Object value) {
         if (value instanceof Double) this.value = (Double)value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
@@ -44,8 +45,8 @@ public abstract class AbstractFloatingPointData extends AbstractPrimitiveData {
         double maximum = doubleValueOf(Meta.MAXIMUM, Double.POSITIVE_INFINITY);
         if (tempValue < minimum) throw new XDException(Errors.VALUE_OUT_OF_RANGE, this, "Value of " + tempValue + "exceeds minimum of " + minimum);
         if (tempValue > maximum) throw new XDException(Errors.VALUE_OUT_OF_RANGE, this, "Value of " + tempValue + "exceeds maximum of " + maximum);
+        markDirty(); // before the change, so a savepoint can remember what it was
         value = tempValue;
-        markDirty();
     }
 
     @Override public String  stringValue()  throws XDException { preread(); return value != null? value.toString() : "<novalue>"; }
@@ -24,6 +24,7 @@ public abstract class AbstractPatternData extends AbstractPrimitiveData {
 
     @Override public void     setLocalValue(Object value)  {
         if (value instanceof int[]) this.value = (int[])value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
@@ -4,6 +4,7 @@ package org.ampii.xd.data.abstractions;
 import org.ampii.xd.common.*;
 import org.ampii.xd.data.*;
 import org.ampii.xd.data.basetypes.*;
+import javax.xml.bind.DatatypeConverter;
 
 /**
  * This is the abstract base for {@link PolyData} and {@link ParsedData}.
@@ -47,6 +48,13 @@ public class AbstractPolyData extends AbstractConstructedData {
         else if (newValue instanceof LocalizedString) { // we are given a single locale
             value = new LocalizedStrings(value,newValue); // this merges in new copy into any existing locales
         }
+        else if (newValue instanceof Long || newValue instanceof Double || newValue instanceof Boolean) { // from a binary format, e.g. CBOR, that knows what its values are
+            value = newValue;
+        }
+        else if (newValue instanceof byte[]) {
+            value = ((byte[])newValue).clone();
+        }
+        else if (newValue == null) value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,newValue);
     }
 
@@ -55,8 +63,8 @@ public class AbstractPolyData extends AbstractConstructedData {
         setLocalValue(newValue);
     }
 
-    @Override public String     stringValue()              throws XDException { preread(); return value == null? "<novalue>" : value.toString(); }
-    @Override public boolean    booleanValue()             throws XDException { preread(); return value instanceof String && ((String)value).equals("true"); }
+    @Override public String     stringValue()              throws XDException { preread(); return value == null? "<novalue>" : value instanceof byte[]? DatatypeConverter.printHexBinary((byte[])value) : value.toString(); }
+    @Override public boolean    booleanValue()             throws XDException { preread(); return value instanceof Boolean? (Boolean)value : value instanceof String && ((String)value).equals("true"); }
     @Override public int        intValue()                 throws XDException { preread(); return (int)longValue();     }
     @Override public long       longValue()                throws XDException { preread(); return parseLong(value, 0L); }
     @Override public float      floatValue()               throws XDException { preread(); return (float)doubleValue(); }
@@ -66,12 +74,14 @@ public class AbstractPolyData extends AbstractConstructedData {
 
     private long parseLong(Object value, long defaultValue) {
         if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number)value).longValue();
         try { return Long.parseLong(value.toString()); }
         catch (NumberFormatException e) { return defaultValue; }
     }
 
     private double parseDouble(Object value, double defaultValue) {
         if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number)value).doubleValue();
         try { return Double.parseDouble(value.toString()); }
         catch (NumberFormatException e) { return defaultValue; }
     }
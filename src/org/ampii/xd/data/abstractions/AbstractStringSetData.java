@@ -25,21 +25,26 @@ public abstract class AbstractStringSetData extends AbstractPrimitiveData {
 
     @Override public void    setLocalValue(Object value)  {   // "no check" means no high level validity/permissions checks.  but we can't let an invalid datatype in!
         if (value instanceof StringSet) this.value = (StringSet)value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
     @Override public void    setValue(Object newValue) throws XDException { // native java format is StringSet but accepts String
         preread();
-        if      (newValue instanceof StringSet) value = new StringSet((StringSet)newValue);
-        else if (newValue instanceof String)    value = new StringSet((String)newValue);
+        StringSet tempValue;
+        if      (newValue instanceof StringSet) tempValue = new StringSet((StringSet)newValue);
+        else if (newValue instanceof String)    tempValue = new StringSet((String)newValue);
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
-        markDirty();
+        markDirty(); // before the change, so a savepoint can remember what it was
+        value = tempValue;
     }
 
     @Override public String  stringValue()  throws XDException { preread();  return value != null? value.toString() : ""; }
 
     @Override public boolean booleanValue() throws XDException { preread();  return value != null && value.size() != 0; }
 
+    @Override public StringSet stringSetValue() throws XDException { preread();  return value != null? new StringSet(value) : new StringSet(); }
+
 
 }
@@ -32,12 +32,12 @@ public abstract class AbstractTextData extends AbstractPrimitiveData {
         // the StringData subclass overrides this and will also accept localized strings
         if  (newValue instanceof String)  {
             validateLength(((String)newValue).length());
+            markDirty(); // before the change, so a savepoint can remember what it was
             value = newValue;
         }
         else if (newValue instanceof LocalizedStrings || newValue instanceof LocalizedString) throw new XDError(this, "setValue() was given localized value(s) for non-localizable data");
         else if (newValue == null)  throw new XDError(this,"setValue() is given a null");
         else throw new XDError(this,"setValue() is given an unknown class");
-        markDirty();
     }
 
     @Override public String  stringValue()              throws XDException { preread(); return value instanceof String? (String)value : ""; }
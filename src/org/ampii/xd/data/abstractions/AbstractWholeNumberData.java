@@ -30,6 +30,7 @@ public abstract class AbstractWholeNumberData extends AbstractPrimitiveData {
     @Override public void setLocalValue(Object value)  {   // "no check" means no high level validity/permissions checks.  but we can't let an invalid datatype in!
         if (value instanceof Long) this.value = (Long)value;
         else if (value instanceof Integer) this.value = (long)((Integer)value);
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
@@ -49,8 +50,8 @@ public abstract class AbstractWholeNumberData extends AbstractPrimitiveData {
         long maximum = longValueOf(Meta.MAXIMUM, Long.MAX_VALUE);
         if (tempValue < minimum) throw new XDException(Errors.VALUE_OUT_OF_RANGE, this, "Value of " + tempValue + " exceeds minimum of " + minimum);
         if (tempValue > maximum) throw new XDException(Errors.VALUE_OUT_OF_RANGE, this, "Value of " + tempValue + " exceeds maximum of " + maximum);
+        markDirty(); // before the change, so a savepoint can remember what it was
         value = tempValue;
-        markDirty();
     }
 
     @Override public String  stringValue()  throws XDException { preread(); return value != null? value.toString() : "<novalue>"; }
@@ -30,8 +30,8 @@ public class BitStringData extends AbstractStringSetData {
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
         validateValue(tempValue);
+        markDirty(); // before the change, so a savepoint can remember what it was
         value = tempValue;
-        markDirty();
     }
 
     @Override public void  validateConsistency()  throws XDException {
@@ -33,16 +33,19 @@ public class BooleanData extends AbstractPrimitiveData {
 
     @Override public void setLocalValue(Object value)    {  // "local" means no high level validity/permissions checks.  but we can't let an invalid datatype in!
         if (value instanceof Boolean) this.value = (Boolean)value;
+        else if (value == null) this.value = null;
         else throw new XDError("setLocalValue() called with invalid object type",this,value);
     }
 
     @Override public void    setValue(Object newValue) throws XDException { // native java format is Boolean but accepts String
         preread();
-        if      (newValue instanceof Boolean) value = (Boolean)newValue;
-        else if (newValue instanceof String)  value = ((String)newValue).equals("true");
+        Boolean tempValue;
+        if      (newValue instanceof Boolean) tempValue = (Boolean)newValue;
+        else if (newValue instanceof String)  tempValue = ((String)newValue).equals("true");
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
-        markDirty();
+        markDirty(); // before the change, so a savepoint can remember what it was
+        value = tempValue;
     }
 
     @Override public String   stringValue()  throws XDException { preread(); return value != null? (value?"true":"false") : "<novalue>"; }
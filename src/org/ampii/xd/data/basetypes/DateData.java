@@ -29,15 +29,15 @@ public class DateData extends AbstractCalendarData {
 
     @Override public void    setValue(Object newValue) throws XDException {
         preread();
-        if      (newValue instanceof Calendar)  value = (Calendar)((Calendar)newValue).clone();
+        // markDirty() comes before each change, so a savepoint can remember what it was
+        if      (newValue instanceof Calendar)  { markDirty(); value = (Calendar)((Calendar)newValue).clone(); }
         else if (newValue instanceof String) {
-            if (newValue.equals("----/--/--")) { value = null; set(UNSPECIFIEDVALUE,true); }
-            else try { value = DatatypeConverter.parseDate((String) newValue); delete(UNSPECIFIEDVALUE); }
+            if (newValue.equals("----/--/--")) { markDirty(); value = null; set(UNSPECIFIEDVALUE,true); }
+            else try { Calendar parsed = DatatypeConverter.parseDate((String) newValue); markDirty(); value = parsed; delete(UNSPECIFIEDVALUE); }
             catch (IllegalArgumentException e) { throw new XDException(VALUE_FORMAT, this, "Invalid date format"); }
         }
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
-        markDirty();
     }
 
     @Override public String  stringValue()  throws XDException {
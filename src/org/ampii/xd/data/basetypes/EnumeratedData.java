@@ -46,7 +46,7 @@ public class EnumeratedData extends AbstractTextData {
                 }
             }
         }
+        markDirty(); // before the change, so a savepoint can remember what it was
         value = tempValue;
-        markDirty();
     }
 }
\ No newline at end of file
@@ -35,11 +35,11 @@ public class ObjectIdentifierData extends AbstractTextData {
                 if (i < 0 || i > 4197303) throw new XDException(Errors.VALUE_FORMAT, this, "Instance part of '" + newValue + "' is out of bounds");
             } catch (NumberFormatException e) {throw new XDException(Errors.VALUE_FORMAT, this, "Instance part of '" + newValue + "' is not a number");}
             // TODO validate type name
+            markDirty(); // before the change, so a savepoint can remember what it was
             value = (String)newValue;
         }
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
-        markDirty();
     }
 
 }
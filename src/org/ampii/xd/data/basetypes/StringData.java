@@ -76,20 +76,22 @@ public class StringData extends AbstractTextData {
             // This removes all localizations (yes, Rule 1 of "setting data" in W.17 seems harsh but it enforces consistency!)
             // However, it *is* possible for internal clients to modify a single locale by calling this with a 'locale' set in the context.
             validateMergedLength((String)newValue); // since single strings can be merged by a context 'skip', we can't just use our superclass' validateLength()
+            markDirty(); // before the change, so a savepoint can remember what it was
             value = newValue;
         }
         else if (newValue instanceof LocalizedStrings) { // we are given a complete set of locales, so check length of each one
             for (LocalizedString ls : (LocalizedStrings)newValue) validateLength(ls.getValue().length());
+            markDirty();
             value = new LocalizedStrings((LocalizedStrings)newValue); // make copy of what we are given so it's immutable
         }
         else if (newValue instanceof LocalizedString) { // we are given a single locale, so check length of value
             validateLength(((LocalizedString)newValue).getValue().length());
+            markDirty();
             value = new LocalizedStrings(value,newValue); // this merges in new copy into any existing locales
         }
         else {
-            super.setValue(newValue); // handle the rest
+            super.setValue(newValue); // handle the rest (and marks dirty)
         }
-        markDirty();
     }
 
     @Override public String    stringValue()  throws XDException { // gets string value in context's locale
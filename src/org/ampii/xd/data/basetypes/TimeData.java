@@ -30,15 +30,15 @@ public class TimeData extends AbstractCalendarData {
 
     @Override public void    setValue(Object newValue) throws XDException {
         preread();
-        if      (newValue instanceof Calendar)  value = (Calendar)((Calendar)newValue).clone();
+        // markDirty() comes before each change, so a savepoint can remember what it was
+        if      (newValue instanceof Calendar)  { markDirty(); value = (Calendar)((Calendar)newValue).clone(); }
         else if (newValue instanceof String) {
-            if (newValue.equals("--:--:--")) { value = null; set(Meta.UNSPECIFIEDVALUE, true); }
-            else try { value = DatatypeConverter.parseTime((String)newValue); delete(Meta.UNSPECIFIEDVALUE); }
+            if (newValue.equals("--:--:--")) { markDirty(); value = null; set(Meta.UNSPECIFIEDVALUE, true); }
+            else try { Calendar parsed = DatatypeConverter.parseTime((String)newValue); markDirty(); value = parsed; delete(Meta.UNSPECIFIEDVALUE); }
             catch (IllegalArgumentException e) { throw new XDException(Errors.VALUE_FORMAT, this, "Invalid time format"); }
         }
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class");
-        markDirty();
     }
 
     @Override public String  stringValue() throws XDException {
@@ -28,14 +28,16 @@ public class WeekNDayData  extends AbstractPatternData {
 
     @Override public void    setValue(Object newValue) throws XDException {
         preread();
+        int[] tempValue;
         if (newValue instanceof int[]) {
-            if (((int[])newValue).length == 3) value = ((int[])newValue).clone();
+            if (((int[])newValue).length == 3) tempValue = ((int[])newValue).clone();
             else throw new XDError(this, "setValue() is given an incorrect length");
         }
-        else if (newValue instanceof String) value = parseWeekNDay(this,(String)newValue);
+        else if (newValue instanceof String) tempValue = parseWeekNDay(this,(String)newValue);
         else if (newValue == null) throw new XDError(this, "setValue() is given a null");
         else                       throw new XDError(this, "setValue() is given an unknown class or length");
-        markDirty();
+        markDirty(); // before the change, so a savepoint can remember what it was
+        value = tempValue;
     }
 
     @Override public String stringValue()  throws XDException {
@@ -14,7 +14,9 @@ import org.ampii.xd.definitions.Definitions;
 import org.ampii.xd.marshallers.DataParser;
 import org.ampii.xd.data.abstractions.AbstractData;
 import java.io.File;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -31,6 +33,8 @@ import java.util.concurrent.TimeUnit;
  *  persisted.
  *  <p>
  *  See {@link Session} for a description of interactions with data in this datastore using sessions and shadows.
+ *  <p>
+ *  A {@link Watcher} can be registered to hear about changes as they are committed, e.g., to maintain an index.
  *
  *  @author daverobin
  */
@@ -39,7 +43,7 @@ public class DataStore {
     static private Data      root;
     static private Semaphore lock;
     static private Locale    locale;
-    static private long      revision=1;
+    static private volatile long revision=1; // bumped on every commit heard below (see stamp())
 
     public static Data initialize(Locale locale, String configFile) throws XDException {
         Data oldRoot = root;
@@ -70,6 +74,7 @@ public class DataStore {
 
     private static Binding theRevisionBinding = new DefaultBinding() {
         @Override public void preread(Data data)  { data.setLocalValue(revision); } // called upon access of /.data/database-revision
+        @Override public Long getCacheTime(Data data) { return CACHE_WHILE_STORE_UNCHANGED; }
     };
 
     public static Binding getRevisionBinding()      { return theRevisionBinding; }
@@ -78,6 +83,39 @@ public class DataStore {
 
     public static String getDatabaseLocaleString()  {  return getDatabaseLocale().toLanguageTag();  }
 
+    ////////////////// Watchers //////////////
+
+    /**
+     * Hears about changes to originals as they are committed. These are called from inside {@link Data#commit} while
+     * the write session is still open, so they need to be quick and must not make sessions of their own.
+     */
+    public interface Watcher {
+        void added(Data data);      // data, and everything below it, is new (or is a replacement for something with the same name)
+        void removing(Data data);   // data, and everything below it, is about to be removed (or renamed)
+        void changed(Data data);    // data's own value, flags, or metadata changed; added and removed children are reported separately
+    }
+
+    private static List<Watcher> watchers = new CopyOnWriteArrayList<>();
+
+    public static void addWatcher(Watcher watcher)    { watchers.add(watcher); }
+    public static void removeWatcher(Watcher watcher) { watchers.remove(watcher); }
+
+    public static void notifyAdded(Data data)         { stamp(data); for (Watcher watcher : watchers) watcher.added(data); }
+    public static void notifyRemoving(Data data)      { stamp(data); for (Watcher watcher : watchers) watcher.removing(data); }
+    public static void notifyChanged(Data data)       { stamp(data); for (Watcher watcher : watchers) watcher.changed(data); }
+    public static void notifyReplaced(Data data)      { stamp(data); } // watchers hear about a replacement in added(), but caches of the old one need to know it's gone
+
+    // Every commit gets a new revision, which is marked as the item's own and on all its ancestors, so anyone holding on
+    // to a result made from an item can tell whether it or anything below it has changed since, and anyone holding on to
+    // something below it can tell that it was removed or replaced (see ResponseCache). Metadata is part of what it's
+    // on, and can be inherited from there (e.g., $authRead), so a change to it is also marked as its owner's own.
+    private static synchronized void stamp(Data data) {
+        long now = ++revision;
+        data.setRevision(now,true);
+        for (Data each = data; Rules.isMetadata(each) && each.getParent() != null; each = each.getParent()) each.getParent().setRevision(now,true);
+        for (Data each = data; each != null; each = each.getParent()) each.setRevision(now,false);
+    }
+
     public static void consumeFile(File file)  throws XDException {
         try {
             // if we got a <CSML> wrapper, then it can contain multiple elements, else it's  just a single item
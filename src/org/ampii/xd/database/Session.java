@@ -10,6 +10,11 @@ import org.ampii.xd.data.Data;
 import org.ampii.xd.data.Context;
 import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.resolver.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Sessions are designed to provide commit/discard to shadows of data in the datastore. Operations on non-shadows take
@@ -134,6 +139,16 @@ import org.ampii.xd.resolver.Path;
  *         finally { session.discard(); }  // you can call discard() with or without a previous commit()
  *      }
  * }</pre><p>
+ * When many independent changes are made in one session, a {@link Savepoint} lets each one be undone on failure without
+ * throwing away the others, so they can all share one traversal and one commit() (again, see MultiManager):
+ * <p><pre>{@code
+ *         Session.Savepoint savepoint = session.setSavepoint();
+ *         try {
+ *             --- modify something ---
+ *             savepoint.release();   // keep it
+ *         }
+ *         catch (XDException e) { savepoint.rollback(); }  // put things back the way they were at setSavepoint()
+ * }</pre><p>
  * In addition to all that, there are "Atomic" methods so that simple callers do not need to create all that
  * try/catch/finally logic. HOWEVER, note that the atomic put and post methods STILL need to create a write session,
  * so they can't be called within an active write session (until we implement multiple write sessions).
@@ -145,6 +160,8 @@ public class Session {
     private String  name = "internal";
     private Data    root;
     private boolean isWriteSession;
+    private List<Session> dependents; // other sessions whose data is handed out with ours, see attach()
+    private Savepoint savepoint;      // the innermost active savepoint, if any
     private static Session activeWriteSession = null; // in the core AMPII code, there is only one active write session at a time (but it can has subsessions)
 
     private Session(String name, Data root, boolean isWriteSession) {
@@ -160,14 +177,78 @@ public class Session {
 
     public void    commit() throws XDException  {
         root.commit();
+        discardDependents();
         if (isWriteSession) close();
     }
 
     public void    discard() {
         root.discard();
+        discardDependents();
         if (isWriteSession) close();
     }
 
+    /**
+     * Ties the lifetime of another (read) session to this one, so it gets discarded when this one is committed or discarded.
+     * This is for when data from the other session is handed out as part of this session's results, e.g., the shadow-backed
+     * entries of a /.multi read that are returned to the GET or POST that asked for them.
+     */
+    public synchronized void attach(Session dependent) {
+        if (dependent.isWriteSession) throw new XDError("Can't attach a write session to another session");
+        if (dependents == null) dependents = new ArrayList<>();
+        dependents.add(dependent);
+    }
+
+    private void   discardDependents() {
+        List<Session> toDiscard;
+        synchronized (this) { toDiscard = dependents; dependents = null; }
+        if (toDiscard != null) for (Session dependent : toDiscard) dependent.discard();
+    }
+
+    ////////////////// Savepoints //////////////
+
+    /**
+     * A mark in the uncommitted changes of a session that can be rolled back to.
+     * <p>
+     * While a savepoint is active, the first time any node in the session is marked dirty (which all modifications do
+     * before changing anything), the node remembers its local state here, along with its ancestors because they get
+     * marked dirtyBelow. So this costs nothing for nodes that are not touched and rollback() only has to visit the
+     * nodes that were. Things that happen outside of the data tree, like a binding talking to a backend, are not undone.
+     */
+    public static class Savepoint {
+        private final Session        session;
+        private final Savepoint      previous;
+        private final Set<Data>      remembered = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Data>     nodes = new ArrayList<>();  // in the order remembered...
+        private final List<Runnable> undos = new ArrayList<>();  // ...with the matching undo for each
+
+        private Savepoint(Session session, Savepoint previous) { this.session = session; this.previous = previous; }
+
+        public boolean isRemembered(Data data) { return remembered.contains(data); }
+
+        public void    remember(Data data, Runnable undo) { // only the first one for each node counts, that's the "before" state
+            if (remembered.add(data)) { nodes.add(data); undos.add(undo); }
+        }
+
+        public void    rollback() { // puts back everything changed since setSavepoint() and ends this savepoint
+            end();
+            for (int i = undos.size()-1; i >= 0; i--) undos.get(i).run(); // last in, first out
+        }
+
+        public void    release() { // keeps the changes and ends this savepoint, but an enclosing savepoint can still roll them back
+            end();
+            if (previous != null) for (int i = 0; i < nodes.size(); i++) previous.remember(nodes.get(i), undos.get(i));
+        }
+
+        private void   end() {
+            if (session.savepoint != this) throw new XDError("Savepoints must be ended in the reverse order they were set");
+            session.savepoint = previous;
+        }
+    }
+
+    public Savepoint setSavepoint() { return savepoint = new Savepoint(this, savepoint); }
+
+    public Savepoint getSavepoint() { return savepoint; }
+
     private void    close() { // called by commit() and discard() for write sessions
         if (activeWriteSession == this) {
             activeWriteSession = null;
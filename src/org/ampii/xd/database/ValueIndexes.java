@@ -0,0 +1,183 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.database;
+
+import org.ampii.xd.common.StringSet;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.data.FilterExpression;
+import org.ampii.xd.data.Meta;
+import org.ampii.xd.definitions.Definitions;
+import org.ampii.xd.resolver.Eval;
+import java.util.*;
+
+/**
+ * Secondary indexes on the values of the children of a collection, used by {@link org.ampii.xd.data.Context} to answer
+ * 'filter' comparisons like "present-value gt 50" without evaluating the path on every child.
+ * <p>
+ * Indexes are declared on the collection with internal metadata listing paths relative to each child, separated by ';':
+ * $..sortedIndexes for numeric comparisons (gt, ge, lt, le) and $..hashedIndexes for equality (eq), e.g.,
+ * <pre>
+ *     &lt;Collection name="objects"&gt;&lt;Extensions&gt;
+ *         &lt;String name="..sortedIndexes" value="present-value"/&gt;
+ *         &lt;String name="..hashedIndexes" value="status-flags/fault;object-type"/&gt;
+ *     &lt;/Extensions&gt;...
+ * </pre>
+ * An index is built from the datastore the first time it's asked for and then kept up to date by a
+ * {@link DataStore.Watcher}. Changes to the definitions, or replacement of the datastore, cause everything to be rebuilt
+ * the next time it's needed.
+ * <p>
+ * The index only narrows the candidates, the caller still evaluates the whole filter on each one. So anything the index
+ * can't know about, like a child whose value comes from a binding, is just always a candidate.
+ *
+ * @author daverobin
+ */
+public class ValueIndexes {
+
+    private static class Index {
+        final String                       path;     // relative path from each child to the indexed value
+        final boolean                      sorted;
+        final Map<String,Object>           keys    = new HashMap<>();  // child name -> its key (Double if sorted, String if hashed)
+        final TreeMap<Double,Set<String>>  ranges  = new TreeMap<>();  // for sorted: key -> names of children with that key
+        final Map<String,Set<String>>      values  = new HashMap<>();  // for hashed: key -> names of children with that key
+        final Set<String>                  unknown = new HashSet<>();  // names of children whose value can't be indexed
+
+        Index(String path, boolean sorted) { this.path = path; this.sorted = sorted; }
+
+        void put(Data child) {
+            String name = child.getName();
+            remove(name);
+            Data at = child;
+            for (String segment : path.split("/")) {
+                if (at.findLocal(Meta.AMPII_BINDING) != null) { unknown.add(name); return; } // value is live, so it can't be indexed
+                at = at.find(segment, null);
+                if (at == null) break;
+            }
+            if (at != null && at.findLocal(Meta.AMPII_BINDING) != null) { unknown.add(name); return; }
+            Data value = Eval.eval(child, path, (Data)null);
+            if (value == null) return; // a missing value never passes a comparison, so it's never a candidate
+            String string;
+            try { string = value.stringValue(); } catch (XDException e) { return; }
+            if (sorted) {
+                Double key;
+                try { key = Double.parseDouble(string); } catch (NumberFormatException e) { return; } // not a number never passes either
+                ranges.computeIfAbsent(key, k -> new HashSet<>()).add(name);
+                keys.put(name, key);
+            }
+            else {
+                values.computeIfAbsent(string, k -> new HashSet<>()).add(name);
+                keys.put(name, string);
+            }
+        }
+
+        void remove(String name) {
+            unknown.remove(name);
+            Object key = keys.remove(name);
+            if (key == null) return;
+            Set<String> names = sorted? ranges.get(key) : values.get(key);
+            names.remove(name);
+            if (names.isEmpty()) { if (sorted) ranges.remove(key); else values.remove(key); }
+        }
+
+        Set<String> find(FilterExpression.Comparison term) {
+            Set<String> results = new HashSet<>(unknown);
+            Collection<Set<String>> found;
+            switch (term.op) {
+                case FilterExpression.OP_EQ: Set<String> names = values.get(term.literal); found = names != null? Collections.singleton(names) : Collections.emptySet(); break;
+                case FilterExpression.OP_GT: found = ranges.tailMap(term.number, false).values(); break;
+                case FilterExpression.OP_GE: found = ranges.tailMap(term.number, true).values();  break;
+                case FilterExpression.OP_LT: found = ranges.headMap(term.number, false).values(); break;
+                case FilterExpression.OP_LE: found = ranges.headMap(term.number, true).values();  break;
+                default: return null;
+            }
+            for (Set<String> names : found) results.addAll(names);
+            return results;
+        }
+    }
+
+    private static final Object                 lock    = new Object();
+    private static final Map<String,List<Index>> indexes = new HashMap<>(); // collection path from the datastore root -> its indexes
+    private static Data                         indexedRoot;               // the datastore root the indexes describe
+    private static long                         indexedGeneration;         // and the definitions they were built with
+
+    /**
+     * Returns the names of the children of collection that might pass the filter term, or null if there is no index that
+     * can answer that. The collection must be from a session (a shadow of datastore data) and have no uncommitted changes.
+     */
+    public static Set<String> find(Data collection, FilterExpression.Comparison term) throws XDException {
+        if (term.op == FilterExpression.OP_NE) return null; // that would be nearly everything anyway
+        boolean sorted = term.op != FilterExpression.OP_EQ;
+        String  path   = term.path;
+        if (!collection.isShadow() || !collection.hasSession() || collection.isDirty() || collection.isDirtyBelow()) return null;
+        if (collection.findBinding() != null || path.contains("(")) return null; // bound children and function calls are always live
+        Data declared = collection.findLocal(sorted? Meta.AMPII_SORTED_INDEXES : Meta.AMPII_HASHED_INDEXES);
+        if (declared == null || !new StringSet(declared.stringValue()).containsComponent(path)) return null;
+        String location = pathOf(collection);
+        synchronized (lock) {
+            Data root = DataStore.getSystemRootIHopeYouKnowWhatYouAreDoing();
+            long generation = Definitions.getGeneration();
+            if (indexedRoot != root || indexedGeneration != generation) {
+                indexes.clear();
+                indexedRoot = root;
+                indexedGeneration = generation;
+            }
+            List<Index> list = indexes.get(location);
+            Index index = null;
+            if (list != null) for (Index candidate : list) if (candidate.sorted == sorted && candidate.path.equals(path)) { index = candidate; break; }
+            if (index == null) {
+                if (location.isEmpty()) return null; // the root is not a collection of anything interesting
+                Data original = root;
+                for (String name : location.substring(1).split("/")) {
+                    original = original.find(name);
+                    if (original == null || original.findLocal(Meta.AMPII_BINDING) != null) return null; // datastore doesn't really have it
+                }
+                index = new Index(path, sorted);
+                for (Data child : original.getChildren()) index.put(child);
+                indexes.computeIfAbsent(location, k -> new ArrayList<>()).add(index);
+            }
+            return index.find(term);
+        }
+    }
+
+    private static String pathOf(Data data) { // "" for the root, else "/name/name..."
+        StringBuilder path = new StringBuilder();
+        for (; data.hasParent(); data = data.getParent()) path.insert(0, "/" + data.getName());
+        return path.toString();
+    }
+
+    ////////////////// Maintenance //////////////
+
+    private static void touched(Data data, boolean removing, boolean replaced) {
+        synchronized (lock) {
+            if (indexes.isEmpty() || indexedGeneration != Definitions.getGeneration()) return;
+            Data top = data;
+            while (top.hasParent()) top = top.getParent();
+            if (top != indexedRoot) return; // not in the datastore
+            String path = pathOf(data);
+            if (replaced) { // anything indexed at or below here is for something that's going away, it can be rebuilt if needed again
+                String prefix = path + "/";
+                indexes.keySet().removeIf(location -> location.equals(path) || location.startsWith(prefix));
+            }
+            // now find any indexed collection above here and update the child that this is in
+            Data child = data;
+            for (String location = path; child.hasParent(); child = child.getParent()) {
+                location = location.substring(0, location.lastIndexOf('/'));
+                List<Index> list = indexes.get(location);
+                if (list == null || !child.isChild()) continue; // metadata isn't one of the indexed children
+                for (Index index : list) {
+                    if (!removing)         index.put(child);
+                    else if (child == data) index.remove(child.getName());
+                    else                   { index.remove(child.getName()); index.unknown.add(child.getName()); } // not gone yet, so we can't tell what it will be
+                }
+            }
+        }
+    }
+
+    private static final DataStore.Watcher theWatcher = new DataStore.Watcher() {
+        @Override public void added(Data data)    { touched(data, false, true);  }
+        @Override public void removing(Data data) { touched(data, true,  true);  }
+        @Override public void changed(Data data)  { touched(data, false, false); }
+    };
+
+    static { DataStore.addWatcher(theWatcher); }
+
+}
@@ -111,6 +111,9 @@ public class Builtins {
                 makeBuiltin(Base.BOOLEAN,    Meta.AMPII_MATCH_ANY),
                 makeBuiltin(Base.STRING,     Meta.AMPII_BINDING),
                 makeBuiltin(Base.STRING,     Meta.AMPII_HISTORY_LOCATION),
+                makeBuiltin(Base.STRING,     Meta.AMPII_SORTED_INDEXES),
+                makeBuiltin(Base.STRING,     Meta.AMPII_HASHED_INDEXES),
+                makeBuiltin(Base.STRING,     Meta.AMPII_ORDERED),
                 makeBuiltin(Base.COLLECTION, Meta.AMPII_DEFINITIONS),
                 makeBuiltin(Base.COLLECTION, Meta.AMPII_TAG_DEFINITIONS)
         );
@@ -19,6 +19,10 @@ import org.ampii.xd.database.DataStore;
  */
 public class Definitions {
 
+    private static volatile long generation; // bumped on every add or remove, so caches of inherited things know to start over
+
+    public static long getGeneration() { return generation; }
+
     public static DefinitionCollector getSystemDefinitionCollector() { return systemDefinitionCollector; }
 
     private static DefinitionCollector systemDefinitionCollector = new DefinitionCollector() {
@@ -44,9 +48,11 @@ public class Definitions {
     public static void     removeDefinition(String name) throws XDException {  // also removes corresponding prototype
         getDefinitions().removeLocal(name);
         Prototypes.removePrototype(name);
+        generation++;
     }
     public static void     removeTagDefinition(String name) throws XDException {
         getTagDefinitions().removeLocal(name);
+        generation++;
     }
 
     public static Data getDefinitionContaining(Data instance) throws XDException { // will return null for builtins
@@ -66,6 +72,7 @@ public class Definitions {
         newdef.put(given, Data.PUT_OPTION_FORCE_WRITE);  // we use a put() here to clean up any freshly parsed data that might still contain POLYs at the lower levels
         newdef.setIsImmutable(true);  // make sure it can no longer be changed by any means, even internally
         collection.addLocal(newdef); // give it back to the immutable parent now that we're done modifying it
+        generation++;
     }
 
 
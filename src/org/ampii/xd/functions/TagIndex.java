@@ -0,0 +1,215 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.functions;
+
+import org.ampii.xd.common.StringSet;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.data.Meta;
+import org.ampii.xd.database.DataStore;
+import org.ampii.xd.definitions.Definitions;
+import java.util.*;
+
+/**
+ * An inverted index from tag to the data in the datastore that has that tag, used by {@link TaggedFunction}.
+ * <p>
+ * The tags for a data item are its effective $tags plus the names of its effective $valueTags, so they include those
+ * inherited from its prototype. The index is built the first time it's needed and then kept up to date by a
+ * {@link DataStore.Watcher}. Since inherited tags come from definitions, any change to the definitions (or replacement
+ * of the whole datastore) just causes the index to be built again the next time it's needed.
+ * <p>
+ * Data is identified by its path from the datastore root, e.g., "/foo/bar". Those are kept in "tree order" (a '/'
+ * sorts before everything else) so everything below a given path is one contiguous range.
+ * <p>
+ * The index can only see what's in the datastore. Anything with a binding, and the definitions, are "opaque": they are
+ * not indexed themselves, nor is anything below them, and searches have to walk them the old fashioned way.
+ *
+ * @author daverobin
+ */
+class TagIndex {
+
+    static final Comparator<String> TREE_ORDER = (a, b) -> {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i), y = b.charAt(i);
+            if (x != y) return x == '/' ? -1 : y == '/' ? 1 : x - y;
+        }
+        return a.length() - b.length();
+    };
+
+    /**
+     * The results of a search, with paths relative to the search target.
+     */
+    static class Result {
+        List<String> matches = new ArrayList<>(); // data found to have all the tags, in tree order
+        List<String> opaque  = new ArrayList<>(); // data within the depth limit that has to be searched by walking it
+    }
+
+    private static final Object                    lock    = new Object();
+    private static final Map<String,TreeSet<String>> postings = new HashMap<>();           // tag -> paths of data with that tag
+    private static final TreeMap<String,List<String>> tagged  = new TreeMap<>(TREE_ORDER); // path -> its tags, for finding what to remove
+    private static final TreeSet<String>           opaque   = new TreeSet<>(TREE_ORDER);    // paths the index can't see inside of
+    private static Data                            indexedRoot;                             // the datastore root the index describes, null if it needs (re)building
+    private static long                            indexedGeneration;                       // and the definitions it was built with
+
+    /**
+     * Searches the data below target for the given tags. Returns null if the index can't answer for this target, e.g.,
+     * it's not from the datastore, it's inside something opaque, or it has uncommitted changes.
+     */
+    static Result search(Data target, String[] tags, int depthLimit) {
+        if (!target.isShadow() || !target.hasSession() || target.isDirty() || target.isDirtyBelow()) return null;
+        String path = pathOf(target);
+        int    limit = depthLimit == -1 ? Integer.MAX_VALUE : Math.max(depthLimit, 1); // children are always searched, even for depth=0
+        String prefix = path + "/";
+        Result result = new Result();
+        synchronized (lock) {
+            ensureBuilt();
+            if (isOpaque(path)) return null;
+            // intersect the posting lists by walking the shortest one and checking for membership in the others
+            List<TreeSet<String>> lists = new ArrayList<>();
+            for (String tag : tags) {
+                TreeSet<String> list = postings.get(tag);
+                if (list == null) { lists = null; break; } // nobody has this tag, so nobody has all of them
+                lists.add(list);
+            }
+            if (lists != null && !lists.isEmpty()) {
+                lists.sort(Comparator.comparingInt(TreeSet::size));
+                for (String candidate : lists.get(0).tailSet(prefix)) {
+                    if (!candidate.startsWith(prefix)) break;
+                    if (depthOf(candidate, prefix) > limit) continue;
+                    boolean all = true;
+                    for (int i = 1; i < lists.size() && all; i++) all = lists.get(i).contains(candidate);
+                    if (all) result.matches.add(candidate.substring(prefix.length()));
+                }
+            }
+            for (String candidate : opaque.tailSet(prefix)) {
+                if (!candidate.startsWith(prefix)) break;
+                if (depthOf(candidate, prefix) <= limit) result.opaque.add(candidate.substring(prefix.length()));
+            }
+        }
+        return result;
+    }
+
+    private static int depthOf(String path, String prefix) {
+        int depth = 1;
+        for (int i = prefix.length(); i < path.length(); i++) if (path.charAt(i) == '/') depth++;
+        return depth;
+    }
+
+    private static String pathOf(Data data) { // "" for the root, else "/name/name..."
+        StringBuilder path = new StringBuilder();
+        for (; data.hasParent(); data = data.getParent()) path.insert(0, "/" + data.getName());
+        return path.toString();
+    }
+
+    private static boolean isOpaque(String path) { // is this path, or any of its ancestors, opaque?
+        for (String at = path; !at.isEmpty(); at = at.substring(0, at.lastIndexOf('/'))) if (opaque.contains(at)) return true;
+        return false;
+    }
+
+    ////////////////// Maintenance //////////////
+
+    private static void ensureBuilt() { // call with lock held
+        Data root = DataStore.getSystemRootIHopeYouKnowWhatYouAreDoing();
+        long generation = Definitions.getGeneration();
+        if (indexedRoot == root && indexedGeneration == generation) return;
+        postings.clear();
+        tagged.clear();
+        opaque.clear();
+        try { for (Data child : root.getChildren()) scan(child, "/" + child.getName()); }
+        catch (XDException e) { } // can't happen for the datastore root
+        indexedRoot = root;
+        indexedGeneration = generation;
+    }
+
+    private static void scan(Data data, String path) {
+        if (data.getName().equals(".defs") || data.getName().equals("..tags") && !data.getParent().hasParent() || data.findLocal(Meta.AMPII_BINDING) != null) {
+            opaque.add(path);
+            return;
+        }
+        index(data, path);
+        try { for (Data child : data.getChildren()) scan(child, path + "/" + child.getName()); }
+        catch (XDException e) { } // if we can't see the children, they can't be indexed
+    }
+
+    private static void index(Data data, String path) {
+        StringSet tags = new StringSet();
+        try {
+            Data meta = data.findEffective(Meta.TAGS);
+            if (meta != null) tags.add(meta.stringSetValue());
+            meta = data.findEffective(Meta.VALUETAGS);
+            if (meta != null) for (Data child : meta.getChildren()) tags.add(child.getName());
+        } catch (XDException e) { } // take what we got
+        if (tags.size() == 0) return;
+        List<String> components = tags.getComponents();
+        for (String tag : components) postings.computeIfAbsent(tag, t -> new TreeSet<>(TREE_ORDER)).add(path);
+        tagged.put(path, components);
+    }
+
+    private static void unindex(String path) {
+        List<String> tags = tagged.remove(path);
+        if (tags != null) for (String tag : tags) {
+            TreeSet<String> list = postings.get(tag);
+            list.remove(path);
+            if (list.isEmpty()) postings.remove(tag);
+        }
+    }
+
+    private static void removeSubtree(String path) {
+        unindex(path);
+        opaque.remove(path);
+        String prefix = path + "/";
+        List<String> below = new ArrayList<>();
+        for (String candidate : tagged.tailMap(prefix).keySet()) { if (!candidate.startsWith(prefix)) break; below.add(candidate); }
+        for (String candidate : below) unindex(candidate);
+        opaque.removeIf(candidate -> candidate.startsWith(prefix));
+    }
+
+    private static boolean isIndexed(Data data) { // call with lock held
+        if (indexedRoot == null || indexedGeneration != Definitions.getGeneration()) return false; // it'll all get picked up when it's (re)built
+        while (data.hasParent()) data = data.getParent();
+        return data == indexedRoot;
+    }
+
+    private static Data ownerOf(Data data) { // the data that metadata (or something inside metadata) is describing, or data itself if it's not metadata
+        Data owner = data;
+        for (Data at = data; at.hasParent(); at = at.getParent()) if (!at.isChild()) owner = at.getParent();
+        return owner;
+    }
+
+    private static final DataStore.Watcher theWatcher = new DataStore.Watcher() {
+
+        @Override public void added(Data data) {
+            if (ownerOf(data) != data) return; // metadata changes are handled by changed() on the owner
+            synchronized (lock) {
+                if (!isIndexed(data)) return;
+                String path = pathOf(data);
+                if (isOpaque(path.substring(0, path.lastIndexOf('/')))) return;
+                removeSubtree(path); // in case this is a replacement
+                scan(data, path);
+            }
+        }
+
+        @Override public void removing(Data data) {
+            if (ownerOf(data) != data) return;
+            synchronized (lock) {
+                if (!isIndexed(data)) return;
+                removeSubtree(pathOf(data));
+            }
+        }
+
+        @Override public void changed(Data data) {
+            Data owner = ownerOf(data);
+            if (!owner.hasParent()) return; // the root isn't searchable, it's only ever a target
+            synchronized (lock) {
+                if (!isIndexed(owner)) return;
+                String path = pathOf(owner);
+                if (isOpaque(path)) return;
+                unindex(path);
+                index(owner, path);
+            }
+        }
+    };
+
+    static { DataStore.addWatcher(theWatcher); }
+
+}
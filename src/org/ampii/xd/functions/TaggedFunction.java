@@ -8,9 +8,14 @@ import org.ampii.xd.data.basetypes.IntegerData;
 import org.ampii.xd.data.basetypes.LinkData;
 import org.ampii.xd.data.basetypes.ListData;
 import org.ampii.xd.data.basetypes.StringData;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * An Implementation of the .../tagged() URI function, called from {@link Functions}
+ * <p>
+ * Data in the datastore is found with the {@link TagIndex}; bound data and anything else the index can't see into is
+ * searched by walking it.
  *
  */
 public class TaggedFunction extends Functions {
@@ -22,39 +27,42 @@ public class TaggedFunction extends Functions {
         parseArgs(argString, tagsArg, depth);
         String[] tags = tagsArg.stringValue().split(";");
         int depthLimit = depth.intValue();
-        DataList parents = new DataList();
-        if (target.canHaveChildren()) for (Data child: target.getChildren())  {
-            search(child, parents, depthLimit, resultsList, tags);
+        List<String> found = new ArrayList<>();
+        if (target.canHaveChildren()) {
+            TagIndex.Result indexed = TagIndex.search(target, tags, depthLimit);
+            if (indexed == null) { // the index can't help here, so do it the hard way
+                for (Data child: target.getChildren()) search(child, child.getName(), 1, depthLimit, found, tags);
+            }
+            else {
+                found.addAll(indexed.matches);
+                for (String path : indexed.opaque) { // the index can't see inside of these, so walk them
+                    Data data = target;
+                    for (String name : path.split("/")) if (data != null) data = data.find(name);
+                    if (data != null) search(data, path, path.split("/").length, depthLimit, found, tags);
+                }
+                found.sort(TagIndex.TREE_ORDER);
+            }
         }
+        for (String path : found) resultsList.post(new LinkData("", path));
         return resultsList;
     }
 
-    // TODO: yikes: do this with a real indexed database of tags some day
-    static void search(Data data, DataList parents, int depthLimit, Data resultsList, String[] tags) throws XDException {
+    static void search(Data data, String path, int depth, int depthLimit, List<String> found, String[] tags) throws XDException {
         Data meta;
         StringSet foundTags = new StringSet();
         meta = data.findEffective(Meta.TAGS);
         if (meta != null) foundTags.add(meta.stringSetValue());
         meta = data.findEffective(Meta.VALUETAGS);
         if (meta != null) for (Data child: meta.getChildren()) foundTags.add(child.getName());
-        int found = 0;
+        int count = 0;
         for (String tag : tags) {
-            if (foundTags.containsComponent(tag)) found++;
-        }
-        if (found == tags.length) {  // did we find them all?
-            StringBuilder path = new StringBuilder();
-            for (Data parent : parents) {
-                path.append(parent.getName()+"/");
-            }
-            path.append(data.getName());
-            resultsList.post(new LinkData("", path.toString()));
+            if (foundTags.containsComponent(tag)) count++;
         }
-        if (data.getCount()!=0 && (depthLimit == -1 || parents.size()<depthLimit-1)) {
-            parents.add(data);
+        if (count == tags.length) found.add(path); // did we find them all?
+        if (data.getCount()!=0 && (depthLimit == -1 || depth<depthLimit)) {
             for (Data child: data.getChildren())  {
-                search(child, parents, depthLimit,  resultsList, tags);
+                search(child, path + "/" + child.getName(), depth+1, depthLimit, found, tags);
             }
-            parents.remove(parents.size() - 1);
         }
     }
 }
@@ -6,7 +6,8 @@ import org.ampii.xd.application.Policy;
 import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.bindings.DefaultBinding;
 import org.ampii.xd.bindings.DefaultBindingPolicy;
-import org.ampii.xd.client.Client;
+import org.ampii.xd.client.HttpClient;
+import org.ampii.xd.common.Errors;
 import org.ampii.xd.common.Log;
 import org.ampii.xd.common.XDError;
 import org.ampii.xd.common.XDException;
@@ -14,8 +15,17 @@ import org.ampii.xd.data.*;
 import org.ampii.xd.data.basetypes.*;
 import org.ampii.xd.definitions.Instances;
 import org.ampii.xd.data.Context;
+import org.ampii.xd.marshallers.DataParser;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.ampii.xd.data.Meta.*;
 
@@ -32,16 +42,23 @@ public class ClientManager {
     private static class ClientRecord {
         public String  name;          // will be assigned a GUID
         public int     interval=60;   // seconds for polling, 0=cov
-        public int     timer;         // seconds left before next poll
+        public ScheduleManager.Timer poller; // null until persisted
         public String  source;        // required
         public String  type="Any";    // definition type name
         public String  authorization; // null = none
         public Data    data;          // null = none received yet
         public boolean error;         // defaults to false
         public String  status="idle";
+        public String  etag;          // from the last response, for If-None-Match
+        public byte[]  digest;        // of the last body, to tell if it changed when the source doesn't do ETags
+        public long    latency;       // millis the last poll took
+        public Calendar changed;      // when the data last changed, null if never received
+        public long    sequence = nextSequence.getAndIncrement(); // creation order, for listing
+        public int getTimer() { return poller == null? 0 : (int)(poller.getRemaining() / 1000); } // seconds left before next poll
     }
 
-    private static List<ClientRecord> records = new ArrayList<>();  // this is the native storage for "/client" items
+    private static Map<String,ClientRecord> records = new ConcurrentHashMap<>();  // this is the native storage for "/client" items, keyed by GUID name
+    private static AtomicLong nextSequence = new AtomicLong();
 
     public  static Binding  getBinding() { return theBinding; }
 
@@ -63,7 +80,8 @@ public class ClientManager {
     private static DataList getContextualizedChildren(Data data) throws XDException {
         Context context = data.getContext();
         if (!context.isTarget(data)) return new DataList(true,false,null); // if we're not the target level, just return a truncated list
-        List<ClientRecord> recordList = new ArrayList<>(records);          // get a separate list so we can reverse it
+        List<ClientRecord> recordList = new ArrayList<>(records.values()); // get a separate list so we can sort and reverse it
+        recordList.sort((a, b) -> Long.compare(a.sequence, b.sequence));  // map has no order, so list them in the order created
         if (context.getReverse()) Collections.reverse(recordList);
         Iterator<ClientRecord> iterator = recordList.iterator();           // then get an iterator for that list of records,
         return context.filterChildren(new Iterator<Data>() {               // and use it to generate a stream of Data items for the records.
@@ -87,15 +105,14 @@ public class ClientManager {
     }
 
     private static ClientRecord findRecord(String name) {
-        if (Rules.isChild(name)) for (ClientRecord record : records) if (record.name.equals(name)) return record;
-        return null;
+        return Rules.isChild(name)? records.get(name) : null;
     }
 
     private static boolean  commit(Data data) throws XDException {
         for (Data recordData : data.getLocalChildren()) { // for each of the given record data items...
             ClientRecord record = findRecord(recordData.getName());
-            if (record == null) records.add(dataToRecord(recordData));
-            else if (recordData.isDeleted()) records.remove(record);
+            if (record == null) addRecord(dataToRecord(recordData));
+            else if (recordData.isDeleted()) removeRecord(record);
         }
         return true; // we handled it.
     }
@@ -130,74 +147,94 @@ public class ClientManager {
                 <Any        name="value"         optional="true"/>
                 <Boolean    name="error"         optional="true"/>
                 <String     name="status"        optional="true"/>
+                <Unsigned   name="latency"       optional="true"/>
+                <DateTime   name="changed"       optional="true"/>
             </Composition>
             */
             Data recordData = Instances.makeInstance("org.ampii.types.ClientRecord", record.name);
             recordData.addLocal(new StringData("source",record.source));
             recordData.addLocal(new StringData("type",record.type));
             if (record.authorization!= null) recordData.addLocal(new StringData("authorization",record.authorization));
+            recordData.addLocal(new IntegerData("interval",record.interval)); // commit() makes the record from this, so it has to be here
             if (record.data != null) recordData.addLocal(record.data.makeDeepCopy());
             recordData.addLocal(new BooleanData("error",record.error));
             recordData.addLocal(new StringData("status",record.status));
-            recordData.addLocal(new UnsignedData("timer", record.timer));
+            recordData.addLocal(new UnsignedData("timer", record.getTimer()));
+            recordData.addLocal(new UnsignedData("latency", record.latency));
+            if (record.changed != null) recordData.addLocal(new DateTimeData("changed", record.changed));
             return recordData;
         }
         catch (XDException e) { throw new XDError("ClientManager.recordToData() had internal failure",e); }
     }
 
-    ////////////////// Watcher thread //////////////
+    ////////////////// Polling //////////////
 
-    private static boolean shutdown;
-    private static Thread  thread;
+    // Polls run on a small pool of their own, so a slow source only ever ties up one thread, and only until its deadline
+    // (the poll interval, or the client read timeout if that's shorter). Each poll schedules the next one when it's done,
+    // a little early or late at random, so sources added together don't keep firing on the same tick.
+    private static ExecutorService pollers;
 
-    public static void start() {
-        shutdown = false;
-        if (thread != null) return;
-        thread = new Thread(new Watcher());
-        thread.setDaemon(true);
-        thread.start();
+    private static synchronized ExecutorService getPollers() {
+        if (pollers == null) pollers = Executors.newFixedThreadPool(Application.clientPollThreads, runnable -> {
+            Thread poller = new Thread(runnable, "ClientManager poller");
+            poller.setDaemon(true);
+            return poller;
+        });
+        return pollers;
     }
 
-    public static void stop() {
-        shutdown = true;
-        if (thread == null) return;
-        thread.interrupt();
+    private static long  periodOf(ClientRecord record) { // an interval of 0 (cov) just polls as often as we ever did
+        return record.interval > 0 ? record.interval * 1000L : Application.clientWatchInterval;
     }
 
-    private static class Watcher implements Runnable {
-        public void run() {
-            for (;;) {
-                try {
-                    Thread.sleep(Application.clientWatchInterval);
-                    if (shutdown) break;
-                    ClientManager.checkRecords(Application.clientWatchInterval / 1000);
-                }
-                catch (InterruptedException e) {
-                    Log.logSevere("Multi Watcher got interrupted: " + e.getMessage());
-                }
-            }
-        }
+    private static long  jittered(long delay) { // +/- 10%
+        return delay + (long)((ThreadLocalRandom.current().nextDouble() - 0.5) * delay / 5);
     }
 
-    private static void  checkRecords(int elapsed) {
-        for (ClientRecord record : records) {
-            record.timer -= elapsed;
-            if (record.timer < 0) {
-                record.timer = record.interval;
-                doOne(record);
-            }
-        }
+    private static void  addRecord(ClientRecord record) {
+        records.put(record.name, record);
+        // first poll comes soon, then every 'interval' seconds
+        record.poller = ScheduleManager.schedule(jittered(Application.clientWatchInterval), () -> getPollers().execute(() -> doOne(record)));
+    }
+
+    private static void  removeRecord(ClientRecord record) {
+        if (record.poller != null) record.poller.cancel();
+        records.remove(record.name, record);
     }
 
     private static void  doOne(ClientRecord record) {
-        try {
-            Data data = Instances.makeInstance(record.type,"data");
-            record.data = Client.doHttp(record.source, "GET", data, "", null, "", "application/json", null);
+        if (records.get(record.name) != record) return; // it's been removed
+        long start = System.currentTimeMillis();
+        Map<String,String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Accept", "application/json");
+        if (record.etag != null)          headers.put("If-None-Match", record.etag);  // so an unchanged source can just say so
+        if (record.authorization != null) headers.put("Authorization", record.authorization); // the record's 'authorization' is the header's whole value, e.g., "Bearer ..."
+        try (HttpClient.Response response = HttpClient.send("GET", record.source, headers, null, Math.min(periodOf(record), Application.clientReadTimeout))) {
+            if (response.status == 304) record.status = "Not Modified";
+            else if (response.status >= 200 && response.status <= 299) {
+                byte[] body   = response.getBytes();
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(body); // for sources that don't do ETags
+                if (!Arrays.equals(digest, record.digest)) {
+                    Data data = Instances.makeInstance(record.type,"data");
+                    record.data    = data.put(DataParser.parse(body, response.getFormat()));
+                    record.digest  = digest;
+                    record.changed = new GregorianCalendar();
+                }
+                record.etag   = response.getHeader("ETag", null);
+                record.status = "Success";
+            }
+            else throw new XDException(Errors.CLIENT_ACTION_FAILED, "Client received HTTP status "+response.status+" with body:"+response.getText());
             record.error = false;
-            record.status = "Success";
-        } catch (XDException e) {
+        } catch (XDException | IOException | NoSuchAlgorithmException e) {
             record.error = true;
             record.status = "Error: " + e.getLocalizedMessage();
+        } catch (RuntimeException | XDError e) { // e.g., a bad 'source' URI, or a failure in a binding
+            record.error = true;
+            record.status = "Error: " + e;
+            Log.logSevere("ClientManager poll of '" + record.source + "' failed: " + e);
+        } finally { // whatever happened, the next poll has to be scheduled, or this record would never be polled again
+            record.latency = System.currentTimeMillis() - start;
+            if (records.get(record.name) == record) record.poller.reschedule(jittered(periodOf(record)));
         }
     }
 
@@ -3,22 +3,27 @@ package org.ampii.xd.managers;
 
 import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.bindings.DefaultBinding;
+import org.ampii.xd.common.XDError;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.*;
 import org.ampii.xd.data.basetypes.LinkData;
+import org.ampii.xd.data.basetypes.ListData;
+import org.ampii.xd.database.DataStore;
+import org.ampii.xd.database.Session;
 import org.ampii.xd.resolver.Eval;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.BiConsumer;
+import java.util.*;
 
 /**
- * The default Index methods just simply create the needed indexes in /.data on the fly by brute force.
+ * Maintains the indexes in /.data: histories, events, objects, and nodes.
  * <p>
- * These simplistic default bindings search most of the data in the system!  in memory!  in one session!
+ * The indexes are built once, by brute force, the first time any of them is read. After that, they are kept up to date
+ * by a {@link DataStore.Watcher} that hears about every change as it is committed, so a read only has to make the
+ * Link items that it actually returns, and 'skip' is done by position right in the index when nothing else is filtering.
+ * If the datastore is replaced wholesale (the Playground does this), the indexes are simply built again on the next read.
  * <p>
- * Any *real* application will likely want to replace these with sparse bindings. Additionally, a real application
- * will want to maintain these lists persistently, not make them on the fly, and should include "watcher" hooks to
- * notice when changes have happened that affect the persistent indexes.
+ * Each index only looks in its configured locations, to a given depth, so it doesn't wander through everything in the
+ * system (like definitions). An application with data that is not committed to the datastore (i.e., it's all behind
+ * bindings) will likely want to replace these with bindings of its own.
  *
  * @author daverobin
  */
@@ -28,8 +33,12 @@ public class IndexManager {
         public IndexLocation(String path, int depth) { this.path = path; this.depth = depth; }
         String path;
         int    depth;
+        String resolved; // the location's actual path in the datastore, found when the indexes are built (null if not there)
     }
 
+    private static final Object lock = new Object();  // guards all the indexes
+    private static Data         indexedRoot;          // the datastore root the indexes describe, null if they need (re)building
+
     static List<IndexLocation> historyLocations = new ArrayList<>();
     static List<IndexLocation> eventsLocations  = new ArrayList<>();
     static List<IndexLocation> nodesLocations   = new ArrayList<>();
@@ -52,71 +61,234 @@ public class IndexManager {
 
     }
 
-    static public void addHistoriesLocation(String path)             { historyLocations.add(new IndexLocation(path,Integer.MAX_VALUE)); }
-    static public void addHistoriesLocation(String path, int depth)  { historyLocations.add(new IndexLocation(path,depth)); }
-    static public void addEventsLocation(String path)                { eventsLocations.add(new IndexLocation(path,Integer.MAX_VALUE)); }
-    static public void addEventsLocation(String path, int depth)     { eventsLocations.add(new IndexLocation(path, depth)); }
-    static public void addNodesLocation(String path)                 { nodesLocations.add(new IndexLocation(path,Integer.MAX_VALUE)); }
-    static public void addNodesLocation(String path, int depth)      { nodesLocations.add(new IndexLocation(path, depth)); }
-    static public void addObjectsLocation(String path)               { objectsLocations.add(new IndexLocation(path,Integer.MAX_VALUE)); }
-    static public void addObjectsLocation(String path, int depth)    { objectsLocations.add(new IndexLocation(path, depth)); }
+    static public void addHistoriesLocation(String path)             { addLocation(historyLocations, path, Integer.MAX_VALUE); }
+    static public void addHistoriesLocation(String path, int depth)  { addLocation(historyLocations, path, depth); }
+    static public void addEventsLocation(String path)                { addLocation(eventsLocations, path, Integer.MAX_VALUE); }
+    static public void addEventsLocation(String path, int depth)     { addLocation(eventsLocations, path, depth); }
+    static public void addNodesLocation(String path)                 { addLocation(nodesLocations, path, Integer.MAX_VALUE); }
+    static public void addNodesLocation(String path, int depth)      { addLocation(nodesLocations, path, depth); }
+    static public void addObjectsLocation(String path)               { addLocation(objectsLocations, path, Integer.MAX_VALUE); }
+    static public void addObjectsLocation(String path, int depth)    { addLocation(objectsLocations, path, depth); }
 
-    private static Binding theHistoriesBinding = new DefaultBinding() {
-        // at present, this just looks for the presence of the AMPII_HISTORY_LOCATION metadata; it doesn't consult the Historian class
-        @Override public void preread(Data target) throws XDException {
-            prereadSomething(target, historyLocations,
-                    (t, d) -> {
-                        try {
-                            if (d.find(Meta.AMPII_HISTORY_LOCATION,null)!=null) {
-                                t.post(new LinkData("", d.getPath()));
-                            }
-                        } catch (XDException e) {} // can't throw from BiConsumer
-                    }
-            );
+    private static void addLocation(List<IndexLocation> locations, String path, int depth) {
+        synchronized (lock) {
+            locations.add(new IndexLocation(path, depth));
+            indexedRoot = null; // make everything get rebuilt to include the new location
         }
-    };
+    }
 
+    ////////////////// Indexes //////////////
 
-    private static Binding theEventsBinding = new DefaultBinding() {
-        // at present, this just looks for BACnet Event Log objects and makes link to the log-buffer property
-        @Override public void preread(Data target) throws XDException {
-            prereadSomething(target, eventsLocations,
-                    (t, d) -> {
-                        try {
-                            if (d.stringValueOf("object-type","").equals("event-log")) {
-                                t.post(new LinkData("", d.getPath()+"/log-buffer"));
-                            }
-                        } catch (XDException e) {} // can't throw from BiConsumer
-                    }
-            );
+    /**
+     * An insertion ordered set of paths. Readers get a snapshot list, which is only remade after something changes.
+     */
+    private static class PathList {
+        private final Set<String> paths = new LinkedHashSet<>();
+        private List<String>      snapshot;
+        void         add(String path)    { if (paths.add(path)) snapshot = null; }
+        void         remove(String path) { if (paths.remove(path)) snapshot = null; }
+        boolean      isEmpty()           { return paths.isEmpty(); }
+        List<String> snapshot()          { if (snapshot == null) snapshot = Collections.unmodifiableList(new ArrayList<>(paths)); return snapshot; }
+    }
+
+    /**
+     * Data in an index's locations goes in one of its lists (named by key()) or in none of them (key() returns null).
+     * Only the nodes index uses more than one list, one for each $nodeType.
+     */
+    private static abstract class Index {
+        final List<IndexLocation>   locations;
+        final Map<String,PathList>  lists = new LinkedHashMap<>(); // keyed by key(), in order of first appearance
+        final TreeMap<String,String> keys = new TreeMap<>();       // path -> key, sorted so a subtree is a range
+
+        Index(List<IndexLocation> locations) { this.locations = locations; }
+
+        abstract String key(Data data) throws XDException;
+
+        int depthOf(String path) { // how far down into one of our locations the path is, or -1 if it's not in one
+            for (IndexLocation location : locations) {
+                if (location.resolved == null) continue;
+                int depth = -1;
+                if (path.equals(location.resolved)) depth = 0;
+                else if (path.startsWith(location.resolved + "/")) {
+                    depth = 1;
+                    for (int i = location.resolved.length() + 1; i < path.length(); i++) if (path.charAt(i) == '/') depth++;
+                }
+                if (depth >= 0 && depth <= location.depth) return depth;
+            }
+            return -1;
         }
-    };
 
+        int depthLimitOf(String path) {
+            for (IndexLocation location : locations) {
+                if (location.resolved != null && (path.equals(location.resolved) || path.startsWith(location.resolved + "/"))) return location.depth;
+            }
+            return -1;
+        }
 
-    private static Binding theNodesBinding = new DefaultBinding() {
-        // this just looks for the presence of the $nodeType metadata
-        @Override public void preread(Data target) throws XDException {
-            prereadSomething(target, nodesLocations,
-                    (t, d) -> {
-                        try {
-                            String nodeType = d.stringValueOf(Meta.NODETYPE, "");
-                            // post the link to the data under a list with the same name as the node type
-                            if (!nodeType.isEmpty()) t.getOrCreate(nodeType,null,Base.LIST).post(new LinkData("", d.getPath()));
-                        } catch (XDException e) { } // can't throw from BiConsumer
-                    }
-            );
+        void check(Data data) { // (re)decide which list, if any, this data belongs in
+            String path = data.getPath();
+            if (depthOf(path) < 0) return;
+            String key;
+            try { key = key(data); } catch (XDException e) { key = null; }
+            String oldKey = keys.get(path);
+            if (Objects.equals(key, oldKey)) return;
+            if (oldKey != null) unlist(path, oldKey);
+            if (key != null) {
+                lists.computeIfAbsent(key, k -> new PathList()).add(path);
+                keys.put(path, key);
+            }
+        }
+
+        void scan(Data data, int depth, int depthLimit) { // check data and everything below it within the depth limit
+            check(data);
+            if (depth < depthLimit) {
+                try { for (Data child : data.getChildren()) scan(child, depth + 1, depthLimit); }
+                catch (XDException e) { } // if we can't see the children, then they can't be in the index
+            }
+        }
+
+        void removeSubtree(String path) {
+            String oldKey = keys.get(path);
+            if (oldKey != null) unlist(path, oldKey);
+            // '0' is the character after '/', so this range is everything that starts with path + "/"
+            SortedMap<String,String> below = keys.subMap(path + "/", path + "0");
+            for (Map.Entry<String,String> entry : new ArrayList<>(below.entrySet())) unlist(entry.getKey(), entry.getValue());
+        }
+
+        private void unlist(String path, String key) {
+            keys.remove(path);
+            PathList list = lists.get(key);
+            if (list == null) return;
+            list.remove(path);
+            if (list.isEmpty()) lists.remove(key);
         }
+
+        void clear() { lists.clear(); keys.clear(); }
+
+        List<String> paths(String key) { PathList list = lists.get(key); return list != null ? list.snapshot() : Collections.emptyList(); }
+    }
+
+    private static final Index histories = new Index(historyLocations) {
+        // at present, this just looks for the presence of the AMPII_HISTORY_LOCATION metadata; it doesn't consult the Historian class
+        @Override String key(Data data) { return data.find(Meta.AMPII_HISTORY_LOCATION, null) != null ? "" : null; }
+    };
+
+    private static final Index events = new Index(eventsLocations) {
+        // at present, this just looks for BACnet Event Log objects (and we'll link to their log-buffer property)
+        @Override String key(Data data) throws XDException { return data.stringValueOf("object-type", "").equals("event-log") ? "" : null; }
     };
 
-    private static Binding theObjectsBinding = new DefaultBinding() {
+    private static final Index nodes = new Index(nodesLocations) {
+        // this just looks for the presence of the $nodeType metadata, and the links are listed by node type
+        @Override String key(Data data) throws XDException { String nodeType = data.stringValueOf(Meta.NODETYPE, ""); return nodeType.isEmpty() ? null : nodeType; }
+    };
+
+    private static final Index objects = new Index(objectsLocations) {
         // this looks for anything of base type Object
-        @Override public void preread(Data target) throws XDException {
-            prereadSomething(target, objectsLocations,
-                    (t, d) -> {
-                        try { if (d.getBase()==Base.OBJECT) target.post(new LinkData("", d.getPath())); }
-                        catch(XDException e) {} // can't throw from BiConsumer
-                    }
-            );
+        @Override String key(Data data) { return data.getBase() == Base.OBJECT ? "" : null; }
+    };
+
+    private static final Index[] indexes = { histories, events, nodes, objects };
+
+    private static void ensureBuilt() { // call with lock held
+        Data root = DataStore.getSystemRootIHopeYouKnowWhatYouAreDoing();
+        if (indexedRoot == root) return;
+        Session session = Session.makeReadSession("IndexManager.build");
+        try {
+            for (Index index : indexes) {
+                index.clear();
+                for (IndexLocation location : index.locations) {
+                    location.resolved = null;
+                    try {
+                        Data data = Eval.eval(session.getRoot(), location.path);
+                        location.resolved = data.getPath();
+                        index.scan(data, 0, location.depth);
+                    } catch (XDException e) { } // location isn't there, so there's nothing to index
+                }
+            }
+        }
+        finally { session.discard(); }
+        indexedRoot = root;
+    }
+
+    private static List<String> paths(Index index, String key) {
+        synchronized (lock) { ensureBuilt(); return index.paths(key); }
+    }
+
+    private static List<String> keys(Index index) {
+        synchronized (lock) { ensureBuilt(); return new ArrayList<>(index.lists.keySet()); }
+    }
+
+    ////////////////// Watcher //////////////
+
+    private static boolean isIndexed(Data data) { // call with lock held
+        if (indexedRoot == null) return false; // nothing to maintain yet; it'll all be picked up when the indexes are built
+        while (data.hasParent()) data = data.getParent();
+        return data == indexedRoot;
+    }
+
+    private static final DataStore.Watcher theWatcher = new DataStore.Watcher() {
+
+        @Override public void added(Data data) {
+            if (!data.isChild()) return; // metadata changes are handled by changed() on the parent
+            synchronized (lock) {
+                if (!isIndexed(data)) return;
+                String path = data.getPath();
+                for (Index index : indexes) {
+                    int depth = index.depthOf(path);
+                    if (depth < 0) continue;
+                    index.removeSubtree(path); // in case this is a replacement
+                    index.scan(data, depth, index.depthLimitOf(path));
+                }
+            }
+        }
+
+        @Override public void removing(Data data) {
+            if (!data.isChild()) return;
+            synchronized (lock) {
+                if (!isIndexed(data)) return;
+                String path = data.getPath();
+                for (Index index : indexes) index.removeSubtree(path);
+            }
+        }
+
+        @Override public void changed(Data data) {
+            synchronized (lock) {
+                if (!isIndexed(data)) return;
+                for (Index index : indexes) {
+                    if (data.isChild()) index.check(data);
+                    if (data.hasParent()) index.check(data.getParent()); // e.g., a change to $nodeType or to an object's object-type
+                }
+            }
+        }
+    };
+
+    static { DataStore.addWatcher(theWatcher); }
+
+    ////////////////// Bindings //////////////
+
+    private static Binding theHistoriesBinding = makeListBinding(histories, "", "");
+
+    private static Binding theEventsBinding    = makeListBinding(events, "", "/log-buffer");
+
+    private static Binding theObjectsBinding   = makeListBinding(objects, "", "");
+
+    private static Binding theNodesBinding = new DefaultBinding() {
+        // a Collection of Lists, one for each $nodeType, with links to the nodes of that type
+        @Override public Integer  getTotalCount()                      { return keys(nodes).size(); }
+        @Override public Long     getCacheTime(Data data)              { return CACHE_WHILE_STORE_UNCHANGED; } // the indexes only change on commits
+        @Override public Data     prefind(Data data, String name)      throws XDException {
+            if (!keys(nodes).contains(name)) return null;
+            Data list = makeNodeTypeList(data, name);
+            data.addLocal(list); // as with other bindings, add it locally so that Eval can continue on down into it
+            return list;
+        }
+        @Override public DataList getContextualizedChildren(Data data) throws XDException {
+            Iterator<String> iterator = keys(nodes).iterator();
+            return data.getContext().filterChildren(new Iterator<Data>() {
+                @Override public boolean hasNext() { return iterator.hasNext(); }
+                @Override public Data    next()    { return makeNodeTypeList(data, iterator.next()); }
+            }, data.getContext().isTarget(data));
         }
     };
 
@@ -125,21 +297,48 @@ public class IndexManager {
     public static Binding   getNodesBinding()      { return theNodesBinding; }
     public static Binding   getObjectsBinding()    { return theObjectsBinding; }
 
-
-    private static void  prereadSomething(Data target, List<IndexLocation> locations, BiConsumer<Data,Data> consumer) throws XDException {
-        target.getContext().getAuthorizer().enterGodMode(); // we need to write to the unwritable lists /.data/xxx
-        for (IndexLocation location : locations) {
-            Data data = Eval.eval(target, location.path);
-            try { check(data, target, 0, location.depth, consumer); } catch (XDException e) { }
-        }
-        target.getContext().getAuthorizer().exitGodMode();
+    private static Data makeNodeTypeList(Data parent, String nodeType) {
+        try {
+            Data list = new ListData(nodeType);
+            list.setBinding(makeListBinding(nodes, nodeType, ""));
+            list.setParent(parent); // so it has a path and gets the parent's context, even if it's not added locally
+            return list;
+        } catch (XDException e) { throw new XDError("Can't make node type list", e); }
     }
 
-
-    private static void check(Data data, Data target, int curDepth, int depthLimit, BiConsumer<Data,Data> consumer) throws XDException {
-        consumer.accept(target, data);
-        if (curDepth < depthLimit) for (Data child : data.getChildren()) check(child, target, curDepth + 1, depthLimit, consumer);
+    private static Binding makeListBinding(Index index, String key, String suffix) {
+        // a List of Links, numbered from 1 in index order, made only as needed
+        return new DefaultBinding() {
+            @Override public Integer  getTotalCount() { return paths(index, key).size(); }
+            @Override public Long     getCacheTime(Data data) { return CACHE_WHILE_STORE_UNCHANGED; }
+            @Override public Data     prefind(Data data, String name) throws XDException {
+                List<String> paths = paths(index, key);
+                int position;
+                try { position = Integer.parseInt(name); } catch (NumberFormatException e) { return null; }
+                if (position < 1 || position > paths.size()) return null;
+                Data link = new LinkData(name, paths.get(position - 1) + suffix);
+                data.addLocal(link);
+                return link;
+            }
+            @Override public DataList getContextualizedChildren(Data data) throws XDException {
+                List<String> paths   = paths(index, key);
+                Context      context = data.getContext();
+                boolean      isTarget = context.isTarget(data);
+                boolean      reverse  = context.getReverse();
+                int          resumed  = context.seekCursor(isTarget, paths.size(), i -> String.valueOf(reverse ? paths.size() - i : i + 1));
+                int          start    = Math.max(resumed, 0);
+                int          skipped  = isTarget && resumed >= 0 && context.canSkipAtSource() ? Math.min(Math.max(context.getSkip(), 0), paths.size() - start) : 0;
+                return context.filterChildren(new Iterator<Data>() {
+                    int next = start + skipped;
+                    @Override public boolean hasNext() { return next < paths.size(); }
+                    @Override public Data    next()    {
+                        int position = reverse ? paths.size() - 1 - next++ : next++;
+                        try { return new LinkData(String.valueOf(position + 1), paths.get(position) + suffix); }
+                        catch (XDException e) { throw new XDError("Can't make index link", e); }
+                    }
+                }, isTarget, skipped, resumed);
+            }
+        };
     }
 
-
 }
@@ -0,0 +1,537 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.managers;
+
+import org.ampii.xd.application.Bindings;
+import org.ampii.xd.application.HistoryAggregator;
+import org.ampii.xd.application.Historian.PeriodMethod;
+import org.ampii.xd.application.Policy;
+import org.ampii.xd.bindings.Binding;
+import org.ampii.xd.bindings.DefaultBinding;
+import org.ampii.xd.bindings.DefaultBindingPolicy;
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.StringSet;
+import org.ampii.xd.common.XDError;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.*;
+import org.ampii.xd.data.basetypes.*;
+import org.ampii.xd.database.DataStore;
+import org.ampii.xd.definitions.Instances;
+import org.ampii.xd.definitions.Prototypes;
+import org.ampii.xd.managers.LogStorage.Columns;
+import org.ampii.xd.managers.LogStorage.Record;
+import org.ampii.xd.marshallers.DataParser;
+import org.ampii.xd.marshallers.JSONReader;
+import javax.xml.bind.DatatypeConverter;
+import java.util.*;
+
+/**
+ * Keeps the records of trend log buffers in columns of primitives rather than as trees of {@link Data}.
+ * <p>
+ * A log buffer opts in with the "log-buffer" binding, e.g.,
+ * <pre>
+ *     &lt;List name="log-buffer-1" memberType="0-BACnetLogRecord"&gt;&lt;Extensions&gt;
+ *         &lt;String name="..binding" value="log-buffer"/&gt;
+ *     &lt;/Extensions&gt;...records...&lt;/List&gt;
+ * </pre>
+ * When a buffer like that is committed to the datastore, a {@link DataStore.Watcher} moves its records into the columns
+ * and removes them from the datastore. After that, records come and go through the binding: reads make Data records
+ * only for what is actually returned, and POSTed records go straight into the columns on commit.
+ * <p>
+ * The records are kept in timestamp order, so the published-ge/gt/le/lt range of a request is found by binary search
+ * and historyPeriodic() is computed right from the columns. Records are numbered by position, like any List, so the
+ * sequence-ge/gt/le/lt range is found without looking at any of them.
+ * <p>
+ * The columns are kept in {@link LogStorage}, which compresses all but the newest records into blocks. It's never changed
+ * once it has been handed out; changes make a new one. So readers just take the current one and go, without holding any
+ * locks. The size and compression of each buffer is listed in /.info/log-buffers.
+ * <p>
+ * A buffer with a $maximumSize is circular, like the buffer-size of a BACnet Trend Log: when it's full, each new record
+ * evicts the oldest one. Eviction just moves the start of the first block, so it costs no more than the append. Records
+ * keep their names when older ones are evicted (or deleted from the front), so a sequence number means the same record
+ * for as long as it's there, and the total-record-count in /.info/log-buffers is all that were ever added.
+ *
+ * @author daverobin
+ */
+public class LogBufferManager {
+
+    // the log-datum choices, by context tag, which is what's in the 'kinds' column
+    private static final String[] DATUMS = { "log-status", "boolean-value", "real-value", "enumerated-value", "unsigned-value", "integer-value", "bitstring-value", "null-value", "failure", "time-change", "any-value" };
+    private static final int      NO_DATUM = -1, LOG_STATUS = 0, BOOLEAN = 1, REAL = 2, ENUMERATED = 3, UNSIGNED = 4, INTEGER = 5, NULL = 7, TIME_CHANGE = 9;
+    private static final String[] LOG_STATUS_BITS   = { "log-disabled", "buffer-purged", "log-interrupted" };
+    private static final String[] STATUS_FLAGS_BITS = { "in-alarm", "fault", "overridden", "out-of-service" };
+    private static final int      FLAGS_PRESENT     = 0x80; // the record has status-flags
+    private static final int      FLAGS_VALUE       = 0x40; // and they have a value, even if it's all clear
+
+    /**
+     * How many records are sealed into each compressed block (see {@link LogStorage}). Only newly sealed blocks are affected by a change.
+     */
+    public static int blockSize = 1024;
+
+    private static class Log {
+        volatile LogStorage storage = LogStorage.EMPTY;
+    }
+
+    private static final Map<Data,Log> logs = Collections.synchronizedMap(new WeakHashMap<>()); // datastore log buffer -> its records
+
+    private static Log logOf(Data buffer) {
+        Data original = buffer.isShadow() ? buffer.getOriginal() : buffer;
+        return logs.computeIfAbsent(original, k -> new Log());
+    }
+
+    ////////////////// Binding //////////////
+
+    public static Binding getBinding(Data data) {
+        Log log = logOf(data);
+        return new DefaultBinding() {
+            @Override public Integer  getTotalCount()                                 { return log.storage.size; }
+            @Override public Data     prefind(Data data, String name)      throws XDException { return LogBufferManager.prefind(log, data, name); }
+            @Override public DataList getContextualizedChildren(Data data) throws XDException { return LogBufferManager.getContextualizedChildren(log, data); }
+            @Override public Data     prepost(Data target, Data given)     throws XDException { return LogBufferManager.prepost(log, target, given); }
+            @Override public Data     prepost(Data target, JSONReader given) throws XDException { return LogBufferManager.prepost(log, target, given); }
+            @Override public boolean  commit(Data data)                    throws XDException { return LogBufferManager.commit(log, data); }
+            @Override public Policy   getPolicy()                                     { return thePolicy; }
+            @Override public String   computeHistoryPeriodic(Data data, Calendar start, int period, int count, PeriodMethod method) { return LogBufferManager.computeHistoryPeriodic(log, start, period, count, method); }
+        };
+    }
+
+    private static Policy thePolicy = new DefaultBindingPolicy() {
+        @Override public boolean allowCreate(Data target, String name, String type, Base base) { return Rules.isChild(name); }
+    };
+
+    private static Data prefind(Log log, Data data, String name) throws XDException {
+        LogStorage storage  = log.storage;
+        int        position = positionOf(storage, name);
+        if (position < 0 || position >= storage.size) return null;
+        Data record = makeRecord(storage.new Reader(), position, name);
+        data.addLocal(record); // must add locally or commit() will not find it if you write to it
+        return record;
+    }
+
+    private static DataList getContextualizedChildren(Log log, Data data) throws XDException {
+        LogStorage storage  = log.storage;
+        Context    context  = data.getContext();
+        boolean    isTarget = context.isTarget(data);
+        int        from     = 0;
+        int        to       = storage.size;
+        long       since    = Long.MIN_VALUE; // the earliest time and sequence number asked for, to tell whether evicted records would have been in range
+        long       sinceSeq = 1;
+        if (isTarget) { // the time and sequence ranges are contiguous runs of records, so find their ends rather than looking at every record
+            if (context.hasPublished_ge()) from = Math.max(from, storage.lowerBound(context.getPublished_ge().getTimeInMillis()));
+            if (context.hasPublished_gt()) from = Math.max(from, storage.upperBound(context.getPublished_gt().getTimeInMillis()));
+            if (context.hasPublished_le()) to   = Math.min(to,   storage.upperBound(context.getPublished_le().getTimeInMillis()));
+            if (context.hasPublished_lt()) to   = Math.min(to,   storage.lowerBound(context.getPublished_lt().getTimeInMillis()));
+            if (context.hasSequence_ge())  from = Math.max(from, (int)Math.min(context.getSequence_ge() - 1 - storage.dropped, to)); // records are named by position
+            if (context.hasSequence_gt())  from = Math.max(from, (int)Math.min(context.getSequence_gt()     - storage.dropped, to));
+            if (context.hasSequence_le())  to   = (int)Math.min(to, Math.max(context.getSequence_le()     - storage.dropped, 0));
+            if (context.hasSequence_lt())  to   = (int)Math.min(to, Math.max(context.getSequence_lt() - 1 - storage.dropped, 0));
+            if (to < from) to = from;
+            if (context.hasPublished_ge()) since    = Math.max(since,    context.getPublished_ge().getTimeInMillis());
+            if (context.hasPublished_gt()) since    = Math.max(since,    context.getPublished_gt().getTimeInMillis() + 1);
+            if (context.hasSequence_ge())  sinceSeq = Math.max(sinceSeq, context.getSequence_ge());
+            if (context.hasSequence_gt())  sinceSeq = Math.max(sinceSeq, context.getSequence_gt() + 1);
+        }
+        int     first    = from;
+        int     size     = to - from;
+        boolean reverse  = context.getReverse();
+        int     resumed  = context.seekCursor(isTarget, size, i -> nameOf(storage, reverse ? first + size - 1 - i : first + i));
+        int     start    = Math.max(resumed, 0);
+        int     skipped  = isTarget && resumed >= 0 && context.canSkipAtSource() ? Math.min(Math.max(context.getSkip(), 0), size - start) : 0;
+        LogStorage.Reader reader = storage.new Reader(); // so each block is decoded only once
+        DataList results = context.filterChildren(new Iterator<Data>() {
+            int next = start + skipped;
+            @Override public boolean hasNext() { return next < size; }
+            @Override public Data    next()    {
+                int position = reverse ? first + size - 1 - next++ : first + next++;
+                try { return makeRecord(reader, position, nameOf(storage, position)); }
+                catch (XDException e) { throw new XDError("Can't make log record", e); }
+            }
+        }, isTarget, skipped, resumed);
+        boolean evicted = storage.evictedThrough != Long.MIN_VALUE && since <= storage.evictedThrough && sinceSeq <= storage.dropped;
+        if (size < storage.size || evicted) results.partial = true; // some were left out by the range, or evicted from within it
+        return results;
+    }
+
+    private static Data prepost(Log log, Data target, Data given) throws XDException {
+        if (given instanceof Batch) return given; // staged by append(), see below
+        if (isBatch(given)) return append(log, target, given);
+        LogStorage storage = log.storage;
+        given.setName(nameOf(storage, storage.size)); // counting any that have been evicted
+        Data record = Instances.makeInstance("0-BACnetLogRecord", given.getName());
+        record.put(given, Data.PUT_OPTION_USE_POST_RULES); // this will validate the given data and throw any problems
+        decode(record); // and so will this, before anything is committed
+        return record;
+    }
+
+    // POSTing a List of records appends them all at once. They're checked and parsed right into Records, without making an
+    // instance of each one, and go into the columns together when the session is committed. There's nothing left for the
+    // POST to create, so the result is ephemeral: the number of records added.
+    private static Data append(Log log, Data target, Data batch) throws XDException {
+        Set<String>  fields  = recordFields();
+        List<Record> records = new ArrayList<>();
+        for (Data given : batch.getChildren()) records.add(recordOf(log, target, given, fields));
+        return append(target, records);
+    }
+
+    // A big batch can be POSTed as JSON without it ever being a tree: it's read one record at a time, and only the
+    // Records are kept. This takes the same forms that a parsed batch would be, i.e., an array of records, or a List
+    // with numbered members. For anything else, it backs out and lets the body be parsed as usual.
+    private static Data prepost(Log log, Data target, JSONReader json) throws XDException {
+        Set<String>  fields  = recordFields();
+        List<Record> records = new ArrayList<>();
+        int          start   = json.next();
+        if (start != JSONReader.START_ARRAY && start != JSONReader.START_OBJECT) return null;
+        for (int event = json.next(); event != JSONReader.END_ARRAY && event != JSONReader.END_OBJECT; event = json.next()) {
+            String name = String.valueOf(records.size() + 1);
+            if (event == JSONReader.NAME) {
+                name = json.getText();
+                if (name.equals(Meta.BASE) || name.equals(Meta.MEMBERTYPE)) {
+                    if (json.next() != JSONReader.VALUE) return null;
+                    if (name.equals(Meta.BASE) && !json.getText().equals("List") && !json.getText().equals("SequenceOf")) return null;
+                    continue;
+                }
+                if (!name.matches("[0-9]+")) return null; // not a batch after all
+                event = json.next();
+            }
+            if (event != JSONReader.START_OBJECT) return null;
+            Data given = DataParser.parseNext(json, event, name);
+            records.add(recordOf(log, target, given, fields));
+        }
+        if (records.isEmpty()) return null;
+        return append(target, records);
+    }
+
+    private static Set<String> recordFields() throws XDException {
+        Set<String> fields = new HashSet<>();
+        for (Data field : Prototypes.getPrototypeFor("0-BACnetLogRecord").getChildren()) fields.add(field.getName());
+        return fields;
+    }
+
+    private static Record recordOf(Log log, Data target, Data given, Set<String> fields) throws XDException {
+        Record record = parse(given, fields);
+        if (record == null) record = decode(prepost(log, target, given)); // not something simple, so it gets the full treatment
+        return record;
+    }
+
+    // The records are staged on the target shadow, in a Batch posted to it like any other new child, so they go into the
+    // columns in commit() and are gone with the shadow if the session is discarded or a savepoint is rolled back.
+    private static Data append(Data target, List<Record> records) throws XDException {
+        int staged = 0;
+        for (Data child : target.getLocalChildren()) if (child instanceof Batch) staged++;
+        target.post(new Batch(records)).setName("..batch-" + (staged + 1)); // post() named it like a record, which it isn't
+        return new UnsignedData("..ephemeral", records.size());
+    }
+
+    private static class Batch extends UnsignedData {
+        final List<Record> records;
+        Batch(List<Record> records) throws XDException { super("..batch", records.size()); this.records = records; }
+    }
+
+    private static boolean isBatch(Data given) throws XDException { // a List of records, or just parsed and numbered like one
+        if (given.getBase() == Base.LIST || given.getBase() == Base.SEQUENCEOF) return true;
+        if (given.getBase() != Base.POLY) return false;
+        DataList children = given.getChildren();
+        if (children.isEmpty()) return false;
+        try { Integer.parseInt(children.get(0).getName()); return true; } catch (NumberFormatException e) { return false; } // records have no numbered fields
+    }
+
+    // parses a given record that has a number, boolean, log-status, or null for its log-datum, else returns null
+    private static Record parse(Data given, Set<String> fields) throws XDException {
+        if (!given.stringValueOf(Meta.TYPE, "0-BACnetLogRecord").equals("0-BACnetLogRecord")) return null;
+        for (Data child : given.getChildren()) if (!fields.contains(child.getName())) throw new XDException(Errors.CANNOT_CREATE, given, "Log records don't have '" + child.getName() + "'");
+        Data timestamp = given.find("timestamp");
+        Data datum     = given.find("log-datum");
+        if (timestamp == null || !timestamp.hasValue()) throw new XDException(Errors.INCONSISTENT_VALUES, given, "Log record has no timestamp");
+        Record record = new Record();
+        try {
+            Calendar calendar = DatatypeConverter.parseDateTime(timestamp.stringValue());
+            record.time = calendar.getTimeInMillis();
+            record.zone = (short)((calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / 60000);
+            DataList choice = datum != null ? datum.getChildren() : new DataList();
+            if (choice.size() > 1) throw new XDException(Errors.INCONSISTENT_VALUES, given, "Log record has more than one log-datum");
+            if (!choice.isEmpty()) {
+                Data   value = choice.get(0);
+                String text  = value.hasValue() ? value.stringValue() : "";
+                int    kind  = Arrays.asList(DATUMS).indexOf(value.getName());
+                switch (kind) {
+                    case LOG_STATUS:  record.value = bitsOf(given, text, LOG_STATUS_BITS); break;
+                    case BOOLEAN:
+                        if (!text.equals("true") && !text.equals("false")) throw new XDException(Errors.VALUE_FORMAT, given, "Bad boolean-value '" + text + "'");
+                        record.value = text.equals("true") ? 1 : 0;
+                        break;
+                    case REAL:
+                    case TIME_CHANGE: record.value = Double.parseDouble(text); break;
+                    case UNSIGNED:
+                    case INTEGER:     record.value = Long.parseLong(text);     break;
+                    case ENUMERATED:
+                        try { record.value = Long.parseLong(text); } catch (NumberFormatException e) { return null; } // given by name
+                        break;
+                    case NULL:        break;
+                    default:          return null; // failure, etc.
+                }
+                if (kind == UNSIGNED && record.value < 0) throw new XDException(Errors.VALUE_OUT_OF_RANGE, given, "Negative unsigned-value");
+                record.kind = (byte)kind;
+            }
+            Data statusFlags = given.find("status-flags");
+            if (statusFlags != null) record.flags = (byte)(statusFlags.hasValue() ? FLAGS_PRESENT | FLAGS_VALUE | bitsOf(given, statusFlags.stringValue(), STATUS_FLAGS_BITS) : FLAGS_PRESENT);
+        } catch (IllegalArgumentException e) { throw new XDException(Errors.VALUE_FORMAT, given, "Bad value in log record: " + e.getMessage()); }
+        return record;
+    }
+
+    private static int bitsOf(Data given, String text, String[] names) throws XDException {
+        StringSet set = new StringSet(text);
+        for (String component : set.getComponents()) if (!component.isEmpty() && !Arrays.asList(names).contains(component)) throw new XDException(Errors.VALUE_FORMAT, given, "Unknown bit '" + component + "'");
+        return bitsOf(set, names);
+    }
+
+    private static boolean commit(Log log, Data data) throws XDException {
+        // the records under the shadow are either ones we made in prefind(), or new ones from post()
+        DataList records = data.getLocalChildren();
+        synchronized (log) {
+            LogStorage        storage = log.storage;
+            LogStorage.Reader reader  = storage.new Reader();
+            List<Record>      added   = new ArrayList<>();
+            List<Integer>     deleted = new ArrayList<>();
+            for (Data record : records) {
+                if (record instanceof Batch) { added.addAll(((Batch)record).records); continue; } // appends are O(1) each, see LogStorage
+                int     position = positionOf(storage, record.getName());
+                boolean existing = position >= 0 && position < storage.size;
+                if (existing && record.isDeleted()) deleted.add(position);
+                else if (existing && (record.isDirty() || record.isDirtyBelow())) {
+                    Record replacement = decode(record);
+                    Columns original = reader.at(position);
+                    if (replacement.time == original.times[reader.index]) storage = storage.replaced(position, replacement);
+                    else { deleted.add(position); added.add(replacement); } // it moves
+                }
+                else if (!existing && !record.isDeleted()) added.add(decode(record));
+            }
+            deleted.sort(Collections.reverseOrder()); // from the end, so the positions of the rest don't change
+            int front = 0; // deleted from the front, which doesn't renumber the rest
+            while (deleted.contains(front)) front++;
+            for (int position : deleted) if (position >= front) storage = storage.removed(position);
+            for (int i = 0; i < front; i++) storage = storage.deleted(0);
+            for (Record record : added) storage = storage.inserted(record);
+            log.storage = evicted(storage, data);
+        }
+        for (Data record : records) data.removeLocal(record); // so the normal commit doesn't put them in the datastore
+        return false; // let the normal commit take care of the buffer's own metadata, etc.
+    }
+
+    private static String computeHistoryPeriodic(Log log, Calendar start, int period, int count, PeriodMethod method) {
+        LogStorage        storage    = log.storage;
+        LogStorage.Reader reader     = storage.new Reader(); // the records are decoded a block at a time as the aggregator asks for them
+        HistoryAggregator aggregator = new HistoryAggregator(start, period, count, method);
+        int               last       = aggregator.getBoundaryCount() - 1;
+        int position = storage.lowerBound(aggregator.getBoundary(0)) - 1; // the one before the first boundary, for "before", etc.
+        if (position >= 0) accept(aggregator, reader, position);
+        for (int boundary = 0; boundary < last && aggregator.wantsMore(); boundary++) {
+            accept(aggregator, storage, reader, aggregator.getBoundary(boundary), aggregator.getBoundary(boundary + 1), storage.rollups.length - 1);
+        }
+        for (position = storage.lowerBound(aggregator.getBoundary(last)); position < storage.size && aggregator.wantsMore(); position++) {
+            accept(aggregator, reader, position); // the ones after the last boundary, for "after", etc.
+        }
+        return aggregator.finish();
+    }
+
+    // gives the aggregator everything from 'from' up to 'to', which don't cross a boundary, using the biggest rollup buckets
+    // that fit inside, then smaller ones for what's left at either end, and finally the records themselves
+    private static void accept(HistoryAggregator aggregator, LogStorage storage, LogStorage.Reader reader, long from, long to, int tier) {
+        if (from >= to || !aggregator.wantsMore()) return;
+        if (tier < 0) {
+            for (int position = storage.lowerBound(from), stop = storage.lowerBound(to); position < stop && aggregator.wantsMore(); position++) accept(aggregator, reader, position);
+            return;
+        }
+        LogRollup rollup = storage.rollups[tier];
+        long      low    = rollup.startOf(from + rollup.size - 1); // the first bucket entirely inside
+        long      high   = rollup.startOf(to);                     // and the end of the last one
+        if (storage.evictedThrough != Long.MIN_VALUE) low = Math.max(low, rollup.startOf(storage.evictedThrough) + rollup.size); // buckets with evicted records in them are stale
+        if (low >= high) { accept(aggregator, storage, reader, from, to, tier - 1); return; }
+        accept(aggregator, storage, reader, from, low, tier - 1);
+        HistoryAggregator.Run run = new HistoryAggregator.Run();
+        for (int i = rollup.lowerBound(low); i < rollup.size() && rollup.get(i).start < high && aggregator.wantsMore(); i++) {
+            LogRollup.Bucket bucket = rollup.get(i);
+            run.count     = bucket.count;
+            run.sum       = bucket.sum;
+            run.min       = bucket.min;       run.minText   = textOf(bucket.min, bucket.minKind);
+            run.max       = bucket.max;       run.maxText   = textOf(bucket.max, bucket.maxKind);
+            run.firstTime = bucket.firstTime; run.first     = bucket.first; run.firstText = textOf(bucket.first, bucket.firstKind);
+            run.lastTime  = bucket.lastTime;  run.last      = bucket.last;  run.lastText  = textOf(bucket.last, bucket.lastKind);
+            aggregator.accept(run);
+        }
+        accept(aggregator, storage, reader, high, to, tier - 1);
+    }
+
+    private static void accept(HistoryAggregator aggregator, LogStorage.Reader reader, int position) {
+        Columns columns = reader.at(position);
+        int     i       = reader.index;
+        if (LogStorage.isValue(columns, i)) aggregator.accept(columns.times[i], columns.values[i], textOf(columns.values[i], columns.kinds[i]));
+    }
+
+    private static LogStorage evicted(LogStorage storage, Data buffer) { // makes room for the newest records, if the buffer has a limit
+        int capacity = buffer.intValueOf(Meta.MAXIMUMSIZE, 0);
+        return capacity > 0 ? storage.evicted(storage.size - capacity) : storage;
+    }
+
+    static boolean isValue(int kind) { return kind == REAL || kind == BOOLEAN || kind == ENUMERATED || kind == UNSIGNED || kind == INTEGER; }
+
+    private static String textOf(double value, int kind) {
+        switch (kind) {
+            case REAL:    return String.valueOf(value);
+            case BOOLEAN: return String.valueOf(value != 0);
+            default:      return String.valueOf((long)value);
+        }
+    }
+
+    ////////////////// Info //////////////
+
+    public static Binding getInfoBinding() { return theInfoBinding; }
+
+    // lists each log buffer in the datastore with how many records it has and how well they are compressed
+    private static Binding theInfoBinding = new DefaultBinding() {
+        @Override public DataList getContextualizedChildren(Data data) throws XDException {
+            Map<String,LogStorage> buffers = new TreeMap<>();
+            synchronized (logs) { for (Map.Entry<Data,Log> entry : logs.entrySet()) if (isCurrent(entry.getKey())) buffers.put(entry.getKey().getPath(), entry.getValue().storage); }
+            List<Data> items = new ArrayList<>();
+            for (Map.Entry<String,LogStorage> entry : buffers.entrySet()) {
+                LogStorage storage = entry.getValue();
+                int        bytes   = storage.bytes();
+                Data item = Instances.makeInstance("org.ampii.types.LogBufferInfo", String.valueOf(items.size() + 1));
+                item.addLocal(new LinkData("buffer", entry.getKey()));
+                item.addLocal(new UnsignedData("record-count", storage.size));
+                item.addLocal(new UnsignedData("total-record-count", storage.dropped + storage.size));
+                item.addLocal(new UnsignedData("block-count", storage.blocks.length));
+                item.addLocal(new UnsignedData("byte-count", bytes));
+                item.addLocal(new RealData("compression-ratio", bytes == 0 ? 1.0 : (double)storage.size * Columns.BYTES_PER_RECORD / bytes));
+                items.add(item);
+            }
+            return data.getContext().filterChildren(items.iterator(), data.getContext().isTarget(data));
+        }
+    };
+
+    private static boolean isCurrent(Data buffer) { // still in the datastore, and not replaced by another with the same name
+        Data data = buffer;
+        for (; data.hasParent(); data = data.getParent()) if (data.getParent().findLocal(data.getName()) != data) return false;
+        return data.isRooted();
+    }
+
+    ////////////////// Records //////////////
+
+    private static Record decode(Data data) throws XDException {
+        Record record = new Record();
+        Data timestamp = data.find("timestamp");
+        if (timestamp == null || !timestamp.hasValue()) throw new XDException(Errors.INCONSISTENT_VALUES, data, "Log record has no timestamp");
+        Calendar calendar = timestamp.calendarValue();
+        record.time = calendar.getTimeInMillis();
+        record.zone = (short)((calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / 60000);
+        Data datum = data.find("log-datum");
+        DataList choice = datum != null ? datum.getChildren() : new DataList();
+        if (!choice.isEmpty()) {
+            Data value = choice.get(0);
+            int kind = Arrays.asList(DATUMS).indexOf(value.getName());
+            try {
+                switch (kind) {
+                    case LOG_STATUS:  record.value = bitsOf(value.stringSetValue(), LOG_STATUS_BITS); break;
+                    case BOOLEAN:     record.value = value.booleanValue() ? 1 : 0;                  break;
+                    case REAL:
+                    case TIME_CHANGE: record.value = value.doubleValue();                           break;
+                    case ENUMERATED:
+                    case UNSIGNED:
+                    case INTEGER:     record.value = Long.parseLong(value.stringValue());          break;
+                    case NULL:                                                                      break;
+                    default:          record.other = value.makeDeepCopy();                         break; // failure, etc., kept as is
+                }
+            } catch (NumberFormatException e) { record.other = value.makeDeepCopy(); } // e.g., an enumerated value given by name
+            record.kind = (byte)kind;
+        }
+        Data statusFlags = data.find("status-flags");
+        if (statusFlags != null) record.flags = (byte)(statusFlags.hasValue() ? FLAGS_PRESENT | FLAGS_VALUE | bitsOf(statusFlags.stringSetValue(), STATUS_FLAGS_BITS) : FLAGS_PRESENT);
+        return record;
+    }
+
+    private static int positionOf(LogStorage storage, String name) { // records are named by position, counting any that have been evicted
+        try { return (int)Math.max(Math.min(Long.parseLong(name) - 1 - storage.dropped, Integer.MAX_VALUE), -1); } catch (NumberFormatException e) { return -1; }
+    }
+
+    private static String nameOf(LogStorage storage, int position) { return String.valueOf(storage.dropped + position + 1); }
+
+    private static Data makeRecord(LogStorage.Reader reader, int position, String recordName) throws XDException {
+        Columns columns  = reader.at(position);
+        int     i        = reader.index;
+        Data    record   = Instances.makeInstance("0-BACnetLogRecord", recordName);
+        Calendar calendar = new GregorianCalendar(new SimpleTimeZone(columns.zones[i] * 60000, ""));
+        calendar.setTimeInMillis(columns.times[i]);
+        record.addLocal(new DateTimeData("timestamp", calendar));
+        int kind = columns.kinds[i];
+        if (kind != NO_DATUM) {
+            Data   datum = new ChoiceData("log-datum");
+            String name  = DATUMS[kind];
+            double value = columns.values[i];
+            Data   other = columns.others != null ? columns.others[i] : null;
+            if (other != null) datum.addLocal(other.makeDeepCopy());
+            else switch (kind) {
+                case LOG_STATUS:  datum.addLocal(new BitStringData(name, namesOf((int)value, LOG_STATUS_BITS))); break;
+                case BOOLEAN:     datum.addLocal(new BooleanData(name, value != 0));                          break;
+                case REAL:
+                case TIME_CHANGE: datum.addLocal(new RealData(name, value));                                  break;
+                case ENUMERATED:  datum.addLocal(new EnumeratedData(name, (long)value));                      break;
+                case UNSIGNED:    datum.addLocal(new UnsignedData(name, (long)value));                        break;
+                case INTEGER:     datum.addLocal(new IntegerData(name, (long)value));                         break;
+                case NULL:        datum.addLocal(new NullData(name));                                         break;
+            }
+            record.addLocal(datum);
+        }
+        int flags = columns.flags[i];
+        if ((flags & FLAGS_VALUE) != 0)        record.addLocal(new BitStringData("status-flags", namesOf(flags, STATUS_FLAGS_BITS)));
+        else if ((flags & FLAGS_PRESENT) != 0) record.addLocal(new BitStringData("status-flags"));
+        return record;
+    }
+
+    private static int bitsOf(StringSet set, String[] names) {
+        int bits = 0;
+        for (int i = 0; i < names.length; i++) if (set.containsComponent(names[i])) bits |= 1 << i;
+        return bits;
+    }
+
+    private static StringSet namesOf(int bits, String[] names) {
+        StringSet set = new StringSet();
+        for (int i = 0; i < names.length; i++) if ((bits & 1 << i) != 0) set.add(names[i]);
+        return set;
+    }
+
+    ////////////////// Ingesting //////////////
+
+    private static boolean isLogBuffer(Data data) {
+        Data binding = data.findLocal(Meta.AMPII_BINDING);
+        return binding != null && binding.stringValue("").equals(Bindings.DATA_LOG_BUFFER);
+    }
+
+    private static void ingest(Data buffer) { // moves the records from the datastore into the columns
+        Log log = logOf(buffer);
+        synchronized (log) {
+            LogStorage storage = log.storage;
+            try { for (Data data : buffer.getChildren()) storage = storage.inserted(decode(data)); }
+            catch (XDException e) { throw new XDError("Bad log record in " + buffer.getName(), e); }
+            log.storage = evicted(storage, buffer);
+        }
+        buffer.removeLocalChildren();
+    }
+
+    private static void scan(Data data) {
+        if (isLogBuffer(data)) { ingest(data); return; }
+        try { for (Data child : data.getChildren()) scan(child); }
+        catch (XDException e) { } // if we can't see the children, there's nothing to ingest
+    }
+
+    private static final DataStore.Watcher theWatcher = new DataStore.Watcher() {
+        @Override public void added(Data data) {
+            if (data.getName().equals(Meta.AMPII_BINDING)) { if (data.hasParent() && isLogBuffer(data.getParent())) ingest(data.getParent()); }
+            else if (data.isChild()) scan(data);
+        }
+        @Override public void removing(Data data) { } // the columns go away with the buffer
+        @Override public void changed(Data data)  { }
+    };
+
+    static { DataStore.addWatcher(theWatcher); }
+
+    public static void init() { } // just makes sure the watcher is registered before any log buffers are loaded
+
+}
@@ -0,0 +1,130 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.managers;
+
+/**
+ * One tier of rollups for a log buffer in {@link LogStorage}: the count, sum, min, max, first, and last of the values in
+ * each fixed bucket of time (a minute, an hour, a day), so historyPeriodic() can take a whole bucket at once rather than
+ * every record in it. Buckets are aligned to the epoch, so days are UTC days; queries by local day get the hours at
+ * either end from the hour buckets instead.
+ * <p>
+ * Like LogStorage, a LogRollup is never changed once it has been made. Appends only touch the last, "open", bucket; once
+ * a bucket is closed it's kept in an array that is only ever appended to past what anyone else can see. When the
+ * oldest records are evicted, the buckets they were in are trimmed from the front the same way.
+ *
+ * @author daverobin
+ */
+final class LogRollup {
+
+    static final long[] SIZES = { 60000L, 3600000L, 86400000L }; // minute, hour, day, in milliseconds
+
+    /**
+     * The values in one bucket. The kinds are the log-datum choices of the values, so they can be formatted like the records.
+     */
+    static final class Bucket {
+        final long   start;
+        final int    count;
+        final double sum;
+        final double min, max;
+        final byte   minKind, maxKind;
+        final long   firstTime, lastTime;
+        final double first, last;
+        final byte   firstKind, lastKind;
+
+        private Bucket(long start, int count, double sum, double min, byte minKind, double max, byte maxKind,
+                       long firstTime, double first, byte firstKind, long lastTime, double last, byte lastKind) {
+            this.start = start; this.count = count; this.sum = sum;
+            this.min = min; this.minKind = minKind; this.max = max; this.maxKind = maxKind;
+            this.firstTime = firstTime; this.first = first; this.firstKind = firstKind;
+            this.lastTime  = lastTime;  this.last  = last;  this.lastKind  = lastKind;
+        }
+
+        Bucket(long start, long time, double value, byte kind) {
+            this(start, 1, value, value, kind, value, kind, time, value, kind, time, value, kind);
+        }
+
+        Bucket(long start, Bucket from) { // the values of a smaller bucket, to start a bigger one
+            this(start, from.count, from.sum, from.min, from.minKind, from.max, from.maxKind,
+                 from.firstTime, from.first, from.firstKind, from.lastTime, from.last, from.lastKind);
+        }
+
+        Bucket plus(long time, double value, byte kind) { // with a value at or after the last one
+            return new Bucket(start, count + 1, sum + value,
+                    value < min ? value : min, value < min ? kind : minKind,
+                    value > max ? value : max, value > max ? kind : maxKind,
+                    firstTime, first, firstKind, time, value, kind);
+        }
+
+        Bucket plus(Bucket later) { // with the values of a smaller bucket that are all after these
+            return new Bucket(start, count + later.count, sum + later.sum,
+                    later.min < min ? later.min : min, later.min < min ? later.minKind : minKind,
+                    later.max > max ? later.max : max, later.max > max ? later.maxKind : maxKind,
+                    firstTime, first, firstKind, later.lastTime, later.last, later.lastKind);
+        }
+    }
+
+    final long     size;      // of each bucket, in milliseconds
+    final Bucket[] closed;
+    final int      first;     // of the closed buckets that are still there
+    final int      count;     // of closed buckets, including any before 'first'
+    final Bucket   open;      // the last bucket, still taking appends, or null if there are no values
+
+    LogRollup(long size) { this(size, new Bucket[0], 0, 0, null); }
+
+    private LogRollup(long size, Bucket[] closed, int first, int count, Bucket open) {
+        this.size = size; this.closed = closed; this.first = first; this.count = count; this.open = open;
+    }
+
+    long startOf(long time) { return Math.floorDiv(time, size) * size; }
+
+    int size() { return open == null ? count - first : count - first + 1; }
+
+    Bucket get(int index) { return first + index < count ? closed[first + index] : open; }
+
+    int lowerBound(long time) { // the first bucket that starts at or after the given time
+        if (open != null && open.start < time) return size();
+        int low = first, high = count;
+        while (low < high) { int middle = (low + high) >>> 1; if (closed[middle].start < time) low = middle + 1; else high = middle; }
+        return low - first;
+    }
+
+    LogRollup appended(long time, double value, byte kind) { // with a value at or after all the others
+        long start = startOf(time);
+        if (open != null && open.start == start) return new LogRollup(size, closed, first, count, open.plus(time, value, kind));
+        if (open == null) return new LogRollup(size, closed, first, count, new Bucket(start, time, value, kind));
+        Bucket[] array = closed;
+        int      from  = first;
+        if (count == array.length) { // out of room, so leave the trimmed ones behind too
+            array = new Bucket[Math.max(16, (count - first) * 2)];
+            System.arraycopy(closed, first, array, 0, count - first);
+            from = 0;
+        }
+        array[count - first + from] = open; // past what anyone else can see
+        return new LogRollup(size, array, from, count - first + from + 1, new Bucket(start, time, value, kind));
+    }
+
+    LogRollup trimmed(long through) { // without the buckets that end at or before the given time
+        int from = first;
+        while (from < count && closed[from].start + size <= through + 1) from++;
+        if (from == count && open != null && open.start + size <= through + 1) return new LogRollup(size);
+        return from == first ? this : new LogRollup(size, closed, from, count, open);
+    }
+
+    LogRollup rebuilt(long start, Bucket bucket) { // with the bucket that starts at 'start' replaced by another, or removed if null
+        Bucket[] array = new Bucket[size() + 1];
+        int n = 0;
+        boolean done = false;
+        for (int i = 0; i < size(); i++) {
+            Bucket existing = get(i);
+            if (!done && existing.start >= start) {
+                if (bucket != null) array[n++] = bucket;
+                done = true;
+                if (existing.start == start) continue;
+            }
+            array[n++] = existing;
+        }
+        if (!done && bucket != null) array[n++] = bucket;
+        if (n == 0) return new LogRollup(size);
+        return new LogRollup(size, array, 0, n - 1, array[n - 1]); // the last one stays open for appends
+    }
+
+}
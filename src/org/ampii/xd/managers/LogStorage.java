@@ -0,0 +1,463 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.managers;
+
+import org.ampii.xd.data.Data;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The records of one log buffer for {@link LogBufferManager}: a run of compressed blocks followed by an uncompressed
+ * "head" for appends. When the head fills up to {@link LogBufferManager#blockSize} records, they are sealed into a block.
+ * <p>
+ * A block is one stream of bits. Timestamps are stored as the difference between successive differences, which for
+ * a regularly sampled log is almost always zero (one bit). Values are XORed with the one before, and only the bits
+ * that changed are stored, reusing the previous "window" of changed bits when they fit (after Gorilla, Pelkonen et al.).
+ * The zone, datum kind, and status flags take one bit when they're the same as the record before.
+ * <p>
+ * A LogStorage is never changed once it's been made; the changes make a new one, sharing what they didn't touch. So
+ * readers just take the current one and go. Reading a record in a block decodes the whole block, so anything that
+ * reads many records should use a {@link Reader}, which keeps the block it's in.
+ * <p>
+ * Along with the records, it keeps a {@link LogRollup} for each of the {@link LogRollup#SIZES}. Appends add to the last
+ * bucket of each; any other change rebuilds the buckets it falls in, the smallest from the records and the rest from
+ * the tier below.
+ * <p>
+ * The oldest records are evicted by moving the start of the first block past them; the block is dropped once there's
+ * nothing left in it. What's been evicted or deleted from the front is counted in 'dropped', so the names can stay put.
+ *
+ * @author daverobin
+ */
+final class LogStorage {
+
+    /**
+     * One record, on its way into or out of storage.
+     */
+    static class Record {
+        long   time;
+        short  zone;    // minutes
+        double value;
+        byte   kind  = -1;
+        byte   flags;
+        Data   other;   // the log-datum choice itself, if it isn't a number
+    }
+
+    /**
+     * Uncompressed records, in columns of primitives. Never changed below 'size' once made, except by the one who made it.
+     */
+    static final class Columns {
+        static final int     BYTES_PER_RECORD = 8 + 2 + 8 + 1 + 1;
+        static final Columns EMPTY = new Columns(0, false, 0);
+        final long[]   times;   // milliseconds
+        final short[]  zones;   // time zone offset of each timestamp, in minutes
+        final double[] values;  // the log-datum, if it's a number (or the bits, for log-status)
+        final byte[]   kinds;   // which log-datum choice, by context tag
+        final byte[]   flags;   // status-flags bits, plus presence flags
+        final Data[]   others;  // the log-datum choice for those that aren't numbers (failure, etc.), null if none of them are
+        final int      size;
+
+        Columns(int capacity, boolean withOthers, int size) {
+            times  = new long[capacity];
+            zones  = new short[capacity];
+            values = new double[capacity];
+            kinds  = new byte[capacity];
+            flags  = new byte[capacity];
+            others = withOthers ? new Data[capacity] : null;
+            this.size = size;
+        }
+
+        Columns(Columns arrays, int size) { // shares the arrays of another
+            times  = arrays.times;
+            zones  = arrays.zones;
+            values = arrays.values;
+            kinds  = arrays.kinds;
+            flags  = arrays.flags;
+            others = arrays.others;
+            this.size = size;
+        }
+
+        private Columns copy(int from, int to, int capacity, boolean withOthers) {
+            Columns copy = new Columns(capacity, withOthers || others != null, to - from);
+            System.arraycopy(times,  from, copy.times,  0, to - from);
+            System.arraycopy(zones,  from, copy.zones,  0, to - from);
+            System.arraycopy(values, from, copy.values, 0, to - from);
+            System.arraycopy(kinds,  from, copy.kinds,  0, to - from);
+            System.arraycopy(flags,  from, copy.flags,  0, to - from);
+            if (others != null) System.arraycopy(others, from, copy.others, 0, to - from);
+            return copy;
+        }
+
+        private void shift(int from, int by) { // moves everything from 'from' to the end by 'by' positions
+            int length = size - from;
+            System.arraycopy(times,  from, times,  from + by, length);
+            System.arraycopy(zones,  from, zones,  from + by, length);
+            System.arraycopy(values, from, values, from + by, length);
+            System.arraycopy(kinds,  from, kinds,  from + by, length);
+            System.arraycopy(flags,  from, flags,  from + by, length);
+            if (others != null) System.arraycopy(others, from, others, from + by, length);
+        }
+
+        private void set(int position, Record record) {
+            times[position]  = record.time;
+            zones[position]  = record.zone;
+            values[position] = record.value;
+            kinds[position]  = record.kind;
+            flags[position]  = record.flags;
+            if (others != null) others[position] = record.other;
+        }
+
+        Columns inserted(Record record) {
+            int position = upperBound(record.time); // after any with the same time
+            Columns result;
+            if (position == size && size < times.length && (record.other == null || others != null)) result = this; // append in place, past what anyone can see
+            else {
+                result = copy(0, size, size < times.length ? times.length : Math.max(16, size * 2), record.other != null);
+                result.shift(position, 1);
+            }
+            result.set(position, record);
+            return new Columns(result, size + 1);
+        }
+
+        Columns removed(int position) {
+            Columns result = copy(0, size, times.length, false);
+            result.shift(position + 1, -1); // the last one is left behind, past the new size
+            return new Columns(result, size - 1);
+        }
+
+        Columns replaced(int position, Record record) {
+            Columns result = copy(0, size, times.length, record.other != null);
+            result.set(position, record);
+            return result;
+        }
+
+        int lowerBound(long time) { // the first position with a time at or after the given time
+            int low = 0, high = size;
+            while (low < high) { int middle = (low + high) >>> 1; if (times[middle] < time) low = middle + 1; else high = middle; }
+            return low;
+        }
+
+        int upperBound(long time) { // the first position with a time after the given time
+            int low = 0, high = size;
+            while (low < high) { int middle = (low + high) >>> 1; if (times[middle] <= time) low = middle + 1; else high = middle; }
+            return low;
+        }
+    }
+
+    /**
+     * A sealed run of records, compressed into a stream of bits.
+     */
+    static final class Block {
+        final int               count;
+        final long              firstTime;
+        final long              lastTime;
+        final long[]            bits;
+        final Map<Integer,Data> others;  // the records whose log-datum isn't a number, by position in the block, or null
+
+        private Block(int count, long firstTime, long lastTime, long[] bits, Map<Integer,Data> others) {
+            this.count = count; this.firstTime = firstTime; this.lastTime = lastTime; this.bits = bits; this.others = others;
+        }
+
+        int bytes() { return bits.length * 8 + 32; }
+
+        static Block encode(Columns columns, int from, int to) {
+            BitWriter         out          = new BitWriter();
+            Map<Integer,Data> others       = null;
+            long              prevTime     = columns.times[from];
+            long              prevDelta    = 0;
+            long              prevBits     = 0;
+            int               prevLeading  = -1;
+            int               prevTrailing = 0;
+            long              prevAttributes = -1;
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    long delta = columns.times[i] - prevTime;
+                    long dod   = delta - prevDelta;
+                    if      (dod == 0)                               out.write(0, 1);
+                    else if (dod >= -64      && dod < 64)      { out.write(0b10, 2);   out.write(dod, 7);  }
+                    else if (dod >= -2048    && dod < 2048)    { out.write(0b110, 3);  out.write(dod, 12); }
+                    else if (dod >= -(1<<19) && dod < (1<<19)) { out.write(0b1110, 4); out.write(dod, 20); }
+                    else                                       { out.write(0b1111, 4); out.write(dod, 64); }
+                    prevDelta = delta;
+                    prevTime  = columns.times[i];
+                }
+                long bits = Double.doubleToRawLongBits(columns.values[i]);
+                long xor  = bits ^ prevBits;
+                if (xor == 0) out.write(0, 1);
+                else {
+                    int leading  = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) { // fits in the previous window
+                        out.write(0b10, 2);
+                        out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    }
+                    else {
+                        int meaningful = 64 - leading - trailing;
+                        out.write(0b11, 2);
+                        out.write(leading, 5);
+                        out.write(meaningful - 1, 6);
+                        out.write(xor >>> trailing, meaningful);
+                        prevLeading  = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+                prevBits = bits;
+                long attributes = (columns.zones[i] & 0xFFFFL) << 16 | (columns.kinds[i] & 0xFF) << 8 | columns.flags[i] & 0xFF;
+                if (attributes == prevAttributes) out.write(0, 1);
+                else { out.write(1, 1); out.write(attributes, 32); prevAttributes = attributes; }
+                if (columns.others != null && columns.others[i] != null) {
+                    if (others == null) others = new HashMap<>();
+                    others.put(i - from, columns.others[i]);
+                }
+            }
+            return new Block(to - from, columns.times[from], columns.times[to - 1], out.finish(), others);
+        }
+
+        Columns decode() {
+            Columns result       = new Columns(count, others != null, count);
+            BitReader in         = new BitReader(bits);
+            long      time       = firstTime;
+            long      delta      = 0;
+            long      bits       = 0;
+            int       leading    = 0;
+            int       trailing   = 0;
+            long      attributes = 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    long dod;
+                    if      (!in.bit()) dod = 0;
+                    else if (!in.bit()) dod = in.signed(7);
+                    else if (!in.bit()) dod = in.signed(12);
+                    else if (!in.bit()) dod = in.signed(20);
+                    else                dod = in.read(64);
+                    delta += dod;
+                    time  += delta;
+                }
+                if (in.bit()) {
+                    if (in.bit()) {
+                        leading  = (int)in.read(5);
+                        int meaningful = (int)in.read(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    bits ^= in.read(64 - leading - trailing) << trailing;
+                }
+                if (in.bit()) attributes = in.read(32);
+                result.times[i]  = time;
+                result.values[i] = Double.longBitsToDouble(bits);
+                result.zones[i]  = (short)(attributes >>> 16);
+                result.kinds[i]  = (byte)(attributes >>> 8);
+                result.flags[i]  = (byte)attributes;
+                if (others != null) result.others[i] = others.get(i);
+            }
+            return result;
+        }
+    }
+
+    private static final class BitWriter {
+        private long[] words = new long[16];
+        private int    length; // in bits
+
+        void write(long value, int count) { // the low 'count' bits of value, most significant first
+            if (count < 64) value &= (1L << count) - 1;
+            int word = length >>> 6, free = 64 - (length & 63);
+            if (word + 2 > words.length) words = Arrays.copyOf(words, words.length * 2);
+            if (count <= free) words[word] |= value << (free - count);
+            else {
+                words[word]     |= value >>> (count - free);
+                words[word + 1] |= value << (64 - (count - free));
+            }
+            length += count;
+        }
+
+        long[] finish() { return Arrays.copyOf(words, (length + 63) >>> 6); }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private int          position; // in bits
+
+        BitReader(long[] words) { this.words = words; }
+
+        boolean bit() { return read(1) != 0; }
+
+        long signed(int count) { return read(count) << (64 - count) >> (64 - count); }
+
+        long read(int count) {
+            int word = position >>> 6, free = 64 - (position & 63);
+            long value;
+            if (count <= free) value = words[word] >>> (free - count);
+            else value = words[word] << (count - free) | words[word + 1] >>> (64 - (count - free));
+            position += count;
+            return count < 64 ? value & ((1L << count) - 1) : value;
+        }
+    }
+
+    ////////////////// the storage //////////////
+
+    static final LogStorage EMPTY = new LogStorage(new Block[0], new int[] { 0 }, Columns.EMPTY, emptyRollups(), 0, Long.MIN_VALUE);
+
+    final Block[]     blocks;
+    final int[]       starts;  // the position of the first record of each block, and then of the head; the first is negative if some have been evicted
+    final Columns     head;
+    final int         size;
+    final LogRollup[] rollups; // smallest buckets first
+    final long        dropped;        // how many records have been evicted or deleted from the front, so the rest keep their names
+    final long        evictedThrough; // the time of the last record evicted, or Long.MIN_VALUE if none
+
+    private LogStorage(Block[] blocks, int[] starts, Columns head, LogRollup[] rollups, long dropped, long evictedThrough) {
+        this.blocks  = blocks;
+        this.starts  = starts;
+        this.head    = head;
+        this.size    = starts[blocks.length] + head.size;
+        this.rollups = rollups;
+        this.dropped = dropped;
+        this.evictedThrough = evictedThrough;
+    }
+
+    private LogStorage with(Block[] blocks, int[] starts, Columns head, LogRollup[] rollups) {
+        return new LogStorage(blocks, starts, head, rollups, dropped, evictedThrough);
+    }
+
+    private static LogRollup[] emptyRollups() {
+        LogRollup[] rollups = new LogRollup[LogRollup.SIZES.length];
+        for (int i = 0; i < rollups.length; i++) rollups[i] = new LogRollup(LogRollup.SIZES[i]);
+        return rollups;
+    }
+
+    static boolean isValue(Columns columns, int index) { // numbers and booleans, the only things that get rolled up
+        return LogBufferManager.isValue(columns.kinds[index]) && (columns.others == null || columns.others[index] == null);
+    }
+
+    int bytes() { // as stored
+        int bytes = head.size * Columns.BYTES_PER_RECORD;
+        for (Block block : blocks) bytes += block.bytes();
+        return bytes;
+    }
+
+    private int segmentOf(int position) { // the block that has the position, or blocks.length for the head
+        int low = 0, high = blocks.length;
+        while (low < high) { int middle = (low + high + 1) >>> 1; if (starts[middle] <= position) low = middle; else high = middle - 1; }
+        return low;
+    }
+
+    int lowerBound(long time) { // the first position with a time at or after the given time
+        int low = 0, high = blocks.length;
+        while (low < high) { int middle = (low + high) >>> 1; if (blocks[middle].lastTime < time) low = middle + 1; else high = middle; }
+        return Math.max(starts[low] + (low == blocks.length ? head : blocks[low].decode()).lowerBound(time), 0);
+    }
+
+    int upperBound(long time) { // the first position with a time after the given time
+        int low = 0, high = blocks.length;
+        while (low < high) { int middle = (low + high) >>> 1; if (blocks[middle].lastTime <= time) low = middle + 1; else high = middle; }
+        return Math.max(starts[low] + (low == blocks.length ? head : blocks[low].decode()).upperBound(time), 0);
+    }
+
+    /**
+     * Finds records by position, decoding a block only when it moves into a different one.
+     */
+    final class Reader {
+        private int     segment = -1;
+        private Columns columns;
+        int             index;   // of the record in the columns returned by at()
+
+        Columns at(int position) {
+            int found = segmentOf(position);
+            if (found != segment) { columns = found == blocks.length ? head : blocks[found].decode(); segment = found; }
+            index = position - starts[found];
+            return columns;
+        }
+    }
+
+    LogStorage inserted(Record record) {
+        if (record.time < evictedThrough) return this; // older than what's already been evicted, so it would be evicted right away
+        int position = upperBound(record.time);
+        int segment  = position >= starts[blocks.length] ? blocks.length : segmentOf(position);
+        LogStorage result = segment == blocks.length ? sealed(blocks, starts, head.inserted(record), rollups) : withBlock(segment, blocks[segment].decode().inserted(record), 1);
+        if (!LogBufferManager.isValue(record.kind) || record.other != null) return result;
+        if (position < size) return result.rolledUp(record.time);
+        LogRollup[] appended = new LogRollup[rollups.length];
+        for (int i = 0; i < rollups.length; i++) appended[i] = rollups[i].appended(record.time, record.value, record.kind);
+        return with(result.blocks, result.starts, result.head, appended);
+    }
+
+    LogStorage removed(int position) {
+        int segment = segmentOf(position);
+        long time = new Reader().at(position).times[position - starts[segment]];
+        if (segment == blocks.length) return with(blocks, starts, head.removed(position - starts[segment]), rollups).rolledUp(time);
+        return withBlock(segment, blocks[segment].decode().removed(position - starts[segment]), -1).rolledUp(time);
+    }
+
+    LogStorage replaced(int position, Record record) { // which must have the same time as the one it's replacing
+        int segment = segmentOf(position);
+        if (segment == blocks.length) return with(blocks, starts, head.replaced(position - starts[segment], record), rollups).rolledUp(record.time);
+        return withBlock(segment, blocks[segment].decode().replaced(position - starts[segment], record), 0).rolledUp(record.time);
+    }
+
+    LogStorage deleted(int position) { // like removed(), but the first record is counted as dropped so the rest keep their names
+        LogStorage result = removed(position);
+        return position > 0 ? result : new LogStorage(result.blocks, result.starts, result.head, result.rollups, dropped + 1, evictedThrough);
+    }
+
+    LogStorage evicted(int count) { // drops the oldest records by moving the start of the first block past them, without re-encoding anything
+        if (count <= 0) return this;
+        count = Math.min(count, size);
+        Reader      reader  = new Reader();
+        long        through = Math.max(reader.at(count - 1).times[reader.index], evictedThrough);
+        LogRollup[] tiers   = new LogRollup[rollups.length];
+        for (int i = 0; i < tiers.length; i++) tiers[i] = rollups[i].trimmed(through);
+        if (count == size) return new LogStorage(new Block[0], new int[] { 0 }, Columns.EMPTY, tiers, dropped + count, through);
+        int gone = 0; // blocks with nothing left in them
+        while (gone < blocks.length && starts[gone + 1] - count <= 0) gone++;
+        int[] newStarts = new int[blocks.length - gone + 1];
+        for (int i = 0; i < newStarts.length; i++) newStarts[i] = starts[gone + i] - count;
+        return new LogStorage(Arrays.copyOfRange(blocks, gone, blocks.length), newStarts, head, tiers, dropped + count, through);
+    }
+
+    private LogStorage rolledUp(long time) { // rebuilds the buckets that have the time, the smallest from the records and the rest from the tier below
+        LogRollup[] tiers  = rollups.clone();
+        Reader      reader = new Reader();
+        for (int tier = 0; tier < tiers.length; tier++) {
+            long start = tiers[tier].startOf(time), end = start + tiers[tier].size;
+            LogRollup.Bucket bucket = null;
+            if (tier == 0) {
+                for (int position = lowerBound(start), stop = lowerBound(end); position < stop; position++) {
+                    Columns columns = reader.at(position);
+                    int     i       = reader.index;
+                    if (!isValue(columns, i)) continue;
+                    bucket = bucket == null ? new LogRollup.Bucket(start, columns.times[i], columns.values[i], columns.kinds[i]) : bucket.plus(columns.times[i], columns.values[i], columns.kinds[i]);
+                }
+            }
+            else {
+                LogRollup finer = tiers[tier - 1];
+                for (int i = finer.lowerBound(start); i < finer.size() && finer.get(i).start < end; i++) {
+                    bucket = bucket == null ? new LogRollup.Bucket(start, finer.get(i)) : bucket.plus(finer.get(i));
+                }
+            }
+            tiers[tier] = tiers[tier].rebuilt(start, bucket);
+        }
+        return with(blocks, starts, head, tiers);
+    }
+
+    private LogStorage withBlock(int segment, Columns columns, int change) { // re-encodes one block that has changed size by 'change'
+        Block[] newBlocks = columns.size == 0 ? new Block[blocks.length - 1] : blocks.clone();
+        int[]   newStarts = new int[newBlocks.length + 1];
+        for (int i = 0, j = 0; i <= blocks.length; i++) {
+            if (i == segment && columns.size == 0) continue; // it's gone
+            if (i < blocks.length) newBlocks[j] = i == segment ? Block.encode(columns, 0, columns.size) : blocks[i];
+            newStarts[j++] = i > segment ? starts[i] + change : starts[i];
+        }
+        return with(newBlocks, newStarts, head, rollups);
+    }
+
+    private LogStorage sealed(Block[] blocks, int[] starts, Columns head, LogRollup[] rollups) { // seals full heads into blocks
+        int blockSize = Math.max(LogBufferManager.blockSize, 1);
+        while (head.size >= blockSize) {
+            blocks = Arrays.copyOf(blocks, blocks.length + 1);
+            blocks[blocks.length - 1] = Block.encode(head, 0, blockSize);
+            starts = Arrays.copyOf(starts, starts.length + 1);
+            starts[starts.length - 1] = starts[starts.length - 2] + blockSize;
+            head = head.copy(blockSize, head.size, Math.max(16, head.size - blockSize), false);
+        }
+        return with(blocks, starts, head, rollups);
+    }
+
+}
@@ -7,7 +7,6 @@ import org.ampii.xd.bindings.Binding;
 import org.ampii.xd.bindings.DefaultBinding;
 import org.ampii.xd.bindings.DefaultBindingPolicy;
 import org.ampii.xd.common.Errors;
-import org.ampii.xd.common.Log;
 import org.ampii.xd.common.XDError;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.*;
@@ -18,6 +17,10 @@ import org.ampii.xd.data.Context;
 import org.ampii.xd.resolver.Eval;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.ampii.xd.data.Meta.*;
 
@@ -35,11 +38,15 @@ public class MultiManager {
      */
     private static class MultiRecord {
         public String       name = ".anonymous";   // name gets assigned to a GUID if persisted
-        public int          lifetime;
+        public int          lifetime;              // seconds, as given; see getLifetime() for what's left
         public List<String> paths = new ArrayList<>();
+        public long         sequence = nextSequence.getAndIncrement(); // creation order, for listing
+        public ScheduleManager.Timer expiry;       // null until persisted
+        public int getLifetime() { return expiry == null? lifetime : (int)((expiry.getRemaining() + 999) / 1000); }
     }
 
-    private static List<MultiRecord> records = new ArrayList<>();  // this is the native storage for "/.multi" items
+    private static Map<String,MultiRecord> records = new ConcurrentHashMap<>();  // this is the native storage for "/.multi" items, keyed by GUID name
+    private static AtomicLong nextSequence = new AtomicLong();
 
     public static Binding   getBinding()            { return theBinding; }
 
@@ -65,7 +72,7 @@ public class MultiManager {
     private static Data    prefind(Data data, String name) throws XDException {
         MultiRecord record = findRecord(name); // try to make a single record exist
         if (record != null) {
-            Data recordData = recordToData(record,data.getContext());
+            Data recordData = recordToData(record,data);
             data.addLocal(recordData); // don't just return it, must add locally or commit() will not find it if you write to it!
             return recordData;
         }
@@ -75,18 +82,18 @@ public class MultiManager {
     private static DataList getContextualizedChildren(Data data) throws XDException {
         Context context = data.getContext();
         if (!context.isTarget(data)) return new DataList(true,false,null); // if we're not the target level, just return a truncated list
-        List<MultiRecord> recordList = new ArrayList<>(records);           // get a separate list so we can reverse it
+        List<MultiRecord> recordList = new ArrayList<>(records.values());  // get a separate list so we can sort and reverse it
+        recordList.sort((a, b) -> Long.compare(a.sequence, b.sequence));   // map has no order, so list them in the order created
         if (context.getReverse()) Collections.reverse(recordList);
         Iterator<MultiRecord> iterator = recordList.iterator();            // then get an iterator for that list of records,
         return context.filterChildren(new Iterator<Data>() {    // and use it to generate a stream of Data items for the records.
             @Override public boolean hasNext() { return iterator.hasNext(); }
-            @Override public Data    next()    { return recordToData(iterator.next(), data.getContext()); }
+            @Override public Data    next()    { return recordToData(iterator.next(), data); }
         }, context.isTarget(data));
     }
 
     private static MultiRecord findRecord(String name) {
-        if (Rules.isChild(name)) for (MultiRecord record : records) if (record.name.equals(name)) return record;
-        return null;
+        return Rules.isChild(name)? records.get(name) : null;
     }
 
     private static boolean  commit(Data data) throws XDException {
@@ -94,11 +101,14 @@ public class MultiManager {
             MultiRecord record = findRecord(recordData.getName());
             if (record != null) {
                 // the only thing you can write to is the lifetime (unlike subscriptions where you can modify the record's internal lists)
-                if (recordData.isDeleted()) records.remove(record);
-                else record.lifetime = recordData.intValueOf("lifetime",record.lifetime); // and update the lifetime
+                if (recordData.isDeleted()) removeRecord(record);
+                else { // and update the lifetime
+                    record.lifetime = recordData.intValueOf("lifetime",record.getLifetime());
+                    record.expiry.reschedule(record.lifetime * 1000L);
+                }
             }
             else {
-                records.add(recordFromData(recordData));
+                addRecord(recordFromData(recordData));
             }
         }
         return true; // we handled it.
@@ -133,32 +143,37 @@ public class MultiManager {
             else {
                 record.name = "..ephemeral";
             }
-            data = recordToData(record, target.getContext()); // IMPORTANT!! we need the context of the requester because we are reading data other than the target
+            data = recordToData(record, target); // IMPORTANT!! we need the context of the requester because we are reading data other than the target
             // if this is an HTTP POST (most likely), and nothing else goes wrong, then this data will come back to us in commit() and we will persist it then
         }
         else if (doingWrite) {
             if (lifetime != 0) throw new XDException(Errors.INCONSISTENT_VALUES,"Cannot specify 'lifetime' and non-Any value");
             // in the write case, we just modify the given data in-place rather than creating a native record
             data = Instances.makeInstance("0-BACnetWsMultiRecord","..ephemeral").put(data);  // clean up parsed data into proper instance and mark it ephemeral
-            for (Data one : data.getLocal("values").getLocalChildren()) {
-                // rather than doing an all-or-nothing, a /.multi write operation works by writing as many as possible and returning a list of failures.
-                // so we DO EACH WRITE IN ITS OWN SESSION and just record the failures.
-                Session subsession = target.getSession().makeWriteSubsession("MultiManager.prepost");// IMPORTANT! make sub session so we keep the same context for authorization
-                try {
-                    String path = one.getLocal(Meta.VIA).stringValue(); // will throw if $via is missing
-                    if (path.length() == 0) throw new XDException(Errors.METADATA_NOT_FOUND, one, "The 'via' metadata is empty");
-                    Data referent = Eval.eval(subsession.getRoot(),path);
-                    referent.put(one,Data.PUT_OPTION_NO_NAME_CHECK);
-                    subsession.commit(); // if the put succeeded, then commit it.
-                }
-                catch (XDException e) {
-                    one.set(Meta.ERROR,e.getErrorNumber());
-                    one.set(Meta.ERRORTEXT,e.getErrorText());
-                    data.getOrCreate(Meta.FAILURES).post(new LinkData("", "values/" + one.getName()));
-                }
-                finally {
-                    subsession.discard();
+            // rather than doing an all-or-nothing, a /.multi write operation works by writing as many as possible and returning a list of failures.
+            // so we DO EACH WRITE UNDER ITS OWN SAVEPOINT, roll back the ones that fail, and commit all the rest together at the end.
+            Session subsession = target.getSession().makeWriteSubsession("MultiManager.prepost");// IMPORTANT! make sub session so we keep the same context for authorization
+            try {
+                for (Data one : data.getLocal("values").getLocalChildren()) {
+                    Session.Savepoint savepoint = subsession.setSavepoint();
+                    try {
+                        String path = one.getLocal(Meta.VIA).stringValue(); // will throw if $via is missing
+                        if (path.length() == 0) throw new XDException(Errors.METADATA_NOT_FOUND, one, "The 'via' metadata is empty");
+                        Data referent = Eval.eval(subsession.getRoot(),path);
+                        referent.put(one,Data.PUT_OPTION_NO_NAME_CHECK);
+                        savepoint.release(); // if the put succeeded, then keep it.
+                    }
+                    catch (XDException e) {
+                        savepoint.rollback(); // undo whatever part of the put got done before it failed
+                        one.set(Meta.ERROR,e.getErrorNumber());
+                        one.set(Meta.ERRORTEXT,e.getErrorText());
+                        data.getOrCreate(Meta.FAILURES).post(new LinkData("", "values/" + one.getName()));
+                    }
                 }
+                subsession.commit();
+            }
+            finally {
+                subsession.discard();
             }
         }
         else throw new XDException(Errors.LIST_OF_PATHS_IS_EMPTY,"The 'values' list is empty");
@@ -178,7 +193,9 @@ public class MultiManager {
         return record;
     }
 
-    private static Data      recordToData(MultiRecord record, Context context)  {
+    private static final int PARALLEL_CHUNK = 64; // lists longer than this are evaluated in parallel, this many paths per task
+
+    private static Data      recordToData(MultiRecord record, Data requester)  {
         try {
             // <Composition name="0-BACnetWsMultiRecord">
             //   <Unsigned name="lifetime" optional="true"/>
@@ -186,30 +203,16 @@ public class MultiManager {
             // </Composition>
             Data recordData = Instances.makeInstance("0-BACnetWsMultiRecord", record.name);
             // persistent records always have the optional "lifetime" member present and *writable*
-            if (!record.name.equals("..ephemeral")) recordData.addLocal(new UnsignedData("lifetime", record.lifetime, new BooleanData(Meta.WRITABLE, true)));
+            if (!record.name.equals("..ephemeral")) recordData.addLocal(new UnsignedData("lifetime", record.getLifetime(), new BooleanData(Meta.WRITABLE, true)));
             // the "values" List is non-optional so we just get() it from the instance
             Data valuesList = recordData.getLocal("values");
-            for (int i = 0; i < record.paths.size(); i++) { // use traditional for loop here because we need index number as name
-                String path = record.paths.get(i);
-                Data entry = null; // will either be a copy of the target data or a fresh Any
-                Session session = Session.makeReadSession("MultiManager",context); // IMPORTANT!! we use the context of the requester. no "confused deputies" here!
-                try {
-                    if (path.isEmpty()) throw new XDException(Errors.CANNOT_FOLLOW, "The 'via' metadata is empty");
-                    Data target = Eval.eval(session.getRoot(),path);
-                    if (target.getName().equals("..root")) throw new XDException(Errors.TOO_DEEP,"Can't read root with /.multi");
-                    entry = target.makeDeepCopy(); // TODO: refactor this to use a shadow instead (but we will have to be given a session from above, not a local one here)
-                    entry.setName(String.valueOf(i + 1)); // names start at "1"
-                    entry.setIsFromAny(true); // don't forget that this is from an Any (will force $base to be included in JSON)
-                } catch (XDException e) {
-                    entry = new AnyData(String.valueOf(i + 1)); // result type remains an Any
-                    entry.set(Meta.ERROR,e.getErrorNumber());
-                    entry.set(Meta.ERRORTEXT,e.getErrorText());
-                    recordData.getOrCreate(Meta.FAILURES).post(new LinkData("", "values/" + (i + 1))); // point to this entry in parent $failures
-                }
-                finally {
-                    session.discard();
-                }
-                entry.addLocal(new LinkData(Meta.VIA, path)); // assign path as $via because valuesList is unordered and client needs to match it up
+            Data[] entries = new Data[record.paths.size()];
+            if (entries.length <= PARALLEL_CHUNK || Application.multiThreads <= 1) evaluatePaths(record.paths, 0, entries.length, entries, requester, requester.getContext());
+            else getWorkers().invoke(new EvaluateTask(record.paths, 0, entries.length, entries, requester, requester.getContext().fork()));
+            for (int i = 0; i < entries.length; i++) { // use traditional for loop here because we need index number as name
+                Data entry = entries[i];
+                if (!entry.isShadow()) recordData.getOrCreate(Meta.FAILURES).post(new LinkData("", "values/" + (i + 1))); // point to this entry in parent $failures
+                entry.addLocal(new LinkData(Meta.VIA, record.paths.get(i))); // assign path as $via because valuesList is unordered and client needs to match it up
                 entry.setIsFromAny(true); // generators need to know this was made from an Any to return $base and $type
                 valuesList.addLocal(entry);    // we've already assigned names so we don't need to post()
             }
@@ -218,51 +221,86 @@ public class MultiManager {
         catch (XDException e) { throw new XDError("MultiManager.recordToData() had internal failure",e); }
     }
 
-    ////////////////// Watcher thread //////////////
-
-    private static boolean shutdown;
-    private static Thread  thread;
-
-    public static void start() {
-        shutdown = false;
-        if (thread != null) return;
-        thread = new Thread(new Watcher());
-        thread.setDaemon(true);
-        thread.start();
+    /**
+     * Evaluates paths[from..to) into entries[from..to) using one read session, which is attached to the requester's session
+     * so the results can be shadow-backed views rather than copies. Failures become Any entries with $error/$errorText.
+     * The context is the requester's, or a fork of it when this is one of several chunks being done at once.
+     */
+    private static void      evaluatePaths(List<String> paths, int from, int to, Data[] entries, Data requester, Context context) {
+        Session session = Session.makeReadSession("MultiManager",context); // IMPORTANT!! we use the context of the requester. no "confused deputies" here!
+        requester.getSession().attach(session); // the views below are only good as long as the requester's session is
+        for (int i = from; i < to; i++) {
+            String name = String.valueOf(i + 1); // names start at "1"
+            try {
+                String path = paths.get(i);
+                if (path.isEmpty()) throw new XDException(Errors.CANNOT_FOLLOW, "The 'via' metadata is empty");
+                Data target = Eval.eval(session.getRoot(),path);
+                if (target.getName().equals("..root")) throw new XDException(Errors.TOO_DEEP,"Can't read root with /.multi");
+                Data view = makeView(target, name);
+                view.findBinding(); // preread the view now so binding failures land in $failures and nothing can later replace its $via
+                entries[i] = view;
+            } catch (XDException e) {
+                try {
+                    Data entry = new AnyData(name); // result type remains an Any
+                    entry.set(Meta.ERROR,e.getErrorNumber());
+                    entry.set(Meta.ERRORTEXT,e.getErrorText());
+                    entries[i] = entry;
+                } catch (XDException ee) { throw new XDError("MultiManager.evaluatePaths() had internal failure",ee); }
+            }
+        }
     }
 
-    public static void stop() {
-        shutdown = true;
-        if (thread == null) return;
-        thread.interrupt();
+    private static Data      makeView(Data target, String name) {
+        // like target.makeShadow(), but with our own name, and flags like makeDeepCopy() because this is not rooted in the
+        // datastore. it's read-only, so its shadow-ness only serves to pull in the target's contents lazily on demand.
+        Data view = DataFactory.make(target.getBase(), name);
+        view.setPrototype(target.getPrototype());
+        view.setIsFromNothing(target.isFromNothing());
+        view.setIsLocalizable(target.isLocalizable());
+        view.setOriginal(target);
+        return view;
     }
 
-    private static class Watcher implements Runnable {
-        public void run() {
-            for (;;) {
-                try {
-                    Thread.sleep(Application.multiWatchInterval);
-                    if (shutdown) break;
-                    MultiManager.pruneRecords(Application.multiWatchInterval/1000);
-                }
-                catch (InterruptedException e) {
-                    Log.logSevere("Multi Watcher got interrupted: " + e.getMessage());
-                }
-            }
-        }
+    // Long lists are evaluated on a pool of their own, made when first needed, so they don't compete with everything
+    // else in the JVM that uses the common pool, and can't be starved by it either.
+    private static ForkJoinPool workers;
+
+    private static synchronized ForkJoinPool getWorkers() {
+        if (workers == null) workers = new ForkJoinPool(Application.multiThreads);
+        return workers;
     }
 
-    private static void  pruneRecords(int elapsed) {
-        List<MultiRecord> toRemove = new ArrayList<>();
-        for (MultiRecord record : records) {
-            record.lifetime -= elapsed;
-            if (record.lifetime <= 0) toRemove.add(record);
+    private static class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final List<String> paths;
+        final int          from, to;
+        final Data[]       entries;
+        final Data         requester;
+        final Context      context;
+        EvaluateTask(List<String> paths, int from, int to, Data[] entries, Data requester, Context context) {
+            this.paths = paths; this.from = from; this.to = to; this.entries = entries; this.requester = requester; this.context = context;
         }
-        for (MultiRecord record : toRemove) {
-            records.remove(record);
+        @Override protected void compute() {
+            // shadows are not thread safe, so each task gets its own session for its own chunk of the paths, and contexts
+            // aren't either (evaluating changes their cur_ fields), so each task also gets its own fork of the requester's
+            if (to - from <= PARALLEL_CHUNK) evaluatePaths(paths, from, to, entries, requester, context);
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateTask(paths, from, middle, entries, requester, context.fork()), new EvaluateTask(paths, middle, to, entries, requester, context.fork()));
+            }
         }
     }
 
+    ////////////////// Record lifetimes //////////////
+
+    private static void  addRecord(MultiRecord record) {
+        records.put(record.name, record);
+        record.expiry = ScheduleManager.schedule(record.lifetime * 1000L, () -> records.remove(record.name, record));
+    }
 
+    private static void  removeRecord(MultiRecord record) {
+        if (record.expiry != null) record.expiry.cancel();
+        records.remove(record.name, record);
+    }
 
 }
@@ -0,0 +1,195 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.managers;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.common.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A shared scheduling service for record lifetimes and periodic work, used by {@link SubsManager}, {@link MultiManager},
+ * and {@link ClientManager} so they don't each need their own sleeping watcher thread that walks all of their records.
+ * <p>
+ * It's a "hashed timer wheel": a ring of buckets, each holding a doubly linked list of timers, that a single scheduler
+ * thread advances one bucket every {@link Application#scheduleTickInterval} millis. Scheduling, rescheduling, and
+ * canceling are O(1). Timers further out than one trip around the wheel just remember their deadline tick and get
+ * skipped until their turn comes around.
+ * <p>
+ * One-shot timers from {@link #schedule} run right on the scheduler thread, so they must be quick (e.g., removing an
+ * expired record from a map). Repeating timers from {@link #scheduleRepeating} run on a worker pool because they can
+ * block (e.g., waiting for a write session or making an HTTP request) and they are never overlapped with themselves.
+ *
+ * @author daverobin
+ */
+public class ScheduleManager {
+
+    private static final int WHEEL_SIZE = 512; // must be a power of 2
+
+    private static final Timer[] wheel = new Timer[WHEEL_SIZE];   // heads of the bucket lists
+    private static final Object  lock  = new Object();            // guards wheel and all the timers' list pointers
+    private static long          currentTick;                     // the last tick processed
+    private static long          startNanos = System.nanoTime();  // time of tick 0
+
+    /**
+     * A handle to something scheduled. Can be canceled or rescheduled from any thread.
+     */
+    public static class Timer {
+        private final Runnable      task;
+        private final long          period;     // millis, 0 for one-shot
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private long    deadlineTick;
+        private boolean scheduled;
+        private boolean canceled;
+        private Timer   next, prev;             // links within the bucket
+
+        private Timer(Runnable task, long period) { this.task = task; this.period = period; }
+
+        public void cancel() {
+            synchronized (lock) { canceled = true; unlink(this); }
+        }
+
+        public void reschedule(long delayMillis) {
+            synchronized (lock) { canceled = false; unlink(this); link(this, delayMillis); }
+        }
+
+        public long getRemaining() { // millis until next firing, 0 if overdue or canceled
+            synchronized (lock) {
+                if (!scheduled) return 0;
+                long remaining = (deadlineTick - currentTick) * Application.scheduleTickInterval - (millisSinceStart() - currentTick * Application.scheduleTickInterval);
+                return remaining < 0 ? 0 : remaining;
+            }
+        }
+
+        public boolean isCanceled() { synchronized (lock) { return canceled; } }
+    }
+
+    /**
+     * Runs the task once, on the scheduler thread, after the given delay. Keep it quick!
+     */
+    public static Timer schedule(long delayMillis, Runnable task) {
+        Timer timer = new Timer(task, 0);
+        synchronized (lock) { link(timer, delayMillis); }
+        return timer;
+    }
+
+    /**
+     * Runs the task every periodMillis, on a worker thread, starting after the first period.
+     */
+    public static Timer scheduleRepeating(long periodMillis, Runnable task) {
+        return scheduleRepeating(periodMillis, periodMillis, task);
+    }
+
+    /**
+     * Runs the task every periodMillis, on a worker thread, starting after the given delay.
+     */
+    public static Timer scheduleRepeating(long delayMillis, long periodMillis, Runnable task) {
+        Timer timer = new Timer(task, Math.max(periodMillis, 1));
+        synchronized (lock) { link(timer, delayMillis); }
+        return timer;
+    }
+
+    private static void link(Timer timer, long delayMillis) { // call with lock held
+        long ticks = (delayMillis + Application.scheduleTickInterval - 1) / Application.scheduleTickInterval;
+        timer.deadlineTick = currentTick + Math.max(ticks, 1); // can't schedule into the tick already processed
+        int bucket = (int)(timer.deadlineTick & (WHEEL_SIZE - 1));
+        timer.prev = null;
+        timer.next = wheel[bucket];
+        if (timer.next != null) timer.next.prev = timer;
+        wheel[bucket] = timer;
+        timer.scheduled = true;
+    }
+
+    private static void unlink(Timer timer) { // call with lock held
+        if (!timer.scheduled) return;
+        if (timer.prev != null) timer.prev.next = timer.next;
+        else wheel[(int)(timer.deadlineTick & (WHEEL_SIZE - 1))] = timer.next;
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.next = timer.prev = null;
+        timer.scheduled = false;
+    }
+
+    private static long millisSinceStart() { return (System.nanoTime() - startNanos) / 1000000L; }
+
+    ////////////////// Scheduler thread //////////////
+
+    private static boolean         shutdown;
+    private static Thread          thread;
+    private static ExecutorService workers;
+
+    public static void start() {
+        shutdown = false;
+        if (thread != null) return;
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread worker = new Thread(runnable, "ScheduleManager worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+        thread = new Thread(new Scheduler(), "ScheduleManager");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void stop() {
+        shutdown = true;
+        if (thread == null) return;
+        thread.interrupt();
+        workers.shutdownNow();
+    }
+
+    private static class Scheduler implements Runnable {
+        public void run() {
+            for (;;) {
+                try {
+                    long wait = (currentTick + 1) * Application.scheduleTickInterval - millisSinceStart();
+                    if (wait > 0) Thread.sleep(wait);
+                    if (shutdown) break;
+                    List<Timer> expired = new ArrayList<>();
+                    synchronized (lock) {
+                        currentTick++;
+                        Timer timer = wheel[(int)(currentTick & (WHEEL_SIZE - 1))];
+                        while (timer != null) {
+                            Timer next = timer.next;
+                            if (timer.deadlineTick <= currentTick) { // else it's for a later trip around the wheel
+                                unlink(timer);
+                                expired.add(timer);
+                            }
+                            timer = next;
+                        }
+                    }
+                    for (Timer timer : expired) fire(timer); // run these outside the lock so tasks are free to (re)schedule things
+                }
+                catch (InterruptedException e) {
+                    if (shutdown) break;
+                    Log.logSevere("ScheduleManager got interrupted: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void fire(Timer timer) {
+        // between being taken off the wheel and getting here, the timer could have been canceled, or rescheduled (which
+        // puts it back on the wheel), from another thread. Either way, this firing is no longer wanted.
+        synchronized (lock) {
+            if (timer.canceled || timer.scheduled) return;
+            if (timer.period != 0) link(timer, timer.period); // a repeating timer gets back on the wheel first
+        }
+        if (timer.period == 0) {
+            try { timer.task.run(); }
+            catch (Throwable t) { Log.logSevere("ScheduleManager task failed: " + t.getLocalizedMessage()); }
+            return;
+        }
+        if (!timer.running.compareAndSet(false, true)) return; // still busy from last time, so skip this turn
+        try {
+            workers.execute(() -> {
+                try { timer.task.run(); }
+                catch (Throwable t) { Log.logSevere("ScheduleManager repeating task failed: " + t.getLocalizedMessage()); }
+                finally { timer.running.set(false); }
+            });
+        }
+        catch (Exception e) { timer.running.set(false); } // the pool has been shut down
+    }
+
+}
@@ -17,13 +17,21 @@ import org.ampii.xd.marshallers.JSONGenerator;
 import org.ampii.xd.marshallers.XMLGenerator;
 import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.resolver.Path;
-import org.ampii.xd.server.Server;
+import org.ampii.xd.security.Authorizer;
+import org.ampii.xd.server.*;
 import static org.ampii.xd.data.Meta.*;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages the data under /.subs and the operations that occur on it.
@@ -41,11 +49,18 @@ public class SubsManager {
         public String  name = "";       // will be given a GUID name
         public String  label;           // optional, can be null;
         public String  callback;        // optional, can be null;
-        public int     lifetime = 0;
+        public int     lifetime = 0;    // seconds, as given; see getLifetime() for what's left
         public String  callbackError;   // optional, can be null;
         public String  dataError;       // optional, can be null;
         public List<SubsCovEntry> covs;
         public List<SubsLogEntry> logs;
+        public long    sequence = nextSequence.getAndIncrement(); // creation order, for listing
+        public ScheduleManager.Timer expiry; // null until persisted
+        public boolean streaming;        // set once anybody has opened a /stream on this record
+        public long    lastEventId;      // ids for the stream's "id:" field
+        public LinkedList<SubsEvent> backlog = new LinkedList<>();       // recent stream events, for resuming with Last-Event-ID
+        public List<SubsStream>      streams = new CopyOnWriteArrayList<>(); // currently connected streams
+        public int getLifetime() { return expiry == null? lifetime : (int)((expiry.getRemaining() + 999) / 1000); }
     }
     private static class SubsCovEntry {
         public String  path;
@@ -57,7 +72,8 @@ public class SubsManager {
         public int     frequency; // optional, 0=none and 1="on-update", 2="hourly", 3="daily"
     }
 
-    private static List<SubsRecord> records = new ArrayList<>();  // this is the native storage for "/.subs" items
+    private static Map<String,SubsRecord> records = new ConcurrentHashMap<>();  // this is the native storage for "/.subs" items, keyed by GUID name
+    private static AtomicLong nextSequence = new AtomicLong();
 
     public static Binding  getBinding()  { return theBinding; }
 
@@ -79,7 +95,8 @@ public class SubsManager {
     private static DataList getContextualizedChildren(Data data) throws XDException {
         Context context = data.getContext();
         if (!context.isTarget(data)) return new DataList(true,false,null); // if we're not the target level, just return a truncated list
-        List<SubsRecord> recordList = new ArrayList<>(records);         // get a separate list so we can reverse it
+        List<SubsRecord> recordList = new ArrayList<>(records.values()); // get a separate list so we can sort and reverse it
+        recordList.sort((a, b) -> Long.compare(a.sequence, b.sequence)); // map has no order, so list them in the order created
         if (context.getReverse()) Collections.reverse(recordList);
         Iterator<SubsRecord> iterator = recordList.iterator();          // then get an iterator for that list of records,
         return context.filterChildren(new Iterator<Data>() {            // and use it to generate a stream of Data items for the records.
@@ -103,21 +120,23 @@ public class SubsManager {
     }
 
     private static SubsRecord findRecord(String name) {
-        if (Rules.isChild(name)) for (SubsRecord record : records) if (record.name.equals(name)) return record;
-        return null;
+        return Rules.isChild(name)? records.get(name) : null;
     }
 
     private static boolean  commit(Data data) throws XDException {
         for (Data recordData : data.getLocalChildren()) { // for each of the given record data items...
             SubsRecord record = findRecord(recordData.getName());
             if (record != null) {
-                if (recordData.isDeleted()) records.remove(record);
-                else dataToRecord(record, recordData); // update lifetime and covs and logs lists
+                if (recordData.isDeleted()) removeRecord(record);
+                else {
+                    dataToRecord(record, recordData); // update lifetime and covs and logs lists
+                    record.expiry.reschedule(record.lifetime * 1000L);
+                }
             }
             else {
                 record = new SubsRecord(); // make it
                 dataToRecord(record,recordData);      // update it
-                records.add(record);                  // persist it
+                addRecord(record);                    // persist it
             }
         }
         return true; // we handled it.
@@ -147,28 +166,30 @@ public class SubsManager {
         record.callback = data.stringValueOf("callback", "");
         record.callbackError = null;
         record.dataError = null;
-        record.covs = null;
+        List<SubsCovEntry> covs = null; // build new lists and then swap them in because the watcher might be using the old ones
         if (givenCovs != null) for (Data givenCov : givenCovs.getChildren()) {
-            if (record.covs == null) record.covs = new ArrayList<>();
+            if (covs == null) covs = new ArrayList<>();
             SubsCovEntry entry = new SubsCovEntry();
-            record.covs.add(entry);
+            covs.add(entry);
             entry.path = givenCov.stringValueOf("path", "");
             entry.increment = givenCov.floatValueOf("increment", -1.0F);
         }
-        record.logs = null;
+        List<SubsLogEntry> logs = null;
         if (givenLogs != null) for (Data givenLog : givenLogs.getChildren()) {
-            if (record.logs == null) record.logs = new ArrayList<>();
+            if (logs == null) logs = new ArrayList<>();
             SubsLogEntry entry = new SubsLogEntry();
-            record.logs.add(entry);
+            logs.add(entry);
             entry.path = givenLog.stringValueOf("path", "");
             entry.frequency = frequencyFromString(givenLog.stringValueOf("frequency", ""));
         }
+        record.covs = covs;
+        record.logs = logs;
     }
 
     private static Data recordToData(SubsRecord record) {
         try {
             Data result = Instances.makeInstance("0-BACnetWsSubscriptionRecord", record.name);
-            result.addLocal(new UnsignedData("lifetime", record.lifetime, new BooleanData(WRITABLE, true))); // lifetime is writable
+            result.addLocal(new UnsignedData("lifetime", record.getLifetime(), new BooleanData(WRITABLE, true))); // lifetime is writable
             if (record.label != null) result.addLocal(new StringData("label", record.label));
             if (record.callback != null) result.addLocal(new StringData("callback", record.callback));
             if (record.callbackError != null) result.addLocal(new StringData("callbackError", record.callbackError));
@@ -211,26 +232,23 @@ public class SubsManager {
     ////////////////// Watcher threads //////////////
 
     static boolean shutdown;
-    static Thread  subsWatcher;
+    static ScheduleManager.Timer subsWatcher;
     static Thread  queueWatcher;
 
     public static void start() {
         shutdown = false;
-        if (subsWatcher == null) {
-            subsWatcher = new Thread(new SubsWatcher());
-            subsWatcher.setDaemon(true);
-        }
-        subsWatcher.start();
-        if (queueWatcher == null) {
+        if (subsWatcher == null) subsWatcher = ScheduleManager.scheduleRepeating(Application.subsWatchInterval, SubsManager::processSubscriptions);
+        if (queueWatcher == null || !queueWatcher.isAlive()) {
             queueWatcher = new Thread(new QueueWatcher());
             queueWatcher.setDaemon(true);
+            queueWatcher.start();
         }
-        queueWatcher.start();
     }
 
     public static void stop() {
         shutdown = true;
-        if (subsWatcher  != null) subsWatcher.interrupt();
+        if (subsWatcher  != null) subsWatcher.cancel();
+        subsWatcher = null;
         if (queueWatcher != null) queueWatcher.interrupt();
     }
 
@@ -242,30 +260,26 @@ public class SubsManager {
 
     static BlockingQueue<CallbackInfo> queue = new LinkedBlockingQueue<CallbackInfo>();
 
-    static class SubsWatcher implements Runnable {
-        public void run() {
-            try {
-                for (; ; ) {
-                    Thread.sleep(Application.subsWatchInterval);
-                    if (shutdown) break;
-                    // first process all the subscriptions
-                    for (SubsRecord record : records) processSubscription(record);
-                    // then prune expired records
-                    SubsManager.pruneRecords(Application.multiWatchInterval / 1000);
-                }
-            }
-            catch (InterruptedException e) {Log.logSevere("Subscription SubsWatcher interrupted: " + e.getMessage());}
-            catch (XDException e) {Log.logSevere("Subscription SubsWatcher exception: " + e.getMessage());}
+    private static void  processSubscriptions() {
+        for (SubsRecord record : records.values()) {
+            try { processSubscription(record); }
+            catch (XDException e) { Log.logSevere("Subscription watcher exception: " + e.getMessage()); }
         }
     }
 
-    private static void  pruneRecords(int elapsed) {
-        List<SubsRecord> toRemove = new ArrayList<>();
-        for (SubsRecord record : records) {
-            record.lifetime -= elapsed;
-            if (record.lifetime <= 0) toRemove.add(record);
-        }
-        records.removeAll(toRemove);
+    private static void  addRecord(SubsRecord record) {
+        records.put(record.name, record);
+        record.expiry = ScheduleManager.schedule(record.lifetime * 1000L, () -> expireRecord(record));
+    }
+
+    private static void  removeRecord(SubsRecord record) {
+        if (record.expiry != null) record.expiry.cancel();
+        expireRecord(record);
+    }
+
+    private static void  expireRecord(SubsRecord record) {
+        records.remove(record.name, record);
+        for (SubsStream stream : record.streams) stream.queue.offer(SubsEvent.END); // tell any streams to hang up
     }
 
     static class QueueWatcher implements Runnable {
@@ -284,8 +298,10 @@ public class SubsManager {
 
     public static void processSubscription(SubsRecord record) throws XDException {
         record.dataError = null; // gets overwritten be any errors encountered while processing covs
+        List<SubsCovEntry> covs = record.covs; // hang on to this in case commit() swaps in a new list while we're working
+        if (covs == null) return;              // logs-only subscriptions have nothing to compare
         Session session = Session.makeWriteSession("SubsManager.processSubscription");
-        for (SubsCovEntry entry : record.covs) {
+        for (SubsCovEntry entry : covs) {
             try {
                 Data target = Eval.eval(session.getRoot(),entry.path);
                 if (!target.canHaveValue()) throw new XDException(Errors.TARGET_DATATYPE,target,"target has no value for COV comparison");
@@ -335,52 +351,176 @@ public class SubsManager {
     }
 
     private static void queueCOVNotification(Data target, SubsRecord record)  {
-        if (record.callback == null || record.callback.isEmpty()) { // if there is no url, record complaint and leave
+        boolean hasCallback = record.callback != null && !record.callback.isEmpty();
+        if (!hasCallback && !record.streaming) { // if there is no url and nobody is streaming, record complaint and leave
             record.callbackError = "? "+Errors.CALLBACK_FAILED+" 'callback' URL is empty";
             return;
         }
-        Log.logInfo("Subscriptions: Sending the new value " + target.stringValue("<novalue>") + " for " + target.getName() + " to callback \"" + record.callback + "\"");
+        Log.logInfo("Subscriptions: Sending the new value " + target.stringValue("<novalue>") + " for " + target.getName() + " to " + (hasCallback? "callback \"" + record.callback + "\"" : "streams"));
         try {
-            //
-            // we need a List with 'subscription' metadata set; each list member is a clone with 'via' pointing to the target
-            //
-            Data wrapper = new ListData("..callback-wrapper");
-            wrapper.set(SUBSCRIPTION,Server.getHttpBaseDataURI() + "/.subs/" + record.name);
-            Data clone = target.makeDeepCopy();
-            clone.set(VIA,Path.toURI(target));
-            //Adding $updated was nonstandard, so removed:  clone.getOrCreate(UPDATED).setValue(new GregorianCalendar());
-            wrapper.post(clone);
-            //
-            // even though we have a safe sessionless clone...
-            // just to be clear to future code maintainers, rather than hang on to the cloned Data,
-            // we do the marshaling here and just queue up the body as a string for use in another thread.
-            //
-            // we make a marshalling context that will include the value-related metadata, plus $subscription, $via and $base
-            //
-            Context context = new Context("queueCOVNotification()");
-            StringSet metadataFilter = new StringSet(Rules.valueMetadata);
-            metadataFilter.add(SUBSCRIPTION);
-            metadataFilter.add(VIA);
-            metadataFilter.add(BASE);
-            context.setMetadataFilter(metadataFilter);
-            wrapper.setContext(context);
-
-            CallbackInfo info = new CallbackInfo(); // we will queue up everything we need in here and return
-
-            Writer writer = new StringWriter();
-            if (record.callback.contains("?alt=xml") || record.callback.contains("&alt=xml")) {
-                XMLGenerator xml = new XMLGenerator();
-                xml.generate(writer, wrapper);
-                info.contentType = "application/xml";
-            } else {
-                JSONGenerator json = new JSONGenerator();
-                json.generate(writer, wrapper);
-                info.contentType = "application/json";
+            Data wrapper = makeNotification(target, record);
+            if (hasCallback) {
+                //
+                // even though we have a safe sessionless clone...
+                // just to be clear to future code maintainers, rather than hang on to the cloned Data,
+                // we do the marshaling here and just queue up the body as a string for use in another thread.
+                //
+                CallbackInfo info = new CallbackInfo(); // we will queue up everything we need in here and return
+                boolean xml = record.callback.contains("?alt=xml") || record.callback.contains("&alt=xml");
+                info.contentType = xml ? "application/xml" : "application/json";
+                info.record = record;
+                info.body = generate(wrapper, xml);
+                queue.offer(info);  // we'll pick this up later
+            }
+            if (record.streaming) {
+                // streams *do* hang on to the clone because each stream can ask for its own format and we only want to
+                // pay for generating the formats that somebody actually asked for
+                SubsEvent event;
+                synchronized (record.backlog) {
+                    event = new SubsEvent(++record.lastEventId, wrapper);
+                    record.backlog.add(event);
+                    while (record.backlog.size() > Application.subsStreamBacklog) record.backlog.removeFirst();
+                }
+                for (SubsStream stream : record.streams) stream.queue.offer(event);
             }
-            info.record = record;
-            info.body = writer.toString();
-            queue.offer(info);  // we'll pick this up later
         }
         catch (XDException e) { record.callbackError = e.getLocalizedMessage(); } // shouldn't happen with all this internal stuff
     }
+
+    private static Data makeNotification(Data target, SubsRecord record) throws XDException {
+        //
+        // we need a List with 'subscription' metadata set; each list member is a clone with 'via' pointing to the target
+        //
+        Data wrapper = new ListData("..callback-wrapper");
+        wrapper.set(SUBSCRIPTION,Server.getHttpBaseDataURI() + "/.subs/" + record.name);
+        Data clone = target.makeDeepCopy();
+        clone.set(VIA,Path.toURI(target));
+        //Adding $updated was nonstandard, so removed:  clone.getOrCreate(UPDATED).setValue(new GregorianCalendar());
+        wrapper.post(clone);
+        //
+        // we make a marshalling context that will include the value-related metadata, plus $subscription, $via and $base
+        //
+        Context context = new Context("queueCOVNotification()");
+        StringSet metadataFilter = new StringSet(Rules.valueMetadata);
+        metadataFilter.add(SUBSCRIPTION);
+        metadataFilter.add(VIA);
+        metadataFilter.add(BASE);
+        context.setMetadataFilter(metadataFilter);
+        wrapper.setContext(context);
+        return wrapper;
+    }
+
+    private static String generate(Data wrapper, boolean xml) throws XDException {
+        Writer writer = new StringWriter();
+        if (xml) new XMLGenerator().generate(writer, wrapper);
+        else     new JSONGenerator().generate(writer, wrapper);
+        return writer.toString();
+    }
+
+    ////////////////// Event streams //////////////
+
+    /**
+     * One COV notification, as sent to streams. The body is generated on first use for each format.
+     */
+    private static class SubsEvent {
+        static final SubsEvent END = new SubsEvent(0, null); // queued to a stream to make it hang up
+        final long id;
+        final Data wrapper;
+        String     json;
+        String     xml;
+        SubsEvent(long id, Data wrapper) { this.id = id; this.wrapper = wrapper; }
+        synchronized String getBody(boolean asXML) throws XDException { // synchronized because generators are not reentrant on the same data
+            if (asXML) { if (xml  == null) xml  = generate(wrapper, true);  return xml;  }
+            else       { if (json == null) json = new String(new JSONGenerator(true).generate(wrapper), StandardCharsets.UTF_8); return json; } // compact, so it's one "data:" line
+        }
+    }
+
+    /**
+     * One connected "text/event-stream" client.
+     */
+    private static class SubsStream {
+        final BlockingQueue<SubsEvent> queue = new LinkedBlockingQueue<>();
+    }
+
+    public static boolean isStreamPath(String path) {
+        return path.startsWith(Application.dataPrefix + "/.subs/") && path.endsWith("/stream");
+    }
+
+    /**
+     * Called from {@link org.ampii.xd.application.hooks.HTTPHooks} for GET {prefix}/.subs/{id}/stream. This sends the same
+     * payloads as callbacks, but as Server-Sent Events on a connection that the client holds open. A "Last-Event-ID"
+     * header will replay whatever is still in the record's backlog after that id.
+     */
+    public static Response openStream(Request request) throws XDException {
+        String recordPath = request.path.substring(0, request.path.length() - "/stream".length());
+        // first, make sure the requester can actually read the record the normal way
+        Context context = new Context(request);
+        context.setAuthorizer(new Authorizer(request));
+        Session session = Session.makeReadSession("SubsManager.openStream",context);
+        try { Eval.eval(session.getRoot(), recordPath, Eval.FOR_GET); }
+        finally { session.discard(); } // don't hang on to a session for the life of the stream!
+        SubsRecord record = findRecord(recordPath.substring(recordPath.lastIndexOf('/') + 1));
+        if (record == null) throw new XDException(Errors.DATA_NOT_FOUND, "Subscription record '" + recordPath + "' not found");
+        boolean asXML = context.isAlt("xml");
+        long lastEventId = -1;
+        String lastEventHeader = request.header.get("last-event-id");
+        if (lastEventHeader != null) {
+            try { lastEventId = Long.parseLong(lastEventHeader.trim()); }
+            catch (NumberFormatException e) { throw new XDException(Errors.PARAM_VALUE_FORMAT, "Invalid Last-Event-ID header"); }
+        }
+        final long resumeAfter = lastEventId;
+        return new StreamResponse(HTTP.HTTP_200_OK, "text/event-stream") {
+            @Override public void stream(OutputStream os) throws IOException { SubsManager.stream(record, resumeAfter, asXML, os); }
+        };
+    }
+
+    // Only the new stream gets these. The covs' previous values are what the callback and the other streams were last
+    // sent, so they're left alone (resetting them would resend everything to all of them). Call with record.backlog held.
+    private static void queueCurrentValues(SubsRecord record, SubsStream stream) {
+        List<SubsCovEntry> covs = record.covs;
+        if (covs == null) return;
+        Session session = Session.makeReadSession("SubsManager.queueCurrentValues");
+        try {
+            for (SubsCovEntry entry : covs) {
+                try {
+                    Data target = Eval.eval(session.getRoot(), entry.path);
+                    if (!target.canHaveValue() || !isApprovedType(target.getValue())) continue; // processSubscription() reports these
+                    stream.queue.offer(new SubsEvent(++record.lastEventId, makeNotification(target, record)));
+                }
+                catch (XDException e) { } // likewise
+            }
+        }
+        finally { session.discard(); }
+    }
+
+    private static void stream(SubsRecord record, long resumeAfter, boolean asXML, OutputStream os) throws IOException {
+        SubsStream stream = new SubsStream();
+        synchronized (record.backlog) { // register and replay atomically so nothing falls in the crack between them
+            record.streaming = true;
+            record.streams.add(stream);
+            if (resumeAfter >= 0) { for (SubsEvent event : record.backlog) if (event.id > resumeAfter) stream.queue.offer(event); }
+            else queueCurrentValues(record, stream); // fresh streams get current values, like a new callback does
+        }
+        try {
+            os.write(("retry: " + Application.subsStreamHeartbeat + "\n\n").getBytes("UTF-8"));
+            os.flush();
+            for (;;) {
+                SubsEvent event = stream.queue.poll(Application.subsStreamHeartbeat, TimeUnit.MILLISECONDS);
+                if (event == SubsEvent.END) break;
+                if (event == null) os.write(": heartbeat\n\n".getBytes("UTF-8")); // keeps proxies from timing us out and tells us if the client is gone
+                else {
+                    StringBuilder frame = new StringBuilder();
+                    frame.append("id: ").append(event.id).append("\n");
+                    frame.append("event: cov\n");
+                    for (String line : event.getBody(asXML).split("\n", -1)) frame.append("data: ").append(line).append("\n");
+                    frame.append("\n");
+                    os.write(frame.toString().getBytes("UTF-8"));
+                }
+                os.flush();
+            }
+        }
+        catch (InterruptedException e) { } // just hang up
+        catch (XDException e)          { record.dataError = e.getLocalizedMessage(); }
+        finally { record.streams.remove(stream); }
+    }
 }
@@ -0,0 +1,269 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.LocalizedString;
+import org.ampii.xd.common.LocalizedStrings;
+import org.ampii.xd.common.Log;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.*;
+import org.ampii.xd.definitions.Definitions;
+import org.ampii.xd.resolver.Path;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ampii.xd.marshallers.CBORReader.*;
+
+/**
+ * Data-to-CBOR, for alt=cbor. This has the same shape as the JSON from {@link JSONGenerator}, and makes the same
+ * choices about what to include, but it's binary: each object is a map, the metadata names that are in
+ * {@link CBORReader}'s table are sent as small integers, and values are sent as what they are - numbers as integers or
+ * floats, booleans as booleans, and OctetStrings as byte strings - rather than as text to be parsed again.
+ * <p>
+ * Maps are written with indefinite length, since what's in them is decided as we go. A localized value with more than
+ * the default locale is an array of [locale, text] pairs, each tagged {@link CBORReader#TAG_LANGUAGE_TAGGED_STRING}.
+ *
+ * @author daverobin
+ */
+public class CBORGenerator extends Generator {
+
+    List<String> definitionNames = new ArrayList<String>();
+    String defaultLocale;
+    private final Utf8Buffer out = new Utf8Buffer();
+
+    public void generate(OutputStream stream, Data data) throws XDException {
+        out.reset();
+        out.setSink(stream);
+        try { generateIntoBuffer(data); out.flush(); }
+        catch (IOException | UncheckedIOException e) { Log.logSevere("Generator IOException: " + e.getLocalizedMessage()); }
+        finally { out.reset(); }
+    }
+
+    public byte[] generate(Data data) throws XDException {
+        out.reset();
+        generateIntoBuffer(data);
+        return out.toByteArray();
+    }
+
+    private void generateIntoBuffer(Data data) throws XDException {
+        Context context = data.getContext();
+        this.defaultLocale = context.getLocale();
+        definitionNames.clear();
+        begin(context);
+        emitObject(data, false);
+    }
+
+    ////////////////////////////////
+
+    private void emitObject(Data data, boolean doingMetadata) throws XDException {
+        String name = data.getName();
+        context.cur_depth++;
+        if (context.cur_depth != 1) emitKey(name);
+        emitStartOfMap();
+
+        DataList metadata = data.getContextualizedMetadata();
+        DataList children = data.getContextualizedChildren();
+
+        if (context.cur_depth==1) {
+            if (!data.getName().startsWith("..")) emitTextPair("$name", data.getName()); // don't emit "internal" names at top level
+            emitTextPair("$$defaultLocale", defaultLocale);
+            if (context.hasRequest() && !data.getName().equals(".csml")) { // same as JSON: none of this for a top level ".csml" wrapper
+                if (context.canInclude(Meta.SELF))  emitTextPair("$self", Path.toPath(data));
+                for (String metaName : Rules.inheritsFromParents.getComponents()) {
+                    if (data.find(metaName) == null) { // if found locally, never mind - they will get emitted elsewhere in this method
+                        if (context.canInclude(metaName) && Rules.parentallyInheritedIsDifferentFromDefault(data, metaName)) {
+                            Data effective = data.findEffective(metaName);
+                            if (effective != null) { emitKey(metaName); emitPrimitive(effective); }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (context.canIncludeDefinitions()) emitDefinitionsFor(data);
+
+        if (context.canIncludeBase() || data.isFromAny() || data.isFromNothing()) emitTextPair("$base", Base.toString(data.getBase()));
+
+        if (data.canHaveChildren()) {
+            if (children.truncated || !context.canDescend()) { emitKey("$truncated"); out.write(SIMPLE_TRUE); }
+            if (children.partial)                            { emitKey("$partial");   out.write(SIMPLE_TRUE); }
+            if (children.next != null)                       { emitTextPair("$next", children.next); }
+        }
+
+        if (context.canIncludeValue() && data.hasValue()) {
+            if (!context.getAuthorizer().checkRead(data)) { emitKey("$error"); writeLong(Errors.NOT_READABLE); }
+            else if (!metadata.contains(Meta.ERROR)) emitValue(data);
+        }
+        // see JSONGenerator for the reasons behind when type info is included
+        if (context.canIncludeType() || data.isFromAny() || data.isFromNothing() || data.isDefinition()) {
+            String localType = data.stringValueOf(Meta.TYPE,"");
+            if (!localType.isEmpty()) {
+                if (context.cur_depth == 1 || data.isFromAny() || data.isFromNothing()) emitTextPair("$type", localType);
+            }
+            if (context.cur_depth == 1) {
+                String effectiveType = data.getEffectiveType();
+                if (!effectiveType.isEmpty() && (!effectiveType.equals(localType))) emitTextPair("$effectiveType", effectiveType);
+            }
+        }
+
+        for (Data meta : metadata) {
+            String metaName = meta.getName();
+            if (metaName.equals(Meta.TYPE)) continue; // $type is dealt with above
+            if (metaName.startsWith(Meta.AMPII_DEFINITIONS))     { emitDefinitions(meta.getChildren());continue; }
+            if (metaName.startsWith(Meta.AMPII_TAG_DEFINITIONS)) { emitTagDefinitions(meta.getChildren());continue; }
+            boolean metaHasMetadata = context.makeContextualizedMetadata(meta).size() != 0;
+            if (!metaHasMetadata && !meta.canHaveChildren() && !Rules.isExtendedMetadata(meta.getName())) emitSubValue(meta, context);
+            else emitObject(meta,true);
+        }
+
+        if (context.canDescend() || doingMetadata) {
+            if (shouldFork(children)) {
+                for (Utf8Buffer part : forkAll(children, (child, forked, index) -> generatePart(child, forked))) out.write(part);
+            }
+            else for (Data child : children) emitChild(child);
+        }
+        out.write(BREAK);
+        context.cur_depth--;
+    }
+
+    private void emitChild(Data child) throws XDException {
+        boolean childHasMetadata = context.makeContextualizedMetadata(child).size() != 0;
+        if (!childHasMetadata && !child.canHaveChildren() && !context.canIncludeBase() && !child.isFromAny() && !child.isFromNothing()) emitSubValue(child, context);
+        else emitObject(child,false);
+    }
+
+    // runs on a worker: generates one child with its own generator, in the state we're in now, for forkAll()
+    private Utf8Buffer generatePart(Data child, Context forked) throws XDException {
+        CBORGenerator part = new CBORGenerator();
+        part.beginPart(null, this, forked);
+        part.defaultLocale = defaultLocale;
+        part.emitChild(child);
+        return part.out;
+    }
+
+    private void emitValue(Data data) throws XDException {  // emitting the value of this item; similar but different from emitSubValue(), so can't be combined
+        Base base = data.getBase();
+        if (base == Base.DATE || base == Base.DATETIME || base == Base.TIME) {
+            if (!data.booleanValueOf(Meta.UNSPECIFIEDVALUE, false)) emitTextPair("$value", data.stringValue());
+        }
+        else {
+            emitKey("$value");
+            emitPrimitive(data);
+        }
+    }
+
+    private void emitSubValue(Data data, Context context) throws XDException {
+        emitKey(data.getName());
+        if (!context.getAuthorizer().checkRead(data)) { // can't show value, so flip to map form to include $error
+            emitStartOfMap(); emitKey("$error"); writeLong(Errors.NOT_READABLE); out.write(BREAK);
+        }
+        else if (data.getValue() == null) { emitStartOfMap(); out.write(BREAK); } // as in JSON, an empty map rather than a null
+        else emitPrimitive(data);
+    }
+
+    private void emitPrimitive(Data data) throws XDException { // the value as what it is, rather than as text
+        Base   base  = data.getBase();
+        Object value = data.getValue();
+        if      (base == Base.BOOLEAN)                       out.write(data.booleanValue() ? SIMPLE_TRUE : SIMPLE_FALSE);
+        else if (base == Base.REAL || base == Base.DOUBLE)   writeDouble(data.doubleValue());
+        else if (base == Base.UNSIGNED || base == Base.INTEGER) writeLong(data.longValue());
+        else if (base == Base.OCTETSTRING && value instanceof byte[]) { byte[] bytes = (byte[])value; writeHead(MAJOR_BYTES, bytes.length); out.write(bytes); }
+        else if (value instanceof LocalizedStrings)          writeLocalized((LocalizedStrings)value);
+        else                                                 writeText(data.stringValue());
+    }
+
+    private void writeLocalized(LocalizedStrings strings) {
+        if (strings.size() == 1 && strings.get(0).isDefaultLocale()) { writeText(strings.get(0).getValue()); return; } // the usual case
+        writeHead(MAJOR_ARRAY, strings.size());
+        for (LocalizedString string : strings) {
+            writeHead(MAJOR_TAG, TAG_LANGUAGE_TAGGED_STRING);
+            writeHead(MAJOR_ARRAY, 2);
+            writeText(string.getLocale());
+            writeText(string.getValue());
+        }
+    }
+
+    private void emitDefinitionsFor(Data data) throws XDException {
+        Data definition = Definitions.getDefinitionContaining(data);
+        if (definition != null ) {
+            if (!definitionNames.contains(definition.getName())) { // omit if already serialized once
+                definitionNames.add(definition.getName());
+                context.enterDefinitionContext();
+                emitKey("$$definitions");
+                emitStartOfMap();
+                emitObject(definition,false);
+                out.write(BREAK);
+                context.exitDefinitionContext();
+            }
+        }
+    }
+
+    private void emitDefinitions(DataList defs)    throws XDException { _emitDefs("$$definitions", defs);    }
+
+    private void emitTagDefinitions(DataList defs) throws XDException { _emitDefs("$$tagDefinitions", defs); }
+
+    private void _emitDefs(String name, DataList defs) throws XDException {
+        context.enterDefinitionContext();
+        emitKey(name);
+        emitStartOfMap();
+        for (Data def: defs) emitObject(def,false);
+        out.write(BREAK);
+        context.exitDefinitionContext();
+    }
+
+    ////////////////////////////////
+
+    private static final int SIMPLE_FALSE = MAJOR_SIMPLE << 5 | FALSE;
+    private static final int SIMPLE_TRUE  = MAJOR_SIMPLE << 5 | TRUE;
+
+    private void emitStartOfMap() { out.write(MAJOR_MAP << 5 | INDEFINITE); }
+
+    private void emitTextPair(String name, String value) {
+        emitKey(name);
+        writeText(value);
+    }
+
+    private void emitKey(String name) {
+        int key = name.startsWith("$") ? keyFor(name) : -1;
+        if (key >= 0) writeHead(MAJOR_UNSIGNED, key);
+        else writeText(name);
+    }
+
+    private void writeText(String text) {
+        writeHead(MAJOR_TEXT, Utf8Buffer.utf8Length(text));
+        out.writeUtf8(text);
+    }
+
+    private void writeLong(long value) {
+        if (value >= 0) writeHead(MAJOR_UNSIGNED, value);
+        else writeHead(MAJOR_NEGATIVE, -1 - value);
+    }
+
+    private void writeDouble(double value) {
+        float single = (float)value;
+        if (single == value || Double.isNaN(value)) { // it fits in half the space
+            int bits = Float.floatToIntBits(single);
+            out.write(MAJOR_SIMPLE << 5 | FLOAT);
+            out.write(bits >> 24); out.write(bits >> 16); out.write(bits >> 8); out.write(bits);
+        }
+        else {
+            long bits = Double.doubleToLongBits(value);
+            out.write(MAJOR_SIMPLE << 5 | DOUBLE);
+            for (int shift = 56; shift >= 0; shift -= 8) out.write((int)(bits >> shift));
+        }
+    }
+
+    private void writeHead(int major, long argument) { // the argument in the fewest bytes it fits in
+        int type = major << 5;
+        if      (argument < 24)          out.write(type | (int)argument);
+        else if (argument <= 0xFF)       { out.write(type | 24); out.write((int)argument); }
+        else if (argument <= 0xFFFF)     { out.write(type | 25); out.write((int)(argument >> 8)); out.write((int)argument); }
+        else if (argument <= 0xFFFFFFFFL){ out.write(type | 26); for (int shift = 24; shift >= 0; shift -= 8) out.write((int)(argument >> shift)); }
+        else                             { out.write(type | 27); for (int shift = 56; shift >= 0; shift -= 8) out.write((int)(argument >> shift)); }
+    }
+
+}
@@ -0,0 +1,205 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.LocalizedString;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.*;
+import org.ampii.xd.definitions.DefinitionCollector;
+import org.ampii.xd.data.basetypes.ParsedData;
+import javax.xml.bind.DatatypeConverter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses CBOR from {@link CBORGenerator} (alt=cbor) into {@link ParsedData} items. The structure is the same as for
+ * {@link JSONParser}, but map keys can be the integers from {@link CBORReader}'s table, and values keep the type they
+ * were sent with: a ParsedData's value can be a Long, Double, Boolean, or byte[] as well as a String, and it's turned
+ * into what the target wants when it's put. Definitions are the exception: they're kept as text, as they would be from
+ * the other formats, since that's what the definition code expects.
+ * <p>
+ * $$includes are not supported here; they're for files, and this is for the wire.
+ *
+ * @author daverobin
+ */
+public class CBORParser extends Parser {
+
+    private CBORReader cbor;
+
+    /**
+     * Generally, you should use one of the {@link DataParser}.parse(byte[],...) methods rather than this.
+     * The sourceName can be null if n/a
+     */
+    public Data parse(byte[] bytes, String sourceName, int options, DefinitionCollector definitionCollector) throws XDException {
+        begin(null, null, sourceName, options);
+        cbor = new CBORReader(bytes, this.sourceName);
+        if (cbor.next() != CBORReader.START_MAP) throw complaint("Expected a map at the start");
+        Data result = consumeMap(".anonymous", definitionCollector, hasOption(OPTION_IS_DEFINITION));
+        finish();
+        return result;
+    }
+
+    @Override ParsedData makeParsedData(String name) throws XDException { return new ParsedData(name,sourceName,1,cbor.getOffset()+1); }
+
+    @Override public XDException complaint(String details)            { return cbor.complaint(details); }
+
+    @Override public XDException complaint(int error, String details) { return cbor.complaint(error, details); }
+
+    ////////////////////////////////////////
+
+    // called after the START_MAP
+    private Data consumeMap(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        Data info = makeParsedData(name);
+        info.setIsDefinition(isDefinition);
+        String order = null;
+        for (int event = cbor.next(); event != CBORReader.END_MAP; event = cbor.next()) {
+            String memberName = consumeKey(event);
+            if (memberName.equals("$value")) {
+                consumeValue(info, cbor.next());
+            }
+            else if (memberName.equals("$name")) {
+                info.setName(consumeText());
+            }
+            else if (memberName.equals("$base")) {
+                info.setBase(Base.fromString(consumeText()));
+            }
+            else if (memberName.equals("$$definitions")) {
+                for (Data def : consumeNestedMap(memberName,definitionCollector,true).getChildren()) definitionCollector.addDefinition(def);
+            }
+            else if (memberName.equals("$$tagDefinitions")) {
+                for (Data def : consumeNestedMap(memberName,definitionCollector,true).getChildren()) definitionCollector.addTagDefinition(def);
+            }
+            else if (memberName.equals("$$includes")) {
+                throw complaint(Errors.NOT_REPRESENTABLE, "$$includes can't be used in CBOR");
+            }
+            else if (memberName.equals("$$defaultLocale")) {
+                defaultLocale = consumeText();
+            }
+            else if (memberName.equals("$$org.ampii.comment")) {
+                cbor.skipValue();
+            }
+            else if (memberName.equals("$$order")) {  // order will be processed at end of map
+                order = consumeText();
+            }
+            else if (memberName.contains("$$")) {     // a localized metadata value, as in JSON (the generator uses tagged arrays instead, but this is allowed)
+                int index = memberName.indexOf("$$");
+                String locale = memberName.substring(index + 2);
+                memberName = memberName.substring(0, index);
+                Data target = memberName.equals("$value") ? info : info.getOrCreate(memberName);
+                target.setValue(new LocalizedString(locale, consumeText()));
+            }
+            else {
+                Data member = consumeMember(memberName,cbor.next(),definitionCollector,isDefinition);
+                if (!Rules.isMetadata(member)) member.setName(Rules.getNextAvailableChildName(info,member.getName()));
+                info.addLocal(member);
+            }
+        }
+        if (order != null) sort(info, order);
+        // a little clean up at the end, same as JSON
+        if (info.getName().equals(".csml")) {
+            if (info.getBase() == Base.POLY) info.setBase(Base.COLLECTION);
+            else if (info.getBase() != Base.COLLECTION) throw complaint(Errors.INCONSISTENT_VALUES,"Data named '.csml' must be of base type Collection");
+        }
+        return info;
+    }
+
+    private String consumeKey(int event) throws XDException {
+        if (event != CBORReader.VALUE) throw complaint("Expected a map key");
+        Object key = cbor.getValue();
+        if (key instanceof String) return (String)key;
+        if (key instanceof Long) {
+            String name = CBORReader.nameFor((Long)key);
+            if (name == null) throw complaint("Unknown metadata key " + key);
+            return name;
+        }
+        throw complaint("A map key must be text or an integer");
+    }
+
+    private Data consumeNestedMap(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        if (cbor.next() != CBORReader.START_MAP) throw complaint("Expected a map for '" + name + "'");
+        return consumeMap(name, definitionCollector, isDefinition);
+    }
+
+    /**
+     * consumes either a map, an array, or a primitive, given the event that starts it
+     */
+    private Data consumeMember(String memberName, int event, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        if      (event == CBORReader.START_ARRAY && !isLocalized(event)) return consumeArray(memberName, definitionCollector, isDefinition);
+        else if (event == CBORReader.START_MAP)   return consumeMap(memberName,definitionCollector,isDefinition);
+        else if (event == CBORReader.VALUE || event == CBORReader.START_ARRAY) {
+            Data member = makeParsedData(memberName);
+            member.setIsDefinition(isDefinition);
+            consumeValue(member, event);
+            return member;
+        }
+        else throw complaint("Expected a value for '" + memberName + "'");
+    }
+
+    // called after the START_ARRAY
+    private Data consumeArray(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        Data info = makeParsedData(name);
+        info.setIsDefinition(isDefinition);
+        int i = 1;
+        for (int event = cbor.next(); event != CBORReader.END_ARRAY; event = cbor.next()) {
+            String memberName = String.valueOf(i++); // array members get names starting with "1"
+            info.addLocal(consumeMember(memberName, event, definitionCollector, isDefinition));
+        }
+        return info;
+    }
+
+    ////////////////////////////////////////
+
+    // A value is a primitive, or an array of [locale, text] pairs tagged TAG_LANGUAGE_TAGGED_STRING. We can only tell
+    // the second from a plain array by looking at the first item, so the reader is peeked with a copy.
+    private boolean isLocalized(int event) throws XDException {
+        if (event != CBORReader.START_ARRAY) return false;
+        CBORReader peek = cbor.copy();
+        return peek.next() == CBORReader.START_ARRAY && peek.getTag() == CBORReader.TAG_LANGUAGE_TAGGED_STRING;
+    }
+
+    private void consumeValue(Data info, int event) throws XDException {
+        if (event == CBORReader.VALUE) {
+            Object value = cbor.getValue();
+            info.setValue(info.isDefinition() ? textFor(value) : value);
+        }
+        else if (event == CBORReader.START_ARRAY) {
+            List<LocalizedString> others = new ArrayList<>();
+            for (event = cbor.next(); event != CBORReader.END_ARRAY; event = cbor.next()) {
+                if (event != CBORReader.START_ARRAY || cbor.getTag() != CBORReader.TAG_LANGUAGE_TAGGED_STRING) throw complaint("Expected a language tagged string");
+                String locale = consumeText();
+                String text   = consumeText();
+                if (cbor.next() != CBORReader.END_ARRAY) throw complaint("A language tagged string has only a locale and text");
+                if (locale.equals(defaultLocale)) info.setValue(text); // as in JSON, the default locale is the plain value, which has to be set first
+                else others.add(new LocalizedString(locale, text));
+            }
+            for (LocalizedString other : others) info.setValue(other);
+        }
+        else throw complaint("Expected a primitive value");
+    }
+
+    private String consumeText() throws XDException {
+        if (cbor.next() != CBORReader.VALUE || !(cbor.getValue() instanceof String)) throw complaint("Expected text");
+        return (String)cbor.getValue();
+    }
+
+    // the same text that the JSON for it would have had
+    private static String textFor(Object value) {
+        return value instanceof byte[] ? DatatypeConverter.printHexBinary((byte[])value) : value.toString();
+    }
+
+    private void sort(Data data, String order) throws XDException { // same as JSONParser.sort()
+        DataList children = data.getChildren();
+        DataList newChildren = new DataList();
+        String[] names = order.split(";");
+        if (names.length != children.size()) throw new XDException(Errors.INCONSISTENT_VALUES, "Number of names in given sort order does not match number of children",this);
+        for (String name : names) {
+            Data found = null;
+            for (Data child : children) if (child.getName().equals(name)) { found = child; break; }
+            if (found == null) throw new XDException(Errors.INCONSISTENT_VALUES,"Specified sort order contains '" + name + "' that is not currently a child",this);
+            newChildren.add(found);
+        }
+        for (Data child: children)    data.removeLocal(child);
+        for (Data child: newChildren) data.addLocal(child);
+    }
+
+}
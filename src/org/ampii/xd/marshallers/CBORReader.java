@@ -0,0 +1,262 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Meta;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pull parser for CBOR (RFC 8949), the binary form used for alt=cbor: like {@link JSONReader}, it hands out one
+ * event at a time, and {@link CBORParser} builds its trees from these events.
+ * <p>
+ * Unlike the text formats, values come out typed: getValue() is a Long, Double, Boolean, byte[], or String, so nothing
+ * has to be printed by one side and parsed again by the other. A tag (e.g., {@link #TAG_LANGUAGE_TAGGED_STRING}) is
+ * given with the item it's on by getTag().
+ * <p>
+ * This is also the home of the table of metadata names that are sent as small integer map keys (see {@link #keyFor}),
+ * which {@link CBORGenerator} shares. The table is part of the format, so it can only ever be added to at the end.
+ *
+ * @author daverobin
+ */
+public class CBORReader {
+
+    public static final int END          = 0; // the end of the input (or of the top level item)
+    public static final int START_MAP    = 1;
+    public static final int END_MAP      = 2;
+    public static final int START_ARRAY  = 3;
+    public static final int END_ARRAY    = 4;
+    public static final int VALUE        = 5; // getValue() is the primitive value
+
+    public static final int TAG_LANGUAGE_TAGGED_STRING = 38; // [locale, text], for LocalizedStrings
+
+    // major types
+    static final int MAJOR_UNSIGNED = 0, MAJOR_NEGATIVE = 1, MAJOR_BYTES = 2, MAJOR_TEXT = 3, MAJOR_ARRAY = 4, MAJOR_MAP = 5, MAJOR_TAG = 6, MAJOR_SIMPLE = 7;
+    static final int INDEFINITE = 31;
+    static final int BREAK      = 0xFF;
+    static final int FALSE = 20, TRUE = 21, NULL = 22, HALF = 25, FLOAT = 26, DOUBLE = 27; // simple values and floats, in major type 7
+
+    // The metadata names that are sent as integer keys, numbered by position; the ones up to 23 take only one byte, so
+    // the most common come first. Anything not here is sent by name.
+    private static final String[] KEYS = {
+            Meta.BASE, Meta.VALUE, Meta.TYPE, Meta.NAME, Meta.TRUNCATED, Meta.PARTIAL, Meta.NEXT, Meta.SELF,
+            Meta.ERROR, "$$defaultLocale", Meta.DISPLAYNAME, Meta.DESCRIPTION, Meta.WRITABLE, Meta.UNITS, Meta.MINIMUM, Meta.MAXIMUM,
+            Meta.EFFECTIVETYPE, Meta.COUNT, Meta.CHILDREN, Meta.DESCENDANTS, Meta.MEMBERTYPE, Meta.OPTIONAL, Meta.PUBLISHED, Meta.TARGET,
+            "$$definitions", "$$tagDefinitions", "$$includes", "$$order", "$$org.ampii.comment",
+            Meta.EXTENDS, Meta.OVERLAYS, Meta.RESOLUTION, Meta.MINIMUMLENGTH, Meta.MAXIMUMLENGTH, Meta.MINIMUMSIZE, Meta.MAXIMUMSIZE,
+            Meta.MAXIMUMSIZEFORWRITING, Meta.MINIMUMSIZEFORWRITING, Meta.VARIABILITY, Meta.VOLATILITY, Meta.WRITEEFFECTIVE,
+            Meta.ALLOWEDTYPES, Meta.ALLOWEDCHOICES, Meta.DISPLAYORDER, Meta.COMMENT, Meta.LENGTH, Meta.ABSENT, Meta.CONTEXTTAG,
+            Meta.PROPERTYIDENTIFIER, Meta.COMMANDABLE, Meta.BIT, Meta.READABLE, Meta.MINIMUMFORWRITING, Meta.MAXIMUMFORWRITING,
+            Meta.MINIMUMLENGTHFORWRITING, Meta.MAXIMUMLENGTHFORWRITING, Meta.MINIMUMENCODEDLENGTH, Meta.MAXIMUMENCODEDLENGTH,
+            Meta.MINIMUMENCODEDLENGTHFORWRITING, Meta.MAXIMUMENCODEDLENGTHFORWRITING, Meta.ASSOCIATEDWITH, Meta.REQUIREDWITH,
+            Meta.REQUIREDWITHOUT, Meta.NOTPRESENTWITH, Meta.WRITABLEWHEN, Meta.REQUIREDWHEN, Meta.WRITABLEWHENTEXT, Meta.REQUIREDWHENTEXT,
+            Meta.TARGETTYPE, Meta.HREF, Meta.DOCUMENTATION, Meta.ERRORTEXT, Meta.UNITSTEXT, Meta.PRIORITYARRAY, Meta.DISPLAYNAMEFORWRITING,
+            Meta.HASHISTORY, Meta.HISTORY, Meta.UNSPECIFIEDVALUE, Meta.NAMEDVALUES, Meta.NAMEDBITS, Meta.CHOICES, Meta.MEMBERTYPEDEFINITION,
+            Meta.LINKS, Meta.TAGS, Meta.NOTFORREADING, Meta.NOTFORWRITING, Meta.ISMULTILINE, Meta.INALARM, Meta.OVERRIDDEN, Meta.FAULT,
+            Meta.OUTOFSERVICE, Meta.NODETYPE, Meta.NODESUBTYPE, Meta.MEDIATYPE, Meta.AUTHREAD, Meta.AUTHWRITE, Meta.AUTHVISIBLE,
+            Meta.RELINQUISHDEFAULT, Meta.ETAG, Meta.VIA, Meta.PHYSICAL, Meta.RELATED, Meta.ALTERNATE, Meta.UPDATED, Meta.AUTHOR, Meta.EDIT,
+            Meta.FAILURES, Meta.SUBSCRIPTION, Meta.ID, Meta.SOURCEID, Meta.ADDREV, Meta.REMREV, Meta.MODREV, Meta.DATAREV, Meta.REVISIONS,
+            Meta.VALUETAGS, Meta.OBJECTTYPE, Meta.REPRESENTS, Meta.VIAEXTERNAL, Meta.VIAMAP, Meta.REL,
+    };
+    private static final Map<String,Integer> KEY_NUMBERS = new HashMap<>();
+    static { for (int i = 0; i < KEYS.length; i++) KEY_NUMBERS.put(KEYS[i], i); }
+
+    public static int    keyFor(String metaName) { Integer key = KEY_NUMBERS.get(metaName); return key != null ? key : -1; } // -1 if it goes by name
+    public static String nameFor(long key)       { return key >= 0 && key < KEYS.length ? KEYS[(int)key] : null; }
+
+    private final byte[]  in;
+    private final String  source;      // for error messages
+    private int           pos;
+    private final int     limit;
+    private long[]        remaining = new long[32]; // items left in each container we're in, or -1 if it ends with a break
+    private boolean[]     inMap     = new boolean[32];
+    private int[]         started   = new int[32];  // items started in each enclosing map, saved while we're in a nested container
+    private int           startedInMap;             // ...and in the innermost one, so a break right after a key can be caught
+    private int           depth;
+    private boolean       done;        // the top level item is over
+    private Object        value;
+    private long          tag = -1;
+
+    public CBORReader(byte[] in, String source) {
+        this.in     = in;
+        this.source = source;
+        this.limit  = in.length;
+    }
+
+    private CBORReader(CBORReader other) { // see copy()
+        this(other.in, other.source);
+        pos          = other.pos;
+        remaining    = other.remaining.clone();
+        inMap        = other.inMap.clone();
+        started      = other.started.clone();
+        startedInMap = other.startedInMap;
+        depth        = other.depth;
+        done         = other.done;
+    }
+
+    /**
+     * Returns a reader that carries on independently from where this one is, for looking ahead.
+     */
+    public CBORReader copy() { return new CBORReader(this); }
+
+    public String  getSource()  { return source; }
+    public Object  getValue()   { return value; }   // of the last VALUE
+    public long    getTag()     { return tag; }     // of the last item returned, or -1 if it had none
+    public int     getOffset()  { return pos; }
+    public int     getDepth()   { return depth; }   // how many maps and arrays we're in
+
+    /**
+     * Returns the next event, one of the constants above. After the top level item is done, this keeps returning END.
+     */
+    public int next() throws XDException {
+        tag = -1;
+        if (depth > 0 && remaining[depth-1] == 0) return close(); // a container with a count has had them all
+        if (done) return END;
+        int initial = read();
+        if (initial == BREAK) {
+            if (depth == 0 || remaining[depth-1] != -1) throw complaint("Unexpected break");
+            if (inMap[depth-1] && (startedInMap & 1) != 0) throw complaint("Map ended after a key with no value");
+            return close();
+        }
+        while (initial >> 5 == MAJOR_TAG) { tag = readArgument(initial & 0x1F); initial = read(); } // the innermost tag is the one that counts
+        if (depth > 0) {
+            if (remaining[depth-1] > 0) remaining[depth-1]--;
+            if (inMap[depth-1]) startedInMap++;
+        }
+        int major = initial >> 5;
+        int info  = initial & 0x1F;
+        switch (major) {
+            case MAJOR_UNSIGNED:
+                long unsigned = readArgument(info);
+                if (unsigned < 0) throw complaint(Errors.VALUE_OUT_OF_RANGE, "Integer is too big");
+                return primitive(unsigned);
+            case MAJOR_NEGATIVE:
+                long negative = readArgument(info);
+                if (negative < 0) throw complaint(Errors.VALUE_OUT_OF_RANGE, "Integer is too small");
+                return primitive(-1 - negative);
+            case MAJOR_BYTES:
+                return primitive(readString(MAJOR_BYTES, info));
+            case MAJOR_TEXT:
+                return primitive(new String(readString(MAJOR_TEXT, info), StandardCharsets.UTF_8));
+            case MAJOR_ARRAY:
+            case MAJOR_MAP:
+                boolean map = major == MAJOR_MAP;
+                long count = info == INDEFINITE ? -1 : readArgument(info);
+                if (count < -1 || map && count > Long.MAX_VALUE / 2) throw complaint("Too many items");
+                open(map, count == -1 ? -1 : map ? count * 2 : count);
+                return map ? START_MAP : START_ARRAY;
+            case MAJOR_SIMPLE:
+                switch (info) {
+                    case FALSE:  return primitive(Boolean.FALSE);
+                    case TRUE:   return primitive(Boolean.TRUE);
+                    case HALF:   return primitive(halfToDouble((int)readArgument(info)));
+                    case FLOAT:  return primitive((double)Float.intBitsToFloat((int)readArgument(info)));
+                    case DOUBLE: return primitive(Double.longBitsToDouble(readArgument(info)));
+                    case NULL:   throw complaint("Null is not supported");
+                    default:     throw complaint("Unsupported simple value " + info);
+                }
+            default: // the tags were taken care of above
+                throw complaint("Unexpected major type " + major);
+        }
+    }
+
+    /**
+     * Skips over the next item, however deep it is.
+     */
+    public void skipValue() throws XDException {
+        int event = next();
+        if (event != START_MAP && event != START_ARRAY) return;
+        int until = depth - 1;
+        while (depth > until) if (next() == END) break;
+    }
+
+    public XDException complaint(String details) { return complaint(Errors.VALUE_FORMAT, details); }
+
+    public XDException complaint(int error, String details) {
+        return new XDException(error, "Parsing error at byte " + pos + " in '" + source + "': " + details);
+    }
+
+    ////////////////////////////////
+
+    private int primitive(Object value) {
+        this.value = value;
+        if (depth == 0) done = true;
+        return VALUE;
+    }
+
+    private void open(boolean map, long count) throws XDException {
+        if (depth == remaining.length) {
+            if (depth >= 1024) throw complaint("Nested too deeply");
+            long[] moreRemaining = new long[depth*2];  System.arraycopy(remaining, 0, moreRemaining, 0, depth);  remaining = moreRemaining;
+            boolean[] moreInMap  = new boolean[depth*2]; System.arraycopy(inMap, 0, moreInMap, 0, depth);      inMap = moreInMap;
+            int[] moreStarted    = new int[depth*2];   System.arraycopy(started, 0, moreStarted, 0, depth);      started = moreStarted;
+        }
+        if (count > limit - pos) throw complaint("More items than there are bytes left"); // each item takes at least one
+        started[depth] = startedInMap;
+        startedInMap = 0;
+        remaining[depth] = count;
+        inMap[depth++] = map;
+    }
+
+    private int close() {
+        boolean map = inMap[--depth];
+        startedInMap = started[depth];
+        if (depth == 0) done = true;
+        return map ? END_MAP : END_ARRAY;
+    }
+
+    private int read() throws XDException {
+        if (pos >= limit) throw complaint("Unexpected end of input");
+        return in[pos++] & 0xFF;
+    }
+
+    private long readArgument(int info) throws XDException {
+        if (info < 24) return info;
+        int size;
+        switch (info) {
+            case 24: size = 1; break;
+            case 25: size = 2; break;
+            case 26: size = 4; break;
+            case 27: size = 8; break;
+            default: throw complaint("Invalid additional information " + info);
+        }
+        if (limit - pos < size) throw complaint("Unexpected end of input");
+        long result = 0;
+        for (int i = 0; i < size; i++) result = result << 8 | in[pos++] & 0xFF;
+        return result; // negative if the top bit of an 8 byte argument was set; callers check
+    }
+
+    private byte[] readString(int major, int info) throws XDException {
+        if (info != INDEFINITE) return readChunk(readArgument(info));
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream(); // an indefinite string is a series of definite ones
+        for (int initial = read(); initial != BREAK; initial = read()) {
+            if (initial >> 5 != major || (initial & 0x1F) == INDEFINITE) throw complaint("Invalid chunk in an indefinite length string");
+            byte[] chunk = readChunk(readArgument(initial & 0x1F));
+            chunks.write(chunk, 0, chunk.length);
+        }
+        return chunks.toByteArray();
+    }
+
+    private byte[] readChunk(long length) throws XDException {
+        if (length < 0 || length > limit - pos) throw complaint("String is longer than what's left of the input");
+        byte[] chunk = new byte[(int)length];
+        System.arraycopy(in, pos, chunk, 0, chunk.length);
+        pos += chunk.length;
+        return chunk;
+    }
+
+    private static double halfToDouble(int half) {
+        int exponent = half >> 10 & 0x1F;
+        int mantissa = half & 0x3FF;
+        double magnitude;
+        if      (exponent == 0)  magnitude = Math.scalb((double)mantissa, -24);
+        else if (exponent == 31) magnitude = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        else                     magnitude = Math.scalb((double)(mantissa + 1024), exponent - 25);
+        return (half & 0x8000) != 0 ? -magnitude : magnitude;
+    }
+
+}
@@ -8,9 +8,11 @@ import org.ampii.xd.definitions.DefinitionCollector;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
- * General routines for parsing XML/JSON text into Data items.
+ * General routines for parsing XML/JSON text, or CBOR bytes, into Data items.
  * <p>
  * These all have two formats, one with a declared DefinitionsCollector and one without. The ones without a collector
  * will throw exceptions if definitions are encountered.
@@ -25,10 +27,12 @@ public class DataParser {
 
     public static Data parse(File file, DefinitionCollector definitionCollector) throws XDException {  // will guess format based on file extension
         try {
+            String format = guessFormat(file);
+            if (format.equals("cbor")) return new CBORParser().parse(Files.readAllBytes(file.toPath()), file.getName(), 0, definitionCollector);
             Reader reader = new FileReader(file);
-            return parse(reader, makeURL(file), guessFormat(file), 0, definitionCollector);
+            return parse(reader, makeURL(file), format, 0, definitionCollector);
         }
-        catch (FileNotFoundException e) { throw new XDException(Errors.CANNOT_FOLLOW,"Can't open file '"+file+"'"); }
+        catch (IOException e) { throw new XDException(Errors.CANNOT_FOLLOW,"Can't open file '"+file+"'"); }
     }
 
     public static Data parse(URL url) throws XDException {
@@ -67,6 +71,15 @@ public class DataParser {
         return parse(new StringReader(string), null, guessFormat(string), options, definitionCollector);
     }
 
+    public static Data parse(byte[] bytes, String format) throws XDException {
+        return parse(bytes,format,definitionRejector);
+    }
+
+    public static Data parse(byte[] bytes, String format, DefinitionCollector definitionCollector) throws XDException { // for bodies, which might not be text
+        if (format.equals("cbor")) return new CBORParser().parse(bytes,null,0,definitionCollector);
+        else                       return parse(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8), null, format, 0, definitionCollector);
+    }
+
     public static Data parse(Reader reader, String format) throws XDException {
         return parse(reader,format,definitionRejector);
     }
@@ -82,12 +95,17 @@ public class DataParser {
     public static Data parse(Reader reader, URL source, String format, int options, DefinitionCollector definitionCollector) throws XDException { // source can be null
         if      (format.equals("xml"))  return new XMLParser().parse(reader,source,null,options,definitionCollector);
         else if (format.equals("json")) return new JSONParser().parse(reader,source,null,options,definitionCollector);
+        else if (format.equals("cbor")) throw new XDException(Errors.NOT_REPRESENTABLE,"CBOR can't be parsed from text; use parse(byte[],...)");
         else                            return new PlainParser().parse(reader,null,null,0,null);
     }
 
     ////////////////////////////////
 
 
+    public static Data parseNext(JSONReader json, int event, String name) throws XDException { // see JSONParser.parseNext()
+        return new JSONParser().parseNext(json, event, name, definitionRejector);
+    }
+
     private static DefinitionCollector definitionRejector = new DefinitionCollector() {
         @Override public void addDefinition(Data definition) throws XDException {
             throw new XDException(Errors.CANNOT_CREATE,"Definitions not allowed/expected in this context");
@@ -105,12 +123,14 @@ public class DataParser {
     private static String guessFormat(URL url) throws XDException{
         if      (url.toString().toLowerCase().endsWith("xml"))  return "xml";
         else if (url.toString().toLowerCase().endsWith("json")) return "json";
+        else if (url.toString().toLowerCase().endsWith("cbor")) return "cbor";
         else                                                    return "plain";
     }
 
     private static String guessFormat(File file) throws XDException{
         if      (file.getName().toLowerCase().endsWith("xml"))  return "xml";
         else if (file.getName().toLowerCase().endsWith("json")) return "json";
+        else if (file.getName().toLowerCase().endsWith("cbor")) return "cbor";
         else                                                    return "plain";
     }
 
@@ -1,15 +1,28 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.marshallers;
 
+import org.ampii.xd.application.Application;
 import org.ampii.xd.common.Log;
+import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.Context;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.data.DataList;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Base class for XML and JSON generators (there isn't much in common, but what <i>is</i> common is here).
+ * <p>
+ * That includes the "parallel" mode, where the children of a wide collection are each generated by their own generator
+ * on a pool of threads, and the parts are put back together in order. Each part gets its own fork of the Context, so
+ * the cur_ fields can change independently; the filtering and authorization are the same, since the request is.
  */
 public class  Generator {
 
@@ -19,9 +32,17 @@ public class  Generator {
     int         indentLevel;
     boolean     first;
     ArrayList<Boolean> newline;
+    boolean     parallel;
+
+    private static ForkJoinPool workers; // shared by all generators in parallel mode; made when first needed
+
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
 
     void begin(Writer writer, Context context) {
         this.writer = writer;
+        begin(context);
+    }
+    void begin(Context context) { // for generators that do their own output
         this.context = context;
         newline = new ArrayList<>();
         setNewline(false);
@@ -29,6 +50,14 @@ public class  Generator {
         context.cur_depth = 0;
         first = true;
     }
+    void beginPart(Writer writer, Generator whole, Context context) { // for a generator that makes one part of another's output
+        this.writer = writer;
+        this.context = context;
+        newline = new ArrayList<>(whole.newline);
+        indentLevel = whole.indentLevel;
+        first = whole.first;
+        parallel = whole.parallel;
+    }
     void finish() {
         try { writer.flush(); }
         catch (IOException e) { Log.logSevere("Generator IOException: " + e.getLocalizedMessage()); }
@@ -57,4 +86,65 @@ public class  Generator {
         return newline.get(indentLevel);
     }
 
+    ////// Parallel generation //////
+
+    interface Part<T> { T generate(Data item, Context context, int index) throws XDException; }
+
+    // whether the given children (that are about to be generated) are worth spreading over the pool
+    boolean shouldFork(DataList children) {
+        if (!parallel || Application.generateThreads <= 1) return false; // the caller just waits, so one worker would only add overhead
+        if (Application.generateParallelThreshold <= 0 || children.size() < Application.generateParallelThreshold) return false;
+        if (context.canIncludeDefinitions()) return false; // each definition is only included once, which depends on what was generated before
+        for (Data child : children) if (child.canHaveChildren()) return true;
+        return false; // all primitives aren't worth the trouble
+    }
+
+    /**
+     * Generates each of the items with the given part, in parallel, and returns the results in the same order. Each part
+     * gets a fork of our context, which the item uses too while it's being generated (it would otherwise inherit ours).
+     */
+    <T> List<T> forkAll(DataList items, Part<T> part) throws XDException {
+        List<PartTask<T>> tasks = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) tasks.add(new PartTask<>(items.get(i), context.fork(), i, part)); // forked here, while ours isn't changing
+        try {
+            if (ForkJoinTask.inForkJoinPool()) ForkJoinTask.invokeAll(tasks); // already a part of something bigger
+            else getWorkers().invoke(new AllTask(tasks));
+        }
+        catch (RuntimeException e) { // the pool may have wrapped it again, so look for what the part threw
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) if (cause instanceof XDException) throw (XDException)cause;
+            throw e;
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        for (PartTask<T> task : tasks) results.add(task.join());
+        return results;
+    }
+
+    private static class PartTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+        private final Data    item;
+        private final Context forked;
+        private final int     index;
+        private final Part<T> part;
+        PartTask(Data item, Context forked, int index, Part<T> part) { this.item = item; this.forked = forked; this.index = index; this.part = part; }
+        @Override protected T compute() {
+            boolean adopted = item.hasParent(); // only roots have their own context; everything else inherits it
+            if (adopted) item.setContext(forked);
+            try { return part.generate(item, forked, index); }
+            catch (XDException e) { throw new RuntimeException(e); }
+            finally { if (adopted) item.setContext(null); }
+        }
+    }
+
+    private static class AllTask extends RecursiveAction { // so the calling thread, which isn't in the pool, can wait for all of them
+        private static final long serialVersionUID = 1L;
+        private final List<? extends ForkJoinTask<?>> tasks;
+        AllTask(List<? extends ForkJoinTask<?>> tasks) { this.tasks = tasks; }
+        @Override protected void compute() { invokeAll(tasks); }
+    }
+
+    private static synchronized ForkJoinPool getWorkers() {
+        if (workers == null) workers = new ForkJoinPool(Application.generateThreads);
+        return workers;
+    }
+
 }
@@ -9,12 +9,25 @@ import org.ampii.xd.data.*;
 import org.ampii.xd.definitions.Definitions;
 import org.ampii.xd.data.Context;
 import org.ampii.xd.resolver.Path;
+import org.ampii.xd.common.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is primarily for Data-to-JSON, but there is a little bonus utility to generate JSON from simple name-value pairs.
+ * <p>
+ * The JSON is written as UTF-8 straight into a {@link Utf8Buffer} that is reused from one generate() to the next, with
+ * the metadata names and punctuation already encoded. Generating to a Writer just decodes that at the end, so every
+ * form produces the same text. A "compact" generator leaves out the newlines and indentation.
  *
  * @author daverobin
  */
@@ -22,13 +35,49 @@ public class JSONGenerator extends Generator {
 
     List<String> definitionNames = new ArrayList<String>();
     String defaultLocale;
+    private final boolean    compact;
+    private final Utf8Buffer out = new Utf8Buffer();
+
+    private static final Map<String,byte[]> keys     = new ConcurrentHashMap<>(); // encoded "$name": for metadata names, which are a small set
+    private static final int                MAX_KEYS = 1000;                      // ...unless someone is making up lots of extended metadata
+    private static final byte[] TRUE    = ascii("true");
+    private static final byte[] FALSE   = ascii("false");
+    private static final byte[] EMPTY   = ascii("{}");
+    private static final String INDENT_UNIT = "   ";
+    private static final byte[] INDENT  = ascii(String.join("", Collections.nCopies(32, INDENT_UNIT)));
+    private static final byte[] QUOTE_COLON_BRACE = ascii("\":{");
+
+    public JSONGenerator()                { this(false); }
+
+    public JSONGenerator(boolean compact) { this.compact = compact; }
 
     public void generate(Writer writer, Data data) throws XDException {
+        out.reset();
+        generateIntoBuffer(data);
+        try { writer.write(out.toString()); writer.flush(); }
+        catch (IOException e) { Log.logSevere("Generator IOException: " + e.getLocalizedMessage()); }
+    }
+
+    public void generate(OutputStream stream, Data data) throws XDException {
+        out.reset();
+        out.setSink(stream);
+        try { generateIntoBuffer(data); out.flush(); }
+        catch (IOException | UncheckedIOException e) { Log.logSevere("Generator IOException: " + e.getLocalizedMessage()); }
+        finally { out.reset(); }
+    }
+
+    public byte[] generate(Data data) throws XDException {
+        out.reset();
+        generateIntoBuffer(data);
+        return out.toByteArray();
+    }
+
+    private void generateIntoBuffer(Data data) throws XDException {
         Context context = data.getContext();
         this.defaultLocale = context.getLocale();
-        begin(writer, context);
+        definitionNames.clear();
+        begin(context);
         emitObject(data, false);
-        finish();
     }
 
     ////////////////////////////////
@@ -70,7 +119,7 @@ public class JSONGenerator extends Generator {
         }
 
         if (context.canIncludeValue() && data.hasValue()) {
-            if (!context.getAuthorizer().checkRead(data)) emitUnquotedPair("$error", Integer.toString(Errors.NOT_READABLE));
+            if (!context.getAuthorizer().checkRead(data)) { emitKey("$error"); out.writeLong(Errors.NOT_READABLE); }
             else if (!metadata.contains(Meta.ERROR)) emitValue(data);
         }
         // We always output type info, at any level, if we're 'replaceable', i.e., 'from Any' or 'from nothing', i.e. the
@@ -105,23 +154,41 @@ public class JSONGenerator extends Generator {
         }
 
         if (context.canDescend() || doingMetadata) {
-            for (Data child : children) {
-                // if this child has metadata, or can have children itself, or we've been requested or required to include $base, then we have to use object form,
-                // else we can use the primitive form (yay, brevity!)
-                boolean childHasMetadata = context.makeContextualizedMetadata(child).size() != 0;
-                if (!childHasMetadata && !child.canHaveChildren() && !context.canIncludeBase() && !child.isFromAny() && !child.isFromNothing()) emitSubValue(child, context);
-                else emitObject(child,false);
+            if (shouldFork(children)) {
+                boolean wasFirst = first;
+                for (Utf8Buffer part : forkAll(children, (child, forked, index) -> generatePart(child, forked, index == 0 && wasFirst))) out.write(part);
+                first = false;
             }
+            else for (Data child : children) emitChild(child);
         }
         emitEndOfObject();
         context.cur_depth--;
     }
 
+    private void emitChild(Data child) throws XDException {
+        // if this child has metadata, or can have children itself, or we've been requested or required to include $base, then we have to use object form,
+        // else we can use the primitive form (yay, brevity!)
+        boolean childHasMetadata = context.makeContextualizedMetadata(child).size() != 0;
+        if (!childHasMetadata && !child.canHaveChildren() && !context.canIncludeBase() && !child.isFromAny() && !child.isFromNothing()) emitSubValue(child, context);
+        else emitObject(child,false);
+    }
+
+    // runs on a worker: generates one child with its own generator, in the state we're in now, for forkAll()
+    private Utf8Buffer generatePart(Data child, Context forked, boolean first) throws XDException {
+        JSONGenerator part = new JSONGenerator(compact);
+        part.beginPart(null, this, forked);
+        part.first = first;
+        part.defaultLocale = defaultLocale;
+        part.emitChild(child);
+        return part.out;
+    }
+
     private void emitValue(Data data) throws XDException {  // emitting the value of this item; similar but different from emitSubValue(), so can't be combined
         Base base = data.getBase();
         if (base == Base.UNSIGNED || base == Base.INTEGER  ||
                 base == Base.REAL     || base == Base.DOUBLE   || base == Base.BOOLEAN ) {
-            emitUnquotedPair("$value", data.stringValue());
+            emitKey("$value");
+            emitNumber(data, base);
         }
         else if (base == Base.DATE || base == Base.DATETIME || base == Base.TIME ) {
             if (!data.booleanValueOf(Meta.UNSPECIFIEDVALUE, false)) emitQuotedPair("$value", data.stringValue());
@@ -142,14 +209,17 @@ public class JSONGenerator extends Generator {
         String name  = data.getName();
         Object value = data.getValue();
         if (!context.getAuthorizer().checkRead(data)) {
-            emitUnquotedPair(name,"{\"$error\":"+Errors.NOT_READABLE+"}");  // can't show value, so flip to json object format to include $error
+            emitKey(name);  // can't show value, so flip to json object format to include $error
+            out.write('{'); out.write(keyFor("$error")); out.writeLong(Errors.NOT_READABLE); out.write('}');
         }
         else if (value == null) {
-            emitUnquotedPair(name, "{}"); // normally json would use "foo":null here but we don't support null values, so using the json object format works here
+            emitKey(name);
+            out.write(EMPTY); // normally json would use "foo":null here but we don't support null values, so using the json object format works here
         }
         else if (base == Base.UNSIGNED || base == Base.INTEGER  ||
             base == Base.REAL     || base == Base.DOUBLE   || base == Base.BOOLEAN ) {
-            emitUnquotedPair(name, data.stringValue());
+            emitKey(name);
+            emitNumber(data, base);
         }
         else if (value instanceof LocalizedStrings) {  // localized values show up as multiple "primitives"
             for (LocalizedString ls : ((LocalizedStrings) value)) { // e.g., localized values like "displayName$$de-DE":"foo"
@@ -185,10 +255,17 @@ public class JSONGenerator extends Generator {
         context.exitDefinitionContext();
     }
 
+    private void emitNumber(Data data, Base base) throws XDException { // booleans too; anything that's not quoted
+        if      (base == Base.BOOLEAN)                         out.write(data.booleanValue() ? TRUE : FALSE);
+        else if (base == Base.REAL || base == Base.DOUBLE)     out.writeDouble(data.doubleValue());
+        else                                                   out.writeLong(data.longValue());
+    }
+
     private void emitStartOfObject(String name) {
         if (indentLevel !=0) checkFirstAndForceNewline();
-        if (name == null) emitWithOptionalIndent("{", indentLevel != 0);
-        else emitWithOptionalIndent("\"" + escape(name) + "\":{", indentLevel != 0);
+        if (indentLevel != 0) emitIndent();
+        if (name == null) out.write('{');
+        else { out.write('"'); out.writeEscaped(name); out.write(QUOTE_COLON_BRACE); }
         indentLevel++;
         setNewline(false);
         first = true;
@@ -197,32 +274,59 @@ public class JSONGenerator extends Generator {
     private void emitEndOfObject() {
         boolean newline = checkNewline();
         indentLevel--;
-        if (newline) { emit("\n"); emitWithIndent("}"); }
-        else emit("}");
+        if (newline && !compact) { out.write('\n'); emitIndent(); }
+        out.write('}');
         first = false;
     }
-    private void emitUnquotedPair(String name, String value) {
-        checkFirst();
-        emitWithOptionalIndent("\"" + escape(name) + "\":" + value, checkNewline());
-    }
 
     private void emitQuotedPair(String name, String value) {
+        emitKey(name);
+        out.write('"');
+        out.writeEscaped(value);
+        out.write('"');
+    }
+
+    private void emitKey(String name) {
         checkFirst();
-        emitWithOptionalIndent("\"" + escape(name) + "\":\"" + escape(value) + "\"", checkNewline());
+        if (checkNewline()) emitIndent();
+        if (name.startsWith("$")) out.write(keyFor(name));
+        else { out.write('"'); out.writeEscaped(name); out.write('"'); out.write(':'); }
+    }
+
+    private void emitIndent() {
+        if (compact) return;
+        for (int remaining = indentLevel * INDENT_UNIT.length(); remaining > 0; remaining -= INDENT.length) {
+            out.write(INDENT, 0, Math.min(remaining, INDENT.length));
+        }
     }
 
     private void checkFirst() {
-        if (!first) emit(",");
-        if (checkNewline()) emit("\n");
-        else if (!first) emit(" ");
+        if (!first) out.write(',');
+        if (!compact) {
+            if (checkNewline()) out.write('\n');
+            else if (!first) out.write(' ');
+        }
         first = false;
     }
     private void checkFirstAndForceNewline() {
-        if (!first) emit(",");
-        emit("\n");
+        if (!first) out.write(',');
+        if (!compact) out.write('\n');
         first = false;
     }
 
+    private static byte[] keyFor(String name) {
+        byte[] key = keys.get(name);
+        if (key == null) {
+            Utf8Buffer buffer = new Utf8Buffer();
+            buffer.write('"'); buffer.writeEscaped(name); buffer.write('"'); buffer.write(':');
+            key = buffer.toByteArray();
+            if (keys.size() < MAX_KEYS) keys.put(name, key);
+        }
+        return key;
+    }
+
+    private static byte[] ascii(String text) { return text.getBytes(StandardCharsets.US_ASCII); }
+
     private static String escape(String in) {
         StringBuilder out = new StringBuilder(in.length());
         for (char c : in.toCharArray()) {
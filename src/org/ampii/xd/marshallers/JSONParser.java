@@ -8,39 +8,67 @@ import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.*;
 import org.ampii.xd.definitions.DefinitionCollector;
 import org.ampii.xd.data.basetypes.ParsedData;
-import java.io.*;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
 
 /**
- * Parses JSON text into {@link ParsedData} items.
+ * Parses JSON text into {@link ParsedData} items. The text is read with a {@link JSONReader}, which can also be used on
+ * its own for things that would rather not have a tree.
  *
  * @author daverobin
  */
 public class JSONParser extends Parser {
 
+    private JSONReader json;
+
     /**
      * Generally, you should use one of the many specific {@link DataParser}.parse(...) methods rather than this ugly workhorse.
      * The sourceURL and/or sourceName params can be null if n/a
      */
     public Data parse(Reader reader, URL sourceURL, String sourceName, int options, DefinitionCollector definitionCollector) throws XDException {
-        begin(reader, sourceURL, sourceName, options);
+        return parse(new JSONReader(reader, String.valueOf(sourceURL), options), sourceURL, sourceName, definitionCollector);
+    }
+
+    public Data parse(JSONReader json, URL sourceURL, String sourceName, DefinitionCollector definitionCollector) throws XDException {
+        begin(json, sourceURL, sourceName);
+        if (json.next() != JSONReader.START_OBJECT) throw complaint("Expected '{' at the start");
         Data result = consumeObject(".anonymous", definitionCollector, hasOption(OPTION_IS_DEFINITION));
         finish();
         return result;
     }
 
-    ////////////////////////////////////////
+    /**
+     * Parses just one value from the given reader (an object, an array, or a primitive), given the event that started it,
+     * leaving the reader just after it. This is for things that are reading a big body themselves, e.g., a record at a time.
+     */
+    public Data parseNext(JSONReader json, int event, String name, DefinitionCollector definitionCollector) throws XDException {
+        begin(json, null, json.getSource());
+        Data result = consumeMember(name, event, definitionCollector, hasOption(OPTION_IS_DEFINITION));
+        finish();
+        return result;
+    }
 
+    private void begin(JSONReader json, URL sourceURL, String sourceName) {
+        begin(null, sourceURL, sourceName, json.getOptions());
+        this.json = json;
+    }
+
+    @Override ParsedData makeParsedData(String name) throws XDException { return new ParsedData(name,sourceName,json.getLine(),json.getColumn()); }
+
+    @Override public XDException complaint(String details)            { return json.complaint(details); }
 
+    @Override public XDException complaint(int error, String details) { return json.complaint(error, details); }
+
+    ////////////////////////////////////////
+
+    // called after the START_OBJECT
     private Data consumeObject(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
         Data info = makeParsedData(name);
         info.setIsDefinition(isDefinition);
         String order = null;
-        expect('{');
-        if (peekNextNonwhite()!='}') for(;;) {
-            String memberName = hasOption(OPTION_ALLOW_UNQUOTED_NAMES)? consumeOptionallyQuoted() : consumeQuoted();
-            expect(':');
+        for (int event = json.next(); event != JSONReader.END_OBJECT; event = json.next()) {
+            String memberName = json.getText(); // the reader only gives a NAME or the END_OBJECT here
             if (memberName.equals("$value")) {
                 info.setValue(consumePrimitiveValue());
             }
@@ -51,13 +79,13 @@ public class JSONParser extends Parser {
                 info.setBase(Base.fromString(consumePrimitiveValue()));
             }
             else if (memberName.equals("$$definitions")) {
-                for (Data def : consumeObject(memberName,definitionCollector,true).getChildren()) definitionCollector.addDefinition(def);
+                for (Data def : consumeNestedObject(memberName,definitionCollector,true).getChildren()) definitionCollector.addDefinition(def);
             }
             else if (memberName.equals("$$tagDefinitions")) {
-                for (Data def : consumeObject(memberName,definitionCollector,true).getChildren()) definitionCollector.addTagDefinition(def);
+                for (Data def : consumeNestedObject(memberName,definitionCollector,true).getChildren()) definitionCollector.addTagDefinition(def);
             }
             else if (memberName.equals("$$includes")) {
-                for (Data link : consumeObject(memberName,definitionCollector,false).getChildren()) {
+                for (Data link : consumeNestedObject(memberName,definitionCollector,false).getChildren()) {
                     // only Links are allowed...
                     String file = link.stringValue(); // the file name is in the value of the Link
                     if (file == null) throw complaint("The include Link is missing a 'value'");
@@ -77,8 +105,7 @@ public class JSONParser extends Parser {
                 defaultLocale = consumePrimitiveValue();
             }
             else if (memberName.equals("$$org.ampii.comment")) { // consume comments here
-                if (peekNextNonwhite() == '{') consumeObject(memberName,definitionCollector,isDefinition);
-                else                           consumePrimitiveValue();
+                json.skipValue();
             }
             else if (memberName.equals("$$order")) {  // order will be processed at end of object
                 order = consumePrimitiveValue();
@@ -96,14 +123,11 @@ public class JSONParser extends Parser {
                 }
             }
             else {
-                Data member = consumeMember(memberName,definitionCollector,isDefinition);
+                Data member = consumeMember(memberName,json.next(),definitionCollector,isDefinition);
                 if (!Rules.isMetadata(member)) member.setName(Rules.getNextAvailableChildName(info,member.getName()));
                 info.addLocal(member);
             }
-            if (peekNextNonwhite() != ',' ) break;
-            expect(',');
         }
-        expect('}');
         if (order != null) sort(info, order); // sort children by $$order
         // a little clean up at the end...
         if (info.getName().equals(".csml")) { // if it's named ".csml", then it must be of type Collection
@@ -113,34 +137,38 @@ public class JSONParser extends Parser {
         return info;
     }
 
+    private Data consumeNestedObject(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        if (json.next() != JSONReader.START_OBJECT) throw complaint("Expected an object for '" + name + "'");
+        return consumeObject(name, definitionCollector, isDefinition);
+    }
+
     /**
-     * consumes either an object, an array, or a primitive
+     * consumes either an object, an array, or a primitive, given the event that starts it
      */
-    private Data consumeMember(String memberName, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
-        if      (peekNextNonwhite() == '[') return consumeArray(memberName, definitionCollector, isDefinition);
-        else if (peekNextNonwhite() == '{') return consumeObject(memberName,definitionCollector,isDefinition);
-        else                                return consumePrimitive(memberName,isDefinition);
+    private Data consumeMember(String memberName, int event, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
+        if      (event == JSONReader.START_ARRAY)  return consumeArray(memberName, definitionCollector, isDefinition);
+        else if (event == JSONReader.START_OBJECT) return consumeObject(memberName,definitionCollector,isDefinition);
+        else if (event == JSONReader.VALUE)        return consumePrimitive(memberName,isDefinition);
+        else throw complaint("Expected a value for '" + memberName + "'");
     }
 
-    private Data consumePrimitive(String memberName, boolean isDefinition) throws XDException {
+    private Data consumePrimitive(String memberName, boolean isDefinition) throws XDException { // called after the VALUE
         Data member = makeParsedData(memberName);
         member.setIsDefinition(isDefinition);
-        member.setValue(consumePrimitiveValue());
+        member.setValue(json.getText());
         return member;
     }
 
+    // called after the START_ARRAY
     private Data consumeArray(String name, DefinitionCollector definitionCollector, boolean isDefinition) throws XDException {
         Data info = makeParsedData(name);
         info.setIsDefinition(isDefinition);
-        expect('[');
-        if (peekNextNonwhite()!=']') for(int i=1;;i++) {
-            String memberName = String.valueOf(i); // array members get names starting with "1"
-            Data member = consumeMember(memberName, definitionCollector, isDefinition);
+        int i = 1;
+        for (int event = json.next(); event != JSONReader.END_ARRAY; event = json.next()) {
+            String memberName = String.valueOf(i++); // array members get names starting with "1"
+            Data member = consumeMember(memberName, event, definitionCollector, isDefinition);
             info.addLocal(member);
-            if (peekNextNonwhite() != ',' ) break;
-            expect(',');
         }
-        expect(']');
         return info;
     }
 
@@ -166,87 +194,8 @@ public class JSONParser extends Parser {
     }
 
     private String consumePrimitiveValue() throws XDException {
-        if      (peekNextNonwhite() == '"')                                           return consumeDoubleQuoted();
-        else if (peekNextNonwhite() == '\'' && hasOption(OPTION_ALLOW_SINGLE_QUOTES)) return consumeSingleQuoted();
-        else                                                                          return consumeUnquoted();
-    }
-
-    private String consumeUnquoted() throws XDException {
-        return consumeUntil(" \t\r\n,}]:");
-    }
-
-    public String consumeQuoted() throws XDException { // can't use base class' consumeQuoted() because of JSON's use of \" to escape quotes
-        if (peekNextNonwhite() == '\'' && hasOption(OPTION_ALLOW_SINGLE_QUOTES)) return consumeSingleQuoted();
-        else return consumeDoubleQuoted();
-    }
-
-    public String consumeDoubleQuoted() throws XDException { // can't use base class' consumeQuoted() because of JSON's use of \" to escape quotes
-        skipWhitespace();
-        expect('"');
-        StringBuilder result = new StringBuilder();
-        while (peekNext()!= 0) {
-            if (peekNext() == '"') break;
-            char c = consume();
-            result.append(c);
-            if (c == '\\' && peekNext() == '"') result.append(consume()); // consume the quote here so we won't see it at the top of the loop and break
-        }
-        expect('"');
-        return unescape(result.toString());
-    }
-
-    public String consumeSingleQuoted() throws XDException { // can't use base class' consumeQuoted() because of JSON's use of \" to escape quotes
-        skipWhitespace();
-        expect('\'');
-        StringBuilder result = new StringBuilder();
-        while (peekNext()!= 0) {
-            if (peekNext() == '\'') break;
-            char c = consume();
-            result.append(c);
-            if (c == '\\' && peekNext() == '\'') result.append(consume()); // consume the quote here so we won't see it at the top of the loop and break
-        }
-        expect('\'');
-        return unescape(result.toString());
+        if (json.next() != JSONReader.VALUE) throw complaint("Expected a primitive value");
+        return json.getText();
     }
 
-    public String consumeOptionallyQuoted() throws XDException { // for names: allows then to optionally be unquoted (native JavaScript style, not JSON)
-        skipWhitespace();
-        char c = peekNext();
-        if      (c == '"') return consumeDoubleQuoted();
-        else if (c == '\'' && hasOption(OPTION_ALLOW_SINGLE_QUOTES)) return consumeSingleQuoted();
-        else if (hasOption(OPTION_ALLOW_UNQUOTED_NAMES)) return consumeUnquoted();
-        else throw complaint("Expected start of quoted string");
-    }
-
-    private String unescape(String in) throws XDException {
-        StringBuilder out = new StringBuilder();
-        try {
-            for(int i=0; i<in.length(); i++)  {
-                char c = in.charAt(i);
-                if (c == '\\') {
-                    i++;
-                    switch (in.charAt(i)) {
-                        case '\\': c = '\\'; break;
-                        case '"':  c = '"';  break;
-                        case '/':  c = '/';  break;
-                        case 'b':  c = '\b'; break;
-                        case 'f':  c = '\f'; break;
-                        case 'n':  c = '\n'; break;
-                        case 'r':  c = '\r'; break;
-                        case 't':  c = '\t'; break;
-                        case 'u':  String hex = in.substring(i+1,i+5);
-                                   c = (char)Integer.parseInt(hex.toString(),16);
-                                   i+=4;
-                                   break;
-                        default: throw complaint(Errors.PARAM_SYNTAX,"Bad escaping (invalid char '"+c+"' after backslash)");
-                    }
-                }
-                out.append(c);
-            }
-        }
-        catch (NumberFormatException e) { throw complaint("Bad escaping (invalid hex digits after '\\u'"); }
-        catch (IndexOutOfBoundsException e) { throw complaint("Bad escaping (ran out of chars after '\\'"); }
-        return out.toString();
-    }
-
-
 }
@@ -0,0 +1,299 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pull parser for JSON: rather than building anything, it hands out one event at a time (start of an object, a name,
+ * a value, ...) so a big body can be consumed as it's read. {@link JSONParser} builds its trees from these events, and
+ * bindings can use them directly for POSTs that are too big to want as a tree (see {@link org.ampii.xd.bindings.Binding}).
+ * <p>
+ * The input is read into a window of chars and scanned there in bulk, so a string or number is found with a tight loop
+ * over the array and made into a String in one go, rather than a char at a time. Line and column are worked out from
+ * where the lines start, rather than counted on every char.
+ * <p>
+ * Values are given as text, like the rest of the parsers do, with {@link #isQuoted()} to tell "1" from 1. The same
+ * leniencies as JSONParser are available with the {@link Parser} OPTION_ALLOW_SINGLE_QUOTES and OPTION_ALLOW_UNQUOTED_NAMES.
+ *
+ * @author daverobin
+ */
+public class JSONReader {
+
+    public static final int END          = 0; // the end of the input (or of the top level value)
+    public static final int START_OBJECT = 1;
+    public static final int END_OBJECT   = 2;
+    public static final int START_ARRAY  = 3;
+    public static final int END_ARRAY    = 4;
+    public static final int NAME         = 5; // getText() is the member name
+    public static final int VALUE        = 6; // getText() is the primitive value
+
+    private static final int    WINDOW_SIZE = 8192;
+    private static final String UNQUOTED_DELIMITERS = " \t\r\n,}]:";
+
+    // what's expected next
+    private static final int EXPECT_VALUE = 0, EXPECT_FIRST_NAME = 1, EXPECT_NAME = 2, EXPECT_COLON = 3, EXPECT_FIRST_VALUE = 4, EXPECT_COMMA = 5, EXPECT_END = 6;
+
+    private final Reader  reader;      // null when all the input is already in the window
+    private final String  source;      // for error messages
+    private final int     options;
+    private char[]        window;
+    private int           pos;
+    private int           limit;
+    private long          offset;      // of window[0] in the whole input
+    private int           line = 1;
+    private long          lineStart;   // offset of the start of the current line
+    private boolean[]     inObject = new boolean[32]; // the stack of containers we're in; false is an array
+    private int           depth;
+    private int           expecting = EXPECT_VALUE;
+    private int           peeked = -1;
+    private String        text;
+    private boolean       quoted;
+    private final StringBuilder scratch = new StringBuilder(); // for strings with escapes, or that span windows
+
+    public JSONReader(Reader reader, String source, int options) {
+        this.reader  = reader;
+        this.source  = source;
+        this.options = options;
+        this.window  = new char[WINDOW_SIZE];
+    }
+
+    public JSONReader(String text, String source, int options) {
+        this.reader  = null;
+        this.source  = source;
+        this.options = options;
+        this.window  = text.toCharArray();
+        this.limit   = window.length;
+    }
+
+    public JSONReader(byte[] utf8, String source, int options) { // decoded as it's read, so a big body isn't copied all at once
+        this(new InputStreamReader(new ByteArrayInputStream(utf8), StandardCharsets.UTF_8), source, options);
+    }
+
+    public String  getSource()  { return source; }
+    public int     getOptions() { return options; }
+    public String  getText()    { return text; }    // of the last NAME or VALUE
+    public boolean isQuoted()   { return quoted; }  // whether the last VALUE was a quoted string
+    public int     getLine()    { return line; }
+    public int     getColumn()  { return (int)(offset + pos - lineStart) + 1; }
+    public int     getDepth()   { return depth; }   // how many objects and arrays we're in
+
+    /**
+     * Returns the next event, one of the constants above. After the top level value is done, this keeps returning END.
+     */
+    public int next() throws XDException {
+        if (peeked != -1) { int event = peeked; peeked = -1; return event; }
+        return advance();
+    }
+
+    /**
+     * Returns what the next call to next() will return, without moving past it (though getText() will already be its text).
+     */
+    public int peek() throws XDException {
+        if (peeked == -1) peeked = advance();
+        return peeked;
+    }
+
+    /**
+     * Skips over the next value, however deep it is.
+     */
+    public void skipValue() throws XDException {
+        int event = next();
+        if (event != START_OBJECT && event != START_ARRAY) return;
+        int until = depth - 1;
+        while (depth > until) if (next() == END) break;
+    }
+
+    public XDException complaint(String details) { return complaint(Errors.VALUE_FORMAT, details); }
+
+    public XDException complaint(int error, String details) {
+        return new XDException(error, "Parsing error at line " + line + " col " + getColumn() + " in '" + source + "': " + details);
+    }
+
+    ////////////////////////////////
+
+    @SuppressWarnings("fallthrough") // the FIRST cases fall into the plain ones when they don't find an empty container
+    private int advance() throws XDException {
+        char c;
+        switch (expecting) {
+            case EXPECT_END:
+                return END;
+            case EXPECT_COMMA:
+                c = nextNonwhite();
+                boolean object = inObject[depth-1];
+                if (c == ',') { pos++; expecting = object ? EXPECT_NAME : EXPECT_VALUE; return advance(); }
+                if (c == (object ? '}' : ']')) { pos++; return close(); }
+                throw complaint("Expected ',' or '" + (object ? '}' : ']') + "' but found '" + describe(c) + "'");
+            case EXPECT_FIRST_NAME:
+                if (nextNonwhite() == '}') { pos++; return close(); }
+                // no break
+            case EXPECT_NAME:
+                consumeName();
+                expecting = EXPECT_COLON;
+                return NAME;
+            case EXPECT_COLON:
+                c = nextNonwhite();
+                if (c != ':') throw complaint("Expected ':' but found '" + describe(c) + "'");
+                pos++;
+                return consumeValue();
+            case EXPECT_FIRST_VALUE:
+                if (nextNonwhite() == ']') { pos++; return close(); }
+                // no break
+            default:
+                return consumeValue();
+        }
+    }
+
+    private int consumeValue() throws XDException {
+        char c = nextNonwhite();
+        if (c == '{' || c == '[') {
+            pos++;
+            if (depth == inObject.length) { boolean[] deeper = new boolean[depth*2]; System.arraycopy(inObject, 0, deeper, 0, depth); inObject = deeper; }
+            inObject[depth++] = c == '{';
+            expecting = c == '{' ? EXPECT_FIRST_NAME : EXPECT_FIRST_VALUE;
+            return c == '{' ? START_OBJECT : START_ARRAY;
+        }
+        if (c == 0 && !more()) throw complaint("Unexpected end of input");
+        if (c == '"' || c == '\'' && hasOption(Parser.OPTION_ALLOW_SINGLE_QUOTES)) consumeQuoted(c);
+        else consumeUnquoted();
+        expecting = depth == 0 ? EXPECT_END : EXPECT_COMMA;
+        return VALUE;
+    }
+
+    private void consumeName() throws XDException {
+        char c = nextNonwhite();
+        if      (c == '"' || c == '\'' && hasOption(Parser.OPTION_ALLOW_SINGLE_QUOTES)) consumeQuoted(c);
+        else if (hasOption(Parser.OPTION_ALLOW_UNQUOTED_NAMES)) consumeUnquoted();
+        else throw complaint("Expected start of quoted string but found '" + describe(c) + "'");
+    }
+
+    private int close() {
+        depth--;
+        expecting = depth == 0 ? EXPECT_END : EXPECT_COMMA;
+        return inObject[depth] ? END_OBJECT : END_ARRAY;
+    }
+
+    private void consumeQuoted(char quote) throws XDException {
+        pos++; // past the opening quote
+        quoted = true;
+        boolean scratching = false;
+        for (;;) {
+            int start = pos;
+            while (pos < limit) { // the fast part: find the end, or something that needs attention
+                char c = window[pos];
+                if (c == quote || c == '\\' || c == '\n') break;
+                pos++;
+            }
+            if (pos == limit) { // ran off the end of the window
+                if (!scratching) { scratch.setLength(0); scratching = true; }
+                scratch.append(window, start, pos - start);
+                if (!fill()) throw complaint("Expected '" + quote + "' but found the end of the input");
+                continue;
+            }
+            char c = window[pos];
+            if (c == quote && !scratching) { text = new String(window, start, pos - start); pos++; return; } // the usual case
+            if (!scratching) { scratch.setLength(0); scratching = true; }
+            scratch.append(window, start, pos - start);
+            pos++;
+            if (c == quote) { text = scratch.toString(); return; }
+            if (c == '\n') { newline(); scratch.append(c); continue; }
+            scratch.append(unescape());
+        }
+    }
+
+    private char unescape() throws XDException { // just after a backslash
+        char c = nextChar();
+        switch (c) {
+            case '\\': return '\\';
+            case '"':  return '"';
+            case '\'': return '\'';
+            case '/':  return '/';
+            case 'b':  return '\b';
+            case 'f':  return '\f';
+            case 'n':  return '\n';
+            case 'r':  return '\r';
+            case 't':  return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0) throw complaint("Bad escaping (invalid hex digits after '\\u')");
+                    value = value << 4 | digit;
+                }
+                return (char)value;
+            case 0:    throw complaint("Bad escaping (ran out of chars after '\\')");
+            default:   throw complaint(Errors.PARAM_SYNTAX, "Bad escaping (invalid char '" + c + "' after backslash)");
+        }
+    }
+
+    private void consumeUnquoted() throws XDException {
+        quoted = false;
+        boolean scratching = false;
+        for (;;) {
+            int start = pos;
+            while (pos < limit && UNQUOTED_DELIMITERS.indexOf(window[pos]) == -1) pos++;
+            if (pos < limit || reader == null) { // found the end
+                if (!scratching) text = new String(window, start, pos - start);
+                else text = scratch.append(window, start, pos - start).toString();
+                return;
+            }
+            if (!scratching) { scratch.setLength(0); scratching = true; }
+            scratch.append(window, start, pos - start);
+            if (!fill()) { text = scratch.toString(); return; }
+        }
+    }
+
+    private char nextNonwhite() throws XDException {
+        for (;;) {
+            if (pos == limit && !fill()) return 0;
+            char c = window[pos];
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') pos++;
+            else if (c == '\n') { pos++; newline(); }
+            else return c;
+        }
+    }
+
+    private char nextChar() throws XDException {
+        if (pos == limit && !fill()) return 0;
+        char c = window[pos++];
+        if (c == '\n') newline();
+        return c;
+    }
+
+    private boolean more() throws XDException { return pos < limit || fill(); }
+
+    private void newline() { line++; lineStart = offset + pos; } // called just after the '\n'
+
+    private boolean fill() throws XDException { // moves what's left to the start of the window, and reads more after it
+        if (reader == null) return false;
+        int left = limit - pos;
+        System.arraycopy(window, pos, window, 0, left);
+        offset += pos;
+        pos = 0;
+        limit = left;
+        try {
+            int read = reader.read(window, limit, window.length - limit);
+            if (read <= 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException e) { throw complaint(Errors.COMMUNICATION_FAILED, "Can't read the input: " + e.getLocalizedMessage()); } // not the same as the input just ending
+    }
+
+    private boolean hasOption(int option) { return (options & option) != 0; }
+
+    private static String describe(char c) {
+        if (c == 0)    return "end of input";
+        if (c == '\r') return "\\r";
+        if (c == '\n') return "\\n";
+        if (c == '\t') return "\\t";
+        if (c == '\f') return "\\f";
+        return Character.toString(c);
+    }
+
+}
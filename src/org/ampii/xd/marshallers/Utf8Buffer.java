@@ -0,0 +1,181 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A growable byte buffer that generators write UTF-8 into directly, so the text never exists as a String. It can be
+ * reset and reused, and if given a sink, it drains itself to that instead of growing without limit (a failure to
+ * drain comes out of the write methods as an UncheckedIOException, for whoever set the sink to catch).
+ * <p>
+ * The escaping here is JSON's: control characters as backslash-u escapes, and backslash and double quote
+ * backslashed; everything else is just encoded. writeUtf8() does no escaping at all, for binary formats that give
+ * the length first (see {@link CBORGenerator}).
+ *
+ * @author daverobin
+ */
+public class Utf8Buffer {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int    INITIAL_SIZE = 4096;
+    private static final int    FLUSH_SIZE   = 16384; // how much we let pile up before draining to a sink
+
+    private byte[]       buf = new byte[INITIAL_SIZE];
+    private int          count;
+    private OutputStream sink;
+    private final byte[] digits = new byte[20]; // scratch for writeLong()
+
+    public void reset()                      { count = 0; sink = null; }
+    public void setSink(OutputStream sink)   { this.sink = sink; }
+    public int  size()                       { return count; }
+    public byte[] toByteArray()              { byte[] result = new byte[count]; System.arraycopy(buf, 0, result, 0, count); return result; }
+    @Override public String toString()       { return new String(buf, 0, count, StandardCharsets.UTF_8); }
+
+    public void flush() throws IOException {
+        if (sink == null) return;
+        sink.write(buf, 0, count);
+        count = 0;
+        sink.flush();
+    }
+
+    public void write(int b) {
+        if (count == buf.length) ensure(1);
+        buf[count++] = (byte)b;
+    }
+
+    public void write(byte[] bytes) { write(bytes, 0, bytes.length); }
+
+    public void write(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    public void write(Utf8Buffer other) { write(other.buf, 0, other.count); }
+
+    public void writeAscii(String text) { // only for things known to be ASCII, like numbers formatted by Java
+        int length = text.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) buf[count++] = (byte)text.charAt(i);
+    }
+
+    public void writeLong(long value) {
+        if (value == Long.MIN_VALUE) { writeAscii("-9223372036854775808"); return; } // can't be negated
+        ensure(20);
+        if (value < 0) { buf[count++] = '-'; value = -value; }
+        int i = digits.length;
+        do { digits[--i] = (byte)('0' + value % 10); value /= 10; } while (value != 0);
+        System.arraycopy(digits, i, buf, count, digits.length - i);
+        count += digits.length - i;
+    }
+
+    public void writeDouble(double value) { // same text as Double.toString(), without making one for the common whole numbers
+        if (value == (long)value && Math.abs(value) < 1.0E7 && (value != 0 || 1/value > 0)) { // but not -0.0
+            writeLong((long)value);
+            write('.');
+            write('0');
+        }
+        else writeAscii(Double.toString(value));
+    }
+
+    public void writeEscaped(String text) {
+        int length = text.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c < 0x80) { // the usual case
+                if (count + 2 > buf.length) ensure(2);
+                if (c == '"' || c == '\\') buf[count++] = '\\';
+                buf[count++] = (byte)c;
+                continue;
+            }
+            if (count + 6 > buf.length) ensure(6);
+            if (c < 0x20) {
+                buf[count++] = '\\'; buf[count++] = 'u'; buf[count++] = '0'; buf[count++] = '0';
+                buf[count++] = HEX[c >> 4]; buf[count++] = HEX[c & 0xF];
+            }
+            else if (c < 0x800) {
+                buf[count++] = (byte)(0xC0 | c >> 6);
+                buf[count++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(text.charAt(i+1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buf[count++] = (byte)(0xF0 | codePoint >> 18);
+                    buf[count++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                    buf[count++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                    buf[count++] = (byte)(0x80 | codePoint & 0x3F);
+                }
+                else buf[count++] = '?'; // a lone surrogate can't be encoded; this is what String.getBytes() does with it
+            }
+            else {
+                buf[count++] = (byte)(0xE0 | c >> 12);
+                buf[count++] = (byte)(0x80 | c >> 6 & 0x3F);
+                buf[count++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    public void writeUtf8(String text) {
+        int length = text.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) { // the usual case
+                if (count == buf.length) ensure(1);
+                buf[count++] = (byte)c;
+                continue;
+            }
+            if (count + 4 > buf.length) ensure(4);
+            if (c < 0x800) {
+                buf[count++] = (byte)(0xC0 | c >> 6);
+                buf[count++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(text.charAt(i+1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buf[count++] = (byte)(0xF0 | codePoint >> 18);
+                    buf[count++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                    buf[count++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                    buf[count++] = (byte)(0x80 | codePoint & 0x3F);
+                }
+                else buf[count++] = '?'; // as in writeEscaped()
+            }
+            else {
+                buf[count++] = (byte)(0xE0 | c >> 12);
+                buf[count++] = (byte)(0x80 | c >> 6 & 0x3F);
+                buf[count++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    public static int utf8Length(String text) { // how many bytes writeUtf8() will write
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) bytes += 1;
+            else if (Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(text.charAt(i+1))) { bytes += 2; i++; }
+            else if (Character.isSurrogate(c)) continue; // a lone one is written as '?'
+            else bytes += 2;
+        }
+        return bytes;
+    }
+
+    private void ensure(int needed) {
+        if (count + needed <= buf.length) return;
+        if (sink != null && count >= FLUSH_SIZE) {
+            try { sink.write(buf, 0, count); count = 0; }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+            if (needed <= buf.length) return;
+        }
+        byte[] bigger = new byte[Math.max(buf.length * 2, count + needed)];
+        System.arraycopy(buf, 0, bigger, 0, count);
+        buf = bigger;
+    }
+
+}
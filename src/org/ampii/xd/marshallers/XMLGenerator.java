@@ -10,6 +10,7 @@ import org.ampii.xd.definitions.Definitions;
 import org.ampii.xd.data.Context;
 import org.ampii.xd.resolver.Path;
 import javax.xml.bind.DatatypeConverter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
@@ -209,13 +210,26 @@ public class XMLGenerator extends Generator {
             }
             // now finally, output the data's children (if we're not doing children of <Extensions>)
             if (children.size()!=0 && (doingMetadata || context.inDefinitionContext() || context.canDescend()) && !doingExtensions)  {  // (metadata are unaffected by depth)
-                for (Data child : children)
+                if (shouldFork(children)) {
+                    for (String part : forkAll(children, (child, forked, index) -> generatePart(child, forked, doingMetadata))) emit(part);
+                }
+                else for (Data child : children)
                     emitData(child, child.getName(), doingMetadata, false);
             }
             emitEntireEndTag(tag);
         }
     }
 
+    // runs on a worker: generates one child with its own generator, in the state we're in now, for forkAll()
+    private String generatePart(Data child, Context forked, boolean doingMetadata) throws XDException {
+        StringWriter writer = new StringWriter();
+        XMLGenerator part = new XMLGenerator();
+        part.beginPart(writer, this, forked);
+        part.defaultLocale = defaultLocale;
+        part.emitData(child, child.getName(), doingMetadata, false);
+        return writer.toString();
+    }
+
     private void emitDefinitionsFor(Data data) throws XDException {
         Data definition = Definitions.getDefinitionContaining(data);
         if (definition != null ) {
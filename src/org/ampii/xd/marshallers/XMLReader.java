@@ -0,0 +1,438 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.marshallers;
+
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Base;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull parser for the XML that CSML uses: it hands out one event at a time (the start of an element, with its
+ * attributes, the end of one, or some text), and {@link XMLParser} builds its trees from these.
+ * <p>
+ * Like {@link JSONReader}, the input is read into a window of chars and scanned there in bulk. Element and attribute
+ * names are looked up straight from the window in a table of names, so the same String is handed out every time a name
+ * is seen, without making a new one. The table starts with all the base type names, CSML's own elements, and the common
+ * attributes; anything else is added as it's found (up to a limit, after which names are just made as needed).
+ * <p>
+ * This is not a general XML parser: there are no DTDs, processing instructions (other than the header, which is
+ * skipped), or entities beyond the five predefined ones. CSML doesn't need them. CDATA sections are taken as text, as is.
+ *
+ * @author daverobin
+ */
+public class XMLReader {
+
+    public static final int END           = 0; // the end of the input
+    public static final int START_ELEMENT = 1; // getName() is the element name, and its attributes are available
+    public static final int END_ELEMENT   = 2; // getName() is the element name; an empty element like <Foo/> gives a START_ELEMENT then this
+    public static final int TEXT          = 3; // getText() is the text, which is never just whitespace
+
+    private static final int WINDOW_SIZE = 8192;
+    private static final int MAX_NAME    = 1024;   // the longest element or attribute name we'll take
+
+    private static final boolean[] NAME_END = new boolean[128]; // the chars that end a name
+    static { for (char c : " \t\r\n\f=</>\"'".toCharArray()) NAME_END[c] = true; }
+
+    private final Reader    reader;      // null when all the input is already in the window
+    private final String    source;      // for error messages
+    private char[]          window;
+    private int             pos;
+    private int             limit;
+    private long            offset;      // of window[0] in the whole input
+    private int             line = 1;
+    private long            lineStart;   // offset of the start of the current line
+    private final NameTable names = new NameTable(COMMON_NAMES, 64);
+    private String[]        stack = new String[32]; // the names of the elements we're in
+    private int             depth;
+    private String          name;
+    private String[]        attributeNames  = new String[16];
+    private String[]        attributeValues = new String[16];
+    private int             attributeCount;
+    private boolean         pendingEnd;  // the last start was an empty element, so its end comes next
+    private boolean         started;     // seen any element yet
+    private boolean         header;      // seen <?xml ... ?> before any element
+    private String          text;
+    private final StringBuilder scratch = new StringBuilder(); // for text that spans windows
+
+    public XMLReader(Reader reader, String source) {
+        this.reader = reader;
+        this.source = source;
+        this.window = new char[WINDOW_SIZE];
+    }
+
+    public XMLReader(String text, String source) {
+        this.reader = null;
+        this.source = source;
+        this.window = text.toCharArray();
+        this.limit  = window.length;
+    }
+
+    public String  getSource()                  { return source; }
+    public String  getName()                    { return name; }   // of the last START_ELEMENT or END_ELEMENT
+    public String  getText()                    { return text; }   // of the last TEXT
+    public int     getAttributeCount()          { return attributeCount; } // of the last START_ELEMENT
+    public String  getAttributeName(int index)  { return attributeNames[index]; }
+    public String  getAttributeValue(int index) { return attributeValues[index]; }
+    public boolean hasHeader()                  { return header; }
+    public int     getDepth()                   { return depth; }  // how many elements we're in
+    public int     getLine()                    { return line; }
+    public int     getColumn()                  { return (int)(offset + pos - lineStart) + 1; }
+
+    /**
+     * Returns the next event, one of the constants above. Comments and whitespace between elements are skipped.
+     */
+    public int next() throws XDException {
+        if (pendingEnd) { pendingEnd = false; name = stack[--depth]; return END_ELEMENT; }
+        for (;;) {
+            if (consumeText()) return TEXT;
+            if (pos == limit) {
+                if (depth > 0) throw complaint("Expected '</" + stack[depth-1] + ">' but found the end of the input");
+                return END;
+            }
+            pos++; // past the '<'
+            char c = peekChar();
+            if      (c == '?') { skipHeader(); if (!started) header = true; }
+            else if (c == '!') {
+                if (!lookingAt("![CDATA[")) skipComment();
+                else if (!(text = consumeCData()).trim().isEmpty()) return TEXT; // like any other text, it's skipped if it's only whitespace
+            }
+            else if (c == '/') { pos++; consumeEndTag(); return END_ELEMENT; }
+            else               { consumeStartTag(); return START_ELEMENT; }
+        }
+    }
+
+    /**
+     * Called just after a START_ELEMENT, this returns all the text in the element, and moves past its END_ELEMENT.
+     * It's an error for the element to have children.
+     */
+    public String readElementText() throws XDException {
+        if (pendingEnd) { next(); return ""; }
+        String result = unescape(consumeUntil('<', "for the end of <" + name + ">"));
+        pos++;
+        if (lookingAt("![CDATA[")) { // rare, so the usual case doesn't pay for a builder
+            StringBuilder more = new StringBuilder(result);
+            do {
+                more.append(consumeCData());
+                more.append(unescape(consumeUntil('<', "for the end of <" + name + ">")));
+                pos++;
+            } while (lookingAt("![CDATA["));
+            result = more.toString();
+        }
+        if (peekChar() != '/') throw complaint("Expected '</" + stack[depth-1] + ">' (no children are allowed here)");
+        pos++;
+        consumeEndTag();
+        return result;
+    }
+
+    public XDException complaint(String details) { return complaint(Errors.VALUE_FORMAT, details); }
+
+    public XDException complaint(int error, String details) {
+        return new XDException(error, "Parsing error at line " + line + " col " + getColumn() + " in '" + source + "': " + details);
+    }
+
+    ////////////////////////////////
+
+    private void consumeStartTag() throws XDException {
+        started = true;
+        name = consumeName();
+        if (name.isEmpty()) throw complaint("Missing element name after '<'");
+        attributeCount = 0;
+        for (;;) {
+            char c = nextNonwhite();
+            if (c == '>') { pos++; break; }
+            if (c == '/') {
+                pos++;
+                if (nextChar() != '>') throw complaint("Expected '>' after '/' in <" + name + ">");
+                pendingEnd = true;
+                break;
+            }
+            if (c == 0) throw complaint("Expected '>' to end <" + name + "> but found the end of the input");
+            String attributeName = consumeName();
+            if (attributeName.isEmpty()) throw complaint("Missing attribute name or end of element");
+            if (nextNonwhite() != '=') throw complaint("Expected '=' after '" + attributeName + "'");
+            pos++;
+            char quote = nextNonwhite();
+            if (quote != '"' && quote != '\'') throw complaint("Expected either single or double quote");
+            pos++;
+            String value = unescape(consumeUntil(quote, "to end the value of '" + attributeName + "'"));
+            pos++;
+            if (attributeCount == attributeNames.length) {
+                String[] moreNames  = new String[attributeCount * 2]; System.arraycopy(attributeNames, 0, moreNames, 0, attributeCount); attributeNames = moreNames;
+                String[] moreValues = new String[attributeCount * 2]; System.arraycopy(attributeValues, 0, moreValues, 0, attributeCount); attributeValues = moreValues;
+            }
+            attributeNames[attributeCount]  = attributeName;
+            attributeValues[attributeCount] = value;
+            attributeCount++;
+        }
+        if (depth == stack.length) { String[] deeper = new String[depth * 2]; System.arraycopy(stack, 0, deeper, 0, depth); stack = deeper; }
+        stack[depth++] = name;
+    }
+
+    private void consumeEndTag() throws XDException { // just after the "</"
+        nextNonwhite();
+        String found = consumeName();
+        if (nextNonwhite() != '>') throw complaint("Expected '>' to end </" + found + ">");
+        pos++;
+        String expected = depth > 0 ? stack[depth-1] : null;
+        if (found != expected && !found.equals(expected)) throw complaint("Unmatched closing tag: expected \"" + expected + "\" but found \"" + found + "\"");
+        depth--;
+        name = found;
+        attributeCount = 0;
+    }
+
+    private String consumeName() throws XDException {
+        while (limit - pos < MAX_NAME && fill()); // so the whole name is in the window
+        int start = pos;
+        while (pos < limit) {
+            char c = window[pos];
+            if (c < 128 && NAME_END[c]) break;
+            pos++;
+        }
+        if (pos - start >= MAX_NAME) throw complaint("Name is too long (more than " + MAX_NAME + " chars)");
+        return names.intern(window, start, pos - start);
+    }
+
+    private boolean consumeText() throws XDException { // up to the next '<' or the end; returns false if it's only whitespace
+        boolean blank = true;
+        boolean scratching = false;
+        for (;;) {
+            int start = pos;
+            while (pos < limit) {
+                char c = window[pos];
+                if (c == '<') break;
+                pos++;
+                if (c == '\n') newline();
+                else if (c > ' ') blank = false;
+            }
+            if (pos == limit) { // ran off the end of the window
+                if (!scratching) { scratch.setLength(0); scratching = true; }
+                scratch.append(window, start, pos - start);
+                if (fill()) continue;
+                start = pos;
+            }
+            if (blank) return false;
+            text = unescape(scratching ? scratch.append(window, start, pos - start).toString() : new String(window, start, pos - start));
+            return true;
+        }
+    }
+
+    private String consumeUntil(char delimiter, String what) throws XDException { // leaves pos at the delimiter
+        boolean scratching = false;
+        for (;;) {
+            int start = pos;
+            while (pos < limit) {
+                char c = window[pos];
+                if (c == delimiter) break;
+                pos++;
+                if (c == '\n') newline();
+            }
+            if (pos < limit) return scratching ? scratch.append(window, start, pos - start).toString() : new String(window, start, pos - start);
+            if (!scratching) { scratch.setLength(0); scratching = true; }
+            scratch.append(window, start, pos - start);
+            if (!fill()) throw complaint("Expected '" + delimiter + "' " + what + " but found the end of the input");
+        }
+    }
+
+    private void skipHeader() throws XDException { // just after the '<' of "<?"
+        int startLine = line;
+        char previous = 0;
+        for (;;) {
+            char c = nextChar();
+            if (c == 0 && pos == limit) throw complaint("Unterminated '<?' started at line " + startLine);
+            if (c == '>' && previous == '?') return;
+            previous = c;
+        }
+    }
+
+    private String consumeCData() throws XDException { // just after the '<' of "<![CDATA["; there are no entities in here
+        int startLine = line;
+        pos += 8;
+        StringBuilder result = new StringBuilder();
+        for (;;) {
+            result.append(consumeUntil(']', "to end the CDATA section started at line " + startLine));
+            if (lookingAt("]]>")) { pos += 3; return result.toString(); }
+            result.append(']');
+            pos++;
+        }
+    }
+
+    private void skipComment() throws XDException { // just after the '<' of "<!--"
+        int startLine = line;
+        pos++;
+        if (nextChar() != '-' || nextChar() != '-') throw complaint("Expected '<!--'");
+        int dashes = 0;
+        for (;;) {
+            char c = nextChar();
+            if (c == 0 && pos == limit) throw complaint("Unterminated comment started at line " + startLine);
+            if      (c == '-')                 dashes++;
+            else if (c == '>' && dashes >= 2)  return;
+            else                               dashes = 0;
+        }
+    }
+
+    private String unescape(String in) throws XDException {
+        int amp = in.indexOf('&');
+        if (amp == -1) return in; // the usual case
+        StringBuilder out = new StringBuilder(in.length());
+        out.append(in, 0, amp);
+        for (int i = amp; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c == '&') {
+                int end = in.indexOf(';', i);
+                if (end == -1) throw complaint(Errors.PARAM_SYNTAX, "Invalid entity encoding (no ';' after '&')");
+                String entity = in.substring(i+1, end);
+                switch (entity) {
+                    case "lt":   c = '<';    break;
+                    case "gt":   c = '>';    break;
+                    case "amp":  c = '&';    break;
+                    case "apos": c = '\'';   break;
+                    case "quot": c = '\"';   break;
+                    default: throw complaint(Errors.PARAM_SYNTAX, "Invalid entity '&" + entity + ";'");
+                }
+                i = end;
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private char nextNonwhite() throws XDException {
+        for (;;) {
+            if (pos == limit && !fill()) return 0;
+            char c = window[pos];
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') pos++;
+            else if (c == '\n') { pos++; newline(); }
+            else return c;
+        }
+    }
+
+    private boolean lookingAt(String literal) throws XDException { // whether the input at pos starts with this; doesn't move
+        int length = literal.length();
+        while (limit - pos < length && fill());
+        if (limit - pos < length) return false;
+        for (int i = 0; i < length; i++) if (window[pos + i] != literal.charAt(i)) return false;
+        return true;
+    }
+
+    private char peekChar() throws XDException {
+        if (pos == limit && !fill()) return 0;
+        return window[pos];
+    }
+
+    private char nextChar() throws XDException {
+        if (pos == limit && !fill()) return 0;
+        char c = window[pos++];
+        if (c == '\n') newline();
+        return c;
+    }
+
+    private void newline() { line++; lineStart = offset + pos; } // called just after the '\n'
+
+    private boolean fill() throws XDException { // moves what's left to the start of the window, and reads more after it
+        if (reader == null) return false;
+        int left = limit - pos;
+        System.arraycopy(window, pos, window, 0, left);
+        offset += pos;
+        pos = 0;
+        limit = left;
+        try {
+            int read = reader.read(window, limit, window.length - limit);
+            if (read <= 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException e) { throw complaint(Errors.COMMUNICATION_FAILED, "Can't read the input: " + e.getLocalizedMessage()); } // not the same as the input just ending
+    }
+
+    ////////////////////////////////
+
+    // the names every CSML file is made of; these are shared by all readers, and never change after they're made
+    private static final String[] CSML_NAMES = {
+            "CSML", "Includes", "Definitions", "TagDefinitions", "Value", "Extensions", "NamedValues", "Choices", "ValueTags",
+            "NamedBits", "Links", "PriorityArray", "Failures", "MemberTypeDefinition", "Documentation", "Error", "Units",
+            "WritableWhen", "RequiredWhen", "Description", "DisplayName", "DisplayNameForWriting",
+            "xml", "version", "encoding", "xmlns", "defaultLocale", "locale",
+            "name", "value", "type", "extends", "overlays", "memberType", "optional", "absent", "writable", "readable",
+            "documentation", "comment", "displayName", "description", "units", "minimum", "maximum", "resolution",
+            "minimumLength", "maximumLength", "minimumSize", "maximumSize", "minimumEncodedLength", "maximumEncodedLength",
+            "length", "variability", "volatility", "propertyIdentifier", "contextTag", "requiredWith", "requiredWithout",
+            "notPresentWith", "bit", "authRead", "authWrite", "authVisible", "targetType", "allowedTypes", "isMultiLine",
+            "commandable", "associatedWith", "requirements", "writableWhen", "requiredWhen", "errorLimit", "href",
+    };
+
+    private static final NameTable COMMON_NAMES = new NameTable(null, 512);
+    static {
+        for (Base base : Base.values()) COMMON_NAMES.add(Base.toString(base));
+        for (String name : CSML_NAMES)  COMMON_NAMES.add(name);
+    }
+
+    /**
+     * An open addressed hash table of Strings that can be looked up with a range of chars, so a name that's already
+     * known doesn't need a String made to find it. A table with a parent looks there first, and only adds to itself.
+     */
+    private static final class NameTable {
+
+        private static final int MAX_NAMES = 4096; // enough for any sane input; after this, we just stop remembering
+
+        private final NameTable parent;
+        private String[]        slots;
+        private int             count;
+
+        NameTable(NameTable parent, int size) { // size must be a power of 2
+            this.parent = parent;
+            this.slots  = new String[size];
+        }
+
+        String intern(char[] chars, int start, int length) {
+            int hash = 0;
+            for (int i = start, end = start + length; i < end; i++) hash = 31 * hash + chars[i]; // the same as String.hashCode()
+            String found = parent != null ? parent.find(chars, start, length, hash) : null;
+            if (found == null) found = find(chars, start, length, hash);
+            if (found != null) return found;
+            String name = new String(chars, start, length);
+            if (count < MAX_NAMES) insert(name);
+            return name;
+        }
+
+        void add(String name) {
+            char[] chars = name.toCharArray();
+            if (find(chars, 0, chars.length, name.hashCode()) == null) insert(name);
+        }
+
+        private String find(char[] chars, int start, int length, int hash) {
+            int mask = slots.length - 1;
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                String name = slots[i];
+                if (name == null) return null;
+                if (name.hashCode() == hash && matches(name, chars, start, length)) return name;
+            }
+        }
+
+        private void insert(String name) {
+            if ((count + 1) * 2 > slots.length) { // keep it at most half full
+                String[] old = slots;
+                slots = new String[old.length * 2];
+                for (String each : old) if (each != null) place(each);
+            }
+            place(name);
+            count++;
+        }
+
+        private void place(String name) {
+            int mask = slots.length - 1;
+            int i = spread(name.hashCode()) & mask;
+            while (slots[i] != null) i = (i + 1) & mask;
+            slots[i] = name;
+        }
+
+        private static int spread(int hash) { return hash ^ hash >>> 16; }
+
+        private static boolean matches(String name, char[] chars, int start, int length) {
+            if (name.length() != length) return false;
+            for (int i = 0; i < length; i++) if (name.charAt(i) != chars[start + i]) return false;
+            return true;
+        }
+    }
+
+}
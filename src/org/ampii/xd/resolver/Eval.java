@@ -29,14 +29,18 @@ public class Eval {
 
     public static Data   eval(Data base,  String path) throws XDException { return eval(base, path, FOR_GET); }
 
-    public static Data  eval(Data base, String path, int mode) throws XDException {
+    public static Data  eval(Data base, String path, int mode) throws XDException { return eval(base, path, split(path), mode); }
+
+    public static String[] split(String path) { // the segments of a path, for callers that evaluate the same path many times
+        if (path.equals(Application.dataPrefix) || path.startsWith(Application.dataPrefix+"/")) return path.substring(Application.dataPrefix.length()).split("/");
+        else return path.split("/");
+    }
+
+    public static Data  eval(Data base, String path, String[] segments, int mode) throws XDException { // 'segments' must be from split(path)
         Context    context    = base.getContext();
         Authorizer authorizer = context.getAuthorizer();
         if (path.startsWith("/")) base = getRootFor(base);
         Data target = base;
-        String[] segments;
-        if (path.equals(Application.dataPrefix) || path.startsWith(Application.dataPrefix+"/")) segments = path.substring(Application.dataPrefix.length()).split("/");
-        else segments = path.split("/");
         String segment;
         for (int i = 0; i < segments.length; i++) { // can't use a foreach here because we need to look ahead
             segment = segments[i];
@@ -4,6 +4,7 @@ package org.ampii.xd.resolver;
 import org.ampii.xd.application.Historian;
 import org.ampii.xd.application.hooks.FabricatorHooks;
 import org.ampii.xd.client.Client;
+import org.ampii.xd.common.Errors;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.*;
 import org.ampii.xd.data.basetypes.BooleanData;
@@ -11,6 +12,7 @@ import org.ampii.xd.data.basetypes.LinkData;
 import org.ampii.xd.data.basetypes.ListData;
 import org.ampii.xd.data.basetypes.StringData;
 import org.ampii.xd.data.Context;
+import java.util.ArrayList;
 
 /**
  * This can make "fabricated" ephemeral data that is not actually stored persistently. We have to fabricate these on the
@@ -107,43 +109,112 @@ public class Fabricator {
             list.addLocal(new StringData(Meta.NEXT, Client.makeSimpleNextPointer(context)));
         }
         else {
-            _getDescendants_Helper(data, list, data, context);
-        }
-        // since we have already self-limited, the context limit no longer apply (otherwise they get applied twice!)
-        // TODO: check this:
-        context.setSkip(null);
-        context.setMaxResults(null);
-        return list;
-    }
-
-    private static void _getDescendants_Helper(Data base, Data list, Data data, Context context) throws XDException {
-        if (context.cur_descendantDepth >= context.getDescendantDepth()) return;
-        for (Data child: data.getChildren()) {
-            Data link = new LinkData("", Path.toRelativePath(base, child)); // "" is just a temporary name for now
-            // preset the parent so filter can evaluate silly things like filter=../{something in parent}
-            link.setParent(list);
-            if (context.canIncludeChild(link)) {
-                context.cur_descendantNumber++; // regardless of whether it will be skipped or not, the number indicates the position in the unskipped list
+            Descendants walk = new Descendants(data, context.getDescendantDepth());
+            int number = 0; // regardless of whether it will be skipped or not, the number indicates the position in the unskipped list
+            if (context.hasCursor()) { // pick up where the previous page left off
+                walk.resume(context.getCursorKey());
+                number = context.getCursorPosition();
+                list.addLocal(new BooleanData(Meta.PARTIAL, true));
+            }
+            while (walk.advance()) {
+                Data link = new LinkData("", walk.path()); // "" is just a temporary name for now
+                // preset the parent so filter can evaluate silly things like filter=../{something in parent}
+                link.setParent(list);
+                if (!context.canIncludeChild(link)) continue;
+                number++;
                 // for every result that *would* go in the list, skip over the first 'skip-results'
                 if (context.cur_skip > 0) {
                     if (list.find(Meta.PARTIAL)==null) list.addLocal(new BooleanData(Meta.PARTIAL, true)); // if we skipped any, we're partial
                     context.cur_skip--;
                     continue;
                 }
-                link.setName(String.valueOf(context.cur_descendantNumber));
+                link.setName(String.valueOf(number));
                 list.post(link);  // yay! someone made the cut!
                 if (--context.cur_max == 0) { // if this is the last one that we can return, return a $next pointer
-                    list.addLocal(new StringData(Meta.NEXT, Client.makeSimpleNextPointer(context)));
+                    list.addLocal(new StringData(Meta.NEXT, Client.makeNextPointer(context, walk.state(), number)));
                     break;  // no more
                 }
             }
-            if (context.cur_max != 0) { // if we can report more, then descend and get them
-                context.cur_descendantDepth++;
-                _getDescendants_Helper(base, list, child, context);
-                context.cur_descendantDepth--;
-            }
         }
+        // since we have already self-limited, the context limits no longer apply (otherwise they get applied twice!)
+        context.setSkip(null);
+        context.setMaxResults(null);
+        context.setCursor(null);
+        return list;
     }
 
+    /**
+     * A depth-first walk of the descendants of a base data item that only looks at as much of the tree as it needs to.
+     * Its position can be saved with {@link #state} and restored with {@link #resume}, so $next can carry it.
+     */
+    private static class Descendants {
+
+        private static class Level {
+            final DataList children;
+            final String   prefix;  // relative path to the parent of these children, with trailing '/' (or "" for the base)
+            int            next;    // index of the next child to visit
+            Level(DataList children, String prefix) { this.children = children; this.prefix = prefix; }
+        }
+
+        private final ArrayList<Level> stack = new ArrayList<>();
+        private final int              depthLimit;
+        private Data                   current;  // the descendant most recently returned by advance()
+        private String                 path;     // and its path relative to the base
+
+        Descendants(Data base, int depthLimit) throws XDException {
+            this.depthLimit = depthLimit;
+            if (depthLimit > 0) stack.add(new Level(base.getChildren(), ""));
+        }
+
+        String path() { return path; }
+
+        boolean advance() throws XDException {
+            // descend into the current one before going on to its siblings
+            if (current != null && stack.size() < depthLimit) stack.add(new Level(current.getChildren(), path + "/"));
+            current = null;
+            while (!stack.isEmpty()) {
+                Level level = stack.get(stack.size() - 1);
+                if (level.next < level.children.size()) {
+                    current = level.children.get(level.next++);
+                    path = level.prefix + current.getName();
+                    return true;
+                }
+                stack.remove(stack.size() - 1);
+            }
+            return false;
+        }
+
+        String state() { // one line per level: index and name of the current child at that level
+            StringBuilder state = new StringBuilder();
+            for (Level level : stack) state.append(level.next - 1).append(' ').append(level.children.get(level.next - 1).getName()).append('\n');
+            return state.toString();
+        }
+
+        void resume(String state) throws XDException {
+            for (String line : state.split("\n")) {
+                if (stack.isEmpty()) return;
+                String[] parts = line.split(" ", 2);
+                if (parts.length != 2) throw new XDException(Errors.PARAM_VALUE_FORMAT, "query parameter cursor is malformed");
+                int index;
+                try { index = Integer.parseInt(parts[0]); } catch (NumberFormatException e) { throw new XDException(Errors.PARAM_VALUE_FORMAT, "query parameter cursor is malformed"); }
+                Level level = stack.get(stack.size() - 1);
+                int found = -1;
+                if (index >= 0 && index < level.children.size() && level.children.get(index).getName().equals(parts[1])) found = index;
+                else for (int i = 0; i < level.children.size(); i++) if (level.children.get(i).getName().equals(parts[1])) { found = i; break; }
+                if (found == -1) { // it's gone, so whatever is in its place now is next
+                    level.next = Math.max(0, Math.min(index, level.children.size()));
+                    current = null;
+                    return;
+                }
+                level.next = found + 1;
+                current = level.children.get(found);
+                path = level.prefix + current.getName();
+                if (stack.size() < depthLimit) stack.add(new Level(current.getChildren(), path + "/"));
+                else return;
+            }
+            // we've found the last one returned, so the next advance() will descend into it, but we've done that already
+            stack.remove(stack.size() - 1);
+        }
+    }
 
 }
@@ -35,6 +35,21 @@ public class Authorizer {
         enterGodMode();
     }
 
+    private Authorizer(Authorizer original) { // see copy()
+        authorizedScopes      = original.authorizedScopes;
+        authorizationProvided = original.authorizationProvided;
+        inGodMode             = original.inGodMode;
+    }
+
+    public Authorizer copy() { return new Authorizer(this); } // same user, but its own god mode count, for use on another thread
+
+    public String  getScopesKey() { // the same for any two authorizers that would allow the same things (see ResponseCache)
+        if (authorizedScopes == null) return "*";
+        String[] sorted = authorizedScopes.clone();
+        Arrays.sort(sorted);
+        return (authorizationProvided? "+" : "-") + String.join(" ", sorted);
+    }
+
     public void    enterGodMode() { inGodMode++; }
     public void    exitGodMode()  { inGodMode--; }
     public boolean inGodMode()    { return inGodMode != 0; }
@@ -0,0 +1,16 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.server;
+
+/**
+ *  An HTTP response containing CBOR data (alt=cbor).
+ *
+ *  @author daverobin
+ */
+public class CBORResponse extends Response {
+
+    public CBORResponse(String status, byte[] body)  {
+        this.status = status;
+        this.contentType = "application/cbor";
+        this.body = body;
+    }
+}
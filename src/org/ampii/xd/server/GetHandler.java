@@ -12,6 +12,7 @@ import org.ampii.xd.data.Meta;
 import org.ampii.xd.data.Rules;
 import org.ampii.xd.database.Session;
 import org.ampii.xd.data.Context;
+import org.ampii.xd.marshallers.CBORGenerator;
 import org.ampii.xd.marshallers.JSONGenerator;
 import org.ampii.xd.marshallers.PlainGenerator;
 import org.ampii.xd.marshallers.XMLGenerator;
@@ -47,13 +48,23 @@ public class GetHandler {
         try {
             Context context    = new Context(request);
             context.setAuthorizer(new Authorizer(request));
+            // an identical GET may have been answered recently, and if nothing it used has changed, we can just send that again
+            String cacheKey = ResponseCache.makeKey(request, context);
+            if (cacheKey != null) {
+                Response cached = ResponseCache.get(cacheKey);
+                if (cached != null) return cached;
+                context.setCacheConditions(new ResponseCache.Conditions()); // to hear from the bindings that are used
+            }
             Session session = Session.makeReadSession("GetHandler",context);
             try {
                 Data target = Eval.eval(session.getRoot(), request.path, Eval.FOR_GET);
                 if (!target.hasParent()) target.setContext(context); // if this evaluated to parentless fabrication, we need to give it it's context
                 context.setTarget(target); // now tell the context that this is the target of the URI - this means that this is the "top" for serialization and filtering
                 if (target.getName().equals(Application.rootName)) context.setDepth(1); // it has become clear that actually returning the root without depth limit is a bad idea!
-                return getDataResponse(target);
+                if (cacheKey != null) context.getCacheConditions().snapshot(target);
+                Response response = getDataResponse(target);
+                if (cacheKey != null) ResponseCache.put(cacheKey, context.getCacheConditions(), response);
+                return response;
             }
             finally { if (session!=null) session.discard(); }
         }
@@ -71,10 +82,15 @@ public class GetHandler {
                 return new TextResponse(HTTP.HTTP_200_OK, writer.toString());
             case "json":
                 JSONGenerator json = new JSONGenerator();
-                json.generate(writer, data);
-                return new JSONResponse(HTTP.HTTP_200_OK, writer.toString());
+                json.setParallel(true); // wide collections are generated on the worker pool
+                return new JSONResponse(HTTP.HTTP_200_OK, json.generate(data)); // already UTF-8, so Worker sends it as is
+            case "cbor":
+                CBORGenerator cbor = new CBORGenerator();
+                cbor.setParallel(true);
+                return new CBORResponse(HTTP.HTTP_200_OK, cbor.generate(data));
             case "xml":
                 XMLGenerator xml = new XMLGenerator();
+                xml.setParallel(true);
                 xml.generate(writer, data);
                 return new XMLResponse(HTTP.HTTP_200_OK, writer.toString());
             case "media":
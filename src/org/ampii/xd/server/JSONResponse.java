@@ -14,6 +14,12 @@ public class JSONResponse extends Response {
         this.body = body;
     }
 
+    public JSONResponse(String status, byte[] body)  { // UTF-8
+        this.status = status;
+        this.contentType = "application/json;charset=UTF-8";
+        this.body = body;
+    }
+
     public JSONResponse(String status, Object... pairs) {
         contentType = "application/json";
         this.status = status;
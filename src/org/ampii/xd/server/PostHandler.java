@@ -10,6 +10,7 @@ import org.ampii.xd.data.Data;
 import org.ampii.xd.data.Rules;
 import org.ampii.xd.database.Session;
 import org.ampii.xd.data.Context;
+import org.ampii.xd.marshallers.JSONReader;
 import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.resolver.Path;
 import org.ampii.xd.security.Authorizer;
@@ -32,21 +33,33 @@ public class PostHandler {
     private static Response postData(Request request) throws XDException {
         Rules.validatePostDataRequestOptions(request);
         try {
-            Data data = request.parseBody(); // will throw early exception if there is a problem with the given data
+            // JSON bodies are left till we know the target, in case its binding would rather read them itself. So for JSON,
+            // a problem with the path or the authorization is reported ahead of a problem with the body, which is only
+            // found as it's read. Other bodies are parsed now, so a problem with them is reported first, as always.
+            boolean streamable = request.getParameter("alt", "json").equals("json") && request.body != null;
+            Data data = streamable ? null : request.parseBody(); // will throw early exception if there is a problem with the given data
             Context context = new Context(request);
             context.setAuthorizer(new Authorizer(request));
             Session session = Session.makeWriteSession("PostHandler", context);
             try {
                 Data target = Eval.eval(session.getRoot(), request.path, Eval.FOR_POST);
                 context.setTarget(target);
-                String name = data.getName();
-                if (name == null || name.isEmpty()) name = UUID.randomUUID().toString();    // if no given name, just make something up
-                data.setName(Path.makeLegalPathName(name)); // we don't just accept what the client wanted!
-                data = target.post(data);                   // do it! this will possibly call bindings to process RPC-style POSTs
-                // if the returned data is marked "ephemeral", then this POST is not actually persisting/creating anything.
-                // so we just return the processed data to the client
+                Data streamed = streamable ? postStreamed(session, target, request) : null;
+                if (streamed != null) data = streamed;
+                else {
+                    if (data == null) data = request.parseBody(); // the binding didn't want it streamed after all, so it's parsed from the start
+                    String name = data.getName();
+                    if (name == null || name.isEmpty()) name = UUID.randomUUID().toString();    // if no given name, just make something up
+                    data.setName(Path.makeLegalPathName(name)); // we don't just accept what the client wanted!
+                    data = target.post(data);                   // do it! this will possibly call bindings to process RPC-style POSTs
+                }
+                // if the returned data is marked "ephemeral", then this POST is not actually creating anything, so we just
+                // return the processed data to the client. But the binding may have staged changes to commit, e.g., the
+                // records of a log buffer batch.
                 if (data.getName().equals("..ephemeral")) {
-                    return GetHandler.getDataResponse(data);
+                    Response response = GetHandler.getDataResponse(data); // before the commit, which discards any sessions attached to this one
+                    session.commit();
+                    return response;
                 }
                 else {   // otherwise data was actually created and needs to be committed
                     session.commit();
@@ -61,4 +74,16 @@ public class PostHandler {
         catch (XDException e) { throw e; }
         catch (Throwable t)   { throw new XDError("Unhandled exception or error",t); }
     }
+
+    // A binding can read a big body as it goes. It may read some of it before deciding it would rather have it parsed
+    // (by returning null), so anything it changed on the way is undone, and the body is read again from its start.
+    private static Data postStreamed(Session session, Data target, Request request) throws XDException {
+        Session.Savepoint savepoint = session.setSavepoint();
+        Data streamed;
+        try { streamed = target.post(new JSONReader(request.body, "HTTP body", 0)); }
+        catch (XDException | RuntimeException e) { savepoint.rollback(); throw e; }
+        if (streamed == null) savepoint.rollback();
+        else savepoint.release();
+        return streamed;
+    }
 }
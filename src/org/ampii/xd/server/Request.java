@@ -83,12 +83,15 @@ public class Request {
 
     public Data parseBody() throws XDException {
         String alt = getParameter("alt", "json");
-        if (!(alt.equals("xml")||alt.equals("json")||alt.equals("plain")||alt.equals("media"))) throw new XDException(Errors.NOT_REPRESENTABLE, "The specified 'alt' format is not recognized");
+        if (!(alt.equals("xml")||alt.equals("json")||alt.equals("cbor")||alt.equals("plain")||alt.equals("media"))) throw new XDException(Errors.NOT_REPRESENTABLE, "The specified 'alt' format is not recognized");
         if (alt.equals("media")) {
             String mediaType = getHeader("Content-Type");
             if (mediaType == null || mediaType.isEmpty()) throw new XDException(Errors.MISSING_PARAMETER, "The 'Content-Type' header is missing or blank for alt=media operation");
             return new OctetStringData(".anonymous",body,new StringData(Meta.MEDIATYPE,mediaType)); // we return octetSTRing for now because we don't know if it's
         }
+        else if (alt.equals("cbor")) {
+            return DataParser.parse(body,alt); // binary, so not made into a string first
+        }
         else {
             return DataParser.parse(getBodyAsString(),alt);
         }
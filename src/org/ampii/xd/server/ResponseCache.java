@@ -0,0 +1,186 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.server;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.bindings.Binding;
+import org.ampii.xd.data.Context;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.database.DataStore;
+import org.ampii.xd.definitions.Definitions;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Keeps the bodies of recent GET responses so that identical GETs can be answered without making a session,
+ * evaluating the path, and generating it all over again - called from {@link GetHandler}.
+ * <p>
+ * Responses are keyed by everything that can make them different: the path, the query parameters (sorted), the alt
+ * format and locale, and the scopes of the user's authorization. The key is made after the Authorizer is, so the
+ * token is still checked on every request.
+ * <p>
+ * An entry is only reused while what it was made from is unchanged. The DataStore stamps every commit with a new
+ * revision on the item and its ancestors (see {@link Data#getRevision}), so the entry remembers the revision of its
+ * target's original and the "own" revisions of the ancestors above it (for inherited things like $authRead), and
+ * checks them again before it's used. Bindings fabricate things that the DataStore doesn't know about, so every
+ * binding that's used in making the response is asked with {@link Binding#getCacheTime} whether it's OK: null
+ * (the default) means the response can't be cached at all, and bindings that can say so can ask for a check of the
+ * whole DataStore's revision, or give a time to live.
+ * <p>
+ * The cache is bounded by the total bytes of the bodies held, {@link Application#responseCacheSize}, and the least
+ * recently used are dropped first.
+ *
+ * @author daverobin
+ */
+public class ResponseCache {
+
+    private static final int ENTRY_OVERHEAD = 128; // rough bytes for the key, entry, and map node, on top of the body
+
+    private static final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(64, 0.75f, true); // in access order, so the eldest is the least recently used
+    private static long size;  // bytes held, bodies plus ENTRY_OVERHEAD and the keys
+    private static long hits;
+    private static long misses;
+
+    /**
+     * Hears about the bindings used while a response is made (see {@link Context#noteCacheTime}), then remembers what
+     * it was made from, so that it can be checked later. Shared by the forks of the Context, so it's synchronized.
+     */
+    public static class Conditions {
+        private boolean             cacheable = true;
+        private boolean             wholeStore;      // some binding depends on everything in the DataStore
+        private long                timeToLive = Long.MAX_VALUE;
+        private WeakReference<Data> original;        // the target's original; weak, so a removed one isn't kept alive by us
+        private long                revision;        // see revisionOf()
+        private long                storeRevision;
+        private long                generation;      // of the Definitions, which supply inherited values and metadata
+        private long                expires;
+
+        public synchronized void note(Long cacheTime) {
+            if      (cacheTime == null) cacheable = false;
+            else if (cacheTime == Binding.CACHE_WHILE_STORE_UNCHANGED) wholeStore = true;
+            else if (cacheTime > 0) timeToLive = Math.min(timeToLive, cacheTime);
+        }
+
+        // called after the target is found but before anything is generated, so a commit during generation will be seen as a change
+        public synchronized void snapshot(Data target) {
+            Data original = target.getOriginal();
+            if (original == null) { cacheable = false; return; } // fabricated by a function or binding, so nothing to check it against
+            this.original      = new WeakReference<>(original);
+            this.generation    = Definitions.getGeneration();
+            this.storeRevision = DataStore.getRevision();
+            this.revision      = revisionOf(original);
+            if (revision < 0) cacheable = false;
+        }
+
+        public synchronized boolean isCacheable() { return cacheable && original != null; }
+
+        private synchronized boolean isValid(long now) {
+            if (now >= expires) return false;
+            if (generation != Definitions.getGeneration()) return false;
+            if (wholeStore && storeRevision != DataStore.getRevision()) return false;
+            Data data = original.get();
+            return data != null && revisionOf(data) == revision;
+        }
+    }
+
+    private static class Entry {
+        final Conditions conditions;
+        final String     status;
+        final String     contentType;
+        final byte[]     body;   // held as UTF-8 (or CBOR), so a hit doesn't have to encode it again
+        final int        size;
+        Entry(Conditions conditions, Response response, byte[] body, int size) {
+            this.conditions  = conditions;
+            this.status      = response.status;
+            this.contentType = response.contentType;
+            this.body        = body;
+            this.size        = size;
+        }
+    }
+
+    /**
+     * Returns the key for this request, or null if it's not something we cache.
+     */
+    public static String makeKey(Request request, Context context) {
+        if (Application.responseCacheSize <= 0) return null;
+        if (!context.isAlt("json") && !context.isAlt("xml") && !context.isAlt("cbor")) return null; // plain and media are small and cheap, or not worth holding
+        StringBuilder key = new StringBuilder(request.path.length() + 64);
+        String path = request.path;
+        if (path.length() > 1 && path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        key.append(path).append('?');
+        for (Map.Entry<String,String> parameter : new TreeMap<>(request.parameters).entrySet()) {
+            if (parameter.getKey().equals("access_token")) continue; // represented by the scopes below
+            appendCounted(key, parameter.getKey());  // counted, since a decoded value can contain anything
+            appendCounted(key, parameter.getValue());
+        }
+        key.append('\n').append(request.isTLS ? "https" : "http"); // $next links carry the scheme and port the request came in on
+        key.append('\n').append(context.getAlt());
+        key.append('\n').append(context.getLocale());
+        key.append('\n').append(context.getAuthorizer().getScopesKey());
+        return key.toString();
+    }
+
+    /**
+     * Returns a new Response with the cached body, or null if there's nothing cached that's still good.
+     */
+    public static synchronized Response get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) { misses++; return null; }
+        if (!entry.conditions.isValid(System.currentTimeMillis())) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return new Response(entry.status, entry.contentType, entry.body); // the body is never changed after it's made, so it can be shared
+    }
+
+    public static synchronized void put(String key, Conditions conditions, Response response) {
+        if (!conditions.isCacheable() || !response.status.equals(HTTP.HTTP_200_OK) || !response.header.isEmpty()) return;
+        byte[] body;
+        if      (response.body instanceof byte[]) body = (byte[])response.body;
+        else if (response.body instanceof String) body = ((String)response.body).getBytes(StandardCharsets.UTF_8);
+        else return;
+        long size = body.length + key.length() * 2L + ENTRY_OVERHEAD;
+        if (size > Application.responseCacheMaxEntry || size > Application.responseCacheSize) return;
+        conditions.expires = conditions.timeToLive == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + conditions.timeToLive;
+        remove(key);
+        entries.put(key, new Entry(conditions, response, body, (int)size));
+        ResponseCache.size += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (ResponseCache.size > Application.responseCacheSize && eldest.hasNext()) {
+            ResponseCache.size -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    public static synchronized void clear() { entries.clear(); size = 0; }
+
+    public static synchronized long getHits() { return hits; }
+
+    public static synchronized String getStats() {
+        return entries.size() + " entries, " + size + " bytes, " + hits + " hits, " + misses + " misses";
+    }
+
+    ////////////////////////////////
+
+    private static void appendCounted(StringBuilder key, String text) {
+        key.append(text.length()).append(':').append(text);
+    }
+
+    private static void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) size -= removed.size;
+    }
+
+    // Every commit stamps a new, higher revision, so the highest of these changes if any of them does. Returns -1 if
+    // the data is no longer in the DataStore (a whole new one can be swapped in by tests).
+    private static long revisionOf(Data original) {
+        long latest = original.getRevision();
+        Data each = original;
+        for (; each.getParent() != null; each = each.getParent()) latest = Math.max(latest, each.getParent().getOwnRevision());
+        return each == DataStore.getSystemRootIHopeYouKnowWhatYouAreDoing() ? latest : -1;
+    }
+
+}
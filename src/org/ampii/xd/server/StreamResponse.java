@@ -0,0 +1,25 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An HTTP response with no predetermined body, e.g., a "text/event-stream".
+ * <p>
+ * {@link Worker} sends the header without a Content-Length and then hands the raw output stream to {@link #stream}, which
+ * keeps the connection for as long as it likes. The connection is closed when stream() returns.
+ *
+ * @author daverobin
+ */
+public abstract class StreamResponse extends Response {
+
+    public StreamResponse(String status, String contentType) {
+        super(status, contentType, null);
+        header.put("Cache-Control", "no-cache"); // no "Connection: close" here, Worker sends that with every response
+    }
+
+    // write to the stream until done or until the client goes away (which will show up as an IOException)
+    public abstract void stream(OutputStream os) throws IOException;
+
+}
@@ -175,6 +175,7 @@ public class Worker implements Runnable
             if (response.body instanceof String) bodyBytes = ((String)response.body).getBytes("UTF-8");
             if (response.body instanceof byte[]) bodyBytes = (byte[])response.body;
             if (bodyBytes != null) builder.append("Content-Length: " + bodyBytes.length + "\r\n");
+            builder.append("Connection: close\r\n"); // one request per connection, so clients don't try to reuse it
             // end header with blank line and append the body
             builder.append("\r\n");
             String header = builder.toString();
@@ -182,6 +183,7 @@ public class Worker implements Runnable
             os.write(header.getBytes("UTF-8"));
             if (bodyBytes != null) os.write(bodyBytes);
             os.flush();
+            if (response instanceof StreamResponse) ((StreamResponse)response).stream(os); // hangs on till the stream is done
             os.close();
         }
         catch ( UnsupportedEncodingException e ) { } // not gonna happen
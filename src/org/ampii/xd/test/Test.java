@@ -2,6 +2,8 @@
 package org.ampii.xd.test;
 
 import org.ampii.xd.application.Application;
+import org.ampii.xd.client.Client;
+import org.ampii.xd.client.HttpClient;
 import org.ampii.xd.common.Errors;
 import org.ampii.xd.common.LocalizedStrings;
 import org.ampii.xd.common.XDException;
@@ -19,7 +21,6 @@ import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.resolver.Path;
 import org.ampii.xd.server.Server;
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -50,7 +51,7 @@ import java.util.*;
  *     public void pathAdd(String extra)       // adds string to end of path
  *     public void pathRemove(String extra)    // removes string from end of path
  *     public void query(String query)         // query expression without leading "?", e.g. "metadata=all&depth=1", or blank for none
- *     public void alt(String format)          // one of "json","xml","plain","media","none","default" - default is set by Application.testFormat
+ *     public void alt(String format)          // one of "json","xml","cbor","plain","media","none","default" - default is set by Application.testFormat
  *     public void contentType(String text)    // sets or expects ContentType header; will be set by a call to alt(...)
  *     public void requestHeader(String name, String value) // sets a request header; passing a null value will remove a previously set header
  *     public void requestText(String text)    // sets entire request body for PUT or POST - mutually exclusive with clientData()
@@ -141,6 +142,7 @@ public class Test {
     protected String          clientDataPars;                  // formatted as query pars, e.g., "metadata=xxx", this controls the generation of clientData into xml/json for put/post
     protected int             responseCode;
     protected String          responseText;
+    protected byte[]          responseBytes;                   // the same body, for alt=cbor
     protected Data            responseData;
     protected Map<String,List<String>> requestHeaders;
     protected Map<String,List<String>> responseHeaders;
@@ -238,12 +240,13 @@ public class Test {
         this.query = query;
     }
 
-    public void alt(String alt)  {   // one of "json","xml","plain","none","media","default" - default is set by Application.testFormat
+    public void alt(String alt)  {   // one of "json","xml","cbor","plain","none","media","default" - default is set by Application.testFormat
         if (alt.equals("default")) alt = Application.testFormat;
         this.alt = alt;
         switch (alt) {
             case "json":  contentType = "application/json"; break;
             case "xml":   contentType = "application/xml";  break;
+            case "cbor":  contentType = "application/cbor"; break;
             case "plain": contentType = "text/plain";       break;
         }
     }
@@ -432,7 +435,11 @@ public class Test {
     public void expectResponseData() throws TestException {   // expects to be able to parse responseText into responseData, based on 'alt'
         expectResponseText();
         expectSuccessCode();
-        try { if (responseData == null) responseData = DataParser.parse(responseText, alt, responseDefinitionCollector); }
+        try {
+            if (responseData == null) responseData = alt.equals("cbor") ?
+                    DataParser.parse(responseBytes, alt, responseDefinitionCollector) :
+                    DataParser.parse(responseText, alt, responseDefinitionCollector);
+        }
         catch (XDException e) { fail("expectResponseData()", e); }
     }
 
@@ -610,6 +617,7 @@ public class Test {
     private void clearResponse() {
         responseCode = 0;
         responseText = null;
+        responseBytes = null;
         responseData = null;
     }
 
@@ -626,49 +634,25 @@ public class Test {
         try {
             clearResponse();
             String uri = makeURI();
-            HttpURLConnection connection = (HttpURLConnection)new URL(uri).openConnection();
             if (    query.contains("alt=plain") && !alt.equals("plain") ||
                     query.contains("alt=xml") && !alt.equals("xml") ||
                     query.contains("alt=json") && !alt.equals("json"))
                 throw new TestException("Query pars contain conflicting alt - use alt() method to set");
-            connection.setRequestMethod(method);
-            connection.setDoOutput(method.equals("PUT") || method.equals("POST"));
-            connection.setInstanceFollowRedirects(false);
-            if (!contentType.isEmpty()) {
-                connection.setRequestProperty("Content-Type", contentType);
-                if (method.equals("GET")) connection.setRequestProperty("Accept", contentType);
-            }
-            if (requestHeaders != null) {
-                for (Map.Entry<String,List<String>> entry : requestHeaders.entrySet()) {
-                    List<String> list = entry.getValue();
-                    for (String value : list) connection.setRequestProperty(entry.getKey(), value);
-                }
-            }
+            byte[] body = null;
             if (method.equals("PUT")|| method.equals("POST")) {
                 if (clientData!=null) clientData.setContext(new Context("Test.doHttp()",clientDataPars!=null?clientDataPars:""));
-                OutputStream os = connection.getOutputStream();
-                PrintWriter  writer = new PrintWriter(os);
-                if (requestText != null) writer.print(requestText); // requestText overrides clientData
-                else if (alt.equals("json"))  new JSONGenerator().generate(writer,clientData);
-                else if (alt.equals("xml"))   new XMLGenerator().generate(writer,clientData);
-                else if (alt.equals("plain")) new PlainGenerator().generate(writer,clientData);
-                else fail(method+": alt() is not xml/json/plain and no requestText() has been set");
-                writer.flush();
-                os.flush();
+                if (requestText == null && !alt.equals("json") && !alt.equals("xml") && !alt.equals("cbor") && !alt.equals("plain")) fail(method+": alt() is not xml/json/cbor/plain and no requestText() has been set");
+                body = Client.makeBody(clientData, requestText, alt); // requestText overrides clientData
+            }
+            try (HttpClient.Response response = HttpClient.send(method, uri, Client.makeHeaders(method, contentType, requestHeaders), body)) {
+                responseCode    = response.status;
+                responseHeaders = response.headers;
+                responseBytes   = response.getBytes();
+                responseText    = new String(responseBytes, "UTF-8");
             }
-            //
-            responseCode = connection.getResponseCode();     // causes the GET/PUT/POST/DELETE to happen
-            //
-            responseHeaders = connection.getHeaderFields();
-            InputStream responseStream =null;
-            if (responseCode >=200 && responseCode <= 399) responseStream = connection.getInputStream();
-            else                                           responseStream = connection.getErrorStream();
-            if (responseStream != null) responseText = new PlainParser().parse(new InputStreamReader(responseStream),null,null,0,null).stringValue(); // a bit of a convoluted way to getText(stream), but saves recreating that code here
-            else responseText = null;
-            connection.disconnect();
         }
         catch (Exception e ) {
-            fail("Exception in HttpURLConnection: " + e +":"+ e.getLocalizedMessage());
+            fail("Exception in HttpClient: " + e +":"+ e.getLocalizedMessage());
         }
     }
 
@@ -685,15 +669,6 @@ public class Test {
         return result;
     }
 
-    private void setRequestHeadersInConnection(HttpURLConnection connection) {
-        if (requestHeaders != null) {
-            for (Map.Entry<String,List<String>> entry : requestHeaders.entrySet()) {
-                List<String> list = entry.getValue();
-                for (String value : list) connection.setRequestProperty(entry.getKey(), value);
-            }
-        }
-    }
-
     private static int parsingOptions = Parser.OPTION_NO_HEADER|Parser.OPTION_NO_NAMESPACE| // XML can be stripped down to just "<String.../>"
                     Parser.OPTION_ALLOW_UNQUOTED_NAMES| Parser.OPTION_ALLOW_SINGLE_QUOTES;  // JSON can be native Javascript format like: "{$value:'a'}"
 
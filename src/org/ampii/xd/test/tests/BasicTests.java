@@ -1,6 +1,12 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.test.tests;
 
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Meta;
+import org.ampii.xd.database.Session;
+import org.ampii.xd.resolver.Eval;
+import org.ampii.xd.server.ResponseCache;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
 
@@ -189,6 +195,227 @@ public class BasicTests {
                     expectResponseDataItemPresent("2");
                     expectResponseDataItemAbsent("3");
                 }
+            },
+            new Test("tagged() function test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='site' writable='true'>" +
+                            "    <Composition name='a' tags='x;y'>" +
+                            "        <Real name='b' tags='x'/>" +
+                            "        <Real name='c' tags='y;x'/>" +
+                            "    </Composition>" +
+                            "    <Real name='d' tags='y'/>" +
+                            "</Collection>");
+                    step("find data with both tags");
+                    pathAdd("/tagged(tags=x;y)");
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("<List memberType='Link'><Link value='a'/><Link value='a/c'/></List>");
+                    step("depth limit");
+                    pathRemove("/tagged(tags=x;y)");
+                    pathAdd("/tagged(tags=x;y,depth=1)");
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("<List memberType='Link'><Link value='a'/></List>");
+                    step("find newly added data");
+                    pathRemove("/tagged(tags=x;y,depth=1)");
+                    clientData("<Real name='e' tags='x;y'/>");
+                    clientDataPars("metadata=all");
+                    post();
+                    expectSuccessCode();
+                    pathAdd("/tagged(tags=x;y)");
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("<List memberType='Link'><Link value='a'/><Link value='a/c'/><Link value='e'/></List>");
+                }
+            },
+            new Test("Indexed filter test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='objects'>" +
+                            "    <Extensions>" +
+                            "        <String name='..sortedIndexes' value='pv'/>" +
+                            "        <String name='..hashedIndexes' value='flags/fault'/>" +
+                            "    </Extensions>" +
+                            "    <Composition name='a'><Real name='pv' value='10'/><Composition name='flags'><Boolean name='fault' value='true'/></Composition></Composition>" +
+                            "    <Composition name='b'><Real name='pv' value='60'/><Composition name='flags'><Boolean name='fault' value='false' writable='true'/></Composition></Composition>" +
+                            "    <Composition name='c'><Real name='pv' value='70' writable='true'/><Composition name='flags'><Boolean name='fault' value='true'/></Composition></Composition>" +
+                            "    <Composition name='d'><Real name='pv' value='80'/></Composition>" +
+                            "</Collection>");
+                    step("filter on both indexed paths");
+                    query("filter=pv%20gt%2050%20and%20flags/fault%20eq%20true");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemPresent("c");
+                    expectClientDataItemAbsent("a");
+                    expectClientDataItemAbsent("b");
+                    expectClientDataItemAbsent("d");
+                    expectClientDataItemValue("$partial", "true");
+                    step("change the indexed values");
+                    query("");
+                    pathAdd("/c/pv");
+                    alt("plain");
+                    clientData("<Real value='40'/>");
+                    put();
+                    expectSuccessCode();
+                    pathRemove("/c/pv");
+                    pathAdd("/b/flags/fault");
+                    clientData("<Boolean value='true'/>");
+                    put();
+                    expectSuccessCode();
+                    pathRemove("/b/flags/fault");
+                    alt("json");
+                    step("filter sees the changes");
+                    query("filter=pv%20gt%2050%20and%20flags/fault%20eq%20true");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemPresent("b");
+                    expectClientDataItemAbsent("c");
+                }
+            },
+            new Test("Filter expression test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='things'>" +
+                            "    <Composition name='a'><Real name='x' value='1'/><Boolean name='on' value='true'/></Composition>" +
+                            "    <Composition name='b'><Real name='x' value='2'/><Boolean name='on' value='false'/></Composition>" +
+                            "    <Composition name='c'><String name='x' value='many'/></Composition>" +
+                            "</Collection>");
+                    step("'or' takes everything after it");
+                    query("filter=x%20lt%202%20and%20on%20or%20x%20gt%201%20and%20not%20on");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemPresent("a");
+                    expectClientDataItemPresent("b");
+                    expectClientDataItemAbsent("c");
+                    step("unknown is not true, even when negated");
+                    query("filter=not%20(x%20lt%202)");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemAbsent("a");
+                    expectClientDataItemPresent("b");
+                    expectClientDataItemPresent("c"); // the parens make unknown into false, so 'not' makes it true
+                    step("numeric comparison to a non-number is an error");
+                    query("filter=x%20gt%20many");
+                    get();
+                    expectErrorNumber(Errors.PARAM_VALUE_FORMAT);
+                }
+            },
+            new Test("Response cache test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='cached' writable='true'>" +
+                            "    <Composition name='a' writable='true'><Real name='x' value='1' writable='true'/></Composition>" +
+                            "    <Composition name='b' writable='true'><Real name='x' value='2' writable='true'/></Composition>" +
+                            "</Collection>");
+                    step("a repeated GET is answered from the cache");
+                    clientData("<Collection/>");
+                    get();
+                    String first = responseText;
+                    long hits = ResponseCache.getHits();
+                    get();
+                    if (ResponseCache.getHits() != hits + 1) fail("the second GET was not answered from the cache");
+                    if (!responseText.equals(first)) fail("the cached response is not the same as the first one");
+                    step("a PUT below the target is seen by the next GET");
+                    pathAdd("/a/x");
+                    clientData("<Real value='5'/>");
+                    put();
+                    expectSuccessCode();
+                    pathRemove("/a/x");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemValue("a/x", "5.0");
+                    step("a DELETE below the target is seen by the next GET");
+                    pathAdd("/b");
+                    delete();
+                    expectSuccessCode();
+                    pathRemove("/b");
+                    clientData("<Collection/>");
+                    get();
+                    expectClientDataItemPresent("a");
+                    expectClientDataItemAbsent("b");
+                }
+            },
+            new Test("Response cache authorization test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='guarded' authRead=''>" +
+                            "    <Real name='x' value='1'/>" +
+                            "</Collection>");
+                    step("a cached GET of a child");
+                    pathAdd("/x");
+                    get();
+                    long hits = ResponseCache.getHits();
+                    get();
+                    expectSuccessCode();
+                    if (ResponseCache.getHits() != hits + 1) fail("the second GET was not answered from the cache");
+                    step("a change to the parent's inherited $authRead is seen by the next GET of the child");
+                    Session session = Session.makeWriteSession("Response cache authorization test");
+                    try {
+                        Eval.eval(session.getRoot(), serverDataPath).find(Meta.AUTHREAD).setValue("secret");
+                        session.commit();
+                    }
+                    catch (XDException e) { fail(e.getLocalizedMessage()); }
+                    finally { session.discard(); }
+                    get();
+                    expectErrorNumber(Errors.NOT_AUTHORIZED);
+                }
+            },
+            new Test("CBOR read and write test") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Composition name='binary' writable='true'>" +
+                            "    <Real        name='r' value='1.5'  writable='true'/>" +
+                            "    <Double      name='d' value='0.1'  writable='true'/>" +
+                            "    <Integer     name='i' value='-7'   writable='true'/>" +
+                            "    <Unsigned    name='u' value='300'  writable='true'/>" +
+                            "    <Boolean     name='b' value='true' writable='true'/>" +
+                            "    <OctetString name='o' value='0A0B' writable='true'/>" +
+                            "    <String      name='s' value='hello' writable='true'>" +
+                            "        <Value locale='de-DE'>hallo</Value>" +
+                            "    </String>" +
+                            "</Composition>");
+                    step("GET with alt=cbor gives the same values as the text formats");
+                    alt("cbor");
+                    get();
+                    expectResponseDataItemValue("r", "1.5");
+                    expectResponseDataItemValue("d", "0.1");
+                    expectResponseDataItemValue("i", "-7");
+                    expectResponseDataItemValue("u", "300");
+                    expectResponseDataItemValue("b", "true");
+                    expectResponseDataItemValue("o", "0A0B");
+                    step("localized values come back in all locales");
+                    pathAdd("/s");
+                    clientData("<String/>");
+                    get();
+                    expectClientData("<String value='hello'><Value locale='de-DE'>hallo</Value></String>");
+                    pathRemove("/s");
+                    step("PUT with alt=cbor");
+                    clientData("" +
+                            "<Composition>" +
+                            "    <Real        name='r' value='2.25'/>" +
+                            "    <Double      name='d' value='1.0E-300'/>" +
+                            "    <Integer     name='i' value='-70000'/>" +
+                            "    <Unsigned    name='u' value='4294967296'/>" +
+                            "    <Boolean     name='b' value='false'/>" +
+                            "    <OctetString name='o' value='0C0D0E'/>" +
+                            "    <String      name='s' value='hi'><Value locale='fr-FR'>salut</Value></String>" +
+                            "</Composition>");
+                    put();
+                    expectSuccessCode();
+                    alt("default");
+                    get();
+                    expectResponseDataItemValue("r", "2.25");
+                    expectResponseDataItemValue("d", "1.0E-300");
+                    expectResponseDataItemValue("i", "-70000");
+                    expectResponseDataItemValue("u", "4294967296");
+                    expectResponseDataItemValue("b", "false");
+                    expectResponseDataItemValue("o", "0C0D0E");
+                    pathAdd("/s");
+                    clientData("<String/>");
+                    get();
+                    expectClientData("<String value='hi'><Value locale='fr-FR'>salut</Value></String>");
+                }
             }
     };
 }
@@ -81,9 +81,91 @@ public class HistoryTests {
                     expectSuccessCode();
                     expectResponseText();
 
-                    // TODO actually check history periodic results
+                    step("Check historyPeriodic() before, with nothing before the first time");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:00:30-04:00,period=60,count=3,method=before)");
+                    alt("plain");
+                    get();
+                    expectResponseText("\n75.1\n75.2\n");
+
+                    step("Check historyPeriodic() after, with nothing after the last record");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:04:30-04:00,period=60,count=2,method=after)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.5\n\n");
+
+                    step("Check historyPeriodic() closest");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:01:20-04:00,period=60,count=2,method=closest)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.1\n75.2\n");
+
+                    step("Check historyPeriodic() interpolation");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:01:30-04:00,period=60,count=2,method=interpolation)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.15\n75.25\n");
+
+                    step("Check historyPeriodic() average");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:00:00-04:00,period=120,count=3,method=average)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.1\n75.25\n75.45\n");
+
+                    step("Check historyPeriodic() ending-maximum");
+                    pathResetAndAdd("/has-history/historyPeriodic(start=2014-04-02T13:02:00-04:00,period=120,count=2,method=ending-maximum)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.2\n75.4\n");
+
+                }
+            },
+            new Test("History Rollup Tests") {
+                public void execute() throws TestException {
+                    serverData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$..binding':'log-buffer'," +
+                            "   '1':{'timestamp':'2014-04-02T13:00:00-04:00','log-datum':{'real-value':1}}," +
+                            "   '2':{'timestamp':'2014-04-02T13:00:30-04:00','log-datum':{'real-value':2}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:20:00-04:00','log-datum':{'real-value':3}}," +
+                            "   '4':{'timestamp':'2014-04-02T13:40:00-04:00','log-datum':{'real-value':4}}," +
+                            "   '5':{'timestamp':'2014-04-02T14:00:00-04:00','log-datum':{'real-value':5}}," +
+                            "   '6':{'timestamp':'2014-04-02T14:30:15-04:00','log-datum':{'real-value':6}}," +
+                            "   '7':{'timestamp':'2014-04-02T14:59:59-04:00','log-datum':{'unsigned-value':7}}," +
+                            "   '8':{'timestamp':'2014-04-02T15:10:00-04:00','log-datum':{'real-value':8}}" +
+                            "}");
+
+                    step("Average of whole hours");
+                    pathResetAndAdd("/historyPeriodic(start=2014-04-02T13:00:00-04:00,period=3600,count=3,method=average)");
+                    alt("plain");
+                    get();
+                    expectResponseText("2.5\n6\n8\n");
+
+                    step("Average of hours that don't line up with the buckets");
+                    pathResetAndAdd("/historyPeriodic(start=2014-04-02T13:00:15-04:00,period=3600,count=2,method=average)");
+                    alt("plain");
+                    get();
+                    expectResponseText("3.5\n6.5\n");
 
+                    step("Maximum of half hours");
+                    pathResetAndAdd("/historyPeriodic(start=2014-04-02T13:00:00-04:00,period=1800,count=4,method=maximum)");
+                    alt("plain");
+                    get();
+                    expectResponseText("3.0\n4.0\n5.0\n7\n");
 
+                    step("Before, across buckets");
+                    pathResetAndAdd("/historyPeriodic(start=2014-04-02T13:30:00-04:00,period=1800,count=4,method=before)");
+                    alt("plain");
+                    get();
+                    expectResponseText("3.0\n5.0\n5.0\n7\n");
+
+                    step("Average after deleting a record");
+                    pathResetAndAdd("/3");
+                    alt("default");
+                    delete();
+                    expectSuccessCode();
+                    pathResetAndAdd("/historyPeriodic(start=2014-04-02T13:00:00-04:00,period=3600,count=3,method=average)");
+                    alt("plain");
+                    get();
+                    expectResponseText("2.33333333333333\n6\n8\n");
                 }
             }
     };
@@ -0,0 +1,291 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.test.tests;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.client.HttpClient;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.test.Test;
+import org.ampii.xd.test.TestException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Tests {@link HttpClient} against a scripted server on the loopback interface, for the things that our own server
+ * never does, like keeping a connection open, dropping one that was idle, sending chunks, or not answering at all. The
+ * same server is the source for a /client record, to test how ClientManager polls with it.
+ * <p>
+ * Add this class to the config file indicated by Application.testDefinitionFile if you want these tests to run.
+ *
+ * @author daverobin
+ */
+public class HttpClientTests {
+
+    public static Test[] tests = {
+            new Test("HttpClient connection reuse") {
+                public void execute() throws TestException {
+                    try (LoopbackServer server = new LoopbackServer(request -> ok(request == 1 ? "one" : "two"))) {
+
+                        step("two GETs in a row share one connection");
+                        expectText(server, "GET", null, "one");
+                        expectText(server, "GET", null, "two");
+                        if (server.connections.get() != 1) fail("expected 1 connection but there were " + server.connections.get());
+                        if (server.requests.get()    != 2) fail("expected 2 requests but there were " + server.requests.get());
+                    }
+                    catch (IOException e) { fail("HttpClient failed", e); }
+                }
+            },
+            new Test("HttpClient stale connection retry") {
+                public void execute() throws TestException {
+                    // the server hangs up on requests 2 and 4 without answering, as if the connection had timed out on its end
+                    try (LoopbackServer server = new LoopbackServer(request -> request == 2 || request == 4 ? null : ok("answer " + request))) {
+
+                        step("a GET on a pooled connection that was dropped is sent again on a new one");
+                        expectText(server, "GET", null, "answer 1");
+                        expectText(server, "GET", null, "answer 3");
+                        if (server.connections.get() != 2) fail("expected 2 connections but there were " + server.connections.get());
+
+                        step("a POST is not sent again");
+                        try (HttpClient.Response response = HttpClient.send("POST", server.uri(), null, "x".getBytes(StandardCharsets.UTF_8))) {
+                            fail("the POST got status " + response.status + " from a dropped connection");
+                        }
+                        catch (IOException e) { } // as it should be
+                        if (server.requests.get() != 4) fail("expected 4 requests but there were " + server.requests.get());
+                    }
+                    catch (IOException e) { fail("HttpClient failed", e); }
+                }
+            },
+            new Test("HttpClient body framing") {
+                public void execute() throws TestException {
+                    try (LoopbackServer server = new LoopbackServer(request -> {
+                        switch (request) {
+                            case 1:  return "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n7;ext=1\r\nHello, \r\n5\r\nworld\r\n0\r\nTrailer: x\r\n\r\n";
+                            case 2:  return ok("abcdefghij");
+                            default: return ok("last");
+                        }
+                    })) {
+
+                        step("a chunked body, with a chunk extension and a trailer");
+                        expectText(server, "GET", null, "Hello, world");
+
+                        step("a body that's only partly read is skipped so the connection can be used again");
+                        try (HttpClient.Response response = HttpClient.send("GET", server.uri(), null, null)) {
+                            byte[] some = new byte[3];
+                            if (response.getBody().read(some) != 3 || !new String(some, StandardCharsets.UTF_8).equals("abc")) fail("expected 'abc' at the start of the body");
+                        }
+                        expectText(server, "GET", null, "last");
+                        if (server.connections.get() != 1) fail("expected 1 connection but there were " + server.connections.get());
+                    }
+                    catch (IOException e) { fail("HttpClient failed", e); }
+                }
+            },
+            new Test("HttpClient deadline") {
+                public void execute() throws TestException {
+                    try (LoopbackServer server = new LoopbackServer(request -> {
+                        if (request == 1) { Thread.sleep(5000); return null; }           // no answer at all
+                        return "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nabc";       // an answer that stops partway
+                    })) {
+
+                        step("no response within the deadline");
+                        long start = System.currentTimeMillis();
+                        try (HttpClient.Response response = HttpClient.send("GET", server.uri(), null, null, 300)) { fail("got status " + response.status); }
+                        catch (SocketTimeoutException e) { } // as it should be
+                        if (System.currentTimeMillis() - start > 2000) fail("the deadline was not kept");
+
+                        step("a body that stops arriving before the deadline");
+                        start = System.currentTimeMillis();
+                        try (HttpClient.Response response = HttpClient.send("GET", server.uri(), null, null, 300)) { response.getText(); fail("the body was read"); }
+                        catch (SocketTimeoutException e) { } // as it should be
+                        if (System.currentTimeMillis() - start > 2000) fail("the deadline was not kept");
+                    }
+                    catch (IOException e) { fail("HttpClient failed", e); }
+                }
+            },
+            new Test("ClientManager polling") {
+                public void execute() throws TestException {
+                    int watchInterval = Application.clientWatchInterval;
+                    Application.clientWatchInterval = 300; // the poll period for an 'interval' of 0, and so the deadline of each poll
+                    // every poll gets the same answer until the phase changes, so it doesn't matter how many there are in each
+                    AtomicReference<String> phase = new AtomicReference<>("etag");
+                    try (LoopbackServer server = new LoopbackServer(request -> {
+                        switch (phase.get()) {
+                            case "etag":        return json("\"v1\"", "one");
+                            case "notModified": return "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n";
+                            case "noEtag":      return json(null, "one");
+                            case "changed":     return json(null, "two");
+                            default:            Thread.sleep(2000); return null; // never replies
+                        }
+                    })) {
+                        path("/client");
+                        requestText("{\"source\":\"" + server.uri() + "\",\"interval\":0}");
+                        post();
+                        expectStatusCode(201);
+                        String location = getResponseHeader("Location", "");
+                        String name = location.substring(location.lastIndexOf('/') + 1);
+                        try {
+                            step("the first poll gets the data and its ETag");
+                            Data record = awaitStatus(name, "Success");
+                            if (!record.stringValueOf("data", "").equals("one")) fail("the data is '" + record.stringValueOf("data", "") + "'");
+                            String changed = record.stringValueOf("changed", "");
+                            if (changed.isEmpty()) fail("'changed' was not set");
+                            if (record.longValueOf("latency", -1) < 0 || record.longValueOf("latency", -1) >= 300) fail("the latency is " + record.longValueOf("latency", -1));
+
+                            step("later polls send If-None-Match, and a 304 changes nothing");
+                            phase.set("notModified");
+                            record = awaitStatus(name, "Not Modified");
+                            if (!server.lastHead.contains("If-None-Match: \"v1\"")) fail("the poll didn't have If-None-Match: " + server.lastHead);
+                            if (!record.stringValueOf("data", "").equals("one")) fail("the data is '" + record.stringValueOf("data", "") + "'");
+                            if (!record.stringValueOf("changed", "").equals(changed)) fail("'changed' moved on a 304");
+                            delay(1100); // so a change would show in 'changed', which is to the second
+
+                            step("the same body from a source without ETags is not a change");
+                            phase.set("noEtag");
+                            record = awaitStatus(name, "Success");
+                            if (!record.stringValueOf("changed", "").equals(changed)) fail("'changed' moved for the same body");
+                            delay(700); // for a poll after the ETag was forgotten
+                            if (server.lastHead.contains("If-None-Match")) fail("the ETag was kept after a response without one");
+
+                            step("a different body is a change");
+                            phase.set("changed");
+                            record = awaitData(name, "two");
+                            if (record.stringValueOf("changed", "").equals(changed)) fail("'changed' didn't move");
+                            if (record.booleanValueOf("error", true)) fail("'error' is set");
+
+                            step("a source that never replies fails at the deadline, and is polled again");
+                            phase.set("hang");
+                            record = awaitStatus(name, "Error");
+                            if (!record.booleanValueOf("error", false)) fail("'error' is not set");
+                            long latency = record.longValueOf("latency", -1);
+                            if (latency < 250 || latency > 1500) fail("the latency of a poll with a 300 millisecond deadline is " + latency);
+                            int requests = server.requests.get();
+                            delay(1000);
+                            if (server.requests.get() <= requests) fail("the source was not polled again after a failure");
+                            if (!record.stringValueOf("data", "").equals("two")) fail("the data is '" + record.stringValueOf("data", "") + "'");
+                        }
+                        finally {
+                            path("/client/" + name);
+                            delete();
+                        }
+                        expectSuccessCode();
+                    }
+                    catch (IOException e) { fail("LoopbackServer failed", e); }
+                    finally { Application.clientWatchInterval = watchInterval; }
+                }
+
+                // polls the record until its status starts with the given text, or fails after a few seconds
+                private Data awaitStatus(String name, String status) throws TestException {
+                    return await(name, record -> record.stringValueOf("status", "").startsWith(status), "status '" + status + "'");
+                }
+
+                private Data awaitData(String name, String data) throws TestException {
+                    return await(name, record -> record.stringValueOf("data", "").equals(data), "data '" + data + "'");
+                }
+
+                private Data await(String name, Predicate<Data> condition, String what) throws TestException {
+                    path("/client/" + name);
+                    Data record = null;
+                    for (long end = System.currentTimeMillis() + 5000; System.currentTimeMillis() < end; delay(50)) {
+                        get();
+                        record = getResponseData();
+                        if (condition.test(record)) return record;
+                    }
+                    fail("the record never got " + what + ", its status is '" + (record == null ? "" : record.stringValueOf("status", "")) + "'");
+                    return null;
+                }
+            },
+    };
+
+    private static String ok(String text) {
+        return "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + text.length() + "\r\n\r\n" + text;
+    }
+
+    private static String json(String etag, String text) {
+        String body = "{\"$base\":\"String\",\"$value\":\"" + text + "\"}";
+        return "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" + (etag != null ? "ETag: " + etag + "\r\n" : "") + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    private static void expectText(LoopbackServer server, String method, byte[] body, String expected) throws IOException, TestException {
+        try (HttpClient.Response response = HttpClient.send(method, server.uri(), null, body)) {
+            if (response.status != 200) throw new TestException("expected status 200 but got " + response.status);
+            String text = response.getText();
+            if (!text.equals(expected)) throw new TestException("expected '" + expected + "' but got '" + text + "'");
+        }
+    }
+
+    interface Responder { String respond(int request) throws Exception; } // the whole response, or null to hang up without one
+
+    /**
+     * A server on an ephemeral loopback port that answers every request on a connection, in turn, with whatever the
+     * responder says to. Requests are numbered from 1 across all connections.
+     */
+    private static class LoopbackServer implements Closeable {
+        final ServerSocket  socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger requests    = new AtomicInteger();
+        final Responder     responder;
+        volatile String     lastHead    = ""; // the request line and headers of the last request
+
+        LoopbackServer(Responder responder) throws IOException {
+            this.responder = responder;
+            Thread acceptor = new Thread(() -> {
+                try {
+                    for (;;) {
+                        Socket connection = socket.accept();
+                        connections.incrementAndGet();
+                        Thread handler = new Thread(() -> serve(connection), "LoopbackServer connection");
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException e) { } // closed
+            }, "LoopbackServer");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        String uri() { return "http://" + socket.getInetAddress().getHostAddress() + ":" + socket.getLocalPort() + "/test"; }
+
+        private void serve(Socket connection) {
+            try (Socket open = connection) {
+                InputStream  in  = new BufferedInputStream(open.getInputStream());
+                OutputStream out = open.getOutputStream();
+                for (;;) {
+                    int length = 0;
+                    StringBuilder head = new StringBuilder();
+                    String line = readLine(in);
+                    if (line == null) return;
+                    for (; line != null && !line.isEmpty(); line = readLine(in)) {
+                        if (line.toLowerCase().startsWith("content-length:")) length = Integer.parseInt(line.substring(15).trim());
+                        head.append(line).append('\n');
+                    }
+                    for (int i = 0; i < length; i++) in.read(); // the body doesn't matter
+                    lastHead = head.toString();
+                    String response = responder.respond(requests.incrementAndGet());
+                    if (response == null) return;
+                    out.write(response.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+            catch (Exception e) { } // just hang up
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = in.read(); c != '\n'; c = in.read()) {
+                if (c == -1) return line.length() == 0 ? null : line.toString();
+                if (c != '\r') line.append((char)c);
+            }
+            return line.toString();
+        }
+
+        @Override public void close() throws IOException { socket.close(); }
+    }
+
+}
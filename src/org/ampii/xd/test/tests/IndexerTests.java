@@ -5,6 +5,7 @@ import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.Meta;
 import org.ampii.xd.data.basetypes.*;
 import org.ampii.xd.database.Session;
+import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
 
@@ -73,6 +74,39 @@ public class IndexerTests {
                                     "   <Link name='8' value='/bws/.bacnet/..scope-2/device-2-1/event-2-1-1'/>" +
                                     "</List>"
                     );
+                    step("Check /.data/objects paging");
+                    clientData("<List type='0-BACnetWsData/objects'/>");
+                    query("skip=2&max-results=2");
+                    get();
+                    expectClientData("" +
+                                    "{ '$base':'List', '$type':'0-BACnetWsData/objects'," +
+                                    "  '$partial':true," +
+                                    "  '$next':{'$..matchAny':true}," +
+                                    "  '3':{'$base':'Link','$value':'/bws/.bacnet/..scope-1/device-1-1/event-1-1-1'}," +
+                                    "  '4':{'$base':'Link','$value':'/bws/.bacnet/..scope-1/device-1-1/event-1-1-2'}" +
+                                    "}"
+                    );
+                    query("");
+                    step("Check /.data/objects after a delete");
+                    Session session = Session.makeWriteSession("Indexer Tests");
+                    try {
+                        Eval.eval(session.getRoot(), ".../.bacnet/..scope-1").delete("device-1-1");
+                        session.commit();
+                    }
+                    catch (XDException e) { fail(e.getLocalizedMessage()); }
+                    finally { session.discard(); }
+                    clientData("<List type='0-BACnetWsData/objects'/>");
+                    path("/.data/objects");
+                    get();
+                    expectClientData("" +
+                                    "<List name='objects' type='0-BACnetWsData/objects'>" +
+                                    "   <Link name='1' value='/bws/.bacnet/.local/657780/device,657780'/>" +
+                                    "   <Link name='2' value='/bws/.bacnet/..scope-1/device-1-2/device-1-2-1'/>" +
+                                    "   <Link name='3' value='/bws/.bacnet/..scope-1/device-1-2/event-1-2-1'/>" +
+                                    "   <Link name='4' value='/bws/.bacnet/..scope-2/device-2-1/device-2-1-1'/>" +
+                                    "   <Link name='5' value='/bws/.bacnet/..scope-2/device-2-1/event-2-1-1'/>" +
+                                    "</List>"
+                    );
                     try {  // clean up our mess since we wrote outside /test-data
                         Session.atomicDelete("Indexer Tests", ".../.bacnet/..scope-1");
                         Session.atomicDelete("Indexer Tests", ".../.bacnet/..scope-2");
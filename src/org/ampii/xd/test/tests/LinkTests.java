@@ -1,6 +1,7 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.test.tests;
 
+import org.ampii.xd.data.Meta;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
 
@@ -85,6 +86,51 @@ public class LinkTests {
                             "    <Link name='5' value='object-list'/>" +
                             "</List>");
                 }
+            },
+            new Test("Test $descendants paging with cursor") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='blah'>" +
+                            "    <Collection name='a'><String name='x'/><String name='y'/></Collection>" +
+                            "    <Collection name='b'><String name='z'/></Collection>" +
+                            "    <String name='c'/>" +
+                            "</Collection>");
+                    step("first page stops inside 'a'");
+                    pathAdd("/$descendants");
+                    query("max-results=2");
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'List', '$memberType':'Link'," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  '1':{'$base':'Link','$value':'a'}," +
+                            "  '2':{'$base':'Link','$value':'a/x'}" +
+                            "}");
+                    String next = getClientData().stringValueOf(Meta.NEXT, "<none>");
+                    if (!next.contains("cursor=") || next.contains("skip=")) fail("$next should have a cursor and no skip: " + next);
+                    step("second page picks up inside 'a' and climbs back out");
+                    uri(next);
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'List', '$memberType':'Link'," +
+                            "  '$partial':true," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  '3':{'$base':'Link','$value':'a/y'}," +
+                            "  '4':{'$base':'Link','$value':'b'}" +
+                            "}");
+                    step("third page finishes");
+                    uri(getClientData().stringValueOf(Meta.NEXT, "<none>"));
+                    clientData("<List memberType='Link'/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'List', '$memberType':'Link'," +
+                            "  '$partial':true," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  '5':{'$base':'Link','$value':'b/z'}," +
+                            "  '6':{'$base':'Link','$value':'c'}" +
+                            "}");
+                }
             }
     };
 
@@ -0,0 +1,247 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.test.tests;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Context;
+import org.ampii.xd.data.Data;
+import org.ampii.xd.data.DataList;
+import org.ampii.xd.data.basetypes.CollectionData;
+import org.ampii.xd.data.basetypes.RealData;
+import org.ampii.xd.database.Session;
+import org.ampii.xd.marshallers.CBORGenerator;
+import org.ampii.xd.marshallers.JSONGenerator;
+import org.ampii.xd.marshallers.Utf8Buffer;
+import org.ampii.xd.marshallers.XMLGenerator;
+import org.ampii.xd.marshallers.XMLReader;
+import org.ampii.xd.resolver.Eval;
+import org.ampii.xd.test.Test;
+import org.ampii.xd.test.TestException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests the readers and writers underneath the generators and parsers, at the edges that the other tests don't reach.
+ * <p>
+ * Add this class to the config file indicated by Application.testDefinitionFile if you want these tests to run.
+ *
+ * @author daverobin
+ */
+public class MarshallerTests {
+
+    public static Test[] tests = {
+            new Test("Utf8Buffer number formatting") {
+                public void execute() throws TestException,XDException {
+
+                    step("writeLong() is the same as Long.toString()");
+                    for (long value : new long[] { 0, 1, -1, 9, 10, -10, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE + 1, Long.MIN_VALUE }) {
+                        Utf8Buffer buffer = new Utf8Buffer();
+                        buffer.writeLong(value);
+                        if (!buffer.toString().equals(Long.toString(value))) fail("writeLong(" + Long.toString(value) + ") wrote " + buffer);
+                    }
+
+                    step("writeDouble() is the same as Double.toString()");
+                    for (double value : new double[] { 0.0, -0.0, 1.0, -1.0, 0.1, 9999999.0, -9999999.0, 1.0E7, -1.0E7, 1.0E-7, Double.MIN_VALUE, Double.MAX_VALUE,
+                                                       Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, (double)Long.MIN_VALUE }) {
+                        Utf8Buffer buffer = new Utf8Buffer();
+                        buffer.writeDouble(value);
+                        if (!buffer.toString().equals(Double.toString(value))) fail("writeDouble(" + Double.toString(value) + ") wrote " + buffer);
+                    }
+
+                    step("numbers after text in the same buffer");
+                    Utf8Buffer buffer = new Utf8Buffer();
+                    buffer.writeUtf8("\u00e9");
+                    buffer.writeLong(Long.MIN_VALUE);
+                    buffer.writeDouble(-0.0);
+                    if (!buffer.toString().equals("\u00e9-9223372036854775808-0.0")) fail("mixed buffer was " + buffer);
+
+                    step("round trip -0.0 in JSON");
+                    serverData("<Double value='-0.0'/>");
+                    alt("json");
+                    get();
+                    expectSuccessCode();
+                    expectResponseTextContains("-0.0");
+                    clientData("<Double/>");
+                    expectClientData();
+                    if (Double.doubleToLongBits(getClientData().doubleValue()) != Double.doubleToLongBits(-0.0)) fail("-0.0 came back as " + getClientData().doubleValue());
+
+                    step("round trip the extreme Integers in JSON");
+                    serverData("<Integer value='" + Long.MIN_VALUE + "'/>");
+                    alt("json");
+                    get();
+                    expectSuccessCode();
+                    expectResponseTextContains(Long.toString(Long.MIN_VALUE));
+                    serverData("<Integer value='" + Long.MAX_VALUE + "'/>");
+                    alt("json");
+                    get();
+                    expectSuccessCode();
+                    expectResponseTextContains(Long.toString(Long.MAX_VALUE));
+                }
+            },
+            new Test("XMLReader entities, CDATA, and names") {
+                public void execute() throws TestException,XDException {
+
+                    step("the predefined entities, in an attribute and in text");
+                    XMLReader xml = new XMLReader("<String name='x' value='&lt;a&gt; &amp; &apos;b&apos; &quot;c&quot;'><Description>1 &lt; 2</Description></String>", "test");
+                    expectEvent(xml, XMLReader.START_ELEMENT, "String");
+                    if (!xml.getAttributeValue(1).equals("<a> & 'b' \"c\"")) fail("attribute was " + xml.getAttributeValue(1));
+                    expectEvent(xml, XMLReader.START_ELEMENT, "Description");
+                    String text = xml.readElementText();
+                    if (!text.equals("1 < 2")) fail("text was " + text);
+                    expectEvent(xml, XMLReader.END_ELEMENT, "String");
+
+                    step("an unknown entity (error)");
+                    try { new XMLReader("<String value='&nbsp;'/>", "test").next(); fail("&nbsp; was accepted"); }
+                    catch (XDException e) { if (e.getErrorNumber() != Errors.PARAM_SYNTAX) fail("wrong error for &nbsp;", e); }
+
+                    step("CDATA is taken as is, and can be mixed with other text");
+                    xml = new XMLReader("<Description>a &amp; <![CDATA[<b> &amp; ]] ]>]]> c</Description>", "test");
+                    expectEvent(xml, XMLReader.START_ELEMENT, "Description");
+                    text = xml.readElementText();
+                    if (!text.equals("a & <b> &amp; ]] ]> c")) fail("text was " + text);
+
+                    step("CDATA that spans the reader's window");
+                    StringBuilder big = new StringBuilder();
+                    for (int i = 0; i < 3000; i++) big.append("<&>");
+                    xml = new XMLReader(new StringReader("<Description><![CDATA[" + big + "]]></Description>"), "test");
+                    expectEvent(xml, XMLReader.START_ELEMENT, "Description");
+                    text = xml.readElementText();
+                    if (!text.equals(big.toString())) fail("long CDATA came back " + text.length() + " chars long");
+
+                    step("unterminated CDATA (error)");
+                    try { xml = new XMLReader("<Description><![CDATA[oops</Description>", "test"); xml.next(); xml.readElementText(); fail("unterminated CDATA was accepted"); }
+                    catch (XDException e) { if (e.getErrorNumber() != Errors.VALUE_FORMAT) fail("wrong error for unterminated CDATA", e); }
+
+                    step("names that collide with known names in the name table stay distinct");
+                    if ("wBlue".hashCode() != "value".hashCode() || "TUring".hashCode() != "String".hashCode()) fail("the names in this test don't collide");
+                    xml = new XMLReader("<TUring wBlue='1' value='2'><String value='3' wBlue='4'/></TUring>", "test");
+                    expectEvent(xml, XMLReader.START_ELEMENT, "TUring");
+                    expectAttributes(xml, "wBlue", "value");
+                    expectEvent(xml, XMLReader.START_ELEMENT, "String");
+                    expectAttributes(xml, "value", "wBlue");
+                    expectEvent(xml, XMLReader.END_ELEMENT, "String");
+                    expectEvent(xml, XMLReader.END_ELEMENT, "TUring");
+                    expectEvent(xml, XMLReader.END, null);
+
+                    step("a failing reader is an error, not the end of the input");
+                    Reader failing = new Reader() {
+                        @Override public int read(char[] chars, int offset, int length) throws IOException { throw new IOException("test failure"); }
+                        @Override public void close() { }
+                    };
+                    try { new XMLReader(failing, "test").next(); fail("the read failure was not reported"); }
+                    catch (XDException e) { if (e.getErrorNumber() != Errors.COMMUNICATION_FAILED) fail("wrong error for the read failure", e); }
+
+                    step("round trip entities and CDATA through the server");
+                    serverData("<String writable='true' value='x'/>");
+                    alt("xml");
+                    requestText("<?xml version='1.0' encoding='UTF-8'?><String xmlns='http://bacnet.org/CSML/1.3' value='&lt;a&gt; &amp; b'><Description locale='en-US'><![CDATA[<c> & d]]></Description></String>");
+                    put();
+                    expectSuccessCode();
+                    expectServerDataItemValue("", "<a> & b");
+                    expectServerDataItemValue("$description", "<c> & d");
+                }
+
+                private void expectEvent(XMLReader xml, int event, String name) throws TestException, XDException {
+                    int found = xml.next();
+                    if (found != event) fail("expected event " + event + " but found " + found);
+                    if (name != null && !xml.getName().equals(name)) fail("expected <" + name + "> but found <" + xml.getName() + ">");
+                }
+
+                private void expectAttributes(XMLReader xml, String... names) throws TestException {
+                    if (xml.getAttributeCount() != names.length) fail("expected " + names.length + " attributes on <" + xml.getName() + "> but found " + xml.getAttributeCount());
+                    for (int i = 0; i < names.length; i++) if (!xml.getAttributeName(i).equals(names[i])) fail("expected attribute '" + names[i] + "' but found '" + xml.getAttributeName(i) + "'");
+                }
+            },
+            new Test("Parallel generation") {
+                public void execute() throws TestException,XDException {
+                    int threshold = Application.generateParallelThreshold;
+                    int threads   = Application.generateThreads;
+                    Application.generateParallelThreshold = 4;
+                    Application.generateThreads = 4; // else a machine with one processor would never fork
+                    try {
+                        step("a wide collection, with wide collections in it, is the same as when it's generated sequentially");
+                        StringBuilder wide = new StringBuilder("<Collection name='wide'>");
+                        for (int i = 1; i <= 12; i++) {
+                            wide.append("<Collection name='c").append(i).append("'>");
+                            wide.append("<Real name='r' value='").append(i).append(".5'/>");
+                            for (int j = 1; j <= 5; j++) wide.append("<Sequence name='s").append(j).append("'><String name='t' value='").append(i * 10 + j).append("'/></Sequence>");
+                            wide.append("</Collection>");
+                        }
+                        serverData(wide.append("</Collection>").toString());
+                        Session session = Session.makeReadSession("Parallel generation");
+                        try {
+                            Data data = Eval.eval(session.getRoot(), serverDataPath);
+                            for (boolean parallel : new boolean[] { false, true }) {
+                                String json = new String(json(data, parallel), StandardCharsets.UTF_8);
+                                String xml  = xml(data, parallel);
+                                byte[] cbor = cbor(data, parallel);
+                                if (!json.contains("c12") || !xml.contains("c12")) fail("the output is missing the last child");
+                                if (!parallel) { sequentialJSON = json; sequentialXML = xml; sequentialCBOR = cbor; continue; }
+                                if (!json.equals(sequentialJSON)) fail("parallel JSON differs from sequential JSON");
+                                if (!xml.equals(sequentialXML))   fail("parallel XML differs from sequential XML");
+                                if (!Arrays.equals(cbor, sequentialCBOR)) fail("parallel CBOR differs from sequential CBOR");
+                            }
+                        }
+                        finally { session.discard(); }
+
+                        step("an error in one of the parts reaches the caller");
+                        Data failing = new CollectionData("failing");
+                        for (int i = 1; i <= 8; i++) {
+                            Data child = i != 5 ? new CollectionData("c" + i) : new CollectionData("c" + i) {
+                                @Override public DataList getContextualizedChildren() throws XDException { throw new XDException(Errors.COMMUNICATION_FAILED, this, "test failure"); }
+                            };
+                            child.addLocal(new RealData("r", i + 0.5));
+                            failing.addLocal(child);
+                        }
+                        failing.setContext(new Context("Parallel generation"));
+                        for (String format : new String[] { "json", "xml", "cbor" }) {
+                            try {
+                                switch (format) {
+                                    case "json": json(failing, true); break;
+                                    case "xml":  xml(failing, true);  break;
+                                    default:     cbor(failing, true); break;
+                                }
+                                fail("the " + format + " generator didn't throw");
+                            }
+                            catch (XDException e) { if (e.getErrorNumber() != Errors.COMMUNICATION_FAILED) fail("wrong error from the " + format + " generator", e); }
+                            catch (RuntimeException e) { fail("the " + format + " generator threw " + e + " instead of an XDException"); }
+                        }
+                    }
+                    finally {
+                        Application.generateParallelThreshold = threshold;
+                        Application.generateThreads = threads;
+                    }
+                }
+
+                String sequentialJSON, sequentialXML;
+                byte[] sequentialCBOR;
+
+                private byte[] json(Data data, boolean parallel) throws XDException {
+                    JSONGenerator generator = new JSONGenerator();
+                    generator.setParallel(parallel);
+                    return generator.generate(data);
+                }
+
+                private String xml(Data data, boolean parallel) throws XDException {
+                    XMLGenerator generator = new XMLGenerator();
+                    generator.setParallel(parallel);
+                    StringWriter writer = new StringWriter();
+                    generator.generate(writer, data);
+                    return writer.toString();
+                }
+
+                private byte[] cbor(Data data, boolean parallel) throws XDException {
+                    CBORGenerator generator = new CBORGenerator();
+                    generator.setParallel(parallel);
+                    return generator.generate(data);
+                }
+            },
+    };
+
+}
@@ -3,8 +3,10 @@ package org.ampii.xd.test.tests;
 
 import org.ampii.xd.common.Errors;
 import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Data;
 import org.ampii.xd.data.Meta;
 import org.ampii.xd.database.Session;
+import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
 
@@ -121,6 +123,34 @@ public class MultiTests  {
 
                 }
             },
+            new Test("large non-persistent .multi query with embedded errors") {
+                public void execute() throws TestException {
+                    // enough values that the server will evaluate them in parallel chunks, to check that it all comes back in order
+                    StringBuilder values = new StringBuilder();
+                    for (int i = 1; i <= 150; i++) {
+                        String path = i == 50 || i == 120 ? "/.info/BOGUS" : i % 2 == 0 ? "/.info/vendor-identifier" : "/.info/vendor-name";
+                        values.append("<Any name='").append(i).append("' via='").append(getServerDataPrefix()).append(path).append("'/>");
+                    }
+                    clientData("<Composition><List name='values'>" + values + "</List></Composition>");
+                    clientDataPars("metadata=base,via,value");
+                    path("/.multi");
+                    post();
+                    expectResponseHeaderAbsent("Location");
+                    clientData("<Composition type='0-BACnetWsMultiRecord' partial='true'/>"); // set the target for parsing the results
+
+                    expectClientDataItemValue("$failures/1", "values/50");  // the failures are recorded at the top, in order
+                    expectClientDataItemValue("$failures/2", "values/120");
+                    expectClientDataItemAbsent("$failures/3");
+
+                    expectClientDataItemValue("values/1/$base", "String");
+                    expectClientDataItemValue("values/1", Session.atomicGetString("MultiTest",".../.info/vendor-name", "?testerror?"));
+                    expectClientDataItemValue("values/50/$error", String.valueOf(Errors.DATA_NOT_FOUND));
+                    expectClientDataItemValue("values/100/$base", "Unsigned");
+                    expectClientDataItemValue("values/100/$via", getServerDataPrefix() + "/.info/vendor-identifier");
+                    expectClientDataItemValue("values/100", Session.atomicGetString("MultiTest",".../.info/vendor-identifier", "?testerror?"));
+                    expectClientDataItemValue("values/150", Session.atomicGetString("MultiTest",".../.info/vendor-identifier", "?testerror?"));
+                }
+            },
             new Test(".multi write with embedded errors") {
                 public void execute() throws TestException {
                     serverData("" +
@@ -161,6 +191,74 @@ public class MultiTests  {
                 }
             },
 
+            new Test(".multi write rolls back a partly applied failure") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Composition name='targ' writable='true'>" +
+                            "    <String name='str'/>" +
+                            "    <String name='other'/>" +
+                            "    <String name='short' maximumLength='3'/>" +
+                            "    <Boolean name='bool'/>" +
+                            "</Composition>");
+                    clientData(""+
+                            "<Composition>" +
+                            "    <List name='values'>" +
+                            "        <String name='1' via='" + getServerTestDataPath() + "/targ/other' value='kept'/>" +
+                            "        <Composition name='2' via='" + getServerTestDataPath() + "/targ'>" +  // 'str' and 'other' are fine but 'short' is too long
+                            "            <String name='str' value='partial'/>" +
+                            "            <String name='other' value='overwritten'/>" +
+                            "            <String name='short' value='toolong'/>" +
+                            "            <Boolean name='bool' value='false'/>" +
+                            "        </Composition>" +
+                            "        <Boolean name='3' via='" + getServerTestDataPath() + "/targ/bool' value='true'/>" +
+                            "    </List>" +
+                            "</Composition>");
+                    clientDataPars("metadata=base,via,value");
+                    path("/.multi");
+                    post();
+                    clientData("<Composition type='0-BACnetWsMultiRecord' partial='true'/>"); // set the target for parsing the results
+                    expectClientDataItemValue("$failures/1", "values/2");
+                    expectClientDataItemAbsent("$failures/2");
+                    expectServerDataItemValue("str", "");       // the part of the failed write that got done before the error was undone
+                    expectServerDataItemValue("other", "kept"); // including the part that overwrote the previous write, which still happened
+                    expectServerDataItemValue("bool", "true");
+                }
+            },
+
+            new Test("Savepoint rollback of changed values") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Composition name='targ' writable='true'>" +
+                            "    <Real     name='real' value='1'/>" +
+                            "    <String   name='str'  value='before'/>" +
+                            "    <Boolean  name='bool' value='false'/>" +
+                            "    <Unsigned name='uns' value='3'/>" +
+                            "</Composition>");
+                    Session session = Session.makeWriteSession("Savepoint rollback test");
+                    try {
+                        Data targ = Eval.eval(session.getRoot(), serverDataPath);
+                        Session.Savepoint savepoint = session.setSavepoint();
+                        targ.get("real").setValue(2.0); // setValue() is the first change to each of these
+                        targ.get("str").setValue("after");
+                        targ.get("bool").setValue(true);
+                        targ.get("uns").setValue(4L);
+                        savepoint.rollback();
+                        // the session sees the values from before, as well as what's committed
+                        if (!targ.get("real").stringValue().equals("1.0"))  fail("'real' was not rolled back in the session");
+                        if (!targ.get("str").stringValue().equals("before")) fail("'str' was not rolled back in the session");
+                        if (targ.get("bool").booleanValue())                 fail("'bool' was not rolled back in the session");
+                        if (targ.get("uns").longValue() != 3)                fail("'uns' was not rolled back in the session");
+                        session.commit();
+                    }
+                    catch (XDException e) { fail(e.getLocalizedMessage()); }
+                    finally { session.discard(); }
+                    expectServerDataItemValue("real", "1.0");
+                    expectServerDataItemValue("str", "before");
+                    expectServerDataItemValue("bool", "false");
+                    expectServerDataItemValue("uns", "3");
+                }
+            },
+
             new Test(".multi write with no errors") {
                 public void execute() throws TestException,XDException {
                     serverData(""+
@@ -1,7 +1,14 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.test.tests;
 
+import org.ampii.xd.common.Errors;
+import org.ampii.xd.common.XDException;
+import org.ampii.xd.data.Data;
 import org.ampii.xd.data.Meta;
+import org.ampii.xd.database.Session;
+import org.ampii.xd.managers.LogBufferManager;
+import org.ampii.xd.marshallers.DataParser;
+import org.ampii.xd.resolver.Eval;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
 
@@ -240,6 +247,326 @@ public class RangeTests {
                             "}");
 
                 }
+            },
+            new Test("Columnar Log Buffer Tests") {
+                public void execute() throws TestException {
+                    serverData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$..binding':'log-buffer'," +
+                            "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2},'status-flags':'fault'}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'log-status':'buffer-purged'}}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4},'status-flags':{}}" +
+                            "}");
+                    step("All records");
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord'," +
+                            "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2},'status-flags':'fault'}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'log-status':'buffer-purged'}}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4},'status-flags':{}}" +
+                            "}");
+                    step("Time range");
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-ge=2014-04-02T13:02:00-04:00&published-lt=2014-04-02T13:04:00-04:00");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2},'status-flags':'fault'}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'log-status':'buffer-purged'}}" +
+                            "}");
+                    step("Add a record");
+                    query("");
+                    clientData("{'$type':'0-BACnetLogRecord','timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}");
+                    post();
+                    expectSuccessCode();
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-gt=2014-04-02T13:04:00-04:00");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                            "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}" +
+                            "}");
+                    step("One record by name");
+                    pathAdd("/2/log-datum/real-value");
+                    query("");
+                    clientData("<Real/>");
+                    get();
+                    expectClientData("<Real value='75.2'/>");
+                    step("historyPeriodic() from the columns");
+                    pathRemove("/2/log-datum/real-value");
+                    pathAdd("/historyPeriodic(start=2014-04-02T13:01:30-04:00,period=60,count=4,method=before)");
+                    alt("plain");
+                    get();
+                    expectResponseText("75.1\n75.2\n75.2\n75.4\n");
+                }
+            },
+            new Test("Compressed Log Buffer Tests") {
+                public void execute() throws TestException {
+                    int blockSize = LogBufferManager.blockSize;
+                    LogBufferManager.blockSize = 2; // so the little buffer below is mostly in compressed blocks
+                    try {
+                        serverData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$..binding':'log-buffer'," +
+                                "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':-3.25},'status-flags':'fault'}," +
+                                "   '4':{'timestamp':'2014-04-02T13:10:00.500-04:00','log-datum':{'unsigned-value':123456789}}," +
+                                "   '5':{'timestamp':'2014-04-02T13:10:30-07:00','log-datum':{'log-status':'buffer-purged'}}," +
+                                "   '6':{'timestamp':'2014-04-02T17:11:00-04:00','log-datum':{'boolean-value':true},'status-flags':{}}" +
+                                "}");
+                        step("All records, decoded from the blocks");
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord'," +
+                                "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':-3.25},'status-flags':'fault'}," +
+                                "   '4':{'timestamp':'2014-04-02T13:10:00.500-04:00','log-datum':{'unsigned-value':123456789}}," +
+                                "   '5':{'timestamp':'2014-04-02T13:10:30-07:00','log-datum':{'log-status':'buffer-purged'}}," +
+                                "   '6':{'timestamp':'2014-04-02T17:11:00-04:00','log-datum':{'boolean-value':true},'status-flags':{}}" +
+                                "}");
+                        step("Time range across blocks");
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        query("published-gt=2014-04-02T13:01:00-04:00&published-le=2014-04-02T13:10:00.500-04:00");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                                "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':-3.25},'status-flags':'fault'}," +
+                                "   '4':{'timestamp':'2014-04-02T13:10:00.500-04:00','log-datum':{'unsigned-value':123456789}}" +
+                                "}");
+                        step("Delete a record in a block");
+                        query("");
+                        pathAdd("/3");
+                        delete();
+                        expectSuccessCode();
+                        pathRemove("/3");
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        query("published-ge=2014-04-02T13:02:00-04:00&published-lt=2014-04-02T13:11:00-04:00");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                                "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.1},'status-flags':{}}," +
+                                "   '3':{'timestamp':'2014-04-02T13:10:00.500-04:00','log-datum':{'unsigned-value':123456789}}" +
+                                "}");
+                        step("Buffer is listed in /.info/log-buffers");
+                        String buffer = serverDataPath.substring(serverDataPath.lastIndexOf('/'));
+                        query("");
+                        path("/.info/log-buffers");
+                        clientData("<List memberType='org.ampii.types.LogBufferInfo'/>");
+                        get();
+                        boolean found = false;
+                        try {
+                            for (Data item : getClientData().getChildren()) {
+                                if (!item.stringValueOf("buffer", "").endsWith(buffer)) continue;
+                                found = true;
+                                if (item.longValueOf("record-count", 0) != 5) fail("Wrong record-count in " + item.getName());
+                                if (item.longValueOf("block-count", 0) != 3) fail("Wrong block-count in " + item.getName());
+                            }
+                        } catch (XDException e) { fail("Can't read /.info/log-buffers", e); }
+                        if (!found) fail("Buffer is not listed in /.info/log-buffers");
+                    }
+                    finally { LogBufferManager.blockSize = blockSize; }
+                }
+            },
+            new Test("Ordered Range Tests") {
+                public void execute() throws TestException {
+                    serverData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$..ordered':'published;sequence'," +
+                            "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1}}," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3}}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                            "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}" +
+                            "}");
+                    step("Time range, found by binary search");
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-ge=2014-04-02T13:02:00-04:00&published-le=2014-04-02T13:04:00-04:00");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3}}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}" +
+                            "}");
+                    step("Sequence range, reversed, limited");
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("sequence-gt=1&sequence-lt=5&reverse=true&max-results=2");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true, '$next':{'$..matchAny':true}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3}}" +
+                            "}");
+                    step("Follow $next to the end of the range");
+                    uri(getClientData().stringValueOf(Meta.NEXT, "<none>"));
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2}}" +
+                            "}");
+                }
+            },
+            new Test("Bulk Append Tests") {
+                public void execute() throws TestException {
+                    serverData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$..binding':'log-buffer'," +
+                            "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1}}" +
+                            "}");
+                    step("Append a batch");
+                    clientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord',"  +
+                            "   '1':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3},'status-flags':'fault'}," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'unsigned-value':752}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'log-status':'log-interrupted'},'status-flags':{}}" +
+                            "}");
+                    post();
+                    expectSuccessCode();
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord'," +
+                            "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1}}," +
+                            "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'unsigned-value':752}}," +
+                            "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3},'status-flags':'fault'}," +
+                            "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'log-status':'log-interrupted'},'status-flags':{}}" +
+                            "}");
+                    step("A bad record fails the whole batch");
+                    requestText("{" + // as text, because the client would catch the bad bit itself
+                            "   \"$base\":\"List\"," +
+                            "   \"1\":{\"timestamp\":\"2014-04-02T13:05:00-04:00\",\"log-datum\":{\"real-value\":75.5}}," +
+                            "   \"2\":{\"timestamp\":\"2014-04-02T13:06:00-04:00\",\"log-datum\":{\"real-value\":75.6},\"status-flags\":\"on-fire\"}" +
+                            "}");
+                    post();
+                    expectErrorNumber(Errors.VALUE_FORMAT);
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-gt=2014-04-02T13:04:00-04:00");
+                    get();
+                    expectClientData("{'$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true}");
+                    step("Append a batch given as a plain JSON array, read a record at a time");
+                    requestText("[" + // only the streamed path takes a top level array
+                            "   {\"timestamp\":\"2014-04-02T13:06:00-04:00\",\"log-datum\":{\"real-value\":75.6}}," +
+                            "   {\"timestamp\":\"2014-04-02T13:05:00-04:00\",\"log-datum\":{\"null-value\":null}}" +
+                            "]");
+                    post();
+                    expectSuccessCode();
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-gt=2014-04-02T13:04:00-04:00");
+                    get();
+                    expectClientData("{" +
+                            "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                            "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'null-value':null}}," +
+                            "   '6':{'timestamp':'2014-04-02T13:06:00-04:00','log-datum':{'real-value':75.6}}" +
+                            "}");
+                    step("A batch is only added when its session is committed");
+                    String batch = "{\"$base\":\"List\",\"1\":{\"timestamp\":\"2014-04-02T13:07:00-04:00\",\"log-datum\":{\"real-value\":75.7}}}";
+                    Session session = Session.makeWriteSession("Bulk Append Tests");
+                    try { Eval.eval(session.getRoot(), serverDataPath).post(DataParser.parse(batch, "json")); }
+                    catch (XDException e) { fail("Can't post the batch", e); }
+                    finally { session.discard(); }
+                    session = Session.makeWriteSession("Bulk Append Tests");
+                    try {
+                        Session.Savepoint savepoint = session.setSavepoint();
+                        Eval.eval(session.getRoot(), serverDataPath).post(DataParser.parse(batch, "json"));
+                        savepoint.rollback();
+                        session.commit();
+                    }
+                    catch (XDException e) { fail("Can't post the batch", e); }
+                    finally { session.discard(); }
+                    clientData("<List memberType='0-BACnetLogRecord'/>");
+                    query("published-gt=2014-04-02T13:06:00-04:00");
+                    get();
+                    expectClientData("{'$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true}");
+                }
+            },
+            new Test("Circular Log Buffer Tests") {
+                public void execute() throws TestException {
+                    int blockSize = LogBufferManager.blockSize;
+                    LogBufferManager.blockSize = 2; // so evictions go through whole blocks
+                    try {
+                        serverData("{" +
+                                "   '$name':'circular-log', '$base':'List', '$memberType':'0-BACnetLogRecord', '$..binding':'log-buffer', '$maximumSize':3," +
+                                "   '1':{'timestamp':'2014-04-02T13:01:00-04:00','log-datum':{'real-value':75.1}}," +
+                                "   '2':{'timestamp':'2014-04-02T13:02:00-04:00','log-datum':{'real-value':75.2}}" +
+                                "}");
+                        step("Appending past the size evicts the oldest, without renumbering");
+                        clientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord',"  +
+                                "   '1':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3}}," +
+                                "   '2':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                                "   '3':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}" +
+                                "}");
+                        post();
+                        expectSuccessCode();
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                                "   '3':{'timestamp':'2014-04-02T13:03:00-04:00','log-datum':{'real-value':75.3}}," +
+                                "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                                "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}" +
+                                "}");
+                        step("Sequence range counts the evicted records");
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        query("sequence-ge=4");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                                "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                                "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}" +
+                                "}");
+                        step("A range that starts after the evicted records is not partial");
+                        for (String range : new String[] { "sequence-ge=3", "published-gt=2014-04-02T13:02:00-04:00" }) {
+                            query(range);
+                            get();
+                            expectResponseDataItemPresent("3");
+                            expectResponseDataItemPresent("5");
+                            expectResponseDataItemAbsent("$partial");
+                        }
+                        step("But one that starts at the evicted records is");
+                        query("published-ge=2014-04-02T13:02:00-04:00");
+                        get();
+                        expectResponseDataItemPresent("3");
+                        expectResponseDataItemValue("$partial", "true");
+                        step("Deleting the oldest doesn't renumber either");
+                        query("");
+                        pathAdd("/3");
+                        delete();
+                        expectSuccessCode();
+                        pathRemove("/3");
+                        clientData("{'$type':'0-BACnetLogRecord','timestamp':'2014-04-02T13:06:00-04:00','log-datum':{'real-value':75.6}}");
+                        post();
+                        expectSuccessCode();
+                        clientData("<List memberType='0-BACnetLogRecord'/>");
+                        get();
+                        expectClientData("{" +
+                                "   '$base':'List', '$memberType':'0-BACnetLogRecord', '$partial':true," +
+                                "   '4':{'timestamp':'2014-04-02T13:04:00-04:00','log-datum':{'real-value':75.4}}," +
+                                "   '5':{'timestamp':'2014-04-02T13:05:00-04:00','log-datum':{'real-value':75.5}}," +
+                                "   '6':{'timestamp':'2014-04-02T13:06:00-04:00','log-datum':{'real-value':75.6}}" +
+                                "}");
+                        step("Buffer total counts all that were added");
+                        String buffer = serverDataPath.substring(serverDataPath.lastIndexOf('/'));
+                        path("/.info/log-buffers");
+                        clientData("<List memberType='org.ampii.types.LogBufferInfo'/>");
+                        get();
+                        boolean found = false;
+                        try {
+                            for (Data item : getClientData().getChildren()) {
+                                if (!item.stringValueOf("buffer", "").endsWith(buffer)) continue;
+                                found = true;
+                                if (item.longValueOf("record-count", 0) != 3)       fail("Wrong record-count in " + item.getName());
+                                if (item.longValueOf("total-record-count", 0) != 6) fail("Wrong total-record-count in " + item.getName());
+                            }
+                        } catch (XDException e) { fail("Can't read /.info/log-buffers", e); }
+                        if (!found) fail("Buffer is not listed in /.info/log-buffers");
+                    }
+                    finally { LogBufferManager.blockSize = blockSize; }
+                }
             }
     };
 }
@@ -0,0 +1,115 @@
+// This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
+package org.ampii.xd.test.tests;
+
+import org.ampii.xd.application.Application;
+import org.ampii.xd.managers.ScheduleManager;
+import org.ampii.xd.managers.ScheduleManager.Timer;
+import org.ampii.xd.test.Test;
+import org.ampii.xd.test.TestException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests {@link ScheduleManager} directly, since the managers that use it only show its timing through their records.
+ * These depend on the scheduler thread that the server starts, and on its tick of {@link Application#scheduleTickInterval}.
+ * <p>
+ * Add this class to the config file indicated by Application.testDefinitionFile if you want these tests to run.
+ *
+ * @author daverobin
+ */
+public class ScheduleTests {
+
+    public static Test[] tests = {
+            new Test("ScheduleManager one-shot timers") {
+                public void execute() throws TestException {
+                    long tick = Application.scheduleTickInterval;
+
+                    step("a timer runs once, not before its delay");
+                    AtomicInteger runs  = new AtomicInteger();
+                    AtomicLong    ran   = new AtomicLong();
+                    long          start = System.currentTimeMillis();
+                    Timer timer = ScheduleManager.schedule(3 * tick, () -> { ran.set(System.currentTimeMillis()); runs.incrementAndGet(); });
+                    if (timer.getRemaining() > 3 * tick) fail("getRemaining() is " + timer.getRemaining() + " for a delay of " + 3 * tick);
+                    delay((int)(8 * tick));
+                    if (runs.get() != 1) fail("the timer ran " + runs.get() + " times");
+                    if (ran.get() - start < 2 * tick) fail("the timer ran after " + (ran.get() - start) + " millis for a delay of " + 3 * tick);
+                    if (timer.getRemaining() != 0) fail("getRemaining() is " + timer.getRemaining() + " after it ran");
+
+                    step("a canceled timer doesn't run");
+                    runs.set(0);
+                    timer = ScheduleManager.schedule(3 * tick, runs::incrementAndGet);
+                    timer.cancel();
+                    if (!timer.isCanceled()) fail("isCanceled() is false after cancel()");
+                    if (timer.getRemaining() != 0) fail("getRemaining() is " + timer.getRemaining() + " after cancel()");
+                    delay((int)(6 * tick));
+                    if (runs.get() != 0) fail("the canceled timer ran");
+
+                    step("a rescheduled timer runs again, and a canceled one can be rescheduled");
+                    timer.reschedule(tick);
+                    if (timer.isCanceled()) fail("isCanceled() is true after reschedule()");
+                    delay((int)(5 * tick));
+                    if (runs.get() != 1) fail("the rescheduled timer ran " + runs.get() + " times");
+                }
+            },
+            new Test("ScheduleManager reschedule of a due timer") {
+                public void execute() throws TestException {
+                    long tick = Application.scheduleTickInterval;
+                    // Two timers are scheduled from the scheduler thread, so they're both due on the same tick. Whichever
+                    // runs first pushes the other one back, after it was already taken off the wheel to be run.
+                    AtomicInteger  firstRuns  = new AtomicInteger();
+                    AtomicInteger  secondRuns = new AtomicInteger();
+                    Timer[]        timers     = new Timer[2];
+                    CountDownLatch scheduled  = new CountDownLatch(1);
+                    ScheduleManager.schedule(tick, () -> {
+                        timers[0] = ScheduleManager.schedule(tick, () -> { if (firstRuns.incrementAndGet()  == 1 && secondRuns.get() == 0) timers[1].reschedule(5 * tick); });
+                        timers[1] = ScheduleManager.schedule(tick, () -> { if (secondRuns.incrementAndGet() == 1 && firstRuns.get()  == 0) timers[0].reschedule(5 * tick); });
+                        scheduled.countDown();
+                    });
+                    await(scheduled, 10 * tick);
+
+                    step("only one of them runs on the tick they were both due");
+                    delay((int)(3 * tick));
+                    if (firstRuns.get() + secondRuns.get() != 1) fail("expected 1 run but there were " + (firstRuns.get() + secondRuns.get()));
+
+                    step("the other one runs once, when it was rescheduled for");
+                    delay((int)(6 * tick));
+                    if (firstRuns.get() != 1 || secondRuns.get() != 1) fail("the timers ran " + firstRuns.get() + " and " + secondRuns.get() + " times");
+                }
+            },
+            new Test("ScheduleManager repeating timers") {
+                public void execute() throws TestException {
+                    long tick = Application.scheduleTickInterval;
+
+                    step("a repeating timer that takes longer than its period is never run overlapped");
+                    AtomicInteger runs    = new AtomicInteger();
+                    AtomicInteger active  = new AtomicInteger();
+                    AtomicInteger overlap = new AtomicInteger();
+                    Timer timer = ScheduleManager.scheduleRepeating(tick, () -> {
+                        if (active.incrementAndGet() > 1) overlap.incrementAndGet();
+                        try { Thread.sleep(3 * tick + tick / 2); } catch (InterruptedException e) { }
+                        active.decrementAndGet();
+                        runs.incrementAndGet();
+                    });
+                    delay((int)(15 * tick));
+                    timer.cancel();
+                    if (overlap.get() != 0) fail("the task was run overlapped " + overlap.get() + " times");
+                    if (runs.get() < 2) fail("the task only ran " + runs.get() + " times");
+
+                    step("a canceled repeating timer stops");
+                    delay((int)(5 * tick)); // for the last run to finish
+                    int stopped = runs.get();
+                    delay((int)(5 * tick));
+                    if (runs.get() != stopped) fail("the task ran " + (runs.get() - stopped) + " more times after it was canceled");
+                }
+            },
+    };
+
+    private static void await(CountDownLatch latch, long millis) throws TestException {
+        try { if (!latch.await(millis, TimeUnit.MILLISECONDS)) throw new TestException("timed out waiting for the scheduler"); }
+        catch (InterruptedException e) { throw new TestException("interrupted waiting for the scheduler"); }
+    }
+
+}
@@ -1,6 +1,7 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.test.tests;
 
+import org.ampii.xd.common.Errors;
 import org.ampii.xd.data.Meta;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
@@ -58,6 +59,89 @@ public class SkipTests {
                             "}");
                 }
             },
+            new Test("Collection Cursor Tests") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='blah'>" +
+                            "    <String name='a' value='a'/>" +
+                            "    <String name='b' value='b'/>" +
+                            "    <String name='c' value='c'/>" +
+                            "    <String name='d' value='d'/>" +
+                            "    <String name='e' value='e'/>" +
+                            "</Collection>");
+                    step("Collection max with no skip, expecting a cursor in $next");
+                    clientData("<Collection/>");
+                    query("max-results=2");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'Collection', " +
+                            "  '$partial':true," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  'a':{'$base':'String','$value':'a'}," +
+                            "  'b':{'$base':'String','$value':'b'}" +
+                            "}");
+                    String next = getClientData().stringValueOf(Meta.NEXT, "<none>");
+                    if (!next.contains("cursor=") || next.contains("skip=")) fail("$next should have a cursor and no skip: " + next);
+                    step("Follow the cursor");
+                    uri(next);
+                    clientData("<Collection/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'Collection', " +
+                            "  '$partial':true," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  'c':{'$base':'String','$value':'c'}," +
+                            "  'd':{'$base':'String','$value':'d'}" +
+                            "}");
+                    step("Follow it again to the end");
+                    uri(getClientData().stringValueOf(Meta.NEXT, "<none>"));
+                    clientData("<Collection/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'Collection', " +
+                            "  '$partial':true," +
+                            "  'e':{'$base':'String','$value':'e'}" +
+                            "}");
+                    step("Malformed cursor");
+                    pathReset();
+                    query("cursor=garbage&max-results=2");
+                    get();
+                    expectErrorNumber(Errors.PARAM_VALUE_FORMAT);
+                }
+            },
+            new Test("Collection Cursor Deleted Tests") {
+                public void execute() throws TestException {
+                    serverData("" +
+                            "<Collection name='blah' writable='true'>" +
+                            "    <String name='a' value='a'/>" +
+                            "    <String name='b' value='b'/>" +
+                            "    <String name='c' value='c'/>" +
+                            "    <String name='d' value='d'/>" +
+                            "    <String name='e' value='e'/>" +
+                            "</Collection>");
+                    step("First page");
+                    clientData("<Collection/>");
+                    query("max-results=2");
+                    get();
+                    expectClientDataItemPresent("b");
+                    String next = getClientData().stringValueOf(Meta.NEXT, "<none>");
+                    step("Delete the cursor's child, then follow the cursor");
+                    query("");
+                    pathAdd("/b");
+                    delete();
+                    expectSuccessCode();
+                    uri(next);
+                    clientData("<Collection/>");
+                    get();
+                    expectClientData("" +
+                            "{ '$base':'Collection', " +
+                            "  '$partial':true," +
+                            "  '$next':{'$..matchAny':true}," +
+                            "  'c':{'$base':'String','$value':'c'}," +
+                            "  'd':{'$base':'String','$value':'d'}" +
+                            "}");
+                }
+            },
             new Test("String Skip Tests") {
                 public void execute() throws TestException {
 
@@ -1,6 +1,7 @@
 // This file is part of the AMPII Project. It is subject to the copyright and license terms in the top-level LICENSE file.
 package org.ampii.xd.test.tests;
 
+import org.ampii.xd.application.Application;
 import org.ampii.xd.common.XDException;
 import org.ampii.xd.data.basetypes.ListData;
 import org.ampii.xd.data.basetypes.RealData;
@@ -8,6 +9,12 @@ import org.ampii.xd.data.basetypes.UnsignedData;
 import org.ampii.xd.database.Session;
 import org.ampii.xd.test.Test;
 import org.ampii.xd.test.TestException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
 
 /**
  * Tests the capabilities of /.subs.
@@ -75,6 +82,19 @@ public class SubscriptionTests {
                     delay(env.covCallbackFailTime); // wait for callback children to *not* appear
                     expectServerDataItemAbsent("callback/1");
 
+                    step("open an event stream, which gets the current values without resending them to the callback");
+                    String streamPath;
+                    try { streamPath = new URL(location).getPath() + "/stream"; }
+                    catch (MalformedURLException e) { fail("Bad Location header: " + location); return; }
+                    try (Socket socket = openStream(streamPath, null, env.covCallbackFailTime * 5)) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                        String frame = readFrame(reader);
+                        if (!frame.contains("2.5")) fail("Unexpected first event: " + frame);
+                        delay(env.covCallbackFailTime); // wait for callback children to *not* appear
+                        expectServerDataItemAbsent("callback/1");
+                    }
+                    catch (IOException e) { fail("Stream failed", e); }
+
                     step("change unsigned point value by the cov increment and check callback");
                     Session.atomicPut("SubscriptionTests", serverDataPath+"/unsigned-target", new UnsignedData("", 21));
                     ; //  change by the cov increment amount
@@ -111,7 +131,88 @@ public class SubscriptionTests {
                     expectStatusCode(404);
 
 
+                }
+            },
+
+            new Test("Subscription event stream test") {
+                public void execute() throws TestException,XDException {
+                    step("creation of a subscription record with no callback");
+                    serverData(
+                            "<Composition name='stream-test'>" +
+                            "    <Real name='real-target' value='1.0'/>" +
+                            "</Composition>");
+                    clientData(
+                            "<Composition>" +
+                            "    <String name='label' value='streamtest1'/>" +
+                            "    <String name='callback' value=''/>" +  // 'callback' is required, but empty means nobody to call
+                            "    <Unsigned name='lifetime' value='60'/>" +
+                            "    <List name='covs'>" +
+                            "        <Composition name='1'>" +
+                            "            <String name='path' value='" + getServerTestDataPath() + "/stream-test/real-target'/>" +
+                            "            <Real name='increment' value='1.0'/>" +
+                            "        </Composition>" +
+                            "    </List>" +
+                            "</Composition>");
+                    path("/.subs");
+                    post();
+                    expectStatusCode(201);
+                    expectResponseHeaderPresent("Location");
+                    String location = getResponseHeader("Location", "<none>");
+                    String streamPath;
+                    try { streamPath = new URL(location).getPath() + "/stream"; }
+                    catch (MalformedURLException e) { fail("Bad Location header: " + location); return; }
+
+                    step("open the stream and check for the initial value");
+                    try (Socket socket = openStream(streamPath, null, env.covCallbackFailTime * 5)) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                        String frame = readFrame(reader);
+                        if (!frame.contains("id: 1\n") || !frame.contains("event: cov\n") || !frame.contains("1.0")) fail("Unexpected first event: " + frame);
+
+                        step("change floating point value by the cov increment and check the next event");
+                        Session.atomicPut("SubscriptionTests", serverDataPath + "/real-target", new RealData("", 2.1));
+                        frame = readFrame(reader);
+                        if (!frame.contains("id: 2\n") || !frame.contains("2.1")) fail("Unexpected second event: " + frame);
+                    }
+                    catch (IOException e) { fail("Stream failed", e); }
+
+                    step("reconnect with Last-Event-ID and check that the missed event is replayed");
+                    try (Socket socket = openStream(streamPath, "1", env.covCallbackFailTime * 5)) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                        String frame = readFrame(reader);
+                        if (!frame.contains("id: 2\n") || !frame.contains("2.1")) fail("Unexpected replayed event: " + frame);
+                    }
+                    catch (IOException e) { fail("Stream failed", e); }
+
+                    step("cancel the subscription by zeroing the lifetime");
+                    uri(location);
+                    pathAdd("/lifetime");
+                    clientData("<Unsigned name='lifetime' value='0'/>");
+                    put();
+                    expectSuccessCode();
                 }
             }
     };
+
+    private static Socket openStream(String path, String lastEventId, int timeout) throws IOException {
+        Socket socket = new Socket(Application.hostName, Application.tcpPort);
+        socket.setSoTimeout(timeout);
+        String request = "GET " + path + " HTTP/1.1\r\nHost: " + Application.hostName + "\r\nAccept: text/event-stream\r\n";
+        if (lastEventId != null) request += "Last-Event-ID: " + lastEventId + "\r\n";
+        socket.getOutputStream().write((request + "\r\n").getBytes("UTF-8"));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    private static String readFrame(BufferedReader reader) throws IOException, TestException { // skips the HTTP header, "retry:", and heartbeats
+        StringBuilder frame = new StringBuilder();
+        for (;;) {
+            String line = reader.readLine();
+            if (line == null) throw new TestException("Stream closed early");
+            if (line.isEmpty()) {
+                if (frame.indexOf("event:") != -1) return frame.toString();
+                frame.setLength(0);
+            }
+            else frame.append(line).append("\n");
+        }
+    }
 }